@@ -0,0 +1,16 @@
+package edu.rit.se.crashavoidance;
+
+/**
+ * Runs delayed tasks, e.g. on an Android Handler, for the classes driven by time. Tests use a
+ * fake that advances time on demand.
+ */
+public interface Timer {
+    void schedule(Runnable task, long delayMillis);
+
+    void cancel(Runnable task);
+
+    /**
+     * Returns a monotonic time in milliseconds
+     */
+    long now();
+}
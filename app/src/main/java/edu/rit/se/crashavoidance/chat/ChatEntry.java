@@ -0,0 +1,65 @@
+package edu.rit.se.crashavoidance.chat;
+
+import edu.rit.se.crashavoidance.network.MessageType;
+
+/**
+ * One entry in the chat: a text message or an image, sent or received
+ */
+public class ChatEntry {
+
+    public enum Direction {
+        INCOMING,
+        OUTGOING
+    }
+
+    public final long id;
+    public final Direction direction;
+    public final String author;
+    public final long timestamp;
+    public final MessageType payloadType;
+    public final String text;
+    // Id of the image for IMAGE entries, -1 otherwise
+    public final long attachmentId;
+
+    public ChatEntry(long id, Direction direction, String author, long timestamp,
+                     MessageType payloadType, String text, long attachmentId) {
+        this.id = id;
+        this.direction = direction;
+        this.author = author;
+        this.timestamp = timestamp;
+        this.payloadType = payloadType;
+        this.text = text;
+        this.attachmentId = attachmentId;
+    }
+
+    /**
+     * Creates an entry for a text message
+     */
+    public static ChatEntry text(long id, Direction direction, String author, String text) {
+        return new ChatEntry(id, direction, author, System.currentTimeMillis(), MessageType.TEXT, text, -1);
+    }
+
+    /**
+     * Creates an entry for an image
+     */
+    public static ChatEntry image(long id, Direction direction, String author, long attachmentId) {
+        return new ChatEntry(id, direction, author, System.currentTimeMillis(), MessageType.IMAGE, null, attachmentId);
+    }
+
+    /**
+     * Splits a text message sent as "author: text" into its author and text
+     * @return Author and text, the author is null if the message has none
+     */
+    public static String[] splitAuthor(String message) {
+        int separator = message.indexOf(": ");
+        if (separator <= 0) {
+            return new String[]{null, message};
+        }
+        return new String[]{message.substring(0, separator), message.substring(separator + 2)};
+    }
+
+    @Override
+    public String toString() {
+        return "ChatEntry " + id + " " + direction + " " + payloadType + " from " + author;
+    }
+}
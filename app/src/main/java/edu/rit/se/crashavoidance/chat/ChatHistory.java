@@ -0,0 +1,249 @@
+package edu.rit.se.crashavoidance.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The chat entries kept in memory, a window over the transcript. Appending past the window's
+ * capacity evicts the oldest entries, and paging older entries back in evicts the newest.
+ * Changes are reported to the Listener as ranges, so a RecyclerView can update only the rows
+ * that changed.
+ * Not thread safe, use from the main thread.
+ */
+public class ChatHistory {
+
+    public static final int DEFAULT_CAPACITY = 500;
+
+    public interface Listener {
+        void onEntriesInserted(int position, int count);
+
+        /**
+         * @param removed The removed entries, oldest first
+         */
+        void onEntriesRemoved(int position, List<ChatEntry> removed);
+
+        void onEntryChanged(int position);
+    }
+
+    private final AtomicLong nextId;
+    // Ring buffer, the oldest entry is at head
+    private ChatEntry[] entries;
+    private int head = 0;
+    private int size = 0;
+    private long evictedEntries = 0;
+    private Listener listener;
+
+    public ChatHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChatHistory(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param firstId Id of the first entry added, e.g. the number of entries already in the
+     *                transcript so ids continue from the previous session
+     */
+    public ChatHistory(int capacity, long firstId) {
+        nextId = new AtomicLong(firstId);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        entries = new ChatEntry[capacity];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a new entry id, ids increase in the order they are handed out. Safe to call from
+     * any thread.
+     */
+    public long nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Returns the id the next entry will get, without handing it out
+     */
+    public long getNextId() {
+        return nextId.get();
+    }
+
+    public void add(ChatEntry entry) {
+        addAll(Collections.singletonList(entry));
+    }
+
+    /**
+     * Appends entries, evicting the oldest entries if the window is full. A batch larger than
+     * the window is appended a window at a time, so the entries it evicts itself are reported
+     * as removed like any other.
+     * @param added Entries to append, oldest first
+     */
+    public void addAll(List<ChatEntry> added) {
+        int capacity = entries.length;
+        for (int start = 0; start < added.size(); start += capacity) {
+            append(added.subList(start, Math.min(start + capacity, added.size())));
+        }
+    }
+
+    /**
+     * @param added Entries to append, no more than the capacity
+     */
+    private void append(List<ChatEntry> added) {
+        int capacity = entries.length;
+        evictOldest(size + added.size() - capacity);
+
+        int position = size;
+        for (ChatEntry entry : added) {
+            entries[(head + size) % capacity] = entry;
+            size++;
+        }
+        if (listener != null) {
+            listener.onEntriesInserted(position, added.size());
+        }
+    }
+
+    /**
+     * Inserts older entries before the first entry, evicting the newest entries if the window
+     * is full
+     * @param older Entries to insert, oldest first
+     */
+    public void prependAll(List<ChatEntry> older) {
+        if (older.isEmpty()) {
+            return;
+        }
+        int capacity = entries.length;
+        int inserting = Math.min(older.size(), capacity);
+        evictNewest(size + inserting - capacity);
+
+        for (int i = older.size() - 1; i >= older.size() - inserting; i--) {
+            head = (head - 1 + capacity) % capacity;
+            entries[head] = older.get(i);
+            size++;
+        }
+        if (listener != null) {
+            listener.onEntriesInserted(0, inserting);
+        }
+    }
+
+    /**
+     * Replaces the entry with the same id, e.g. when its state changes
+     * @return false if the entry is no longer in the window
+     */
+    public boolean update(ChatEntry entry) {
+        int position = indexOf(entry.id);
+        if (position < 0) {
+            return false;
+        }
+        entries[(head + position) % entries.length] = entry;
+        if (listener != null) {
+            listener.onEntryChanged(position);
+        }
+        return true;
+    }
+
+    public ChatEntry get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        return entries[(head + position) % entries.length];
+    }
+
+    /**
+     * Finds an entry by id. Entries are added in id order, so this is a binary search.
+     * @return The entry's position, or -1 if it is not in the window
+     */
+    public int indexOf(long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = get(middle).id;
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Changes the window's capacity, evicting the oldest entries if it shrinks below the size
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        evictOldest(size - capacity);
+        ChatEntry[] resized = new ChatEntry[capacity];
+        for (int i = 0; i < size; i++) {
+            resized[i] = get(i);
+        }
+        entries = resized;
+        head = 0;
+    }
+
+    /**
+     * Returns the number of entries evicted from the window since it was created
+     */
+    public long getEvictedEntries() {
+        return evictedEntries;
+    }
+
+    /**
+     * Removes every entry from the window
+     */
+    public void clear() {
+        evictOldest(size);
+    }
+
+    private void evictOldest(int count) {
+        if (count <= 0) {
+            return;
+        }
+        List<ChatEntry> removed = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            removed.add(entries[head]);
+            entries[head] = null;
+            head = (head + 1) % entries.length;
+        }
+        size -= count;
+        evictedEntries += count;
+        if (listener != null) {
+            listener.onEntriesRemoved(0, removed);
+        }
+    }
+
+    private void evictNewest(int count) {
+        if (count <= 0) {
+            return;
+        }
+        List<ChatEntry> removed = new ArrayList<>(count);
+        for (int i = size - count; i < size; i++) {
+            int index = (head + i) % entries.length;
+            removed.add(entries[index]);
+            entries[index] = null;
+        }
+        size -= count;
+        evictedEntries += count;
+        if (listener != null) {
+            listener.onEntriesRemoved(size, removed);
+        }
+    }
+}
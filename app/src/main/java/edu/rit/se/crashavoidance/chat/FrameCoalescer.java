@@ -0,0 +1,96 @@
+package edu.rit.se.crashavoidance.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stages chat entries in a lock-free queue and hands them to the Listener once per display
+ * frame, so a burst of messages becomes a single ranged insert instead of one update each.
+ * Entries can be staged from any thread, drain is called on the UI thread.
+ */
+public class FrameCoalescer {
+
+    public interface FrameScheduler {
+        /**
+         * Arranges for drain to be called on the UI thread at the next frame
+         */
+        void scheduleFrame();
+    }
+
+    public interface Listener {
+        /**
+         * @param entries The entries staged since the last frame, in the order they were staged.
+         *                The list is reused after the call returns.
+         */
+        void onEntriesDrained(List<ChatEntry> entries);
+    }
+
+    private final ConcurrentLinkedQueue<ChatEntry> staged = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final FrameScheduler scheduler;
+    private final Listener listener;
+    private final AtomicLong stagedEntries = new AtomicLong();
+    private final AtomicLong drainedEntries = new AtomicLong();
+    private final AtomicLong drainedFrames = new AtomicLong();
+    // Reused by every drain, only touched on the UI thread
+    private final List<ChatEntry> drained = new ArrayList<>();
+
+    public FrameCoalescer(FrameScheduler scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues an entry for the next frame, scheduling the frame if none is pending
+     */
+    public void stage(ChatEntry entry) {
+        staged.offer(entry);
+        stagedEntries.incrementAndGet();
+        if (frameScheduled.compareAndSet(false, true)) {
+            scheduler.scheduleFrame();
+        }
+    }
+
+    /**
+     * Hands every staged entry to the Listener in one call
+     */
+    public void drain() {
+        // Cleared before polling, so an entry staged during the drain schedules another frame
+        frameScheduled.set(false);
+        ChatEntry entry;
+        while ((entry = staged.poll()) != null) {
+            drained.add(entry);
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+        drainedEntries.addAndGet(drained.size());
+        drainedFrames.incrementAndGet();
+        try {
+            listener.onEntriesDrained(drained);
+        } finally {
+            drained.clear();
+        }
+    }
+
+    public long getStagedEntries() {
+        return stagedEntries.get();
+    }
+
+    /**
+     * Returns the number of frames that delivered entries
+     */
+    public long getDrainedFrames() {
+        return drainedFrames.get();
+    }
+
+    /**
+     * Returns the number of UI updates saved by delivering several entries in one frame
+     */
+    public long getCoalescedUpdates() {
+        return drainedEntries.get() - drainedFrames.get();
+    }
+}
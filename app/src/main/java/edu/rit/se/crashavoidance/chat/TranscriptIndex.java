@@ -0,0 +1,147 @@
+package edu.rit.se.crashavoidance.chat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Inverted index from the words of text entries to their transcript positions.
+ * Only positions are kept, the entries themselves stay on disk.
+ * Not thread safe.
+ */
+public class TranscriptIndex {
+
+    private static final int MIN_WORD_LENGTH = 2;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int indexedEntries = 0;
+
+    /**
+     * Indexes the words of an entry. Entries must be added in position order.
+     */
+    public void add(int position, String text) {
+        indexedEntries = position + 1;
+        if (text == null) {
+            return;
+        }
+        for (String word : words(text)) {
+            Postings wordPostings = postings.get(word);
+            if (wordPostings == null) {
+                wordPostings = new Postings();
+                postings.put(word, wordPostings);
+            }
+            wordPostings.add(position);
+        }
+    }
+
+    /**
+     * Returns the number of transcript entries that have been indexed
+     */
+    public int getIndexedEntries() {
+        return indexedEntries;
+    }
+
+    public int getWordCount() {
+        return postings.size();
+    }
+
+    /**
+     * Finds the entries containing every word of the query
+     * @param limit Maximum number of positions to return
+     * @return Matching positions, newest first
+     */
+    public List<Integer> search(String query, int limit) {
+        List<Integer> results = new ArrayList<>();
+        List<String> words = words(query);
+        if (words.isEmpty()) {
+            return results;
+        }
+        // Walk the rarest word's postings and check the others by binary search
+        Postings rarest = null;
+        for (String word : words) {
+            Postings wordPostings = postings.get(word);
+            if (wordPostings == null) {
+                return results;
+            }
+            if (rarest == null || wordPostings.size < rarest.size) {
+                rarest = wordPostings;
+            }
+        }
+        for (int i = rarest.size - 1; i >= 0 && results.size() < limit; i--) {
+            int position = rarest.positions[i];
+            boolean matches = true;
+            for (String word : words) {
+                if (!postings.get(word).contains(position)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                results.add(position);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Splits text into distinct lower case words of letters and digits
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        String lowerCase = text.toLowerCase(Locale.US);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean wordCharacter = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (wordCharacter && start < 0) {
+                start = i;
+            } else if (!wordCharacter && start >= 0) {
+                if (i - start >= MIN_WORD_LENGTH) {
+                    String word = lowerCase.substring(start, i);
+                    if (!words.contains(word)) {
+                        words.add(word);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Ascending positions of the entries containing a word
+     */
+    private static class Postings {
+        int[] positions = new int[4];
+        int size = 0;
+
+        void add(int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(positions, 0, grown, 0, size);
+                positions = grown;
+            }
+            positions[size++] = position;
+        }
+
+        boolean contains(int position) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (positions[middle] < position) {
+                    low = middle + 1;
+                } else if (positions[middle] > position) {
+                    high = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
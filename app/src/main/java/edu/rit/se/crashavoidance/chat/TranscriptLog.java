@@ -0,0 +1,341 @@
+package edu.rit.se.crashavoidance.chat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import edu.rit.se.crashavoidance.network.MessageType;
+
+/**
+ * Append-only chat transcript on disk. Entries are written as compact records to segment
+ * files of about SEGMENT_BYTES each, and an in-memory offset index maps each entry's
+ * position to its record, so any page of the transcript can be read with one file read.
+ *
+ * Record: u32 body length | u32 CRC32 of body | body
+ * Body: id u64 | timestamp u64 | attachment id u64 | direction u8 | payload type u8 |
+ *       flags u8 | author length u16 | author UTF-8 | text UTF-8
+ *
+ * A record left incomplete by a crash is cut off when the transcript is opened.
+ * Methods are synchronized so the log can be used from a background thread.
+ */
+public class TranscriptLog {
+
+    public static final int SEGMENT_BYTES = 1024 * 1024;
+    static final int RECORD_HEADER_LENGTH = 8;
+    private static final int BODY_FIXED_LENGTH = 8 + 8 + 8 + 1 + 1 + 1 + 2;
+    private static final int MAX_RECORD_LENGTH = SEGMENT_BYTES;
+    private static final int FLAG_AUTHOR = 0x01;
+    private static final int FLAG_TEXT = 0x02;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final List<Segment> segments = new ArrayList<>();
+    private RandomAccessFile appendFile;
+    private int size = 0;
+    private final TranscriptIndex index = new TranscriptIndex();
+
+    private TranscriptLog(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the transcript in a directory, creating it if needed, and builds the offset index
+     */
+    public static TranscriptLog open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        TranscriptLog log = new TranscriptLog(directory);
+        File[] files = directory.listFiles();
+        List<Integer> firstPositions = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        firstPositions.add(Integer.parseInt(
+                                name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+        Collections.sort(firstPositions);
+        for (int firstPosition : firstPositions) {
+            if (firstPosition != log.size) {
+                // Segments after a gap can't be positioned, stop at the gap
+                break;
+            }
+            Segment segment = new Segment(log.segmentFile(firstPosition), firstPosition);
+            segment.scan();
+            log.segments.add(segment);
+            log.size += segment.count;
+        }
+        return log;
+    }
+
+    /**
+     * Appends an entry to the end of the transcript
+     * @return The entry's position in the transcript
+     */
+    public synchronized int append(ChatEntry entry) throws IOException {
+        byte[] record = encode(entry);
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.length + record.length > SEGMENT_BYTES && segment.count > 0) {
+            segment = new Segment(segmentFile(size), size);
+            segments.add(segment);
+            closeAppendFile();
+        }
+        if (appendFile == null) {
+            appendFile = new RandomAccessFile(segment.file, "rw");
+        }
+        appendFile.seek(segment.length);
+        appendFile.write(record);
+        segment.addRecord(record.length);
+        return size++;
+    }
+
+    /**
+     * Reads a single entry
+     */
+    public synchronized ChatEntry read(int position) throws IOException {
+        List<ChatEntry> entries = read(position, 1);
+        return entries.get(0);
+    }
+
+    /**
+     * Reads a page of consecutive entries, with one file read per segment the page touches
+     * @param from Position of the first entry
+     * @param count Maximum number of entries, fewer are returned at the end of the transcript
+     */
+    public synchronized List<ChatEntry> read(int from, int count) throws IOException {
+        if (from < 0 || from > size) {
+            throw new IndexOutOfBoundsException("Position " + from + ", size " + size);
+        }
+        int end = Math.min(size, from + count);
+        List<ChatEntry> entries = new ArrayList<>(end - from);
+        int position = from;
+        while (position < end) {
+            Segment segment = segmentFor(position);
+            int first = position - segment.firstPosition;
+            int last = Math.min(end - segment.firstPosition, segment.count);
+            long start = segment.offsets[first];
+            long stop = last < segment.count ? segment.offsets[last] : segment.length;
+            byte[] bytes = new byte[(int) (stop - start)];
+            RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+            try {
+                file.seek(start);
+                file.readFully(bytes);
+            } finally {
+                file.close();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int i = first; i < last; i++) {
+                entries.add(decode(buffer));
+            }
+            position = segment.firstPosition + last;
+        }
+        return entries;
+    }
+
+    /**
+     * Finds text entries containing every word of a query. Entries appended since the last
+     * search are indexed first, so the index is only built when it is used.
+     * @param limit Maximum number of entries to return
+     * @return Matching entries, newest first
+     */
+    public synchronized List<ChatEntry> search(String query, int limit) throws IOException {
+        updateIndex();
+        List<ChatEntry> results = new ArrayList<>();
+        for (int position : index.search(query, limit)) {
+            results.add(read(position));
+        }
+        return results;
+    }
+
+    private void updateIndex() throws IOException {
+        int page = 256;
+        for (int position = index.getIndexedEntries(); position < size; position += page) {
+            List<ChatEntry> entries = read(position, page);
+            for (int i = 0; i < entries.size(); i++) {
+                index.add(position + i, entries.get(i).text);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the transcript
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized void close() throws IOException {
+        closeAppendFile();
+    }
+
+    private void closeAppendFile() throws IOException {
+        if (appendFile != null) {
+            appendFile.close();
+            appendFile = null;
+        }
+    }
+
+    private Segment segmentFor(int position) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).firstPosition <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    private File segmentFile(int firstPosition) {
+        return new File(directory, SEGMENT_PREFIX + firstPosition + SEGMENT_SUFFIX);
+    }
+
+    static byte[] encode(ChatEntry entry) throws IOException {
+        byte[] author = entry.author != null ? entry.author.getBytes("UTF-8") : new byte[0];
+        byte[] text = entry.text != null ? entry.text.getBytes("UTF-8") : new byte[0];
+        if (author.length > 0xFFFF) {
+            throw new IOException("Author too long: " + author.length + " bytes");
+        }
+        int bodyLength = BODY_FIXED_LENGTH + author.length + text.length;
+        if (RECORD_HEADER_LENGTH + bodyLength > MAX_RECORD_LENGTH) {
+            throw new IOException("Entry too long: " + bodyLength + " bytes");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_LENGTH + bodyLength);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeLong(0); // Header, filled in below
+        body.writeLong(entry.id);
+        body.writeLong(entry.timestamp);
+        body.writeLong(entry.attachmentId);
+        body.writeByte(entry.direction.ordinal());
+        body.writeByte(entry.payloadType.code);
+        body.writeByte((entry.author != null ? FLAG_AUTHOR : 0) | (entry.text != null ? FLAG_TEXT : 0));
+        body.writeShort(author.length);
+        body.write(author);
+        body.write(text);
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_LENGTH, bodyLength);
+        ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(bodyLength);
+        header.putInt((int) crc.getValue());
+        return record;
+    }
+
+    static ChatEntry decode(ByteBuffer buffer) throws IOException {
+        int bodyLength = buffer.getInt();
+        buffer.getInt(); // CRC, checked when the segment is opened
+        int bodyEnd = buffer.position() + bodyLength;
+        long id = buffer.getLong();
+        long timestamp = buffer.getLong();
+        long attachmentId = buffer.getLong();
+        int direction = buffer.get() & 0xFF;
+        MessageType payloadType = MessageType.fromCode(buffer.get());
+        int flags = buffer.get() & 0xFF;
+        int authorLength = buffer.getShort() & 0xFFFF;
+        if (direction >= ChatEntry.Direction.values().length || payloadType == null) {
+            throw new IOException("Corrupt transcript record " + id);
+        }
+        String author = (flags & FLAG_AUTHOR) != 0
+                ? new String(buffer.array(), buffer.position(), authorLength, "UTF-8") : null;
+        buffer.position(buffer.position() + authorLength);
+        String text = (flags & FLAG_TEXT) != 0
+                ? new String(buffer.array(), buffer.position(), bodyEnd - buffer.position(), "UTF-8") : null;
+        buffer.position(bodyEnd);
+        return new ChatEntry(id, ChatEntry.Direction.values()[direction], author, timestamp,
+                payloadType, text, attachmentId);
+    }
+
+    /**
+     * A segment file and the offsets of its records
+     */
+    private static class Segment {
+        final File file;
+        final int firstPosition;
+        long[] offsets = new long[64];
+        int count = 0;
+        long length = 0;
+
+        Segment(File file, int firstPosition) {
+            this.file = file;
+            this.firstPosition = firstPosition;
+        }
+
+        void addRecord(int recordLength) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = length;
+            length += recordLength;
+        }
+
+        /**
+         * Builds the offset index by reading the segment once, and cuts off a torn or
+         * corrupt record at its end
+         */
+        void scan() throws IOException {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long fileLength = file.length();
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[256];
+            try {
+                while (length + RECORD_HEADER_LENGTH <= fileLength) {
+                    int bodyLength = input.readInt();
+                    int expectedCrc = input.readInt();
+                    if (bodyLength < BODY_FIXED_LENGTH || bodyLength > MAX_RECORD_LENGTH
+                            || length + RECORD_HEADER_LENGTH + bodyLength > fileLength) {
+                        break;
+                    }
+                    if (body.length < bodyLength) {
+                        body = new byte[Math.max(bodyLength, body.length * 2)];
+                    }
+                    input.readFully(body, 0, bodyLength);
+                    crc.reset();
+                    crc.update(body, 0, bodyLength);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        break;
+                    }
+                    addRecord(RECORD_HEADER_LENGTH + bodyLength);
+                }
+            } catch (EOFException e) {
+                // Torn record at the end
+            } finally {
+                input.close();
+            }
+            if (length < fileLength) {
+                RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+                try {
+                    truncate.setLength(length);
+                } finally {
+                    truncate.close();
+                }
+            }
+        }
+    }
+}
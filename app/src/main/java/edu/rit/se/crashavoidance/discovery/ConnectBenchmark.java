@@ -0,0 +1,403 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import edu.rit.se.crashavoidance.Timer;
+import edu.rit.se.crashavoidance.metrics.Histogram;
+
+/**
+ * Measures how long it takes until two devices can talk, by repeating a scripted cycle:
+ * reset discovery, wait for the target service, connect to it, wait until the connection is
+ * up, exchange a probe with it, and disconnect. Each phase is timed into a histogram.
+ * A phase that does not finish within the phase timeout fails the cycle, after which the
+ * connection, if any, is torn down and the next cycle starts.
+ * The benchmark only drives a Driver and is fed the resulting events, so it runs against
+ * WifiDirectHandler in the app and against a fake in tests.
+ * Not thread safe, use from the thread of the Timer.
+ */
+public class ConnectBenchmark {
+
+    public static final long DEFAULT_PHASE_TIMEOUT_MILLIS = 60000;
+    public static final long DEFAULT_SETTLE_MILLIS = 2000;
+
+    /**
+     * Performs the steps of a cycle, e.g. through WifiDirectHandler
+     */
+    public interface Driver {
+        void resetDiscovery();
+
+        /**
+         * @param serviceKey Key of the service found, as passed to onServiceFound
+         */
+        void connect(String serviceKey);
+
+        /**
+         * Sends a probe over the connection, answered through onProbeAnswered or onProbeFailed
+         */
+        void sendProbe();
+
+        void disconnect();
+    }
+
+    public interface Listener {
+        void onPhaseStarted(int cycle, Phase phase);
+
+        void onRunFinished(Report report);
+    }
+
+    public enum Phase {
+        DISCOVER, CONNECT, PROBE, DISCONNECT
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final Driver driver;
+    private final Timer timer;
+    private final int cycles;
+    private final long phaseTimeoutMillis;
+    private final long settleMillis;
+    private Listener listener;
+    private Report report;
+    private String targetAddress;
+    private boolean running;
+    private int cycle;
+    // Null between cycles
+    private Phase phase;
+    private long cycleStartedAt;
+    private long phaseStartedAt;
+    private long[] phaseMillis;
+    private Phase failedPhase;
+    // Whether the connection of the current cycle came up, so its teardown can be timed
+    private boolean connected;
+
+    /**
+     * @param cycles Number of cycles to run
+     * @param targetAddress Address of the device to connect to, or null for the first one found
+     * @param phaseTimeoutMillis How long each phase may take
+     * @param settleMillis Pause after each cycle, for the devices to notice the disconnect
+     */
+    public ConnectBenchmark(Driver driver, Timer timer, int cycles, String targetAddress,
+                            long phaseTimeoutMillis, long settleMillis) {
+        if (cycles <= 0) {
+            throw new IllegalArgumentException("Cycles must be positive: " + cycles);
+        }
+        this.driver = driver;
+        this.timer = timer;
+        this.cycles = cycles;
+        this.targetAddress = targetAddress;
+        this.phaseTimeoutMillis = phaseTimeoutMillis;
+        this.settleMillis = settleMillis;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (report != null) {
+            throw new IllegalStateException("Benchmark already started");
+        }
+        report = new Report(cycles);
+        running = true;
+        cycle = 0;
+        startCycle();
+    }
+
+    /**
+     * Stops the run, tearing down the connection if one is up, and reports the cycles finished
+     */
+    public void cancel() {
+        if (!isRunning()) {
+            return;
+        }
+        timer.cancel(phaseTimeout);
+        timer.cancel(cycleStarter);
+        if (phase == Phase.CONNECT || phase == Phase.PROBE || phase == Phase.DISCONNECT) {
+            // A connection being set up may still come up
+            driver.disconnect();
+        }
+        finishRun();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the cycle in progress, starting at 1
+     */
+    public int getCycle() {
+        return cycle;
+    }
+
+    /**
+     * Returns the phase in progress, or null between cycles
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Returns the address of the device connected to, or null until one is found
+     */
+    public String getTargetAddress() {
+        return targetAddress;
+    }
+
+    public Report getReport() {
+        return report;
+    }
+
+    /**
+     * A service was found
+     * @param address Address of the device offering it
+     * @param serviceKey Key passed to Driver.connect
+     */
+    public void onServiceFound(String address, String serviceKey) {
+        if (phase != Phase.DISCOVER || (targetAddress != null && !targetAddress.equals(address))) {
+            return;
+        }
+        targetAddress = address;
+        endPhase();
+        startPhase(Phase.CONNECT);
+        driver.connect(serviceKey);
+    }
+
+    /**
+     * The connection to the target came up
+     */
+    public void onServiceConnected() {
+        if (phase != Phase.CONNECT) {
+            return;
+        }
+        connected = true;
+        endPhase();
+        startPhase(Phase.PROBE);
+        driver.sendProbe();
+    }
+
+    public void onProbeAnswered() {
+        if (phase != Phase.PROBE) {
+            return;
+        }
+        endPhase();
+        report.timeToTalk.record(timer.now() - cycleStartedAt);
+        startPhase(Phase.DISCONNECT);
+        driver.disconnect();
+    }
+
+    public void onProbeFailed() {
+        if (phase == Phase.PROBE) {
+            failPhase();
+        }
+    }
+
+    /**
+     * The connection to the target is down
+     */
+    public void onDisconnected() {
+        if (phase != Phase.DISCONNECT) {
+            return;
+        }
+        endPhase();
+        endCycle();
+    }
+
+    private void startCycle() {
+        cycle++;
+        phaseMillis = new long[PHASES.length];
+        Arrays.fill(phaseMillis, -1);
+        failedPhase = null;
+        connected = false;
+        cycleStartedAt = timer.now();
+        startPhase(Phase.DISCOVER);
+        driver.resetDiscovery();
+    }
+
+    private void startPhase(Phase phase) {
+        this.phase = phase;
+        phaseStartedAt = timer.now();
+        timer.schedule(phaseTimeout, phaseTimeoutMillis);
+        if (listener != null) {
+            listener.onPhaseStarted(cycle, phase);
+        }
+    }
+
+    private void endPhase() {
+        timer.cancel(phaseTimeout);
+        long elapsed = timer.now() - phaseStartedAt;
+        phaseMillis[phase.ordinal()] = elapsed;
+        if (phase != Phase.DISCONNECT || connected) {
+            // Cancelling a connect that never came up is not a teardown
+            report.phases[phase.ordinal()].record(elapsed);
+        }
+    }
+
+    /**
+     * Fails the cycle in the current phase, and disconnects if the connection may be up
+     */
+    private void failPhase() {
+        timer.cancel(phaseTimeout);
+        if (failedPhase == null) {
+            failedPhase = phase;
+        }
+        if (phase == Phase.CONNECT || phase == Phase.PROBE) {
+            startPhase(Phase.DISCONNECT);
+            driver.disconnect();
+        } else {
+            endCycle();
+        }
+    }
+
+    private void endCycle() {
+        report.addCycle(phaseMillis, failedPhase);
+        if (cycle == cycles) {
+            finishRun();
+        } else {
+            phase = null;
+            timer.schedule(cycleStarter, settleMillis);
+        }
+    }
+
+    private void finishRun() {
+        running = false;
+        phase = null;
+        if (listener != null) {
+            listener.onRunFinished(report);
+        }
+    }
+
+    private final Runnable phaseTimeout = new Runnable() {
+        @Override
+        public void run() {
+            failPhase();
+        }
+    };
+
+    private final Runnable cycleStarter = new Runnable() {
+        @Override
+        public void run() {
+            startCycle();
+        }
+    };
+
+    /**
+     * Phase timings of a run, in milliseconds
+     */
+    public static class Report {
+
+        private final int plannedCycles;
+        private final Histogram[] phases = new Histogram[PHASES.length];
+        private final Histogram timeToTalk = new Histogram("ms");
+        private final List<long[]> cycleTimings = new ArrayList<>();
+        private final List<Phase> cycleFailures = new ArrayList<>();
+
+        Report(int plannedCycles) {
+            this.plannedCycles = plannedCycles;
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new Histogram("ms");
+            }
+        }
+
+        void addCycle(long[] phaseMillis, Phase failedPhase) {
+            cycleTimings.add(phaseMillis);
+            cycleFailures.add(failedPhase);
+        }
+
+        public Histogram getPhase(Phase phase) {
+            return phases[phase.ordinal()];
+        }
+
+        /**
+         * Returns the time from starting discovery to the probe being answered
+         */
+        public Histogram getTimeToTalk() {
+            return timeToTalk;
+        }
+
+        public int getCycles() {
+            return cycleTimings.size();
+        }
+
+        public int getFailedCycles() {
+            int failed = 0;
+            for (Phase failure : cycleFailures) {
+                if (failure != null) {
+                    failed++;
+                }
+            }
+            return failed;
+        }
+
+        /**
+         * Returns the phase a cycle failed in, or null if it succeeded
+         * @param cycle Cycle, starting at 0
+         */
+        public Phase getFailedPhase(int cycle) {
+            return cycleFailures.get(cycle);
+        }
+
+        /**
+         * Writes one row per cycle: cycle, the time of each phase and the time to talk in
+         * milliseconds, empty where the phase was not reached, and the phase the cycle failed in
+         */
+        public void writeCsv(Writer writer) throws IOException {
+            StringBuilder line = new StringBuilder("cycle");
+            for (Phase phase : PHASES) {
+                line.append(',').append(phase.name().toLowerCase(Locale.US)).append("_ms");
+            }
+            line.append(",time_to_talk_ms,failed_phase\n");
+            writer.write(line.toString());
+            for (int i = 0; i < cycleTimings.size(); i++) {
+                long[] timings = cycleTimings.get(i);
+                line.setLength(0);
+                line.append(i + 1);
+                for (long millis : timings) {
+                    line.append(',');
+                    if (millis >= 0) {
+                        line.append(millis);
+                    }
+                }
+                line.append(',');
+                if (timings[Phase.PROBE.ordinal()] >= 0) {
+                    line.append(timings[Phase.DISCOVER.ordinal()] + timings[Phase.CONNECT.ordinal()]
+                            + timings[Phase.PROBE.ordinal()]);
+                }
+                line.append(',');
+                Phase failure = cycleFailures.get(i);
+                if (failure != null) {
+                    line.append(failure.name().toLowerCase(Locale.US));
+                }
+                line.append('\n');
+                writer.write(line.toString());
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(getCycles()).append(" of ").append(plannedCycles).append(" cycles, ")
+                    .append(getFailedCycles()).append(" failed\n");
+            for (Phase phase : PHASES) {
+                appendHistogram(builder, phase.name().toLowerCase(Locale.US), phases[phase.ordinal()]);
+            }
+            appendHistogram(builder, "time to talk", timeToTalk);
+            return builder.toString();
+        }
+
+        private static void appendHistogram(StringBuilder builder, String name, Histogram histogram) {
+            builder.append(name).append(": n=").append(histogram.getCount());
+            if (histogram.getCount() > 0) {
+                builder.append(" p50=").append(histogram.getPercentile(50))
+                        .append(" p90=").append(histogram.getPercentile(90))
+                        .append(" max=").append(histogram.getMax()).append(" ms");
+            }
+            builder.append('\n');
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package edu.rit.se.crashavoidance.discovery;
+
+/**
+ * Controls how DiscoveryScheduler duty-cycles the radio. Discovery runs for an active window,
+ * then rests for an idle window that grows by the backoff factor after every window in which
+ * no new peers or services appeared, up to the maximum idle window.
+ */
+public class DiscoveryPolicy {
+
+    /** Discovers all the time, as WifiDirectHandler does on its own */
+    public static final DiscoveryPolicy CONTINUOUS = new DiscoveryPolicy("continuous", 0, 0, 0, 1);
+    public static final DiscoveryPolicy BALANCED = new DiscoveryPolicy("balanced", 15000, 5000, 60000, 2);
+    /** For long-running units that rarely meet new devices */
+    public static final DiscoveryPolicy SAVER = new DiscoveryPolicy("saver", 5000, 15000, 300000, 2);
+
+    public static final DiscoveryPolicy[] POLICIES = {CONTINUOUS, BALANCED, SAVER};
+
+    /** Short name, used in metric names */
+    public final String name;
+    /** How long discovery runs per window in milliseconds, 0 to never stop */
+    public final long activeMillis;
+    /** First idle window in milliseconds */
+    public final long idleMillis;
+    /** Longest idle window in milliseconds */
+    public final long maxIdleMillis;
+    /** What the idle window is multiplied by after an unproductive active window */
+    public final double backoffFactor;
+
+    public DiscoveryPolicy(String name, long activeMillis, long idleMillis, long maxIdleMillis, double backoffFactor) {
+        if (activeMillis < 0 || idleMillis < 0 || maxIdleMillis < idleMillis || backoffFactor < 1) {
+            throw new IllegalArgumentException("Invalid discovery policy " + activeMillis + " ms active, "
+                    + idleMillis + "-" + maxIdleMillis + " ms idle, backoff " + backoffFactor);
+        }
+        this.name = name;
+        this.activeMillis = activeMillis;
+        this.idleMillis = idleMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.backoffFactor = backoffFactor;
+    }
+
+    public boolean isContinuous() {
+        return activeMillis == 0;
+    }
+
+    /**
+     * Returns the idle window that follows an unproductive active window
+     */
+    long nextIdleMillis(long idleMillis) {
+        return Math.min(maxIdleMillis, (long) (idleMillis * backoffFactor));
+    }
+
+    @Override
+    public String toString() {
+        return isContinuous()
+                ? name
+                : name + ": " + activeMillis + " ms on, " + idleMillis + "-" + maxIdleMillis + " ms off";
+    }
+}
@@ -0,0 +1,263 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import edu.rit.se.crashavoidance.Timer;
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.event.PeersChangedEvent;
+import edu.rit.se.crashavoidance.event.ServiceFoundEvent;
+import edu.rit.se.crashavoidance.event.Subscriber;
+import edu.rit.se.crashavoidance.metrics.LatencyProbe;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+
+/**
+ * Duty-cycles service discovery according to a DiscoveryPolicy. Sits between DiscoverySession
+ * and the radio: while the session wants discovery, the radio alternates between active and
+ * idle windows, backing off while nothing new appears and scanning again at once when the
+ * peer set changes. Discovery is paused while bulk transfers need the airtime.
+ * The time from each start or reset to the first service found is recorded per policy, as
+ * "discovery.first_result.<policy name>".
+ * Not thread safe, use from the thread of the Timer and Executor, e.g. the UI thread.
+ */
+public class DiscoveryScheduler implements DiscoverySession.Discoverer {
+
+    public enum State {
+        STOPPED, ACTIVE, IDLE, PAUSED
+    }
+
+    private final DiscoverySession.Discoverer radio;
+    private final Timer timer;
+    private final EventBus eventBus;
+    private final Executor executor;
+    private final MetricsRegistry metrics;
+    private DiscoveryPolicy policy;
+    private LatencyProbe firstResultProbe;
+    private State state = State.STOPPED;
+    private long currentIdleMillis;
+    // Whether new peers or services appeared in the current active window
+    private boolean windowProductive;
+    private int transfersInProgress = 0;
+    private Set<String> knownPeers = new HashSet<>();
+    private EventBus.Subscription serviceFoundSubscription;
+    private EventBus.Subscription peersChangedSubscription;
+    private long activeSince;
+    private long activeMillis = 0;
+    private long startedAt;
+    private long activeWindows = 0;
+    private long fastScans = 0;
+
+    /**
+     * @param radio Starts and stops the radio's discovery, e.g. through WifiDirectHandler
+     * @param executor Executor discovery events are received on, the thread of the Timer
+     */
+    public DiscoveryScheduler(DiscoverySession.Discoverer radio, Timer timer, EventBus eventBus,
+                              Executor executor, MetricsRegistry metrics, DiscoveryPolicy policy) {
+        this.radio = radio;
+        this.timer = timer;
+        this.eventBus = eventBus;
+        this.executor = executor;
+        this.metrics = metrics;
+        setPolicy(policy);
+    }
+
+    /**
+     * Switches policy, starting over with a fresh active window if discovery is running
+     */
+    public void setPolicy(DiscoveryPolicy policy) {
+        this.policy = policy;
+        firstResultProbe = metrics.probe("discovery.first_result." + policy.name);
+        currentIdleMillis = policy.idleMillis;
+        if (state != State.STOPPED) {
+            firstResultProbe.start();
+            if (state != State.PAUSED) {
+                endWindow();
+                beginActiveWindow();
+            }
+        }
+    }
+
+    public DiscoveryPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void startDiscovery() {
+        if (state != State.STOPPED) {
+            return;
+        }
+        serviceFoundSubscription = eventBus.subscribe(ServiceFoundEvent.class, executor, new Subscriber<ServiceFoundEvent>() {
+            @Override
+            public void onEvent(ServiceFoundEvent event) {
+                onServiceFound();
+            }
+        });
+        peersChangedSubscription = eventBus.subscribe(PeersChangedEvent.class, executor, new Subscriber<PeersChangedEvent>() {
+            @Override
+            public void onEvent(PeersChangedEvent event) {
+                onPeersChanged(event.peerStatuses.keySet());
+            }
+        });
+        startedAt = timer.now();
+        activeMillis = 0;
+        currentIdleMillis = policy.idleMillis;
+        firstResultProbe.start();
+        if (transfersInProgress > 0) {
+            state = State.PAUSED;
+        } else {
+            beginActiveWindow();
+        }
+    }
+
+    @Override
+    public void stopDiscovery() {
+        if (state == State.STOPPED) {
+            return;
+        }
+        serviceFoundSubscription.unsubscribe();
+        peersChangedSubscription.unsubscribe();
+        endWindow();
+        state = State.STOPPED;
+        firstResultProbe.cancel();
+    }
+
+    @Override
+    public void resetDiscovery() {
+        if (state == State.STOPPED) {
+            return;
+        }
+        currentIdleMillis = policy.idleMillis;
+        firstResultProbe.start();
+        if (state == State.ACTIVE) {
+            radio.resetDiscovery();
+        } else if (state == State.IDLE) {
+            timer.cancel(activeWindowStarter);
+            beginActiveWindow();
+        }
+    }
+
+    /**
+     * Stops discovery until every transfer that called this has called resumeAfterTransfer
+     */
+    public void pauseForTransfer() {
+        transfersInProgress++;
+        if (transfersInProgress == 1 && (state == State.ACTIVE || state == State.IDLE)) {
+            endWindow();
+            state = State.PAUSED;
+        }
+    }
+
+    public void resumeAfterTransfer() {
+        if (transfersInProgress == 0) {
+            return;
+        }
+        transfersInProgress--;
+        if (transfersInProgress == 0 && state == State.PAUSED) {
+            beginActiveWindow();
+        }
+    }
+
+    private void onServiceFound() {
+        windowProductive = true;
+        firstResultProbe.stop();
+    }
+
+    /**
+     * Scans again at once when peers arrive or leave, and resets the backoff
+     */
+    private void onPeersChanged(Set<String> peers) {
+        if (peers.equals(knownPeers)) {
+            return;
+        }
+        knownPeers = new HashSet<>(peers);
+        windowProductive = true;
+        currentIdleMillis = policy.idleMillis;
+        if (state == State.IDLE) {
+            fastScans++;
+            timer.cancel(activeWindowStarter);
+            beginActiveWindow();
+        }
+    }
+
+    private void beginActiveWindow() {
+        state = State.ACTIVE;
+        windowProductive = false;
+        activeWindows++;
+        activeSince = timer.now();
+        radio.startDiscovery();
+        if (!policy.isContinuous()) {
+            timer.schedule(activeWindowEnder, policy.activeMillis);
+        }
+    }
+
+    /**
+     * Cancels the pending window change, and turns the radio off if it is on
+     */
+    private void endWindow() {
+        timer.cancel(activeWindowEnder);
+        timer.cancel(activeWindowStarter);
+        if (state == State.ACTIVE) {
+            activeMillis += timer.now() - activeSince;
+            radio.stopDiscovery();
+        }
+    }
+
+    private final Runnable activeWindowEnder = new Runnable() {
+        @Override
+        public void run() {
+            endWindow();
+            state = State.IDLE;
+            if (windowProductive) {
+                currentIdleMillis = policy.idleMillis;
+            }
+            timer.schedule(activeWindowStarter, currentIdleMillis);
+            if (!windowProductive) {
+                currentIdleMillis = policy.nextIdleMillis(currentIdleMillis);
+            }
+        }
+    };
+
+    private final Runnable activeWindowStarter = new Runnable() {
+        @Override
+        public void run() {
+            beginActiveWindow();
+        }
+    };
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the idle window that follows the next unproductive active window
+     */
+    public long getCurrentIdleMillis() {
+        return currentIdleMillis;
+    }
+
+    public long getActiveWindows() {
+        return activeWindows;
+    }
+
+    /**
+     * Returns the number of idle windows cut short by a peer change
+     */
+    public long getFastScans() {
+        return fastScans;
+    }
+
+    /**
+     * Returns the share of the time since discovery last started that the radio was
+     * discovering, in percent
+     */
+    public double getDutyCyclePercent() {
+        if (state == State.STOPPED) {
+            return 0;
+        }
+        long now = timer.now();
+        long active = activeMillis + (state == State.ACTIVE ? now - activeSince : 0);
+        long elapsed = now - startedAt;
+        return elapsed > 0 ? 100.0 * active / elapsed : 100;
+    }
+}
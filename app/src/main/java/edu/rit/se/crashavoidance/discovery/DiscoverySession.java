@@ -0,0 +1,209 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.event.PeersChangedEvent;
+import edu.rit.se.crashavoidance.event.ServiceFoundEvent;
+import edu.rit.se.crashavoidance.event.Subscriber;
+
+/**
+ * The one owner of service discovery. UI components subscribe to it instead of starting
+ * discovery and registering for its events themselves: discovery is started for the first
+ * subscriber and stopped when the last one unsubscribes, and while it runs the session holds
+ * a single EventBus subscription per event type and passes each event to every listener once,
+ * however many times the listener subscribed.
+ * Not thread safe, use from the thread of the Executor it is created with.
+ */
+public class DiscoverySession {
+
+    /**
+     * Starts and stops the radio's service discovery, e.g. through WifiDirectHandler
+     */
+    public interface Discoverer {
+        void startDiscovery();
+
+        void stopDiscovery();
+
+        /**
+         * Forgets the services found so far and discovers again
+         */
+        void resetDiscovery();
+    }
+
+    public interface Listener {
+        /**
+         * @param serviceKey Key of the service in WifiDirectHandler's service map
+         */
+        void onServiceFound(String serviceKey);
+
+        /**
+         * @param peerStatuses Status of each current peer by device address
+         */
+        void onPeersChanged(Map<String, Integer> peerStatuses);
+    }
+
+    /**
+     * Returned by subscribe, releases its reference to the session when unsubscribed
+     */
+    public class Subscription {
+        private final Listener listener;
+        private boolean active = true;
+
+        private Subscription(Listener listener) {
+            this.listener = listener;
+        }
+
+        public void unsubscribe() {
+            if (active) {
+                active = false;
+                release(listener);
+            }
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    private final EventBus eventBus;
+    private final Executor executor;
+    private final Discoverer discoverer;
+    // Number of active subscriptions of each listener, in the order they first subscribed
+    private final Map<Listener, Integer> references = new LinkedHashMap<>();
+    private final List<Listener> dispatchList = new ArrayList<>();
+    private int referenceCount = 0;
+    private EventBus.Subscription serviceFoundSubscription;
+    private EventBus.Subscription peersChangedSubscription;
+    private long sessionsStarted = 0;
+    private long duplicateStartsAvoided = 0;
+    private long duplicateEventsAvoided = 0;
+
+    /**
+     * @param executor Executor events are received and passed to listeners on, e.g. the UI thread
+     */
+    public DiscoverySession(EventBus eventBus, Executor executor, Discoverer discoverer) {
+        this.eventBus = eventBus;
+        this.executor = executor;
+        this.discoverer = discoverer;
+    }
+
+    /**
+     * Passes discovery events to a listener until the returned Subscription is unsubscribed,
+     * starting discovery if nobody was subscribed
+     */
+    public Subscription subscribe(Listener listener) {
+        Integer count = references.get(listener);
+        references.put(listener, count == null ? 1 : count + 1);
+        referenceCount++;
+        if (referenceCount == 1) {
+            start();
+        } else {
+            duplicateStartsAvoided++;
+        }
+        return new Subscription(listener);
+    }
+
+    private void release(Listener listener) {
+        int count = references.get(listener);
+        if (count == 1) {
+            references.remove(listener);
+        } else {
+            references.put(listener, count - 1);
+        }
+        referenceCount--;
+        if (referenceCount == 0) {
+            stop();
+        }
+    }
+
+    private void start() {
+        sessionsStarted++;
+        serviceFoundSubscription = eventBus.subscribe(ServiceFoundEvent.class, executor, new Subscriber<ServiceFoundEvent>() {
+            @Override
+            public void onEvent(ServiceFoundEvent event) {
+                for (Listener listener : listenersForDispatch()) {
+                    if (references.containsKey(listener)) {
+                        listener.onServiceFound(event.serviceKey);
+                    }
+                }
+            }
+        });
+        peersChangedSubscription = eventBus.subscribe(PeersChangedEvent.class, executor, new Subscriber<PeersChangedEvent>() {
+            @Override
+            public void onEvent(PeersChangedEvent event) {
+                for (Listener listener : listenersForDispatch()) {
+                    if (references.containsKey(listener)) {
+                        listener.onPeersChanged(event.peerStatuses);
+                    }
+                }
+            }
+        });
+        discoverer.startDiscovery();
+    }
+
+    private void stop() {
+        serviceFoundSubscription.unsubscribe();
+        peersChangedSubscription.unsubscribe();
+        serviceFoundSubscription = null;
+        peersChangedSubscription = null;
+        discoverer.stopDiscovery();
+    }
+
+    /**
+     * Returns each listener once, copied so listeners can unsubscribe while being called, and
+     * counts the deliveries that repeated subscriptions would have caused
+     */
+    private List<Listener> listenersForDispatch() {
+        dispatchList.clear();
+        dispatchList.addAll(references.keySet());
+        duplicateEventsAvoided += referenceCount - dispatchList.size();
+        return dispatchList;
+    }
+
+    /**
+     * Forgets the services found so far and discovers again, if anybody is subscribed
+     */
+    public void reset() {
+        if (referenceCount > 0) {
+            discoverer.resetDiscovery();
+        }
+    }
+
+    public boolean isDiscovering() {
+        return referenceCount > 0;
+    }
+
+    /**
+     * Returns the number of distinct listeners subscribed
+     */
+    public int getActiveSubscribers() {
+        return references.size();
+    }
+
+    /**
+     * Returns the number of times discovery was started
+     */
+    public long getSessionsStarted() {
+        return sessionsStarted;
+    }
+
+    /**
+     * Returns the number of subscriptions that found discovery already running
+     */
+    public long getDuplicateStartsAvoided() {
+        return duplicateStartsAvoided;
+    }
+
+    /**
+     * Returns the number of event deliveries saved by passing each event to a listener once
+     * however many times it subscribed
+     */
+    public long getDuplicateEventsAvoided() {
+        return duplicateEventsAvoided;
+    }
+}
@@ -0,0 +1,101 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The display text of each row of the service list, by device address. A row is built once
+ * and reused for every bind until the device's name, status or TXT record changes, so
+ * scrolling through the list does not format or allocate anything.
+ * TXT records are compared by reference: WifiDirectHandler stores a new record when one is
+ * received, so an unchanged reference means unchanged entries.
+ * Not thread safe, use from the main thread.
+ */
+public class ServiceRowCache {
+
+    public static final String DEFAULT_DEVICE_NAME = "Android Device";
+
+    /**
+     * The display text of one row
+     */
+    public static final class Row {
+
+        public final String deviceName;
+        public final String deviceInfo;
+        // What the row was built from
+        private final String sourceDeviceName;
+        private final String status;
+        private final Map<String, String> record;
+
+        private Row(String sourceDeviceName, String status, Map<String, String> record) {
+            this.sourceDeviceName = sourceDeviceName;
+            this.status = status;
+            this.record = record;
+            deviceName = sourceDeviceName == null || sourceDeviceName.isEmpty()
+                    ? DEFAULT_DEVICE_NAME
+                    : sourceDeviceName;
+            deviceInfo = TxtRecordFormatter.format(status, record);
+        }
+
+        private boolean isBuiltFrom(String sourceDeviceName, String status, Map<String, String> record) {
+            return this.record == record
+                    && this.status.equals(status)
+                    && (this.sourceDeviceName == null
+                            ? sourceDeviceName == null
+                            : this.sourceDeviceName.equals(sourceDeviceName));
+        }
+    }
+
+    private final Map<String, Row> rows = new HashMap<>();
+    private long hits = 0;
+    private long builds = 0;
+
+    /**
+     * Returns the row for a device, building it only if it is not cached or was built from
+     * different values
+     * @param address Device address
+     * @param deviceName Device name, may be empty
+     * @param status Device status, e.g. "Available"
+     * @param record TXT record entries, or null if none has been received
+     */
+    public Row get(String address, String deviceName, String status, Map<String, String> record) {
+        Row row = rows.get(address);
+        if (row != null && row.isBuiltFrom(deviceName, status, record)) {
+            hits++;
+            return row;
+        }
+        row = new Row(deviceName, status, record);
+        rows.put(address, row);
+        builds++;
+        return row;
+    }
+
+    /**
+     * Forgets the row of a device, e.g. once its service is evicted
+     */
+    public void remove(String address) {
+        rows.remove(address);
+    }
+
+    public void clear() {
+        rows.clear();
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Returns the number of binds that reused a cached row
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of rows built
+     */
+    public long getBuilds() {
+        return builds;
+    }
+}
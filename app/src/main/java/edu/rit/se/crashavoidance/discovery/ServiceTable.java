@@ -0,0 +1,213 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The discovered services, one per device address, in the order they were first found.
+ * Each service remembers its device's status and when the device was last seen, either by
+ * being discovered again or by being in the Wi-Fi P2P peer list. Services whose device has
+ * been missing from the peer list for longer than the TTL are evicted when the peer list
+ * changes, or by evictExpired(), which callers run periodically since the peer list may not
+ * change again once the device has left.
+ * Changes are reported to the Listener per row, so a RecyclerView can update only the rows
+ * that changed.
+ * Not thread safe, use from the main thread.
+ * @param <S> Type of the service
+ */
+public class ServiceTable<S> {
+
+    public static final long DEFAULT_TTL_MILLIS = 15000;
+
+    public interface Listener {
+        void onServiceInserted(int position);
+
+        void onServiceChanged(int position);
+
+        void onServiceRemoved(int position, String address);
+    }
+
+    private static class Entry<S> {
+        final String address;
+        S service;
+        int status;
+        long lastSeen;
+
+        Entry(String address, S service, int status, long lastSeen) {
+            this.address = address;
+            this.service = service;
+            this.status = status;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    private final long ttlMillis;
+    private final List<Entry<S>> entries = new ArrayList<>();
+    private final Map<String, Entry<S>> entriesByAddress = new HashMap<>();
+    // Addresses in the last peer list, still seen until the list changes
+    private final Set<String> peers = new HashSet<>();
+    private long evictedServices = 0;
+    private Listener listener;
+
+    public ServiceTable() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param ttlMillis How long a device may be missing from the peer list before its service
+     *                  is evicted
+     */
+    public ServiceTable(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("TTL must not be negative: " + ttlMillis);
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds the service found on a device, or replaces the one already found on it
+     * @param status Status of the device, e.g. WifiP2pDevice.AVAILABLE
+     * @param now Current time in milliseconds
+     * @return true if the device had no service in the table yet
+     */
+    public boolean put(String address, S service, int status, long now) {
+        Entry<S> entry = entriesByAddress.get(address);
+        if (entry == null) {
+            entry = new Entry<>(address, service, status, now);
+            entriesByAddress.put(address, entry);
+            entries.add(entry);
+            if (listener != null) {
+                listener.onServiceInserted(entries.size() - 1);
+            }
+            return true;
+        }
+        entry.lastSeen = now;
+        if (!entry.service.equals(service) || entry.status != status) {
+            entry.service = service;
+            entry.status = status;
+            if (listener != null) {
+                listener.onServiceChanged(entries.indexOf(entry));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the devices in the peer list as seen and updates their status, and evicts the
+     * services of devices that have been missing from it for longer than the TTL
+     * @param peerStatuses Status of each current peer by address
+     * @param now Current time in milliseconds
+     * @return The number of services evicted
+     */
+    public int onPeersChanged(Map<String, Integer> peerStatuses, long now) {
+        peers.clear();
+        peers.addAll(peerStatuses.keySet());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<S> entry = entries.get(i);
+            Integer status = peerStatuses.get(entry.address);
+            if (status != null && entry.status != status) {
+                entry.status = status;
+                if (listener != null) {
+                    listener.onServiceChanged(i);
+                }
+            }
+        }
+        return evictExpired(now);
+    }
+
+    /**
+     * Evicts the services of devices that have been missing from the last peer list for
+     * longer than the TTL
+     * @param now Current time in milliseconds
+     * @return The number of services evicted
+     */
+    public int evictExpired(long now) {
+        int evicted = 0;
+        // Back to front, so removals do not shift the positions still to be visited
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry<S> entry = entries.get(i);
+            if (peers.contains(entry.address)) {
+                entry.lastSeen = now;
+            } else if (now - entry.lastSeen > ttlMillis) {
+                removeAt(i);
+                evicted++;
+            }
+        }
+        evictedServices += evicted;
+        return evicted;
+    }
+
+    /**
+     * Removes the service found on a device
+     * @return true if the device had a service in the table
+     */
+    public boolean remove(String address) {
+        Entry<S> entry = entriesByAddress.get(address);
+        if (entry == null) {
+            return false;
+        }
+        removeAt(entries.indexOf(entry));
+        return true;
+    }
+
+    private void removeAt(int position) {
+        Entry<S> entry = entries.remove(position);
+        entriesByAddress.remove(entry.address);
+        if (listener != null) {
+            listener.onServiceRemoved(position, entry.address);
+        }
+    }
+
+    public void clear() {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            removeAt(i);
+        }
+    }
+
+    public S get(int position) {
+        return entries.get(position).service;
+    }
+
+    public String getAddress(int position) {
+        return entries.get(position).address;
+    }
+
+    public int getStatus(int position) {
+        return entries.get(position).status;
+    }
+
+    public long getLastSeen(int position) {
+        return entries.get(position).lastSeen;
+    }
+
+    /**
+     * Returns the position of the service found on a device, or -1 if there is none
+     */
+    public int indexOf(String address) {
+        Entry<S> entry = entriesByAddress.get(address);
+        return entry == null ? -1 : entries.indexOf(entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Returns the number of services evicted because their device left the peer list
+     */
+    public long getEvictedServices() {
+        return evictedServices;
+    }
+}
@@ -0,0 +1,29 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import java.util.Map;
+
+/**
+ * Builds the device info text shown for each discovered service
+ */
+public final class TxtRecordFormatter {
+
+    private TxtRecordFormatter() {
+    }
+
+    /**
+     * Formats a device status and its DNS-SD TXT record as one "key: value" line per entry
+     * @param status Device status, e.g. "Available"
+     * @param record TXT record entries, or null if none has been received
+     * @return The status line followed by the record lines
+     */
+    public static String format(String status, Map<String, String> record) {
+        StringBuilder builder = new StringBuilder(status.length() + 1 + (record == null ? 0 : record.size() * 32));
+        builder.append(status).append('\n');
+        if (record != null) {
+            for (Map.Entry<String, String> entry : record.entrySet()) {
+                builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+}
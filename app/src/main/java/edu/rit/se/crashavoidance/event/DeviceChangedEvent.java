@@ -0,0 +1,13 @@
+package edu.rit.se.crashavoidance.event;
+
+/**
+ * This device's Wi-Fi P2P information changed
+ */
+public class DeviceChangedEvent {
+
+    public final String deviceInfo;
+
+    public DeviceChangedEvent(String deviceInfo) {
+        this.deviceInfo = deviceInfo;
+    }
+}
@@ -0,0 +1,176 @@
+package edu.rit.se.crashavoidance.event;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Typed in-process event bus. Events are delivered by reference to the subscribers of their
+ * exact class, each on the Executor it subscribed with. Subscribing and publishing are thread
+ * safe, and subscribers can be added and removed from any thread, e.g. with a fragment's
+ * lifecycle.
+ */
+public class EventBus {
+
+    /**
+     * Delivers events on the publishing thread
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Returned by subscribe, stops delivery when unsubscribed
+     */
+    public static class Subscription {
+        private final EventBus bus;
+        private final Class<?> eventType;
+        private volatile boolean active = true;
+
+        private Subscription(EventBus bus, Class<?> eventType) {
+            this.bus = bus;
+            this.eventType = eventType;
+        }
+
+        /**
+         * Stops delivery. Events already handed to the subscriber's Executor are dropped.
+         */
+        public void unsubscribe() {
+            if (active) {
+                active = false;
+                bus.remove(eventType, this);
+            }
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    private static class Registration<E> {
+        final Subscription subscription;
+        final Executor executor;
+        final Subscriber<? super E> subscriber;
+
+        Registration(Subscription subscription, Executor executor, Subscriber<? super E> subscriber) {
+            this.subscription = subscription;
+            this.executor = executor;
+            this.subscriber = subscriber;
+        }
+    }
+
+    private final ConcurrentMap<Class<?>, List<Registration<?>>> registrations = new ConcurrentHashMap<>();
+    private final AtomicLong publishedEvents = new AtomicLong();
+    private final AtomicLong deliveredEvents = new AtomicLong();
+    private final AtomicLong totalDispatchNanos = new AtomicLong();
+    private final AtomicLong maxDispatchNanos = new AtomicLong();
+
+    /**
+     * Delivers events of a type to a subscriber
+     * @param eventType Class of the events, subclasses are not delivered
+     * @param executor Executor the subscriber is called on, e.g. the UI thread or DIRECT
+     */
+    public <E> Subscription subscribe(Class<E> eventType, Executor executor, Subscriber<? super E> subscriber) {
+        Subscription subscription = new Subscription(this, eventType);
+        List<Registration<?>> typeRegistrations = registrations.get(eventType);
+        if (typeRegistrations == null) {
+            List<Registration<?>> created = new CopyOnWriteArrayList<>();
+            typeRegistrations = registrations.putIfAbsent(eventType, created);
+            if (typeRegistrations == null) {
+                typeRegistrations = created;
+            }
+        }
+        typeRegistrations.add(new Registration<>(subscription, executor, subscriber));
+        return subscription;
+    }
+
+    /**
+     * Hands an event to every subscriber of its class
+     * @return The number of subscribers the event was handed to
+     */
+    public int publish(final Object event) {
+        publishedEvents.incrementAndGet();
+        List<Registration<?>> typeRegistrations = registrations.get(event.getClass());
+        if (typeRegistrations == null) {
+            return 0;
+        }
+        final long publishedAt = System.nanoTime();
+        int subscribers = 0;
+        for (Registration<?> registration : typeRegistrations) {
+            dispatch(registration, event, publishedAt);
+            subscribers++;
+        }
+        return subscribers;
+    }
+
+    private <E> void dispatch(final Registration<E> registration, Object event, final long publishedAt) {
+        // Only registered for the event's exact class
+        @SuppressWarnings("unchecked")
+        final E typedEvent = (E) event;
+        registration.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!registration.subscription.active) {
+                    return;
+                }
+                recordDispatch(System.nanoTime() - publishedAt);
+                registration.subscriber.onEvent(typedEvent);
+            }
+        });
+    }
+
+    private void recordDispatch(long nanos) {
+        deliveredEvents.incrementAndGet();
+        totalDispatchNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxDispatchNanos.get())) {
+            if (maxDispatchNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    private void remove(Class<?> eventType, Subscription subscription) {
+        List<Registration<?>> typeRegistrations = registrations.get(eventType);
+        if (typeRegistrations == null) {
+            return;
+        }
+        for (Registration<?> registration : typeRegistrations) {
+            if (registration.subscription == subscription) {
+                typeRegistrations.remove(registration);
+            }
+        }
+    }
+
+    public int getSubscriberCount(Class<?> eventType) {
+        List<Registration<?>> typeRegistrations = registrations.get(eventType);
+        return typeRegistrations != null ? typeRegistrations.size() : 0;
+    }
+
+    public long getPublishedEvents() {
+        return publishedEvents.get();
+    }
+
+    public long getDeliveredEvents() {
+        return deliveredEvents.get();
+    }
+
+    /**
+     * Returns the mean time from publish until a subscriber is called, including the time the
+     * event waited for the subscriber's Executor
+     */
+    public long getAverageDispatchNanos() {
+        long delivered = deliveredEvents.get();
+        return delivered > 0 ? totalDispatchNanos.get() / delivered : 0;
+    }
+
+    public long getMaxDispatchNanos() {
+        return maxDispatchNanos.get();
+    }
+}
@@ -0,0 +1,14 @@
+package edu.rit.se.crashavoidance.event;
+
+/**
+ * A frame was received from the connected device. The frame is passed by reference and must
+ * not be modified by subscribers.
+ */
+public class MessageEvent {
+
+    public final byte[] frame;
+
+    public MessageEvent(byte[] frame) {
+        this.frame = frame;
+    }
+}
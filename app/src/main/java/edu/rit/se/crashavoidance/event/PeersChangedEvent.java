@@ -0,0 +1,16 @@
+package edu.rit.se.crashavoidance.event;
+
+import java.util.Map;
+
+/**
+ * The Wi-Fi P2P peer list changed
+ */
+public class PeersChangedEvent {
+
+    // Status of each peer, e.g. WifiP2pDevice.AVAILABLE, by device address
+    public final Map<String, Integer> peerStatuses;
+
+    public PeersChangedEvent(Map<String, Integer> peerStatuses) {
+        this.peerStatuses = peerStatuses;
+    }
+}
@@ -0,0 +1,7 @@
+package edu.rit.se.crashavoidance.event;
+
+/**
+ * This device connected to a service and the connection to it is up
+ */
+public class ServiceConnectedEvent {
+}
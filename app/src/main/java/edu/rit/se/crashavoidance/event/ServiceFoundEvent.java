@@ -0,0 +1,14 @@
+package edu.rit.se.crashavoidance.event;
+
+/**
+ * A DNS-SD service was discovered
+ */
+public class ServiceFoundEvent {
+
+    // Key of the service in WifiDirectHandler's service map
+    public final String serviceKey;
+
+    public ServiceFoundEvent(String serviceKey) {
+        this.serviceKey = serviceKey;
+    }
+}
@@ -0,0 +1,8 @@
+package edu.rit.se.crashavoidance.event;
+
+/**
+ * Receives events of one type from the EventBus
+ */
+public interface Subscriber<E> {
+    void onEvent(E event);
+}
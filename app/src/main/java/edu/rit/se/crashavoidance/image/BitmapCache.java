@@ -0,0 +1,31 @@
+package edu.rit.se.crashavoidance.image;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * Memory bounded LRU cache of decoded Bitmaps keyed by message id
+ */
+public class BitmapCache extends LruCache<Long, Bitmap> {
+
+    /**
+     * Creates a cache sized to a fraction of the application's maximum heap
+     * @param heapFraction Divisor of the max heap, e.g. 8 to use an eighth of the heap
+     */
+    public static BitmapCache forHeapFraction(int heapFraction) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return new BitmapCache((int) Math.min(Integer.MAX_VALUE, maxMemory / heapFraction));
+    }
+
+    /**
+     * @param maxBytes Upper bound on the total size of cached Bitmaps
+     */
+    public BitmapCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    @Override
+    protected int sizeOf(Long id, Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
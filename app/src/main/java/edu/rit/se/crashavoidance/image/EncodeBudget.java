@@ -0,0 +1,53 @@
+package edu.rit.se.crashavoidance.image;
+
+/**
+ * Limits applied when encoding an image for sending, trading image fidelity for transfer time
+ */
+public class EncodeBudget {
+
+    public static final EncodeBudget LOW = new EncodeBudget("Low", 48 * 1024, 640, 40, 75);
+    public static final EncodeBudget MEDIUM = new EncodeBudget("Medium", 160 * 1024, 1280, 50, 85);
+    public static final EncodeBudget HIGH = new EncodeBudget("High", 512 * 1024, 2048, 60, 95);
+
+    public static final EncodeBudget[] PRESETS = {LOW, MEDIUM, HIGH};
+
+    public final String name;
+    /** Target upper bound on the encoded size */
+    public final int maxBytes;
+    /** Longest edge of the encoded image in pixels */
+    public final int maxDimension;
+    /** Lowest quality tried before the image is downscaled further */
+    public final int minQuality;
+    /** Quality tried first */
+    public final int maxQuality;
+
+    public EncodeBudget(String name, int maxBytes, int maxDimension, int minQuality, int maxQuality) {
+        if (maxBytes <= 0 || maxDimension <= 0) {
+            throw new IllegalArgumentException("Budget limits must be positive");
+        }
+        if (minQuality < 0 || maxQuality > 100 || minQuality > maxQuality) {
+            throw new IllegalArgumentException("Invalid quality range " + minQuality + "-" + maxQuality);
+        }
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.maxDimension = maxDimension;
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+    }
+
+    /**
+     * Returns the scale factor that fits an image into maxDimension
+     * @param width Width of the source image
+     * @param height Height of the source image
+     * @return Scale in (0, 1]
+     */
+    public float scaleFor(int width, int height) {
+        int longest = Math.max(width, height);
+        return longest <= maxDimension ? 1f : (float) maxDimension / longest;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + maxBytes / 1024 + " KB, " + maxDimension + " px)";
+    }
+}
@@ -0,0 +1,156 @@
+package edu.rit.se.crashavoidance.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * Decodes received images on a worker Executor. The bounds are read first so the image can be
+ * subsampled to the size it will be shown at, and decoded Bitmaps are kept in a BitmapCache so an
+ * image that is shown again is not decoded again. Callbacks are delivered on the main thread.
+ */
+public class ImageDecoder {
+
+    private static final String TAG = WifiDirectHandler.TAG + "ImageDecoder";
+
+    private final Executor executor;
+    private final BitmapCache cache;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public ImageDecoder(Executor executor, BitmapCache cache) {
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    /**
+     * Callback for the result of a decode, called on the main thread
+     */
+    public interface Callback {
+        void onImageDecoded(long id, Bitmap bitmap);
+
+        void onImageDecodeFailed(long id);
+    }
+
+    /**
+     * Decodes an image that was received in memory and stores the encoded bytes so it can be
+     * decoded again after it has been evicted from the cache
+     * @param id Message id of the image
+     * @param data Encoded image
+     * @param storeFile File to write the encoded image to, or null to not keep it
+     */
+    public void decode(final long id, final byte[] data, final File storeFile,
+                       final int reqWidth, final int reqHeight, final Callback callback) {
+        if (deliverCached(id, callback)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                prepareOptions(options, reqWidth, reqHeight);
+                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                if (storeFile != null) {
+                    store(data, storeFile);
+                }
+                deliver(id, bitmap, callback);
+            }
+        });
+    }
+
+    /**
+     * Decodes an image stored in a file
+     * @param id Message id of the image
+     * @param file File holding the encoded image
+     */
+    public void decode(final long id, final File file, final int reqWidth, final int reqHeight, final Callback callback) {
+        if (deliverCached(id, callback)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeFile(file.getPath(), options);
+                prepareOptions(options, reqWidth, reqHeight);
+                deliver(id, BitmapFactory.decodeFile(file.getPath(), options), callback);
+            }
+        });
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps the decoded image at least as
+     * large as the requested size in both dimensions
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static void prepareOptions(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        Log.i(TAG, "Decoding " + options.outWidth + "x" + options.outHeight + " image with inSampleSize "
+                + options.inSampleSize);
+    }
+
+    private boolean deliverCached(long id, Callback callback) {
+        Bitmap cached = cache.get(id);
+        if (cached == null) {
+            return false;
+        }
+        callback.onImageDecoded(id, cached);
+        return true;
+    }
+
+    private void deliver(final long id, final Bitmap bitmap, final Callback callback) {
+        if (bitmap != null) {
+            cache.put(id, bitmap);
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (bitmap != null) {
+                    callback.onImageDecoded(id, bitmap);
+                } else {
+                    callback.onImageDecodeFailed(id);
+                }
+            }
+        });
+    }
+
+    private static void store(byte[] data, File file) {
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(file);
+            stream.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to store image " + file.getName() + ": " + e.getMessage());
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Ignored, the image is still decoded from memory
+                }
+            }
+        }
+    }
+}
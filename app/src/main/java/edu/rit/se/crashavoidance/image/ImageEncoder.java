@@ -0,0 +1,142 @@
+package edu.rit.se.crashavoidance.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executor;
+
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * Encodes Bitmaps for sending on a worker Executor. Opaque images are encoded as JPEG and images
+ * with transparency as WebP. The quality is searched and the image downscaled until the result
+ * fits the EncodeBudget.
+ */
+public class ImageEncoder {
+
+    /** Factor applied to the image size when the minimum quality is still over budget */
+    private static final float DOWNSCALE_STEP = 0.75f;
+    private static final int MAX_DOWNSCALES = 4;
+    private static final String TAG = WifiDirectHandler.TAG + "ImageEncoder";
+
+    private final Executor executor;
+
+    public ImageEncoder(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Callback for the result of an encode, called on the worker thread
+     */
+    public interface Callback {
+        void onImageEncoded(byte[] data, Bitmap.CompressFormat format, int quality, int width, int height);
+
+        void onImageEncodeFailed(Bitmap source);
+    }
+
+    /**
+     * Queues a Bitmap to be encoded within a budget
+     * @param source Bitmap to encode, must not be recycled until the callback fires
+     * @param budget Limits for the encoded image
+     * @param callback Receives the encoded bytes
+     */
+    public void encode(final Bitmap source, final EncodeBudget budget, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                encodeNow(source, budget, callback);
+            }
+        });
+    }
+
+    private void encodeNow(Bitmap source, EncodeBudget budget, Callback callback) {
+        long start = System.nanoTime();
+        Bitmap.CompressFormat format = source.hasAlpha() ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(budget.maxBytes);
+        float scale = budget.scaleFor(source.getWidth(), source.getHeight());
+        Bitmap scaled = null;
+        int quality = budget.minQuality;
+        byte[] data;
+        int width;
+        int height;
+        try {
+            for (int attempt = 0; attempt <= MAX_DOWNSCALES; attempt++) {
+                scaled = scale(source, scaled, scale);
+                quality = fitQuality(scaled, format, budget, stream);
+                if (quality >= 0) {
+                    break;
+                }
+                scale *= DOWNSCALE_STEP;
+            }
+            if (quality < 0) {
+                // Still over budget at the smallest size tried, send the smallest encoding
+                quality = budget.minQuality;
+                compress(scaled, format, quality, stream);
+            }
+            data = stream.toByteArray();
+            width = scaled.getWidth();
+            height = scaled.getHeight();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Image encode failed: " + e.getMessage());
+            callback.onImageEncodeFailed(source);
+            return;
+        } finally {
+            if (scaled != null && scaled != source) {
+                scaled.recycle();
+            }
+        }
+        Log.i(TAG, "Encoded " + source.getWidth() + "x" + source.getHeight() + " as " + format + " q" + quality
+                + " " + width + "x" + height + ", " + data.length + " bytes in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        callback.onImageEncoded(data, format, quality, width, height);
+    }
+
+    /**
+     * Binary searches the highest quality whose encoding fits the budget. On success the
+     * stream holds the encoding at the returned quality.
+     * @return The chosen quality, or -1 if even the minimum quality is over budget
+     */
+    private int fitQuality(Bitmap bitmap, Bitmap.CompressFormat format, EncodeBudget budget, ByteArrayOutputStream stream) {
+        if (compress(bitmap, format, budget.maxQuality, stream) <= budget.maxBytes) {
+            return budget.maxQuality;
+        }
+        int low = budget.minQuality;
+        int high = budget.maxQuality - 1;
+        int best = -1;
+        int lastTried = budget.maxQuality;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            lastTried = mid;
+            if (compress(bitmap, format, mid, stream) <= budget.maxBytes) {
+                best = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (best >= 0 && best != lastTried) {
+            // The stream holds the last attempt, re-encode the best fit
+            compress(bitmap, format, best, stream);
+        }
+        return best;
+    }
+
+    private static int compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality, ByteArrayOutputStream stream) {
+        stream.reset();
+        bitmap.compress(format, quality, stream);
+        return stream.size();
+    }
+
+    private static Bitmap scale(Bitmap source, Bitmap previous, float scale) {
+        if (previous != null && previous != source) {
+            previous.recycle();
+        }
+        if (scale >= 1f) {
+            return source;
+        }
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        return Bitmap.createScaledBitmap(source, width, height, true);
+    }
+}
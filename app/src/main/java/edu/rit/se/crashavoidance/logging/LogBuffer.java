@@ -0,0 +1,154 @@
+package edu.rit.se.crashavoidance.logging;
+
+import java.util.List;
+
+/**
+ * Fixed-size ring buffer of log entries. Every entry gets a sequence number, so readers can
+ * tail the buffer by asking for the entries after the last one they saw; entries that were
+ * overwritten before a reader got to them are skipped. Thread safe.
+ */
+public class LogBuffer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // Priorities, the same values as android.util.Log's
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    public static class Entry {
+        public final long sequence;
+        public final long timestamp;
+        public final int level;
+        public final String tag;
+        public final String message;
+
+        Entry(long sequence, long timestamp, int level, String tag, String message) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return levelLetter(level) + "/" + tag + ": " + message;
+        }
+    }
+
+    private final Entry[] entries;
+    private long nextSequence = 0;
+
+    public LogBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LogBuffer(int capacity) {
+        entries = new Entry[capacity];
+    }
+
+    public synchronized void append(int level, String tag, String message) {
+        append(System.currentTimeMillis(), level, tag, message);
+    }
+
+    public synchronized void append(long timestamp, int level, String tag, String message) {
+        entries[(int) (nextSequence % entries.length)] = new Entry(nextSequence, timestamp, level, tag, message);
+        nextSequence++;
+        notifyAll();
+    }
+
+    /**
+     * Copies the entries after a sequence number that pass the filters
+     * @param afterSequence Sequence number of the last entry already read, or -1 for all
+     * @param minLevel Lowest level to copy
+     * @param tagFilter Copy only entries whose tag contains this, or null for all
+     * @param out Receives the entries, oldest first
+     * @return Sequence number of the last entry examined, pass it to the next read
+     */
+    public synchronized long read(long afterSequence, int minLevel, String tagFilter, List<Entry> out) {
+        long from = Math.max(afterSequence + 1, getOldestSequence());
+        for (long sequence = from; sequence < nextSequence; sequence++) {
+            Entry entry = entries[(int) (sequence % entries.length)];
+            if (entry.level >= minLevel && (tagFilter == null || entry.tag.contains(tagFilter))) {
+                out.add(entry);
+            }
+        }
+        return nextSequence - 1;
+    }
+
+    /**
+     * Waits until there are entries after a sequence number
+     * @return true if there are new entries, false if the timeout passed
+     */
+    public synchronized boolean awaitEntriesAfter(long afterSequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (nextSequence - 1 <= afterSequence) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sequence number of the oldest entry still in the buffer
+     */
+    public synchronized long getOldestSequence() {
+        return Math.max(0, nextSequence - entries.length);
+    }
+
+    /**
+     * Returns the number of entries appended since the buffer was created
+     */
+    public synchronized long getAppendedEntries() {
+        return nextSequence;
+    }
+
+    public static char levelLetter(int level) {
+        switch (level) {
+            case VERBOSE:
+                return 'V';
+            case DEBUG:
+                return 'D';
+            case INFO:
+                return 'I';
+            case WARN:
+                return 'W';
+            case ERROR:
+                return 'E';
+            case ASSERT:
+                return 'A';
+            default:
+                return '?';
+        }
+    }
+
+    /**
+     * Returns the level for a logcat level letter, or -1 if it is not one
+     */
+    public static int levelForLetter(char letter) {
+        switch (letter) {
+            case 'V':
+                return VERBOSE;
+            case 'D':
+                return DEBUG;
+            case 'I':
+                return INFO;
+            case 'W':
+                return WARN;
+            case 'E':
+                return ERROR;
+            case 'F':
+            case 'A':
+                return ASSERT;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package edu.rit.se.crashavoidance.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the contents of a LogBuffer to gzip files in a directory, keeping only the most
+ * recent exports
+ */
+public class LogExporter {
+
+    public static final int DEFAULT_MAX_FILES = 5;
+    private static final String PREFIX = "log-";
+    private static final String SUFFIX = ".txt.gz";
+
+    private final File directory;
+    private final int maxFiles;
+
+    public LogExporter(File directory) {
+        this(directory, DEFAULT_MAX_FILES);
+    }
+
+    public LogExporter(File directory, int maxFiles) {
+        this.directory = directory;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Exports every entry in the buffer to a new file and deletes the oldest exports past
+     * the limit
+     * @return The new file
+     */
+    public File export(LogBuffer buffer) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        List<LogBuffer.Entry> entries = new ArrayList<>();
+        buffer.read(-1, LogBuffer.VERBOSE, null, entries);
+
+        // Sequence numbers keep names unique and ordered within a run
+        File file = new File(directory, PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date())
+                + "-" + buffer.getAppendedEntries() + SUFFIX);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), "UTF-8"));
+        try {
+            for (LogBuffer.Entry entry : entries) {
+                writer.write(entry.sequence + " " + timeFormat.format(new Date(entry.timestamp)) + " " + entry + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        rotate();
+        return file;
+    }
+
+    private void rotate() {
+        File[] exports = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (exports == null || exports.length <= maxFiles) {
+            return;
+        }
+        // Names start with the export time, so they sort oldest first
+        Arrays.sort(exports);
+        for (int i = 0; i < exports.length - maxFiles; i++) {
+            exports[i].delete();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package edu.rit.se.crashavoidance.logging;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Follows the process's logcat output on a background thread and appends the lines with the
+ * app's tags to a LogBuffer. WiFi Buddy logs through android.util.Log, so logcat is the only
+ * place its messages can be collected from. A single long-running logcat is read line by
+ * line, instead of dumping the whole device log whenever the logs are shown. If logcat exits,
+ * e.g. when the system kills it, it is restarted with an exponential backoff. A restarted logcat
+ * prints the whole log again, so lines up to the last one collected are skipped. logcat -T
+ * would avoid that, but it needs API 21.
+ */
+public class LogcatCollector {
+
+    private static final String[] COMMAND = {"logcat", "-v", "threadtime"};
+    static final long INITIAL_RESTART_DELAY_MILLIS = 1000;
+    static final long MAX_RESTART_DELAY_MILLIS = 60 * 1000;
+
+    private final LogBuffer buffer;
+    private final String tagPrefix;
+    private Thread thread;
+    private Process process;
+    private volatile boolean running = false;
+    // Time of the newest line collected, only used by the collector thread
+    private long lastTimestamp = -1;
+
+    /**
+     * @param tagPrefix Only lines whose tag starts with this are collected
+     */
+    public LogcatCollector(LogBuffer buffer, String tagPrefix) {
+        this.buffer = buffer;
+        this.tagPrefix = tagPrefix;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                collect();
+            }
+        }, "LogcatCollector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (process != null) {
+            process.destroy();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void collect() {
+        long restartDelay = INITIAL_RESTART_DELAY_MILLIS;
+        while (running) {
+            if (readLogcat()) {
+                // It ran normally before exiting, restart quickly
+                restartDelay = INITIAL_RESTART_DELAY_MILLIS;
+            }
+            if (!running) {
+                return;
+            }
+            buffer.append(LogBuffer.ERROR, getClass().getSimpleName(),
+                    "logcat exited, restarting in " + restartDelay + " ms");
+            try {
+                Thread.sleep(restartDelay);
+            } catch (InterruptedException e) {
+                // Stopped
+                return;
+            }
+            restartDelay = nextRestartDelay(restartDelay);
+        }
+    }
+
+    static long nextRestartDelay(long restartDelay) {
+        return Math.min(restartDelay * 2, MAX_RESTART_DELAY_MILLIS);
+    }
+
+    /**
+     * Runs logcat until it exits or the collector is stopped
+     * @return true if at least one line was read
+     */
+    private boolean readLogcat() {
+        BufferedReader reader = null;
+        Process process = null;
+        boolean readLine = false;
+        try {
+            process = Runtime.getRuntime().exec(COMMAND);
+            synchronized (this) {
+                this.process = process;
+            }
+            reader = new BufferedReader(new InputStreamReader(process.getInputStream()), 8192);
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+            int year = Calendar.getInstance().get(Calendar.YEAR);
+            long collectedUntil = lastTimestamp;
+            String line;
+            while (running && (line = reader.readLine()) != null) {
+                readLine = true;
+                lastTimestamp = Math.max(lastTimestamp,
+                        parseLine(line, tagPrefix, collectedUntil, buffer, dateFormat, year));
+            }
+        } catch (IOException e) {
+            if (running) {
+                buffer.append(LogBuffer.ERROR, getClass().getSimpleName(), "Could not read logcat: " + e.getMessage());
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Already stopping
+                }
+            }
+            if (process != null) {
+                process.destroy();
+            }
+        }
+        return readLine;
+    }
+
+    /**
+     * Parses a logcat line in threadtime format,
+     * "MM-DD HH:MM:SS.mmm  PID  TID L TAG: message", and appends it if its tag matches
+     * @param collectedUntil Lines logged at or before this time are skipped, they were collected
+     *                       before logcat restarted
+     * @return Time the line was logged if it was appended, -1 otherwise
+     */
+    static long parseLine(String line, String tagPrefix, long collectedUntil, LogBuffer buffer,
+                          SimpleDateFormat dateFormat, int year) {
+        // Fixed-width timestamp, then PID and TID padded with spaces
+        if (line.length() < 19) {
+            return -1;
+        }
+        int position = 18;
+        for (int field = 0; field < 2; field++) {
+            position = skipSpaces(line, position);
+            while (position < line.length() && Character.isDigit(line.charAt(position))) {
+                position++;
+            }
+        }
+        position = skipSpaces(line, position);
+        if (position + 2 >= line.length()) {
+            return -1;
+        }
+        int level = LogBuffer.levelForLetter(line.charAt(position));
+        int tagStart = skipSpaces(line, position + 1);
+        if (level < 0 || !line.startsWith(tagPrefix, tagStart)) {
+            return -1;
+        }
+        int separator = line.indexOf(": ", tagStart);
+        if (separator < 0) {
+            return -1;
+        }
+        long timestamp;
+        try {
+            Date date = dateFormat.parse(year + "-" + line.substring(0, 18));
+            timestamp = date.getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+        if (timestamp <= collectedUntil) {
+            return -1;
+        }
+        buffer.append(timestamp, level, line.substring(tagStart, separator).trim(), line.substring(separator + 2));
+        return timestamp;
+    }
+
+    private static int skipSpaces(String line, int position) {
+        while (position < line.length() && line.charAt(position) == ' ') {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,23 @@
+package edu.rit.se.crashavoidance.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count that only goes up, e.g. frames sent
+ */
+public class Counter {
+
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+    public long get() {
+        return count.get();
+    }
+}
@@ -0,0 +1,8 @@
+package edu.rit.se.crashavoidance.metrics;
+
+/**
+ * Current value read when metrics are shown or exported, e.g. a queue depth
+ */
+public interface Gauge {
+    double getValue();
+}
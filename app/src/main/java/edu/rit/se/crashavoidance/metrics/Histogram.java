@@ -0,0 +1,111 @@
+package edu.rit.se.crashavoidance.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values in log-scaled buckets: four buckets per power of two,
+ * so percentiles are within 25% of the recorded values. Recording is lock-free and does not
+ * allocate, so it can stay on in production.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param unit Unit of the recorded values, shown with them, e.g. "ns" or "bytes"
+     */
+    public Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketFor(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long samples = count.get();
+        return samples > 0 ? (double) sum.get() / samples : 0;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile
+     * @param percentile Percentile in (0, 100]
+     * @return The value, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long samples = count.get();
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * samples));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + subBucket) * width;
+        return lower + width - 1;
+    }
+}
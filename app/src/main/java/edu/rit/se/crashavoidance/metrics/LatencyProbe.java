@@ -0,0 +1,45 @@
+package edu.rit.se.crashavoidance.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time from a start event to the first matching end event, e.g. from starting
+ * discovery to the first service found, and records it in a Histogram. Ends without a start,
+ * and ends after the first one, are ignored.
+ */
+public class LatencyProbe {
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final Histogram histogram = new Histogram("ns");
+    private final AtomicLong startedAt = new AtomicLong(NOT_STARTED);
+
+    public void start() {
+        startedAt.set(System.nanoTime());
+    }
+
+    /**
+     * Records the time since start if this is the first end since it
+     * @return true if a sample was recorded
+     */
+    public boolean stop() {
+        long started = startedAt.getAndSet(NOT_STARTED);
+        if (started == NOT_STARTED) {
+            return false;
+        }
+        histogram.record(System.nanoTime() - started);
+        return true;
+    }
+
+    public void cancel() {
+        startedAt.set(NOT_STARTED);
+    }
+
+    public boolean isStarted() {
+        return startedAt.get() != NOT_STARTED;
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+}
@@ -0,0 +1,220 @@
+package edu.rit.se.crashavoidance.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named counters, gauges, histograms, rate meters and latency probes. Metrics are created
+ * once by name and then recorded to directly, so the recording path never touches the
+ * registry. Names are dotted, e.g. "dispatcher.queue_depth".
+ */
+public class MetricsRegistry {
+
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    /**
+     * Returns the counter with a name, creating it if needed
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = get(name, Counter.class);
+        if (counter == null) {
+            counter = new Counter();
+            metrics.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram with a name, creating it if needed
+     * @param unit Unit of the values, used if the histogram is created
+     */
+    public synchronized Histogram histogram(String name, String unit) {
+        Histogram histogram = get(name, Histogram.class);
+        if (histogram == null) {
+            histogram = new Histogram(unit);
+            metrics.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the rate meter with a name, creating it if needed
+     */
+    public synchronized RateMeter rate(String name) {
+        RateMeter rate = get(name, RateMeter.class);
+        if (rate == null) {
+            rate = new RateMeter();
+            metrics.put(name, rate);
+        }
+        return rate;
+    }
+
+    /**
+     * Returns the latency probe with a name, creating it if needed
+     */
+    public synchronized LatencyProbe probe(String name) {
+        LatencyProbe probe = get(name, LatencyProbe.class);
+        if (probe == null) {
+            probe = new LatencyProbe();
+            metrics.put(name, probe);
+        }
+        return probe;
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name, e.g. one registered by a
+     * fragment that has since been recreated
+     */
+    public synchronized void gauge(String name, Gauge gauge) {
+        Object existing = metrics.get(name);
+        if (existing != null && !(existing instanceof Gauge)) {
+            throw new IllegalArgumentException(name + " is already registered as " + existing.getClass().getSimpleName());
+        }
+        metrics.put(name, gauge);
+    }
+
+    public synchronized void remove(String name) {
+        metrics.remove(name);
+    }
+
+    /**
+     * Removes a gauge if it is still the one registered under its name, so an owner destroyed
+     * after its replacement registered leaves the replacement's gauge alone
+     */
+    public synchronized void remove(String name, Gauge gauge) {
+        if (metrics.get(name) == gauge) {
+            metrics.remove(name);
+        }
+    }
+
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(metrics.keySet());
+    }
+
+    private <T> T get(String name, Class<T> type) {
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            return null;
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is already registered as " + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Returns one line per metric, for the stats panel
+     */
+    public synchronized String format() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            text.append(entry.getKey()).append(": ");
+            Object metric = entry.getValue();
+            if (metric instanceof LatencyProbe) {
+                metric = ((LatencyProbe) metric).getHistogram();
+            }
+            if (metric instanceof Counter) {
+                text.append(((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                text.append(formatNumber(((Gauge) metric).getValue()));
+            } else if (metric instanceof RateMeter) {
+                RateMeter rate = (RateMeter) metric;
+                text.append(formatNumber(rate.getRatePerSecond())).append("/s, total ").append(rate.getTotal());
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                text.append("n=").append(histogram.getCount());
+                if (histogram.getCount() > 0) {
+                    text.append(" p50=").append(formatValue(histogram.getPercentile(50), histogram.getUnit()))
+                            .append(" p99=").append(formatValue(histogram.getPercentile(99), histogram.getUnit()))
+                            .append(" max=").append(formatValue(histogram.getMax(), histogram.getUnit()));
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes every metric as CSV: name,type,value,count,mean,p50,p90,p99,max,unit
+     */
+    public synchronized void writeCsv(Writer writer) throws IOException {
+        writer.write("name,type,value,count,mean,p50,p90,p99,max,unit\n");
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            Object metric = entry.getValue();
+            String name = entry.getKey();
+            if (metric instanceof LatencyProbe) {
+                metric = ((LatencyProbe) metric).getHistogram();
+            }
+            if (metric instanceof Counter) {
+                writer.write(name + ",counter," + ((Counter) metric).get() + ",,,,,,,\n");
+            } else if (metric instanceof Gauge) {
+                writer.write(name + ",gauge," + ((Gauge) metric).getValue() + ",,,,,,,\n");
+            } else if (metric instanceof RateMeter) {
+                RateMeter rate = (RateMeter) metric;
+                writer.write(name + ",rate," + rate.getRatePerSecond() + "," + rate.getTotal() + ",,,,,,per_second\n");
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                writer.write(name + ",histogram,," + histogram.getCount() + "," + histogram.getMean()
+                        + "," + histogram.getPercentile(50) + "," + histogram.getPercentile(90)
+                        + "," + histogram.getPercentile(99) + "," + histogram.getMax() + "," + histogram.getUnit() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes every metric as a JSON object keyed by name
+     */
+    public synchronized void writeJson(Writer writer) throws IOException {
+        writer.write("{");
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof LatencyProbe) {
+                metric = ((LatencyProbe) metric).getHistogram();
+            }
+            writer.write(first ? "\n  \"" : ",\n  \"");
+            writer.write(entry.getKey());
+            writer.write("\": ");
+            first = false;
+            if (metric instanceof Counter) {
+                writer.write("{\"type\": \"counter\", \"value\": " + ((Counter) metric).get() + "}");
+            } else if (metric instanceof Gauge) {
+                writer.write("{\"type\": \"gauge\", \"value\": " + jsonNumber(((Gauge) metric).getValue()) + "}");
+            } else if (metric instanceof RateMeter) {
+                RateMeter rate = (RateMeter) metric;
+                writer.write("{\"type\": \"rate\", \"per_second\": " + jsonNumber(rate.getRatePerSecond())
+                        + ", \"total\": " + rate.getTotal() + "}");
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                writer.write("{\"type\": \"histogram\", \"unit\": \"" + histogram.getUnit() + "\", \"count\": "
+                        + histogram.getCount() + ", \"mean\": " + jsonNumber(histogram.getMean())
+                        + ", \"p50\": " + histogram.getPercentile(50) + ", \"p90\": " + histogram.getPercentile(90)
+                        + ", \"p99\": " + histogram.getPercentile(99) + ", \"max\": " + histogram.getMax() + "}");
+            }
+        }
+        writer.write(first ? "}\n" : "\n}\n");
+    }
+
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    private static String formatNumber(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.US, "%.2f", value);
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds, other units as they are
+     */
+    private static String formatValue(long value, String unit) {
+        if ("ns".equals(unit)) {
+            return String.format(Locale.US, "%.2fms", value / 1e6);
+        }
+        return value + (unit.isEmpty() ? "" : " " + unit);
+    }
+}
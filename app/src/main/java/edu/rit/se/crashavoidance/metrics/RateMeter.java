@@ -0,0 +1,39 @@
+package edu.rit.se.crashavoidance.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Total of events or bytes, and its rate per second since the rate was last read
+ */
+public class RateMeter {
+
+    private final AtomicLong total = new AtomicLong();
+    // Only touched by the reader
+    private long lastTotal = 0;
+    private long lastReadNanos = System.nanoTime();
+    private double lastRate = 0;
+
+    public void mark(long amount) {
+        total.addAndGet(amount);
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Returns the rate since the previous call. Calls closer together than 100 ms return the
+     * previous rate, so several readers don't see noisy rates.
+     */
+    public synchronized double getRatePerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - lastReadNanos;
+        if (elapsed >= 100000000L) {
+            long current = total.get();
+            lastRate = (current - lastTotal) * 1e9 / elapsed;
+            lastTotal = current;
+            lastReadNanos = now;
+        }
+        return lastRate;
+    }
+}
@@ -0,0 +1,91 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Acknowledgement sent as an ACK Message by a ReliableSession. The cumulative sequence says
+ * every message up to it was received, and the selective blocks list received ranges above it
+ * so the sender only retransmits the gaps.
+ *
+ * Payload (big-endian):
+ * <pre>
+ *  cumulative (u32) | block count (u8) | block count x (first (u32) | last (u32))
+ * </pre>
+ */
+public class Ack {
+
+    /** Most selective blocks an Ack carries, as with TCP SACK */
+    public static final int MAX_BLOCKS = 4;
+
+    public final int cumulative;
+    // Inclusive ranges of sequences received above cumulative, lowest first
+    public final int[] blockFirst;
+    public final int[] blockLast;
+
+    public Ack(int cumulative, int[] blockFirst, int[] blockLast) {
+        if (blockFirst.length != blockLast.length || blockFirst.length > MAX_BLOCKS) {
+            throw new IllegalArgumentException("Invalid selective blocks");
+        }
+        this.cumulative = cumulative;
+        this.blockFirst = blockFirst;
+        this.blockLast = blockLast;
+    }
+
+    /**
+     * @return True if the sequence is covered by the cumulative sequence or a selective block
+     */
+    public boolean covers(int sequence) {
+        if (sequence <= cumulative) {
+            return true;
+        }
+        for (int i = 0; i < blockFirst.length; i++) {
+            if (sequence >= blockFirst[i] && sequence <= blockLast[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Message toMessage() {
+        ByteBuffer buffer = ByteBuffer.allocate(5 + 8 * blockFirst.length);
+        buffer.putInt(cumulative);
+        buffer.put((byte) blockFirst.length);
+        for (int i = 0; i < blockFirst.length; i++) {
+            buffer.putInt(blockFirst[i]);
+            buffer.putInt(blockLast[i]);
+        }
+        return new Message(MessageType.ACK, buffer.array());
+    }
+
+    /**
+     * Reads the Ack carried by an ACK Message
+     * @throws MessageFormatException if the payload is truncated or a block is invalid
+     */
+    public static Ack fromMessage(Message message) throws MessageFormatException {
+        if (message.messageType != MessageType.ACK) {
+            throw new MessageFormatException("Not an ack: " + message.messageType);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(message.message);
+            int cumulative = buffer.getInt();
+            int count = buffer.get() & 0xFF;
+            if (count > MAX_BLOCKS) {
+                throw new MessageFormatException("Too many selective blocks: " + count);
+            }
+            int[] blockFirst = new int[count];
+            int[] blockLast = new int[count];
+            for (int i = 0; i < count; i++) {
+                blockFirst[i] = buffer.getInt();
+                blockLast[i] = buffer.getInt();
+                if (blockFirst[i] <= cumulative || blockLast[i] < blockFirst[i]) {
+                    throw new MessageFormatException("Invalid selective block "
+                            + blockFirst[i] + "-" + blockLast[i]);
+                }
+            }
+            return new Ack(cumulative, blockFirst, blockLast);
+        } catch (BufferUnderflowException e) {
+            throw new MessageFormatException("Ack truncated");
+        }
+    }
+}
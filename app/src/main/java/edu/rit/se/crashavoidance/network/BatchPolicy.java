@@ -0,0 +1,29 @@
+package edu.rit.se.crashavoidance.network;
+
+/**
+ * Controls how OutboundDispatcher coalesces small frames into BATCH frames. The writer waits up
+ * to the window for more frames after the first one, and flushes early once the batch reaches
+ * the size cap.
+ */
+public class BatchPolicy {
+
+    public static final BatchPolicy DEFAULT = new BatchPolicy(5, 8 * 1024);
+
+    /** How long to wait for more frames after the first one, in milliseconds */
+    public final long windowMillis;
+    /** Largest batch payload, frames bigger than this are never batched */
+    public final int maxBatchBytes;
+
+    public BatchPolicy(long windowMillis, int maxBatchBytes) {
+        if (windowMillis < 0 || maxBatchBytes <= 0) {
+            throw new IllegalArgumentException("Invalid batch policy " + windowMillis + " ms, " + maxBatchBytes + " bytes");
+        }
+        this.windowMillis = windowMillis;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @Override
+    public String toString() {
+        return windowMillis + " ms / " + maxBatchBytes + " bytes";
+    }
+}
@@ -0,0 +1,81 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A slice of a larger payload sent as a CHUNK Message so that large transfers can be
+ * interleaved with other traffic and reassembled without holding the whole frame at once.
+ *
+ * Chunk header (big-endian), followed by the chunk data:
+ * <pre>
+ *  transfer id (u32) | sequence (u32) | total size (u32) | content type (u8)
+ * </pre>
+ */
+public class Chunk {
+
+    public static final int HEADER_LENGTH = 13;
+
+    public final int transferId;
+    public final int sequence;
+    public final int totalSize;
+    public final MessageType contentType;
+    public final byte[] data;
+    public final int offset;
+    public final int length;
+
+    public Chunk(int transferId, int sequence, int totalSize, MessageType contentType,
+                 byte[] data, int offset, int length) {
+        this.transferId = transferId;
+        this.sequence = sequence;
+        this.totalSize = totalSize;
+        this.contentType = contentType;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Wraps this chunk in a CHUNK Message
+     * @return Message whose payload is the chunk header followed by the chunk data
+     */
+    public Message toMessage() {
+        byte[] payload = new byte[HEADER_LENGTH + length];
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.putInt(transferId);
+        buffer.putInt(sequence);
+        buffer.putInt(totalSize);
+        buffer.put(contentType.code);
+        buffer.put(data, offset, length);
+        return new Message(MessageType.CHUNK, payload);
+    }
+
+    /**
+     * Reads the chunk carried by a CHUNK Message. The returned chunk references the Message
+     * payload rather than copying it.
+     * @param message Message of type CHUNK
+     * @return The chunk
+     * @throws MessageFormatException if the payload is not a valid chunk
+     */
+    public static Chunk fromMessage(Message message) throws MessageFormatException {
+        if (message.messageType != MessageType.CHUNK) {
+            throw new MessageFormatException("Not a chunk: " + message.messageType);
+        }
+        byte[] payload = message.message;
+        if (payload == null || payload.length < HEADER_LENGTH) {
+            throw new MessageFormatException("Chunk shorter than header");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int transferId = buffer.getInt();
+        int sequence = buffer.getInt();
+        int totalSize = buffer.getInt();
+        MessageType contentType = MessageType.fromCode(buffer.get());
+        if (contentType == null || contentType == MessageType.CHUNK) {
+            throw new MessageFormatException("Invalid chunk content type");
+        }
+        if (sequence < 0 || totalSize < 0) {
+            throw new MessageFormatException("Invalid chunk header");
+        }
+        return new Chunk(transferId, sequence, totalSize, contentType,
+                payload, HEADER_LENGTH, payload.length - HEADER_LENGTH);
+    }
+}
@@ -0,0 +1,332 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reassembles CHUNK Messages into complete payloads. Transfers are buffered in memory while
+ * the total size of all in-flight transfers stays under a memory budget; larger transfers are
+ * spooled to a temporary file so the heap stays bounded regardless of the image size.
+ * Not thread safe, chunks must be delivered from a single thread.
+ *
+ * A resumable assembler keeps a transfer when chunks go missing, e.g. when the connection
+ * drops, so the sender can continue it from getLastTransferChunks(). Senders continue their
+ * transfers in order, so a new transfer fails any partial one the sender gave up on.
+ *
+ * Transfers that receive no chunk for the idle timeout are failed the next time a chunk
+ * arrives, so a sender that disappears mid-transfer doesn't hold its buffer forever. A resumed
+ * session restarts the timeout, the connection may have been down for longer.
+ */
+public class ChunkAssembler {
+
+    public static final int DEFAULT_MEMORY_BUDGET = 2 * 1024 * 1024;
+    public static final int DEFAULT_MAX_TRANSFER_SIZE = 32 * 1024 * 1024;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    private final Map<Integer, Reassembly> transfers = new HashMap<>();
+    private final File spoolDirectory;
+    private final int memoryBudget;
+    private final int maxTransferSize;
+    private int bufferedBytes = 0;
+    private TransferListener listener;
+    private boolean resumable = false;
+    private long idleTimeoutNanos = DEFAULT_IDLE_TIMEOUT_MILLIS * 1000000;
+    // Most recent transfer a chunk was added to, and its chunks received in order
+    private int lastTransferId = 0;
+    private int lastTransferChunks = 0;
+    private long droppedChunks = 0;
+
+    /**
+     * @param spoolDirectory Directory for transfers that don't fit in the memory budget,
+     *                       or null to reject them instead
+     */
+    public ChunkAssembler(File spoolDirectory) {
+        this(spoolDirectory, DEFAULT_MEMORY_BUDGET, DEFAULT_MAX_TRANSFER_SIZE);
+    }
+
+    public ChunkAssembler(File spoolDirectory, int memoryBudget, int maxTransferSize) {
+        this.spoolDirectory = spoolDirectory;
+        this.memoryBudget = memoryBudget;
+        this.maxTransferSize = maxTransferSize;
+    }
+
+    public void setListener(TransferListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param resumable True to drop chunks received out of order and keep their transfer,
+     *                  false to fail the transfer
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * @param idleTimeoutMillis Time without chunks after which a transfer is failed
+     */
+    public void setIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutNanos = idleTimeoutMillis * 1000000;
+    }
+
+    /**
+     * Adds a received chunk to its transfer
+     * @param chunk The received chunk
+     * @return The completed transfer if this was its last chunk, otherwise null
+     */
+    public CompletedTransfer accept(Chunk chunk) {
+        return accept(chunk, System.nanoTime());
+    }
+
+    CompletedTransfer accept(Chunk chunk, long nowNanos) {
+        expireIdle(nowNanos);
+        Reassembly reassembly = transfers.get(chunk.transferId);
+        try {
+            if (reassembly == null) {
+                if (chunk.sequence != 0) {
+                    throw new IOException("Transfer started mid-stream at chunk " + chunk.sequence);
+                }
+                if (resumable) {
+                    failAll("Superseded by transfer " + chunk.transferId);
+                }
+                reassembly = start(chunk);
+                transfers.put(chunk.transferId, reassembly);
+            }
+            if (resumable && chunk.sequence != reassembly.nextSequence) {
+                // Sent again after a reconnect, or after a gap the sender will fill
+                droppedChunks++;
+                return null;
+            }
+            reassembly.append(chunk);
+            reassembly.lastChunkNanos = nowNanos;
+        } catch (IOException e) {
+            fail(chunk.transferId, e.getMessage());
+            return null;
+        }
+        lastTransferId = chunk.transferId;
+        lastTransferChunks = reassembly.nextSequence;
+
+        if (listener != null) {
+            listener.onTransferProgress(chunk.transferId, false, reassembly.received, reassembly.totalSize);
+        }
+        if (reassembly.received < reassembly.totalSize) {
+            return null;
+        }
+        transfers.remove(chunk.transferId);
+        try {
+            return reassembly.complete();
+        } catch (IOException e) {
+            reassembly.discard();
+            if (listener != null) {
+                listener.onTransferFailed(chunk.transferId, false, e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return Number of transfers currently being reassembled
+     */
+    public int getPendingTransferCount() {
+        return transfers.size();
+    }
+
+    /**
+     * @return Bytes reserved in memory by in-flight transfers
+     */
+    public int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return Id of the most recent transfer a chunk was added to
+     */
+    public int getLastTransferId() {
+        return lastTransferId;
+    }
+
+    /**
+     * @return Chunks of the last transfer received in order, 0 if no chunk was received
+     */
+    public int getLastTransferChunks() {
+        return lastTransferChunks;
+    }
+
+    /**
+     * @return Chunks a resumable assembler dropped because they were out of order
+     */
+    public long getDroppedChunks() {
+        return droppedChunks;
+    }
+
+    /**
+     * Restarts the idle timeout of the partial transfers when the sender resumes them after a
+     * reconnect
+     */
+    public void onResumed() {
+        onResumed(System.nanoTime());
+    }
+
+    void onResumed(long nowNanos) {
+        for (Reassembly reassembly : transfers.values()) {
+            reassembly.lastChunkNanos = nowNanos;
+        }
+    }
+
+    /**
+     * Drops all partially received transfers, reporting them as failed, and deletes their
+     * spool files
+     */
+    public void clear() {
+        lastTransferId = 0;
+        lastTransferChunks = 0;
+        failAll("Transfer abandoned");
+    }
+
+    private void failAll(String reason) {
+        Iterator<Reassembly> iterator = transfers.values().iterator();
+        while (iterator.hasNext()) {
+            Reassembly reassembly = iterator.next();
+            reassembly.discard();
+            iterator.remove();
+            if (listener != null) {
+                listener.onTransferFailed(reassembly.transferId, false, reason);
+            }
+        }
+    }
+
+    /**
+     * Fails the transfers that received no chunk for the idle timeout
+     */
+    void expireIdle(long nowNanos) {
+        Iterator<Reassembly> iterator = transfers.values().iterator();
+        while (iterator.hasNext()) {
+            Reassembly reassembly = iterator.next();
+            if (nowNanos - reassembly.lastChunkNanos < idleTimeoutNanos) {
+                continue;
+            }
+            reassembly.discard();
+            iterator.remove();
+            if (listener != null) {
+                listener.onTransferFailed(reassembly.transferId, false, "Transfer timed out");
+            }
+        }
+    }
+
+    private Reassembly start(Chunk chunk) throws IOException {
+        if (chunk.totalSize > maxTransferSize) {
+            throw new IOException("Transfer of " + chunk.totalSize + " bytes exceeds limit of " + maxTransferSize);
+        }
+        if (bufferedBytes + chunk.totalSize <= memoryBudget) {
+            return new Reassembly(chunk, new byte[chunk.totalSize], null);
+        }
+        if (spoolDirectory == null) {
+            throw new IOException("Transfer of " + chunk.totalSize + " bytes exceeds memory budget");
+        }
+        File file = File.createTempFile("transfer-" + chunk.transferId, ".part", spoolDirectory);
+        return new Reassembly(chunk, null, file);
+    }
+
+    private void fail(int transferId, String reason) {
+        Reassembly reassembly = transfers.remove(transferId);
+        if (reassembly != null) {
+            reassembly.discard();
+        }
+        if (listener != null) {
+            listener.onTransferFailed(transferId, false, reason);
+        }
+    }
+
+    /**
+     * State of one transfer being reassembled, backed by either a byte array or a spool file
+     */
+    private class Reassembly {
+
+        final int transferId;
+        final int totalSize;
+        final MessageType contentType;
+        final byte[] buffer;
+        final File file;
+        RandomAccessFile output;
+        int nextSequence = 0;
+        int received = 0;
+        long lastChunkNanos;
+
+        Reassembly(Chunk first, byte[] buffer, File file) throws IOException {
+            this.transferId = first.transferId;
+            this.totalSize = first.totalSize;
+            this.contentType = first.contentType;
+            this.buffer = buffer;
+            this.file = file;
+            if (buffer != null) {
+                bufferedBytes += buffer.length;
+            } else {
+                output = new RandomAccessFile(file, "rw");
+            }
+        }
+
+        void append(Chunk chunk) throws IOException {
+            if (chunk.sequence != nextSequence) {
+                throw new IOException("Expected chunk " + nextSequence + " but got " + chunk.sequence);
+            }
+            if (chunk.totalSize != totalSize || chunk.contentType != contentType) {
+                throw new IOException("Chunk header does not match transfer");
+            }
+            if (received + chunk.length > totalSize) {
+                throw new IOException("Transfer overflowed its declared size");
+            }
+            if (buffer != null) {
+                System.arraycopy(chunk.data, chunk.offset, buffer, received, chunk.length);
+            } else {
+                output.write(chunk.data, chunk.offset, chunk.length);
+            }
+            received += chunk.length;
+            nextSequence++;
+        }
+
+        CompletedTransfer complete() throws IOException {
+            if (buffer != null) {
+                bufferedBytes -= buffer.length;
+                return new CompletedTransfer(transferId, contentType, buffer, null);
+            }
+            output.close();
+            return new CompletedTransfer(transferId, contentType, null, file);
+        }
+
+        void discard() {
+            if (buffer != null) {
+                bufferedBytes -= buffer.length;
+            } else {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    // Nothing to do, the file is deleted below
+                }
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * A fully reassembled payload. Exactly one of data and file is set; when file is set the
+     * caller owns it and should delete it once consumed.
+     */
+    public static class CompletedTransfer {
+
+        public final int transferId;
+        public final MessageType contentType;
+        public final byte[] data;
+        public final File file;
+
+        CompletedTransfer(int transferId, MessageType contentType, byte[] data, File file) {
+            this.transferId = transferId;
+            this.contentType = contentType;
+            this.data = data;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits large payloads into CHUNK Messages and writes them one at a time on an Executor,
+ * so that other writers to the same FrameSink (e.g. text messages) can go out between chunks.
+ *
+ * With a resume buffer, sent payloads are kept so that after a reconnect the transfers can be
+ * continued from the chunk the other device received last, see resume().
+ */
+public class ChunkedSender {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    public static final long DEFAULT_RESUME_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    private static final AtomicInteger nextTransferId = new AtomicInteger((int) System.nanoTime() & 0x7fffffff);
+
+    private final FrameSink sink;
+    private final Executor executor;
+    private final int chunkSize;
+    private volatile TransferListener listener;
+    private volatile PayloadCompressor compressor;
+    // Transfers that can be resumed, oldest first, guarded by this
+    private final ArrayDeque<Transfer> retained = new ArrayDeque<>();
+    private long retainedBytes = 0;
+    private long resumeBufferBytes = 0;
+    // Incremented when transfers are resumed, so the sends they replace stop at their next chunk
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public ChunkedSender(FrameSink sink, Executor executor) {
+        this(sink, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedSender(FrameSink sink, Executor executor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.sink = sink;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    public void setListener(TransferListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param compressor Compressor applied to every chunk, or null to send chunks as they are
+     */
+    public void setCompressor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    /**
+     * Keeps up to this many bytes of sent payloads for resume(), dropping the oldest first.
+     * Payloads larger than the buffer are not kept. 0, the default, keeps none.
+     */
+    public synchronized void setResumeBufferBytes(long resumeBufferBytes) {
+        this.resumeBufferBytes = resumeBufferBytes;
+        trimRetained();
+    }
+
+    /**
+     * Queues a payload to be sent in chunks
+     * @param contentType Type of the reassembled payload on the other device
+     * @param payload Bytes to send, must not be modified until the transfer completes, or while
+     *                it may be resumed if there is a resume buffer
+     * @return The transfer id used in every chunk of this payload
+     */
+    public int send(MessageType contentType, byte[] payload) {
+        Transfer transfer = new Transfer(nextTransferId.incrementAndGet(), contentType, payload);
+        int sendGeneration;
+        synchronized (this) {
+            if (payload.length <= resumeBufferBytes) {
+                retained.add(transfer);
+                retainedBytes += payload.length;
+                trimRetained();
+            }
+            sendGeneration = generation.get();
+        }
+        submit(transfer, 0, sendGeneration);
+        return transfer.transferId;
+    }
+
+    /**
+     * Continues after a reconnect from what the other device received. Transfers sent before
+     * the one it received last are complete and dropped from the resume buffer; that transfer
+     * is sent from its next chunk, and every later one from the start. Sends in progress stop.
+     * @param transferId The transfer the other device received last
+     * @param chunksReceived Chunks of it received in order, 0 if it received none of any transfer
+     * @return Payload bytes that did not have to be sent again
+     */
+    public long resume(int transferId, int chunksReceived) {
+        List<Transfer> transfers;
+        int firstChunk = 0;
+        long bytesSaved = 0;
+        int resumeGeneration;
+        synchronized (this) {
+            resumeGeneration = generation.incrementAndGet();
+            Transfer received = null;
+            for (Transfer transfer : retained) {
+                if (chunksReceived > 0 && transfer.transferId == transferId) {
+                    received = transfer;
+                }
+            }
+            if (received != null) {
+                while (retained.peek() != received) {
+                    dropOldest();
+                }
+                firstChunk = Math.min(chunksReceived, received.getChunkCount(chunkSize));
+                bytesSaved = Math.min((long) firstChunk * chunkSize, received.payload.length);
+                if (firstChunk == received.getChunkCount(chunkSize)) {
+                    dropOldest();
+                    firstChunk = 0;
+                }
+            }
+            transfers = new ArrayList<>(retained);
+        }
+        for (int i = 0; i < transfers.size(); i++) {
+            submit(transfers.get(i), i == 0 ? firstChunk : 0, resumeGeneration);
+        }
+        return bytesSaved;
+    }
+
+    /**
+     * Drops every kept payload, e.g. when the other device starts a new session. Sends in
+     * progress continue.
+     */
+    public synchronized void clearResumeBuffer() {
+        retained.clear();
+        retainedBytes = 0;
+    }
+
+    /**
+     * @return Bytes of sent payloads kept for resume()
+     */
+    public synchronized long getResumeBufferedBytes() {
+        return retainedBytes;
+    }
+
+    private void trimRetained() {
+        while (retainedBytes > resumeBufferBytes) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        retainedBytes -= retained.poll().payload.length;
+    }
+
+    private synchronized boolean isRetained(Transfer transfer) {
+        return retained.contains(transfer);
+    }
+
+    private void submit(final Transfer transfer, final int firstChunk, final int sendGeneration) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendChunks(transfer, firstChunk, sendGeneration);
+            }
+        });
+    }
+
+    private void sendChunks(Transfer transfer, int firstChunk, int sendGeneration) {
+        int transferId = transfer.transferId;
+        byte[] payload = transfer.payload;
+        int sequence = firstChunk;
+        int offset = firstChunk * chunkSize;
+        try {
+            do {
+                if (generation.get() != sendGeneration) {
+                    // Replaced by resume(), which continues the transfer if it still can
+                    if (!isRetained(transfer)) {
+                        TransferListener listener = this.listener;
+                        if (listener != null) {
+                            listener.onTransferFailed(transferId, true, "Transfer could not be resumed");
+                        }
+                    }
+                    return;
+                }
+                int length = Math.min(chunkSize, payload.length - offset);
+                Chunk chunk = new Chunk(transferId, sequence, payload.length, transfer.contentType, payload, offset, length);
+                Message message = chunk.toMessage();
+                PayloadCompressor compressor = this.compressor;
+                if (compressor != null) {
+                    message = compressor.compress(message);
+                }
+                sink.write(MessageCodec.encode(message));
+                offset += length;
+                sequence++;
+                TransferListener listener = this.listener;
+                if (listener != null) {
+                    listener.onTransferProgress(transferId, true, offset, payload.length);
+                }
+            } while (offset < payload.length);
+        } catch (RuntimeException e) {
+            TransferListener listener = this.listener;
+            if (listener != null) {
+                listener.onTransferFailed(transferId, true, String.valueOf(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * A payload being sent or kept for resume()
+     */
+    private static class Transfer {
+        final int transferId;
+        final MessageType contentType;
+        final byte[] payload;
+
+        Transfer(int transferId, MessageType contentType, byte[] payload) {
+            this.transferId = transferId;
+            this.contentType = contentType;
+            this.payload = payload;
+        }
+
+        int getChunkCount(int chunkSize) {
+            // An empty payload is still sent as one chunk
+            return Math.max(1, (payload.length + chunkSize - 1) / chunkSize);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+
+import edu.rit.se.wifibuddy.CommunicationManager;
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * Transport over the WifiDirectHandler's CommunicationManager, the production connection to the
+ * other device. WifiDirectHandler broadcasts received frames, so the owner of the broadcast
+ * receiver passes them on with deliver.
+ */
+public class CommunicationManagerTransport implements Transport {
+
+    private final WifiDirectHandler wifiDirectHandler;
+    private volatile Receiver receiver;
+    private volatile boolean closed = false;
+
+    public CommunicationManagerTransport(WifiDirectHandler wifiDirectHandler) {
+        this.wifiDirectHandler = wifiDirectHandler;
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * The connection is established by WifiDirectHandler, this only checks that it exists
+     */
+    @Override
+    public void connect() throws IOException {
+        if (wifiDirectHandler.getCommunicationManager() == null) {
+            throw new IOException("Not connected to a service");
+        }
+        closed = false;
+    }
+
+    @Override
+    public void write(byte[] frame) {
+        CommunicationManager communicationManager = wifiDirectHandler.getCommunicationManager();
+        if (closed || communicationManager == null) {
+            throw new IllegalStateException("Communication Manager is null");
+        }
+        communicationManager.write(frame);
+    }
+
+    /**
+     * Hands a frame received by WifiDirectHandler to the Receiver
+     * @param frame Frame from a MESSAGE_RECEIVED broadcast
+     */
+    public void deliver(byte[] frame) {
+        Receiver receiver = this.receiver;
+        if (receiver != null && !closed) {
+            receiver.onFrame(this, frame);
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && wifiDirectHandler.getCommunicationManager() != null;
+    }
+
+    /**
+     * Stops delivering and sending frames. The P2P connection itself is owned by WifiDirectHandler.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Receiver receiver = this.receiver;
+        if (receiver != null) {
+            receiver.onClosed(this, null);
+        }
+    }
+}
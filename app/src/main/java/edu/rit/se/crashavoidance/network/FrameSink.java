@@ -0,0 +1,13 @@
+package edu.rit.se.crashavoidance.network;
+
+/**
+ * Destination for encoded frames, usually the connection to the other device
+ */
+public interface FrameSink {
+
+    /**
+     * Writes one encoded frame
+     * @param frame Frame produced by MessageCodec
+     */
+    void write(byte[] frame);
+}
@@ -0,0 +1,439 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.rit.se.crashavoidance.metrics.Counter;
+import edu.rit.se.crashavoidance.metrics.Gauge;
+import edu.rit.se.crashavoidance.metrics.Histogram;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+import edu.rit.se.crashavoidance.metrics.RateMeter;
+
+/**
+ * Relays a group chat on the group owner. Every frame a member sends is passed on to every
+ * other member and to the group owner's own Receiver, and frames written to the relay go to
+ * every member. A relayed frame is the received byte array itself, shared by all members, so
+ * it is encoded once no matter how large the group is. Only a ReliableSession sequence is
+ * removed first, since it numbers the link to the group owner and would be taken for a
+ * duplicate or a gap on every other link; the group owner's Receiver still gets it to
+ * acknowledge.
+ *
+ * Each member has its own bounded OutboundDispatcher. Frames are offered without blocking and
+ * dropped for a member whose queue is full, so one slow member falls behind on its own instead
+ * of stalling the others.
+ *
+ * HELLO, PING, PONG, ACK and BULK frames belong to the link between a member and the group
+ * owner and are not relayed, and a BATCH is relayed with only the frames that are. The
+ * Receiver gets every frame with the member's Transport as its argument, so a responder can
+ * reply to that member alone. The group owner's own Hello goes to
+ * every member, including those that join after it was written.
+ */
+public class GroupRelay implements Transport {
+
+    public static final int DEFAULT_MEMBER_QUEUE_FRAMES = 64;
+    public static final long DEFAULT_MEMBER_QUEUE_BYTES = 512 * 1024;
+
+    private final MetricsRegistry metrics;
+    private final int memberQueueFrames;
+    private final long memberQueueBytes;
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+    private volatile Receiver receiver;
+    private volatile boolean closed = false;
+    // Last HELLO frame written by the group owner
+    private volatile byte[] hello;
+
+    private final RateMeter framesIn;
+    private final RateMeter fanOutFrames;
+    private final RateMeter fanOutBytes;
+    private final Counter droppedFrames;
+
+    public GroupRelay(MetricsRegistry metrics) {
+        this(metrics, DEFAULT_MEMBER_QUEUE_FRAMES, DEFAULT_MEMBER_QUEUE_BYTES);
+    }
+
+    /**
+     * @param memberQueueFrames Frames that may wait for one member before frames are dropped
+     * @param memberQueueBytes Bytes that may wait for one member before frames are dropped
+     */
+    public GroupRelay(MetricsRegistry metrics, int memberQueueFrames, long memberQueueBytes) {
+        this.metrics = metrics;
+        this.memberQueueFrames = memberQueueFrames;
+        this.memberQueueBytes = memberQueueBytes;
+        framesIn = metrics.rate("relay.frames_in");
+        fanOutFrames = metrics.rate("relay.fan_out_frames");
+        fanOutBytes = metrics.rate("relay.fan_out_bytes");
+        droppedFrames = metrics.counter("relay.dropped_frames");
+        metrics.gauge("relay.members", new Gauge() {
+            @Override
+            public double getValue() {
+                return members.size();
+            }
+        });
+    }
+
+    /**
+     * Adds a member, connects its transport and starts relaying its frames. The relay becomes
+     * the transport's Receiver, and the member is sent the group owner's Hello first.
+     * @param id Name of the member in metrics, e.g. its device address
+     * @throws IOException if the transport can't be connected, the member is not added then
+     * @throws IllegalStateException if the relay is closed or the id is already a member
+     */
+    public synchronized Member addMember(String id, Transport transport) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Relay closed");
+        }
+        if (getMember(id) != null) {
+            throw new IllegalStateException("Already a member: " + id);
+        }
+        Member member = new Member(id, transport);
+        members.add(member);
+        transport.setReceiver(memberReceiver);
+        try {
+            transport.connect();
+        } catch (IOException e) {
+            remove(member);
+            throw e;
+        }
+        member.dispatcher.start();
+        byte[] hello = this.hello;
+        if (hello != null) {
+            member.offer(hello, OutboundDispatcher.priorityOf(hello));
+        }
+        return member;
+    }
+
+    /**
+     * Stops relaying to a member and closes its transport. Does nothing if it isn't a member.
+     */
+    public void removeMember(String id) {
+        Member member = getMember(id);
+        if (member != null) {
+            remove(member);
+        }
+    }
+
+    public Member getMember(String id) {
+        for (Member member : members) {
+            if (member.id.equals(id)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    private Member getMember(Transport transport) {
+        for (Member member : members) {
+            if (member.transport == transport) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    private void remove(Member member) {
+        if (!member.removed.compareAndSet(false, true)) {
+            return;
+        }
+        // Its id stays taken until its metrics are gone, so a member rejoining under the same id
+        // registers new ones
+        member.unregisterMetrics();
+        members.remove(member);
+        member.dispatcher.shutdown();
+        member.transport.close();
+        member.unregisterMetrics();
+    }
+
+    /**
+     * Queues a frame for every member except the one it came from
+     * @param origin Member the frame came from, or null for the group owner's own frames
+     */
+    private void fanOut(byte[] frame, Member origin) {
+        OutboundDispatcher.Priority priority = OutboundDispatcher.priorityOf(frame);
+        for (Member member : members) {
+            if (member != origin) {
+                member.offer(frame, priority);
+            }
+        }
+    }
+
+    private static boolean isLinkControl(byte[] frame) {
+        MessageType type = MessageType.fromCode(frame[1]);
+        return type == MessageType.HELLO || type == MessageType.PING || type == MessageType.PONG
+                || type == MessageType.ACK || type == MessageType.BULK;
+    }
+
+    /**
+     * Returns what to relay of a frame from a member: nothing for link control, otherwise the
+     * frame without its sequence. A BATCH is taken apart and rebuilt without its link control
+     * and sequences if it has any.
+     * @return The frame to relay, or null to relay nothing
+     */
+    private static byte[] relayedFrame(byte[] frame) {
+        if (isLinkControl(frame)) {
+            return null;
+        }
+        byte[] relayed = ReliableSession.withoutSequence(frame);
+        if (relayed == null || MessageType.fromCode(relayed[1]) != MessageType.BATCH) {
+            return relayed;
+        }
+        List<byte[]> frames = new ArrayList<>();
+        boolean changed = false;
+        ByteBuffer batch = ByteBuffer.wrap(relayed);
+        batch.position(MessageCodec.HEADER_LENGTH);
+        while (batch.hasRemaining()) {
+            if (batch.remaining() < MessageCodec.HEADER_LENGTH) {
+                return null;
+            }
+            int length = batch.getInt(batch.position() + 4);
+            if (length < 0 || length > batch.remaining() - MessageCodec.HEADER_LENGTH) {
+                return null;
+            }
+            byte[] batched = new byte[MessageCodec.HEADER_LENGTH + length];
+            batch.get(batched);
+            byte[] relayedBatched = isLinkControl(batched) ? null : ReliableSession.withoutSequence(batched);
+            if (relayedBatched != null) {
+                frames.add(relayedBatched);
+            }
+            changed |= relayedBatched != batched;
+        }
+        if (!changed) {
+            return relayed;
+        }
+        if (frames.isEmpty()) {
+            return null;
+        }
+        return frames.size() == 1 ? frames.get(0) : MessageBatch.encode(frames);
+    }
+
+    private final Receiver memberReceiver = new Receiver() {
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            Member origin = getMember(transport);
+            if (origin == null || frame.length < MessageCodec.HEADER_LENGTH) {
+                return;
+            }
+            framesIn.mark(1);
+            byte[] relayed = relayedFrame(frame);
+            if (relayed != null) {
+                fanOut(relayed, origin);
+            }
+            Receiver receiver = GroupRelay.this.receiver;
+            if (receiver != null) {
+                receiver.onFrame(transport, frame);
+            }
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+            Member member = getMember(transport);
+            if (member != null) {
+                remove(member);
+            }
+        }
+    };
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Members are connected as they are added, so there is nothing to establish
+     * @throws IOException if the relay is closed
+     */
+    @Override
+    public void connect() throws IOException {
+        if (closed) {
+            throw new IOException("Relay closed");
+        }
+    }
+
+    /**
+     * Queues a frame from the group owner for every member. A HELLO frame is also kept for
+     * members that join later.
+     * @throws IllegalStateException if the relay is closed
+     */
+    @Override
+    public void write(byte[] frame) {
+        if (closed) {
+            throw new IllegalStateException("Relay closed");
+        }
+        if (frame.length >= MessageCodec.HEADER_LENGTH && MessageType.fromCode(frame[1]) == MessageType.HELLO) {
+            hello = frame;
+        }
+        fanOut(frame, null);
+    }
+
+    /**
+     * @return True while at least one member is connected
+     */
+    @Override
+    public boolean isConnected() {
+        return !closed && !members.isEmpty();
+    }
+
+    /**
+     * Removes every member and closes their transports
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (Member member : members) {
+            remove(member);
+        }
+        Receiver receiver = this.receiver;
+        if (receiver != null) {
+            receiver.onClosed(this, null);
+        }
+    }
+
+    /**
+     * @return Frames dropped across all members because their queues were full
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return Frames written to members, counting a frame once per member
+     */
+    public long getFanOutFrames() {
+        return fanOutFrames.getTotal();
+    }
+
+    /**
+     * One member of the group and its queue of frames waiting to be written to it
+     */
+    public class Member {
+
+        private final String id;
+        private final Transport transport;
+        private final OutboundDispatcher dispatcher;
+        private final Histogram lag;
+        private final AtomicLong droppedFrames = new AtomicLong();
+        private final AtomicBoolean removed = new AtomicBoolean();
+        private final Gauge queueDepthGauge = new Gauge() {
+            @Override
+            public double getValue() {
+                return dispatcher.getQueueDepth();
+            }
+        };
+        private final Gauge droppedFramesGauge = new Gauge() {
+            @Override
+            public double getValue() {
+                return droppedFrames.get();
+            }
+        };
+
+        // Queue times of the frames in the dispatcher, per priority since each is written in order
+        private final List<ArrayDeque<Long>> queuedAt;
+
+        private Member(String id, Transport transport) {
+            this.id = id;
+            this.transport = transport;
+            dispatcher = new OutboundDispatcher(new FrameSink() {
+                @Override
+                public void write(byte[] frame) {
+                    Member.this.transport.write(frame);
+                    onWritten(frame, true);
+                }
+            }, memberQueueFrames, memberQueueBytes);
+            dispatcher.setListener(new OutboundDispatcher.Listener() {
+                @Override
+                public void onFrameFailed(byte[] frame, OutboundDispatcher.Priority priority, RuntimeException cause) {
+                    onWritten(frame, false);
+                }
+            });
+            OutboundDispatcher.Priority[] priorities = OutboundDispatcher.Priority.values();
+            queuedAt = new ArrayList<>(priorities.length);
+            for (int i = 0; i < priorities.length; i++) {
+                queuedAt.add(new ArrayDeque<Long>());
+            }
+            lag = metrics.histogram(metricName("lag"), "ms");
+            metrics.gauge(metricName("queue_depth"), queueDepthGauge);
+            metrics.gauge(metricName("dropped_frames"), droppedFramesGauge);
+        }
+
+        private String metricName(String name) {
+            return "relay.member." + id + "." + name;
+        }
+
+        private void unregisterMetrics() {
+            metrics.remove(metricName("lag"));
+            metrics.remove(metricName("queue_depth"), queueDepthGauge);
+            metrics.remove(metricName("dropped_frames"), droppedFramesGauge);
+        }
+
+        private void offer(byte[] frame, OutboundDispatcher.Priority priority) {
+            ArrayDeque<Long> times = queuedAt.get(priority.ordinal());
+            synchronized (this) {
+                times.addLast(System.nanoTime());
+                if (dispatcher.offer(frame, priority)) {
+                    return;
+                }
+                times.pollLast();
+            }
+            droppedFrames.incrementAndGet();
+            GroupRelay.this.droppedFrames.increment();
+        }
+
+        private void onWritten(byte[] frame, boolean written) {
+            Long queued;
+            synchronized (this) {
+                queued = queuedAt.get(OutboundDispatcher.priorityOf(frame).ordinal()).pollFirst();
+            }
+            if (!written) {
+                return;
+            }
+            if (queued != null) {
+                lag.record((System.nanoTime() - queued) / 1000000);
+            }
+            fanOutFrames.mark(1);
+            fanOutBytes.mark(frame.length);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * @return Frames waiting to be written to this member
+         */
+        public int getQueueDepth() {
+            return dispatcher.getQueueDepth();
+        }
+
+        /**
+         * @return Frames this member missed because its queue was full
+         */
+        public long getDroppedFrames() {
+            return droppedFrames.get();
+        }
+
+        /**
+         * @return Time from a frame being queued for this member to it being written, in ms
+         */
+        public Histogram getLag() {
+            return lag;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Capabilities exchanged in a HELLO Message when two devices connect. Each side sends its own
+ * Hello and uses the features both sides support.
+ *
+ * Payload (big-endian): protocol version (u8) | supported codecs (u32 bitmask)
+ *                       | supported features (u32 bitmask, absent from older peers)
+ *                       | resume state, only with FEATURE_RESUME: session id (u64)
+ *                         | peer session id (u64) | received sequence (u32)
+ *                         | transfer id (u32) | chunks received (u32)
+ */
+public class Hello {
+
+    public static final byte PROTOCOL_VERSION = 1;
+
+    /** Codec bit for PayloadCompressor's Deflate encoding */
+    public static final int CODEC_DEFLATE = 1;
+
+    /** Feature bit for ReliableSession's sequenced Messages and Acks */
+    public static final int FEATURE_RELIABLE = 1;
+    /** Feature bit for the resume state, see SessionResumer */
+    public static final int FEATURE_RESUME = 2;
+
+    public final byte protocolVersion;
+    public final int codecs;
+    public final int features;
+    // Null unless FEATURE_RESUME is set
+    public final Resume resume;
+
+    public Hello(int codecs) {
+        this(codecs, 0);
+    }
+
+    public Hello(int codecs, int features) {
+        this(PROTOCOL_VERSION, codecs, features, null);
+    }
+
+    /**
+     * @param resume What this device has received, or null. FEATURE_RESUME is set with it.
+     */
+    public Hello(int codecs, int features, Resume resume) {
+        this(PROTOCOL_VERSION, codecs, features, resume);
+    }
+
+    public Hello(byte protocolVersion, int codecs, int features, Resume resume) {
+        this.protocolVersion = protocolVersion;
+        this.codecs = codecs;
+        this.features = resume != null ? features | FEATURE_RESUME : features & ~FEATURE_RESUME;
+        this.resume = resume;
+    }
+
+    /**
+     * @return True if the codec bit is set
+     */
+    public boolean supports(int codec) {
+        return (codecs & codec) != 0;
+    }
+
+    /**
+     * @return True if the feature bit is set
+     */
+    public boolean hasFeature(int feature) {
+        return (features & feature) != 0;
+    }
+
+    public Message toMessage() {
+        ByteBuffer buffer = ByteBuffer.allocate(resume != null ? 9 + Resume.LENGTH : 9);
+        buffer.put(protocolVersion);
+        buffer.putInt(codecs);
+        buffer.putInt(features);
+        if (resume != null) {
+            buffer.putLong(resume.sessionId);
+            buffer.putLong(resume.peerSessionId);
+            buffer.putInt(resume.receivedSequence);
+            buffer.putInt(resume.transferId);
+            buffer.putInt(resume.chunksReceived);
+        }
+        return new Message(MessageType.HELLO, buffer.array());
+    }
+
+    /**
+     * Reads the Hello carried by a HELLO Message. Bytes after the known fields are ignored so
+     * newer peers can extend the Hello.
+     * @throws MessageFormatException if the payload is too short
+     */
+    public static Hello fromMessage(Message message) throws MessageFormatException {
+        if (message.messageType != MessageType.HELLO) {
+            throw new MessageFormatException("Not a hello: " + message.messageType);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(message.message);
+            byte protocolVersion = buffer.get();
+            int codecs = buffer.getInt();
+            int features = buffer.remaining() >= 4 ? buffer.getInt() : 0;
+            Resume resume = null;
+            if ((features & FEATURE_RESUME) != 0) {
+                resume = new Resume(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            }
+            return new Hello(protocolVersion, codecs, features, resume);
+        } catch (BufferUnderflowException e) {
+            throw new MessageFormatException("Hello truncated");
+        }
+    }
+
+    /**
+     * What a device has received in its session with the other device, so that after a
+     * reconnect the other device only sends the rest
+     */
+    public static class Resume {
+
+        static final int LENGTH = 28;
+
+        /** Id of the sending device's session, kept across reconnects */
+        public final long sessionId;
+        /** Session id the sending device last received from the other device, 0 if none */
+        public final long peerSessionId;
+        /** Highest ReliableSession sequence received with nothing missing below it */
+        public final int receivedSequence;
+        /** Most recent chunked transfer received, if chunksReceived is not 0 */
+        public final int transferId;
+        /** Chunks of that transfer received in order */
+        public final int chunksReceived;
+
+        public Resume(long sessionId, long peerSessionId, int receivedSequence, int transferId, int chunksReceived) {
+            this.sessionId = sessionId;
+            this.peerSessionId = peerSessionId;
+            this.receivedSequence = receivedSequence;
+            this.transferId = transferId;
+            this.chunksReceived = chunksReceived;
+        }
+    }
+}
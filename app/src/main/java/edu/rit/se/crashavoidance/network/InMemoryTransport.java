@@ -0,0 +1,118 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One end of an in-process connection. Frames written to one end are delivered to the other
+ * end's Receiver, in order, on that end's delivery thread. Frames are handed over by reference,
+ * so writers must not modify a frame after writing it.
+ */
+public class InMemoryTransport implements Transport {
+
+    private InMemoryTransport peer;
+    private volatile Receiver receiver;
+    private volatile ExecutorService deliveryExecutor;
+    private volatile boolean closed = false;
+
+    private InMemoryTransport() {
+    }
+
+    /**
+     * Creates two connected ends
+     */
+    public static InMemoryTransport[] pair() {
+        InMemoryTransport first = new InMemoryTransport();
+        InMemoryTransport second = new InMemoryTransport();
+        first.peer = second;
+        second.peer = first;
+        return new InMemoryTransport[]{first, second};
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (closed) {
+            throw new IOException("Transport closed");
+        }
+        if (deliveryExecutor == null) {
+            deliveryExecutor = Executors.newSingleThreadExecutor();
+        }
+    }
+
+    @Override
+    public void write(byte[] frame) {
+        if (closed || deliveryExecutor == null) {
+            throw new IllegalStateException("Transport not connected");
+        }
+        peer.deliver(frame);
+    }
+
+    private void deliver(final byte[] frame) {
+        ExecutorService executor = deliveryExecutor;
+        if (executor == null || closed) {
+            throw new IllegalStateException("Peer not connected");
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Receiver receiver = InMemoryTransport.this.receiver;
+                    if (receiver != null) {
+                        receiver.onFrame(InMemoryTransport.this, frame);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Peer closed");
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && deliveryExecutor != null;
+    }
+
+    /**
+     * Closes both ends
+     */
+    @Override
+    public void close() {
+        if (closeLocal()) {
+            peer.closeLocal();
+        }
+    }
+
+    private boolean closeLocal() {
+        ExecutorService executor;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            executor = deliveryExecutor;
+        }
+        final Receiver receiver = this.receiver;
+        if (executor != null) {
+            // Report the close after frames already queued for delivery
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (receiver != null) {
+                        receiver.onClosed(InMemoryTransport.this, null);
+                    }
+                }
+            });
+            executor.shutdown();
+        } else if (receiver != null) {
+            receiver.onClosed(this, null);
+        }
+        return true;
+    }
+}
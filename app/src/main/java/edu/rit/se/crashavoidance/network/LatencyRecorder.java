@@ -0,0 +1,59 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.util.Arrays;
+
+/**
+ * Records latency samples and reports percentiles over all of them. Not thread safe.
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[64];
+    private int count = 0;
+    private boolean sorted = true;
+
+    public void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+        sorted = false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the nearest-rank percentile of the recorded samples
+     * @param percentile Percentile in (0, 100]
+     * @return The sample at that percentile, or 0 if there are no samples
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        sort();
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return samples[Math.min(count, Math.max(1, rank)) - 1];
+    }
+
+    public long getMax() {
+        if (count == 0) {
+            return 0;
+        }
+        sort();
+        return samples[count - 1];
+    }
+
+    public void clear() {
+        count = 0;
+        sorted = true;
+    }
+
+    private void sort() {
+        if (!sorted) {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+    }
+}
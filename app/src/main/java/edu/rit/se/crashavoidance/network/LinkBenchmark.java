@@ -0,0 +1,244 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.se.crashavoidance.metrics.Histogram;
+
+/**
+ * Measures round trip time, throughput, loss and reordering of a link to a device running a
+ * LinkResponder. Frames are written to FrameSinks and PONGs are fed back through onMessage,
+ * so the benchmark runs over any transport. The measure methods block and must not be called
+ * on the UI thread.
+ *
+ * PING payload: sequence (u32) | send time in nanoseconds (u64) | padding
+ * BULK payload: run id (u32) | sequence (u32) | padding
+ */
+public class LinkBenchmark {
+
+    static final int PING_HEADER_LENGTH = 12;
+    static final int BULK_HEADER_LENGTH = 8;
+
+    private final FrameSink controlSink;
+    private final FrameSink bulkSink;
+    private final Object lock = new Object();
+    private final Random random = new Random();
+
+    // Guarded by lock
+    private final Map<Integer, Long> outstandingPings = new HashMap<>();
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final SequenceTracker pongTracker = new SequenceTracker();
+    private int lastPongSequence = -1;
+    private long lastPongNanos;
+    private int remoteBulkReceived;
+    private int remoteBulkReordered;
+    private int nextPingSequence = 0;
+    private int nextBulkRunId = 1;
+    private Histogram roundTripHistogram;
+
+    /**
+     * @param controlSink Sink for latency PINGs, should bypass any queued bulk data
+     * @param bulkSink Sink for BULK messages and the PINGs that end a throughput run, must keep
+     *                 them in order and should block while the link is saturated
+     */
+    public LinkBenchmark(FrameSink controlSink, FrameSink bulkSink) {
+        this.controlSink = controlSink;
+        this.bulkSink = bulkSink;
+    }
+
+    /**
+     * Also records every ping's round trip time in a Histogram, e.g. one in the app's metrics
+     */
+    public void setRoundTripHistogram(Histogram roundTripHistogram) {
+        this.roundTripHistogram = roundTripHistogram;
+    }
+
+    /**
+     * Result of a benchmark run. Latencies are in nanoseconds.
+     */
+    public static class Report {
+        public int sent;
+        public int received;
+        public int lost;
+        public int reordered;
+        public long p50;
+        public long p90;
+        public long p99;
+        public long max;
+        public long bytes;
+        public long elapsedNanos;
+
+        /**
+         * @return Throughput in megabytes (10^6 bytes) per second
+         */
+        public double getMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes * 1000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("Sent ").append(sent).append(", received ").append(received)
+                    .append(", lost ").append(lost).append(", reordered ").append(reordered).append('\n');
+            if (p50 > 0) {
+                builder.append("RTT p50 ").append(toMillis(p50)).append(" ms, p90 ").append(toMillis(p90))
+                        .append(" ms, p99 ").append(toMillis(p99)).append(" ms, max ").append(toMillis(max))
+                        .append(" ms\n");
+            }
+            if (bytes > 0) {
+                builder.append(bytes).append(" bytes in ").append(toMillis(elapsedNanos)).append(" ms, ")
+                        .append(String.format("%.3f", getMegabytesPerSecond())).append(" MB/s\n");
+            }
+            return builder.toString();
+        }
+
+        private static String toMillis(long nanos) {
+            return String.format("%.2f", nanos / 1000000.0);
+        }
+    }
+
+    /**
+     * Sends PINGs at a fixed interval and measures the round trip of each
+     * @param count Number of PINGs
+     * @param payloadSize Size of each PING payload, at least the PING header
+     * @param intervalMillis Delay between PINGs
+     * @param timeoutMillis How long to wait for outstanding PONGs after the last PING
+     * @return RTT percentiles, loss and reordering of the PONGs
+     */
+    public Report measureLatency(int count, int payloadSize, long intervalMillis, long timeoutMillis)
+            throws InterruptedException {
+        synchronized (lock) {
+            outstandingPings.clear();
+            latency.clear();
+            pongTracker.reset();
+        }
+        int firstSequence = -1;
+        for (int i = 0; i < count; i++) {
+            int sequence = sendPing(controlSink, payloadSize);
+            if (firstSequence < 0) {
+                firstSequence = sequence;
+            }
+            if (intervalMillis > 0 && i < count - 1) {
+                Thread.sleep(intervalMillis);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Report report = new Report();
+        synchronized (lock) {
+            long remaining;
+            while (!outstandingPings.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            report.sent = count;
+            report.received = latency.getCount();
+            report.lost = outstandingPings.size();
+            report.reordered = pongTracker.getReordered();
+            report.p50 = latency.getPercentile(50);
+            report.p90 = latency.getPercentile(90);
+            report.p99 = latency.getPercentile(99);
+            report.max = latency.getMax();
+            outstandingPings.clear();
+        }
+        return report;
+    }
+
+    /**
+     * Sends BULK messages as fast as the bulk sink accepts them, followed by a PING. The run ends
+     * when the PONG arrives, which also carries the responder's count of BULK messages.
+     * @param count Number of BULK messages
+     * @param payloadSize Size of each BULK payload, at least the BULK header
+     * @param timeoutMillis How long to wait for the final PONG
+     * @return Throughput, loss and reordering of the BULK messages
+     */
+    public Report measureThroughput(int count, int payloadSize, long timeoutMillis) throws InterruptedException {
+        byte[] payload = new byte[Math.max(payloadSize, BULK_HEADER_LENGTH)];
+        random.nextBytes(payload);
+        int runId;
+        synchronized (lock) {
+            runId = nextBulkRunId++;
+            outstandingPings.clear();
+            lastPongSequence = -1;
+        }
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer.wrap(payload).putInt(runId).putInt(i);
+            byte[] frame = MessageCodec.encode(new Message(MessageType.BULK, payload));
+            bulkSink.write(frame);
+            bytes += frame.length;
+        }
+        int marker = sendPing(bulkSink, PING_HEADER_LENGTH);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Report report = new Report();
+        synchronized (lock) {
+            long remaining;
+            while (lastPongSequence != marker && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            report.sent = count;
+            report.bytes = bytes;
+            if (lastPongSequence == marker) {
+                report.received = remoteBulkReceived;
+                report.lost = count - remoteBulkReceived;
+                report.reordered = remoteBulkReordered;
+                report.elapsedNanos = lastPongNanos - start;
+            } else {
+                // The final PONG never arrived, so nothing is known to have been delivered
+                report.lost = count;
+                report.elapsedNanos = System.nanoTime() - start;
+                report.bytes = 0;
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Feeds a received PONG to the benchmark. Other message types are ignored.
+     */
+    public void onMessage(Message message) throws MessageFormatException {
+        if (message.messageType != MessageType.PONG) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (message.message.length < PING_HEADER_LENGTH + LinkResponder.STATS_LENGTH) {
+            throw new MessageFormatException("Pong truncated");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(message.message);
+        int sequence = buffer.getInt();
+        long sentNanos = buffer.getLong();
+        buffer.position(message.message.length - LinkResponder.STATS_LENGTH);
+        synchronized (lock) {
+            remoteBulkReceived = buffer.getInt();
+            remoteBulkReordered = buffer.getInt();
+            if (outstandingPings.remove(sequence) != null) {
+                latency.record(now - sentNanos);
+                pongTracker.record(sequence);
+                if (roundTripHistogram != null) {
+                    roundTripHistogram.record(now - sentNanos);
+                }
+            }
+            lastPongSequence = sequence;
+            lastPongNanos = now;
+            lock.notifyAll();
+        }
+    }
+
+    private int sendPing(FrameSink sink, int payloadSize) {
+        byte[] payload = new byte[Math.max(payloadSize, PING_HEADER_LENGTH)];
+        int sequence;
+        long now = System.nanoTime();
+        synchronized (lock) {
+            sequence = nextPingSequence++;
+            outstandingPings.put(sequence, now);
+        }
+        ByteBuffer.wrap(payload).putInt(sequence).putLong(now);
+        sink.write(MessageCodec.encode(new Message(MessageType.PING, payload)));
+        return sequence;
+    }
+}
@@ -0,0 +1,51 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The remote half of LinkBenchmark. Answers every PING with a PONG and counts the BULK
+ * messages of the current throughput run, reporting the counts back in each PONG.
+ * Not thread safe, messages must be delivered from a single thread.
+ *
+ * PONG payload: the PING payload | bulk received (u32) | bulk reordered (u32) | bulk duplicates (u32)
+ */
+public class LinkResponder {
+
+    static final int STATS_LENGTH = 12;
+
+    private final SequenceTracker bulkTracker = new SequenceTracker();
+    private int bulkRunId = 0;
+
+    /**
+     * Builds the PONG answering a PING
+     * @param ping Received PING
+     * @return The PONG to send back
+     */
+    public Message respond(Message ping) {
+        byte[] payload = new byte[ping.message.length + STATS_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.put(ping.message);
+        buffer.putInt(bulkTracker.getReceived());
+        buffer.putInt(bulkTracker.getReordered());
+        buffer.putInt(bulkTracker.getDuplicates());
+        return new Message(MessageType.PONG, payload);
+    }
+
+    /**
+     * Counts a received BULK message
+     * @throws MessageFormatException if the payload is too short to hold the run and sequence
+     */
+    public void onBulk(Message bulk) throws MessageFormatException {
+        if (bulk.message.length < LinkBenchmark.BULK_HEADER_LENGTH) {
+            throw new MessageFormatException("Bulk message truncated");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bulk.message);
+        int runId = buffer.getInt();
+        int sequence = buffer.getInt();
+        if (runId != bulkRunId) {
+            bulkRunId = runId;
+            bulkTracker.reset();
+        }
+        bulkTracker.record(sequence);
+    }
+}
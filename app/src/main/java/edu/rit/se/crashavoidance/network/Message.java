@@ -9,9 +9,16 @@ public class Message implements Serializable {
 
     public MessageType messageType;
     public byte[] message;
+    /** Header flags, see MessageCodec.FLAG_* */
+    public byte flags;
 
     public Message(MessageType messageType, byte[] message) {
+        this(messageType, message, (byte) 0);
+    }
+
+    public Message(MessageType messageType, byte[] message, byte flags) {
         this.messageType = messageType;
         this.message = message;
+        this.flags = flags;
     }
 }
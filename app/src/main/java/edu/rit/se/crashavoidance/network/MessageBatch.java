@@ -0,0 +1,56 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs several encoded frames into a single BATCH frame. Frames carry their own length in the
+ * header, so the batch payload is simply the frames back to back.
+ */
+public final class MessageBatch {
+
+    private MessageBatch() {
+    }
+
+    /**
+     * Encodes frames into one BATCH frame
+     * @param frames Frames produced by MessageCodec
+     * @return The BATCH frame
+     */
+    public static byte[] encode(List<byte[]> frames) {
+        int length = 0;
+        for (byte[] frame : frames) {
+            length += frame.length;
+        }
+        byte[] batch = new byte[MessageCodec.HEADER_LENGTH + length];
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        MessageCodec.writeHeader(MessageType.BATCH, (byte) 0, length, buffer);
+        for (byte[] frame : frames) {
+            buffer.put(frame);
+        }
+        return batch;
+    }
+
+    /**
+     * Splits a BATCH Message back into the Messages it contains
+     * @param batch Message of type BATCH
+     * @return The contained Messages in the order they were batched
+     * @throws MessageFormatException if the batch or one of its frames is malformed
+     */
+    public static List<Message> decode(Message batch) throws MessageFormatException {
+        if (batch.messageType != MessageType.BATCH) {
+            throw new MessageFormatException("Not a batch: " + batch.messageType);
+        }
+        List<Message> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(batch.message);
+        while (buffer.hasRemaining()) {
+            Message message = MessageCodec.decode(buffer);
+            if (message.messageType == MessageType.BATCH) {
+                throw new MessageFormatException("Nested batch");
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,155 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes and decodes Messages using a compact binary frame instead of Java serialization.
+ *
+ * Frame layout (big-endian):
+ * <pre>
+ *  0      1      2      3      4             8
+ *  +------+------+------+------+-------------+----------------+
+ *  | ver  | type | flags| rsvd | length (u32)| payload ...    |
+ *  +------+------+------+------+-------------+----------------+
+ * </pre>
+ * The header is always HEADER_LENGTH bytes and the payload is copied verbatim after it.
+ * Flags describe how the payload is encoded, e.g. FLAG_COMPRESSED. With FLAG_SEQUENCED the
+ * payload is prefixed by a sequence number that extends the header.
+ */
+public final class MessageCodec {
+
+    public static final byte VERSION = 1;
+    public static final int HEADER_LENGTH = 8;
+
+    /** The payload was compressed by PayloadCompressor */
+    public static final byte FLAG_COMPRESSED = 0x01;
+    /** The payload starts with a ReliableSession sequence number (u32) */
+    public static final byte FLAG_SEQUENCED = 0x02;
+    private static final byte KNOWN_FLAGS = FLAG_COMPRESSED | FLAG_SEQUENCED;
+
+    /** Upper bound on a single payload, protects the receiver from corrupt length fields */
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Returns the number of bytes needed to encode a Message
+     * @param message Message to measure
+     * @return Encoded frame size in bytes
+     */
+    public static int encodedLength(Message message) {
+        return HEADER_LENGTH + payloadLength(message);
+    }
+
+    /**
+     * Encodes a Message into a new byte array that can be handed to the transport
+     * @param message Message to encode
+     * @return The encoded frame
+     */
+    public static byte[] encode(Message message) {
+        byte[] frame = new byte[encodedLength(message)];
+        encode(message, ByteBuffer.wrap(frame));
+        return frame;
+    }
+
+    /**
+     * Encodes a Message into the destination buffer at its current position.
+     * The buffer's position is advanced past the frame.
+     * @param message Message to encode
+     * @param destination Buffer with at least encodedLength(message) bytes remaining
+     */
+    public static void encode(Message message, ByteBuffer destination) {
+        int length = payloadLength(message);
+        if (destination.remaining() < HEADER_LENGTH + length) {
+            throw new IllegalArgumentException("Destination buffer too small for frame of "
+                    + (HEADER_LENGTH + length) + " bytes");
+        }
+        writeHeader(message.messageType, message.flags, length, destination);
+        if (length > 0) {
+            destination.put(message.message, 0, length);
+        }
+    }
+
+    /**
+     * Writes a frame header so that a payload assembled in place can follow it without
+     * first being copied into a Message
+     * @param type Type of the frame
+     * @param flags Header flags
+     * @param length Length of the payload that will follow
+     * @param destination Buffer with at least HEADER_LENGTH bytes remaining
+     */
+    static void writeHeader(MessageType type, byte flags, int length, ByteBuffer destination) {
+        ByteOrder order = destination.order();
+        destination.order(ByteOrder.BIG_ENDIAN);
+        destination.put(VERSION);
+        destination.put(type.code);
+        destination.put(flags);
+        destination.put((byte) 0);
+        destination.putInt(length);
+        destination.order(order);
+    }
+
+    /**
+     * Decodes a single frame from the source buffer at its current position.
+     * The buffer's position is advanced past the frame.
+     * @param source Buffer containing a complete frame
+     * @return The decoded Message
+     * @throws MessageFormatException if the frame is truncated, from an unsupported version,
+     *          or has an unknown type or flag
+     */
+    public static Message decode(ByteBuffer source) throws MessageFormatException {
+        ByteOrder order = source.order();
+        source.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (source.remaining() < HEADER_LENGTH) {
+                throw new MessageFormatException("Frame shorter than header: " + source.remaining() + " bytes");
+            }
+            byte version = source.get();
+            if (version != VERSION) {
+                throw new MessageFormatException("Unsupported frame version " + version);
+            }
+            byte code = source.get();
+            MessageType type = MessageType.fromCode(code);
+            if (type == null) {
+                throw new MessageFormatException("Unknown message type " + code);
+            }
+            byte flags = source.get();
+            if ((flags & ~KNOWN_FLAGS) != 0) {
+                throw new MessageFormatException("Unknown flags " + flags);
+            }
+            source.get(); // reserved
+            int length = source.getInt();
+            if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+                throw new MessageFormatException("Invalid payload length " + length);
+            }
+            if (source.remaining() < length) {
+                throw new MessageFormatException("Frame truncated: expected " + length
+                        + " payload bytes, got " + source.remaining());
+            }
+            byte[] payload = new byte[length];
+            source.get(payload);
+            return new Message(type, payload, flags);
+        } catch (BufferUnderflowException e) {
+            throw new MessageFormatException("Frame truncated");
+        } finally {
+            source.order(order);
+        }
+    }
+
+    /**
+     * Decodes a frame received from the transport
+     * @param frame Bytes of exactly one frame
+     * @return The decoded Message
+     * @throws MessageFormatException if the frame is malformed
+     */
+    public static Message decode(byte[] frame) throws MessageFormatException {
+        return decode(ByteBuffer.wrap(frame));
+    }
+
+    private static int payloadLength(Message message) {
+        return message.message == null ? 0 : message.message.length;
+    }
+}
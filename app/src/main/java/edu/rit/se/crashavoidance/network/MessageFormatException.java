@@ -0,0 +1,15 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a received frame can not be decoded into a Message
+ */
+public class MessageFormatException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MessageFormatException(String detailMessage) {
+        super(detailMessage);
+    }
+}
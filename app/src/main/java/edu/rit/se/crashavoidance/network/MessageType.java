@@ -4,6 +4,37 @@ package edu.rit.se.crashavoidance.network;
  * Created by Brett on 8/2/2016.
  */
 public enum MessageType {
-    TEXT,
-    IMAGE
+    TEXT(1),
+    IMAGE(2),
+    CHUNK(3),
+    BATCH(4),
+    HELLO(5),
+    PING(6),
+    PONG(7),
+    BULK(8),
+    ACK(9);
+
+    /**
+     * Stable identifier written to the wire by MessageCodec. Never reuse or renumber a code,
+     * peers running an older build rely on it.
+     */
+    public final byte code;
+
+    MessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * Looks up the MessageType for a wire code
+     * @param code Code read from a frame header
+     * @return The matching MessageType, or null if the code is unknown
+     */
+    public static MessageType fromCode(byte code) {
+        for (MessageType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
 }
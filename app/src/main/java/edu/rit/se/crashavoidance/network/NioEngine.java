@@ -0,0 +1,337 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs any number of NioTransports on a single selector thread. Sockets are non-blocking and
+ * every read and write goes through one pair of direct buffers owned by the event loop, so a
+ * group owner serving many members doesn't need a reader thread and a stream buffer per member.
+ * Receivers are called on the event loop thread and must not block it.
+ */
+public class NioEngine {
+
+    /** Size of the shared direct read and write buffers */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ACCEPT_BACKLOG = 512;
+
+    /**
+     * Called on the event loop thread for each connection accepted by a listening socket
+     */
+    public interface Acceptor {
+
+        /**
+         * The connection is not read from until its connect() is called, so a Receiver can be
+         * set first
+         */
+        void onAccepted(NioTransport transport);
+    }
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<ServerSocketChannel> servers = new ArrayList<>();
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong framesRead = new AtomicLong();
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong selects = new AtomicLong();
+
+    public NioEngine() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Starts the event loop thread. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                eventLoop();
+            }
+        }, "NioEngine");
+        thread.start();
+    }
+
+    /**
+     * Closes every connection and listening socket and stops the event loop thread
+     */
+    public void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+            running = false;
+        }
+        selector.wakeup();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts accepting connections
+     * @param address Address to bind, with port 0 for any free port
+     * @return The address actually bound
+     */
+    public InetSocketAddress listen(InetSocketAddress address, final Acceptor acceptor) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(address, ACCEPT_BACKLOG);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.register(selector, SelectionKey.OP_ACCEPT, acceptor);
+                    servers.add(server);
+                } catch (ClosedChannelException e) {
+                    // Shut down before the server was registered
+                }
+            }
+        });
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Creates a transport that connects to a listening socket when its connect() is called
+     */
+    public NioTransport open(InetSocketAddress address) {
+        return new NioTransport(this, address);
+    }
+
+    /**
+     * Runs a task on the event loop thread
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * Write buffer for flushes that run as tasks rather than on OP_WRITE
+     */
+    ByteBuffer writeBuffer() {
+        return writeBuffer;
+    }
+
+    private void eventLoop() {
+        try {
+            while (running) {
+                try {
+                    // Tasks queued by the loop itself, e.g. a Receiver writing a reply, don't wake it
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                } catch (IOException e) {
+                    break;
+                }
+                selects.incrementAndGet();
+                wakeupPending.set(false);
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        handle(key);
+                    }
+                }
+            }
+        } finally {
+            // However the loop ends, connect() must see that nothing will serve new transports
+            running = false;
+            closeAll();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // A failing task only loses its own work, the other connections keep running
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (key.attachment() instanceof Acceptor) {
+            accept(key);
+            return;
+        }
+        NioTransport transport = (NioTransport) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                transport.finishConnect(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                transport.read(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                transport.flush(writeBuffer);
+            }
+        } catch (CancelledKeyException e) {
+            // Closed from another thread while handling it
+        } catch (IOException e) {
+            transport.closeWith(e);
+        } catch (RuntimeException e) {
+            // A failing Receiver closes its own connection rather than the event loop
+            transport.closeWith(new IOException("Receiver failed: " + e, e));
+        }
+    }
+
+    private void accept(SelectionKey key) {
+        Acceptor acceptor = (Acceptor) key.attachment();
+        ServerSocketChannel server = (ServerSocketChannel) key.channel();
+        while (true) {
+            SocketChannel channel = null;
+            try {
+                channel = server.accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                // The client gave up while being accepted, keep listening
+                closeQuietly(channel);
+                return;
+            }
+            NioTransport transport = new NioTransport(this, channel);
+            try {
+                acceptor.onAccepted(transport);
+            } catch (RuntimeException e) {
+                transport.closeWith(new IOException("Acceptor failed: " + e, e));
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closing
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioTransport) {
+                ((NioTransport) key.attachment()).close();
+            }
+        }
+        for (ServerSocketChannel server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Already closing
+            }
+        }
+        servers.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Already closing
+        }
+    }
+
+    void onOpened() {
+        openConnections.incrementAndGet();
+    }
+
+    void onClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    void onFrameRead(int length) {
+        framesRead.incrementAndGet();
+        bytesRead.addAndGet(length);
+    }
+
+    void onBytesWritten(int bytes, int frames) {
+        bytesWritten.addAndGet(bytes);
+        framesWritten.addAndGet(frames);
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public long getFramesRead() {
+        return framesRead.get();
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Number of times the event loop woke up, to compare with the frames handled per wakeup
+     */
+    public long getSelects() {
+        return selects.get();
+    }
+}
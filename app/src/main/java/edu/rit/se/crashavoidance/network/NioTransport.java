@@ -0,0 +1,364 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport over a non-blocking socket run by a NioEngine. Frames written from any thread are
+ * queued and sent by the event loop, and received frames are delivered to the Receiver on the
+ * event loop thread. Frames are sent by reference, so writers must not modify a frame after
+ * writing it.
+ */
+public class NioTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    /** Bytes that may wait in the write queue before write fails */
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+
+    private final NioEngine engine;
+    private final InetSocketAddress address;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private volatile Receiver receiver;
+    private volatile boolean registered = false;
+    private volatile boolean closed = false;
+    private final CountDownLatch connectLatch = new CountDownLatch(1);
+    private volatile IOException connectFailure;
+
+    // Read state, only used on the event loop thread
+    private final byte[] header = new byte[MessageCodec.HEADER_LENGTH];
+    private int headerFilled = 0;
+    private byte[] frame;
+    private int frameFilled = 0;
+
+    // Write state. Any thread queues, the event loop moves frames to outgoing as it sends them
+    private final ConcurrentLinkedQueue<byte[]> writeQueue = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<byte[]> outgoing = new ArrayDeque<>();
+    private int outgoingOffset = 0;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile int maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush(engine.writeBuffer());
+            } catch (CancelledKeyException e) {
+                // Closed from another thread before the flush ran
+            } catch (IOException e) {
+                closeWith(e);
+            }
+        }
+    };
+
+    NioTransport(NioEngine engine, InetSocketAddress address) {
+        this.engine = engine;
+        this.address = address;
+    }
+
+    NioTransport(NioEngine engine, SocketChannel channel) {
+        this.engine = engine;
+        this.address = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        this.channel = channel;
+        engine.onOpened();
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Registers the connection with the engine's event loop. For a transport created with
+     * NioEngine.open this also connects, and waits for the connection unless it is called on the
+     * event loop thread.
+     */
+    @Override
+    public void connect() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Transport closed");
+            }
+            if (!engine.isRunning()) {
+                throw new IOException("NioEngine not running");
+            }
+            if (key != null || registered) {
+                return;
+            }
+            final boolean accepted = channel != null;
+            if (!accepted) {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                engine.onOpened();
+            }
+            registered = true;
+            final boolean connected = accepted || channel.connect(address);
+            engine.execute(new Runnable() {
+                @Override
+                public void run() {
+                    register(connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+                    if (connected) {
+                        connectLatch.countDown();
+                    }
+                }
+            });
+        }
+        if (engine.inEventLoop()) {
+            return;
+        }
+        try {
+            if (!connectLatch.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                IOException timeout = new IOException("Connect timed out: " + address);
+                closeWith(timeout);
+                throw timeout;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Connect interrupted");
+        }
+        if (connectFailure != null) {
+            throw connectFailure;
+        }
+        if (closed) {
+            throw new IOException("Transport closed");
+        }
+    }
+
+    private void register(int ops) {
+        if (closed) {
+            return;
+        }
+        try {
+            key = channel.register(engine.selector(), ops, this);
+        } catch (ClosedChannelException e) {
+            closeWith(e);
+        }
+    }
+
+    void finishConnect(SelectionKey key) throws IOException {
+        try {
+            channel.finishConnect();
+        } catch (IOException e) {
+            connectFailure = e;
+            connectLatch.countDown();
+            throw e;
+        }
+        key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        connectLatch.countDown();
+    }
+
+    /**
+     * Queues one frame to be sent by the event loop
+     * @throws IllegalStateException if the transport is not connected or the write queue is full
+     */
+    @Override
+    public void write(byte[] frame) {
+        if (closed || !registered) {
+            throw new IllegalStateException("Transport not connected");
+        }
+        if (queuedBytes.addAndGet(frame.length) > maxQueuedBytes) {
+            queuedBytes.addAndGet(-frame.length);
+            throw new IllegalStateException("Write queue full");
+        }
+        writeQueue.add(frame);
+        if (flushScheduled.compareAndSet(false, true)) {
+            engine.execute(flushTask);
+        }
+    }
+
+    /**
+     * Sends as many queued frames as the socket takes, and asks for OP_WRITE if some are left
+     * @param buffer The engine's write buffer
+     */
+    void flush(ByteBuffer buffer) throws IOException {
+        if (closed || key == null || !channel.isConnected()) {
+            // Flushed again once the connection is established
+            flushScheduled.set(false);
+            return;
+        }
+        while (true) {
+            buffer.clear();
+            fill(buffer);
+            if (buffer.position() == 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                flushScheduled.set(false);
+                // A writer may have queued a frame after fill emptied the queue
+                if (writeQueue.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            buffer.flip();
+            int written = channel.write(buffer);
+            advance(written);
+            if (buffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies outgoing frames into the buffer, starting at the unsent part of the first one
+     */
+    private void fill(ByteBuffer buffer) {
+        Iterator<byte[]> frames = outgoing.iterator();
+        int offset = outgoingOffset;
+        while (buffer.hasRemaining()) {
+            byte[] next;
+            if (frames != null && frames.hasNext()) {
+                next = frames.next();
+            } else {
+                frames = null;
+                next = writeQueue.poll();
+                if (next == null) {
+                    return;
+                }
+                outgoing.add(next);
+            }
+            int length = Math.min(buffer.remaining(), next.length - offset);
+            buffer.put(next, offset, length);
+            offset = 0;
+        }
+    }
+
+    /**
+     * Drops the bytes the socket accepted from the front of outgoing
+     */
+    private void advance(int written) {
+        int bytes = written;
+        int frames = 0;
+        while (written > 0) {
+            byte[] head = outgoing.peek();
+            int remaining = head.length - outgoingOffset;
+            if (written < remaining) {
+                outgoingOffset += written;
+                break;
+            }
+            written -= remaining;
+            outgoing.poll();
+            outgoingOffset = 0;
+            queuedBytes.addAndGet(-head.length);
+            frames++;
+        }
+        engine.onBytesWritten(bytes, frames);
+    }
+
+    /**
+     * Reads what the socket has and delivers every frame it completes
+     */
+    void read(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int count = channel.read(buffer);
+        if (count < 0) {
+            if (frame != null || headerFilled > 0) {
+                throw new IOException("Stream ended inside a frame");
+            }
+            closeWith(null);
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            if (frame == null) {
+                int length = Math.min(buffer.remaining(), header.length - headerFilled);
+                buffer.get(header, headerFilled, length);
+                headerFilled += length;
+                if (headerFilled < header.length) {
+                    return;
+                }
+                int payloadLength = ByteBuffer.wrap(header).getInt(4);
+                if (payloadLength < 0 || payloadLength > MessageCodec.MAX_PAYLOAD_LENGTH) {
+                    throw new MessageFormatException("Invalid payload length " + payloadLength);
+                }
+                frame = new byte[header.length + payloadLength];
+                System.arraycopy(header, 0, frame, 0, header.length);
+                frameFilled = header.length;
+                headerFilled = 0;
+            }
+            int length = Math.min(buffer.remaining(), frame.length - frameFilled);
+            buffer.get(frame, frameFilled, length);
+            frameFilled += length;
+            if (frameFilled == frame.length) {
+                byte[] complete = frame;
+                frame = null;
+                engine.onFrameRead(complete.length);
+                Receiver receiver = this.receiver;
+                if (receiver != null) {
+                    receiver.onFrame(this, complete);
+                }
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && registered && channel != null && channel.isConnected();
+    }
+
+    /**
+     * Bytes written but not yet taken by the socket
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Sets how many bytes may wait in the write queue before write fails
+     */
+    public void setMaxQueuedBytes(int maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Closes the connection. Frames still queued are dropped.
+     */
+    @Override
+    public void close() {
+        closeWith(null);
+    }
+
+    void closeWith(IOException cause) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closing
+            }
+            engine.onClosed();
+        }
+        connectLatch.countDown();
+        Receiver receiver = this.receiver;
+        if (receiver != null) {
+            receiver.onClosed(this, cause);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queues outgoing frames and writes them to a FrameSink from a dedicated writer thread.
+ * Frames are written in priority order, so control and text frames overtake queued bulk data.
+ * The queue is bounded by frame count and bytes; bulk frames may only use part of the byte
+ * budget so that there is always room for higher priority frames.
+ * When a BatchPolicy is set, small frames written close together are sent as one BATCH frame.
+ */
+public class OutboundDispatcher {
+
+    /**
+     * Priority of an outgoing frame, in the order frames are written
+     */
+    public enum Priority {
+        CONTROL,
+        TEXT,
+        BULK
+    }
+
+    /**
+     * Notified when a queued frame could not be written
+     */
+    public interface Listener {
+        void onFrameFailed(byte[] frame, Priority priority, RuntimeException cause);
+    }
+
+    public static final int DEFAULT_MAX_FRAMES = 256;
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private final FrameSink sink;
+    private final int maxFrames;
+    private final long maxBytes;
+    private final long maxBulkBytes;
+    private final Priority[] priorities = Priority.values();
+    // One queue per Priority, by ordinal
+    private final List<ArrayDeque<byte[]>> queues;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private volatile Listener listener;
+    private volatile BatchPolicy batchPolicy;
+    private Thread writerThread;
+    private boolean running = false;
+
+    // Guarded by lock
+    private int queuedFrames = 0;
+    private long queuedBytes = 0;
+    private long queuedBulkBytes = 0;
+    private long writingBytes = 0;
+
+    private volatile long writes = 0;
+    private volatile long sentFrames = 0;
+    private volatile long sentBytes = 0;
+    private volatile long rejectedFrames = 0;
+    private volatile long failedFrames = 0;
+
+    public OutboundDispatcher(FrameSink sink) {
+        this(sink, DEFAULT_MAX_FRAMES, DEFAULT_MAX_BYTES);
+    }
+
+    public OutboundDispatcher(FrameSink sink, int maxFrames, long maxBytes) {
+        if (maxFrames <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Queue limits must be positive");
+        }
+        this.sink = sink;
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.maxBulkBytes = maxBytes * 3 / 4;
+        queues = new ArrayList<>(priorities.length);
+        for (int i = 0; i < priorities.length; i++) {
+            queues.add(new ArrayDeque<byte[]>());
+        }
+    }
+
+    /**
+     * Returns the priority a frame is usually sent at: link control first, then text, and
+     * images and chunked transfers last so text stays responsive
+     * @param frame Encoded frame
+     */
+    public static Priority priorityOf(byte[] frame) {
+        MessageType type = MessageType.fromCode(frame[1]);
+        if (type == MessageType.HELLO || type == MessageType.PING || type == MessageType.PONG
+                || type == MessageType.ACK) {
+            return Priority.CONTROL;
+        }
+        if (type == MessageType.IMAGE || type == MessageType.CHUNK || type == MessageType.BULK) {
+            return Priority.BULK;
+        }
+        return Priority.TEXT;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Enables batching of small frames
+     * @param batchPolicy Window and size cap for batches, or null to write every frame on its own
+     */
+    public void setBatchPolicy(BatchPolicy batchPolicy) {
+        this.batchPolicy = batchPolicy;
+    }
+
+    public BatchPolicy getBatchPolicy() {
+        return batchPolicy;
+    }
+
+    /**
+     * Starts the writer thread
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+            writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "OutboundDispatcher");
+            writerThread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the writer thread and discards any frames that have not been written
+     */
+    public void shutdown() {
+        Thread thread;
+        lock.lock();
+        try {
+            running = false;
+            for (ArrayDeque<byte[]> queue : queues) {
+                queue.clear();
+            }
+            queuedFrames = 0;
+            queuedBytes = 0;
+            queuedBulkBytes = 0;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            thread = writerThread;
+            writerThread = null;
+        } finally {
+            lock.unlock();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Queues a frame without blocking. Intended for the UI thread.
+     * @param frame Encoded frame
+     * @param priority Priority of the frame
+     * @return False if the queue is full or the dispatcher is not running
+     */
+    public boolean offer(byte[] frame, Priority priority) {
+        lock.lock();
+        try {
+            if (!running || !hasRoom(frame.length, priority)) {
+                rejectedFrames++;
+                return false;
+            }
+            enqueue(frame, priority);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a frame, waiting for room if the queue is full. Intended for background producers.
+     * @param frame Encoded frame
+     * @param priority Priority of the frame
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the dispatcher is not running
+     */
+    public void put(byte[] frame, Priority priority) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (running && !hasRoom(frame.length, priority)) {
+                notFull.await();
+            }
+            if (!running) {
+                throw new IllegalStateException("Dispatcher is not running");
+            }
+            enqueue(frame, priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a FrameSink that queues frames at the given priority, blocking while the queue is
+     * full. Lets producers such as ChunkedSender write through the dispatcher.
+     */
+    public FrameSink sinkFor(final Priority priority) {
+        return new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                try {
+                    put(frame, priority);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while queueing frame");
+                }
+            }
+        };
+    }
+
+    /**
+     * Blocks until every queued frame has been written or the timeout elapses
+     * @return True if the queue drained
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (queuedFrames > 0 || writingBytes > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of frames waiting to be written
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queuedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Bytes queued or currently being written to the sink
+     */
+    public long getBytesInFlight() {
+        lock.lock();
+        try {
+            return queuedBytes + writingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSentFrames() {
+        return sentFrames;
+    }
+
+    /**
+     * @return Average number of frames per write to the sink, 1 when nothing was batched
+     */
+    public double getAverageBatchSize() {
+        long writes = this.writes;
+        return writes == 0 ? 0 : (double) sentFrames / writes;
+    }
+
+    /**
+     * @return Bytes written to the sink, including batch headers
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * @return Number of offers refused because the queue was full
+     */
+    public long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    public long getFailedFrames() {
+        return failedFrames;
+    }
+
+    private boolean hasRoom(int length, Priority priority) {
+        if (queuedFrames >= maxFrames) {
+            return false;
+        }
+        if (queuedFrames == 0) {
+            // Always accept a frame into an empty queue so oversized frames can't stall forever
+            return true;
+        }
+        if (priority == Priority.BULK && queuedBulkBytes + length > maxBulkBytes) {
+            return false;
+        }
+        return queuedBytes + length <= maxBytes;
+    }
+
+    private void enqueue(byte[] frame, Priority priority) {
+        queues.get(priority.ordinal()).addLast(frame);
+        queuedFrames++;
+        queuedBytes += frame.length;
+        if (priority == Priority.BULK) {
+            queuedBulkBytes += frame.length;
+        }
+        notEmpty.signal();
+    }
+
+    private void writeLoop() {
+        List<byte[]> frames = new ArrayList<>();
+        List<Priority> framePriorities = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                while (running && queuedFrames == 0) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                frames.clear();
+                framePriorities.clear();
+                pollNext(Integer.MAX_VALUE, frames, framePriorities);
+                BatchPolicy policy = batchPolicy;
+                if (policy != null && writingBytes < policy.maxBatchBytes) {
+                    gatherBatch(policy, frames, framePriorities);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            byte[] frame = frames.size() == 1 ? frames.get(0) : MessageBatch.encode(frames);
+            try {
+                sink.write(frame);
+                writes++;
+                sentFrames += frames.size();
+                sentBytes += frame.length;
+            } catch (RuntimeException e) {
+                failedFrames += frames.size();
+                Listener listener = this.listener;
+                if (listener != null) {
+                    for (int i = 0; i < frames.size(); i++) {
+                        listener.onFrameFailed(frames.get(i), framePriorities.get(i), e);
+                    }
+                }
+            }
+
+            lock.lock();
+            try {
+                writingBytes = 0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds frames to the batch until the window closes or the size cap is reached.
+     * Must be called with the lock held.
+     */
+    private void gatherBatch(BatchPolicy policy, List<byte[]> frames, List<Priority> framePriorities) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(policy.windowMillis);
+        long deadline = System.nanoTime() + remaining;
+        while (running) {
+            if (queuedFrames > 0) {
+                if (!pollNext(policy.maxBatchBytes - writingBytes, frames, framePriorities)) {
+                    // The next frame doesn't fit, flush now rather than reorder around it
+                    return;
+                }
+                continue;
+            }
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            try {
+                notEmpty.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the next frame in priority order to the pending write if it is no longer than
+     * maxLength. Must be called with the lock held and a non-empty queue.
+     * @return False if the next frame is too long
+     */
+    private boolean pollNext(long maxLength, List<byte[]> frames, List<Priority> framePriorities) {
+        for (Priority priority : priorities) {
+            ArrayDeque<byte[]> queue = queues.get(priority.ordinal());
+            byte[] frame = queue.peekFirst();
+            if (frame == null) {
+                continue;
+            }
+            if (frame.length > maxLength) {
+                return false;
+            }
+            queue.pollFirst();
+            queuedFrames--;
+            queuedBytes -= frame.length;
+            if (priority == Priority.BULK) {
+                queuedBulkBytes -= frame.length;
+            }
+            writingBytes += frame.length;
+            frames.add(frame);
+            framePriorities.add(priority);
+            notFull.signalAll();
+            return true;
+        }
+        return false;
+    }
+}
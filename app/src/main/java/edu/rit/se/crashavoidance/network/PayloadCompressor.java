@@ -0,0 +1,239 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses Message payloads with Deflate at its fastest level and sets FLAG_COMPRESSED.
+ * Small payloads, payloads in already compressed formats (JPEG, PNG, WebP, gzip) and payloads
+ * whose byte entropy shows they won't shrink are sent as they are.
+ *
+ * Compressed payload: original length (u32) | raw Deflate stream
+ */
+public class PayloadCompressor {
+
+    public static final int DEFAULT_MIN_SIZE = 256;
+    /** Bits per byte above which a payload is assumed to be incompressible */
+    public static final double MAX_ENTROPY = 7.2;
+    /** Compression is only kept if it saves at least this fraction of the payload */
+    private static final double MIN_SAVING = 0.05;
+    private static final int ENTROPY_SAMPLE_SIZE = 4096;
+
+    private final int minSize;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] deflateBuffer = new byte[8192];
+    private volatile boolean enabled = false;
+
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong skippedSmall = new AtomicLong();
+    private final AtomicLong skippedIncompressible = new AtomicLong();
+    private final AtomicLong skippedNoGain = new AtomicLong();
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+
+    public PayloadCompressor() {
+        this(DEFAULT_MIN_SIZE);
+    }
+
+    public PayloadCompressor(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Turns compression of outgoing payloads on or off, normally after the peer's Hello says
+     * whether it supports CODEC_DEFLATE. Decompression always works.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compresses a Message's payload if compression is enabled and worthwhile
+     * @param message Message to send
+     * @return A compressed copy of the Message, or the Message itself if it was not compressed
+     */
+    public Message compress(Message message) {
+        byte[] payload = message.message;
+        if (!enabled || payload == null || (message.flags & MessageCodec.FLAG_COMPRESSED) != 0) {
+            return message;
+        }
+        if (payload.length < minSize) {
+            skippedSmall.incrementAndGet();
+            return message;
+        }
+        if (isCompressedContent(message) || entropy(payload) > MAX_ENTROPY) {
+            skippedIncompressible.incrementAndGet();
+            return message;
+        }
+
+        byte[] compressed = deflate(payload);
+        if (compressed == null) {
+            skippedNoGain.incrementAndGet();
+            return message;
+        }
+        compressedMessages.incrementAndGet();
+        bytesBeforeCompression.addAndGet(payload.length);
+        bytesAfterCompression.addAndGet(compressed.length);
+        return new Message(message.messageType, compressed, (byte) (message.flags | MessageCodec.FLAG_COMPRESSED));
+    }
+
+    /**
+     * Restores the payload of a Message that has FLAG_COMPRESSED set
+     * @param message Received Message
+     * @return The Message with its original payload, or the Message itself if it wasn't compressed
+     * @throws MessageFormatException if the payload can't be decompressed
+     */
+    public Message decompress(Message message) throws MessageFormatException {
+        if ((message.flags & MessageCodec.FLAG_COMPRESSED) == 0) {
+            return message;
+        }
+        byte[] payload = message.message;
+        if (payload == null || payload.length < 4) {
+            throw new MessageFormatException("Compressed payload truncated");
+        }
+        int length = ByteBuffer.wrap(payload).getInt();
+        if (length < 0 || length > MessageCodec.MAX_PAYLOAD_LENGTH) {
+            throw new MessageFormatException("Invalid decompressed length " + length);
+        }
+        byte[] original = new byte[length];
+        synchronized (inflater) {
+            inflater.reset();
+            inflater.setInput(payload, 4, payload.length - 4);
+            try {
+                int inflated = 0;
+                while (inflated < length) {
+                    int count = inflater.inflate(original, inflated, length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (inflated != length) {
+                    throw new MessageFormatException("Compressed payload inflated to " + inflated + " of " + length + " bytes");
+                }
+            } catch (DataFormatException e) {
+                throw new MessageFormatException("Corrupt compressed payload: " + e.getMessage());
+            }
+        }
+        return new Message(message.messageType, original, (byte) (message.flags & ~MessageCodec.FLAG_COMPRESSED));
+    }
+
+    /**
+     * @return Compressed bytes divided by original bytes over all compressed messages,
+     *          1 if nothing has been compressed
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.get();
+        return before == 0 ? 1 : (double) bytesAfterCompression.get() / before;
+    }
+
+    public long getCompressedMessages() {
+        return compressedMessages.get();
+    }
+
+    public long getSkippedSmall() {
+        return skippedSmall.get();
+    }
+
+    public long getSkippedIncompressible() {
+        return skippedIncompressible.get();
+    }
+
+    public long getSkippedNoGain() {
+        return skippedNoGain.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesBeforeCompression.get() - bytesAfterCompression.get();
+    }
+
+    /**
+     * @return The compressed payload, or null if it did not save enough to be worth it
+     */
+    private synchronized byte[] deflate(byte[] payload) {
+        int limit = (int) (payload.length * (1 - MIN_SAVING));
+        if (deflateBuffer.length < limit + 4) {
+            deflateBuffer = new byte[limit + 4];
+        }
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        int length = 4;
+        while (!deflater.finished()) {
+            if (length >= limit) {
+                return null;
+            }
+            length += deflater.deflate(deflateBuffer, length, limit - length);
+        }
+        ByteBuffer.wrap(deflateBuffer).putInt(payload.length);
+        byte[] compressed = new byte[length];
+        System.arraycopy(deflateBuffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * Checks whether a Message carries content that is already compressed. Only the first
+     * chunk of a transfer starts with the content's magic number, so chunks are judged by
+     * their content type: images are always sent as JPEG or WebP.
+     */
+    static boolean isCompressedContent(Message message) {
+        if (message.messageType == MessageType.CHUNK) {
+            return message.message.length >= Chunk.HEADER_LENGTH
+                    && message.message[Chunk.HEADER_LENGTH - 1] == MessageType.IMAGE.code;
+        }
+        return isCompressedFormat(message.message);
+    }
+
+    /**
+     * Checks for the magic numbers of formats that are already compressed
+     */
+    static boolean isCompressedFormat(byte[] payload) {
+        if (payload.length < 12) {
+            return false;
+        }
+        int b0 = payload[0] & 0xff;
+        int b1 = payload[1] & 0xff;
+        int b2 = payload[2] & 0xff;
+        int b3 = payload[3] & 0xff;
+        if (b0 == 0xff && b1 == 0xd8 && b2 == 0xff) {
+            return true; // JPEG
+        }
+        if (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G') {
+            return true; // PNG
+        }
+        if (b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F'
+                && payload[8] == 'W' && payload[9] == 'E' && payload[10] == 'B' && payload[11] == 'P') {
+            return true; // WebP
+        }
+        return b0 == 0x1f && b1 == 0x8b; // gzip
+    }
+
+    /**
+     * Estimates the Shannon entropy in bits per byte from a sample spread over the payload
+     */
+    static double entropy(byte[] payload) {
+        int[] counts = new int[256];
+        int step = Math.max(1, payload.length / ENTROPY_SAMPLE_SIZE);
+        int samples = 0;
+        for (int i = 0; i < payload.length; i += step) {
+            counts[payload[i] & 0xff]++;
+            samples++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / samples;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
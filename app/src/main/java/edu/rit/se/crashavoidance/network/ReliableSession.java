@@ -0,0 +1,495 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import edu.rit.se.crashavoidance.Timer;
+import edu.rit.se.crashavoidance.metrics.Histogram;
+
+/**
+ * Reliable, ordered delivery of Messages over a connection, for both directions of it.
+ *
+ * Sent Messages get the next sequence number of the session, carried in front of the payload
+ * with MessageCodec.FLAG_SEQUENCED. At most window of them are unacknowledged at a time, the
+ * rest wait in order. The receiver delivers them in sequence order exactly once and answers
+ * every sequenced Message with an Ack listing what it has, so the sender retransmits only what
+ * is missing when its retransmission timer (RFC 6298) expires.
+ *
+ * Both sides must support it, see Hello.FEATURE_RELIABLE. Methods may be called from any
+ * thread; the Listener is called with the session locked.
+ */
+public class ReliableSession {
+
+    public static final int DEFAULT_WINDOW = 16;
+    /** How far ahead of the next expected sequence the receiver buffers messages */
+    public static final int RECEIVE_WINDOW = 256;
+    private static final int SEQUENCE_LENGTH = 4;
+
+    /**
+     * Delivery state of a sent Message
+     */
+    public enum State {
+        /** Waiting for room in the send window */
+        QUEUED,
+        /** Sent and not acknowledged yet */
+        SENT,
+        /** Acknowledged by the other device */
+        DELIVERED,
+        /** Dropped unacknowledged when the session was reset, the other device may not have it */
+        FAILED
+    }
+
+    public interface Listener {
+        void onStateChanged(int sequence, State state);
+    }
+
+    private final FrameSink sink;
+    private final Timer timer;
+    private int window;
+    private Listener listener;
+    private Histogram roundTripHistogram;
+    private final RttEstimator rttEstimator = new RttEstimator();
+
+    // Sender state
+    private int nextSequence = 1;
+    private final ArrayDeque<Outgoing> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Outgoing> queued = new ArrayDeque<>();
+    private boolean timerRunning = false;
+
+    // Receiver state
+    private int received = 0;
+    private final TreeMap<Integer, Message> outOfOrder = new TreeMap<>();
+
+    private long sentMessages = 0;
+    private long retransmits = 0;
+    private long timeouts = 0;
+    private long deliveredMessages = 0;
+    private long deliveredBytes = 0;
+    private long duplicates = 0;
+
+    private final Runnable retransmitTask = new Runnable() {
+        @Override
+        public void run() {
+            onRetransmitTimeout();
+        }
+    };
+
+    /**
+     * @param sink Where sequenced Messages and Acks are written. A write that throws is treated
+     *             as a lost Message and retransmitted.
+     */
+    public ReliableSession(FrameSink sink, Timer timer, int window) {
+        this.sink = sink;
+        this.timer = timer;
+        setWindow(window);
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Records the time from sending a Message to its Ack, in ms
+     */
+    public synchronized void setRoundTripHistogram(Histogram roundTripHistogram) {
+        this.roundTripHistogram = roundTripHistogram;
+    }
+
+    /**
+     * Sets how many Messages may be unacknowledged at once. A larger window sends queued
+     * Messages right away, a smaller one leaves them queued until Acks arrive.
+     */
+    public synchronized void setWindow(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        this.window = window;
+        fillWindow();
+    }
+
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sends a Message, or queues it if the window is full
+     * @return The sequence number the Message was given
+     */
+    public synchronized int send(Message message) {
+        int sequence = nextSequence++;
+        Outgoing outgoing = new Outgoing(sequence, encode(sequence, message), payloadLength(message));
+        sentMessages++;
+        if (inFlight.size() < window && queued.isEmpty()) {
+            transmit(outgoing);
+        } else {
+            queued.add(outgoing);
+            notifyState(outgoing.sequence, State.QUEUED);
+        }
+        return outgoing.sequence;
+    }
+
+    /**
+     * Handles a received Message
+     * @return The Messages to process, in order and without their sequence numbers: the Message
+     *         itself if it is not sequenced, none for an Ack or a duplicate, and possibly several
+     *         when a retransmission fills a gap
+     * @throws MessageFormatException if a sequenced Message or Ack is malformed
+     */
+    public synchronized List<Message> receive(Message message) throws MessageFormatException {
+        if (message.messageType == MessageType.ACK) {
+            onAck(Ack.fromMessage(message));
+            return Collections.emptyList();
+        }
+        if ((message.flags & MessageCodec.FLAG_SEQUENCED) == 0) {
+            return Collections.singletonList(message);
+        }
+        if (message.message == null || message.message.length < SEQUENCE_LENGTH) {
+            throw new MessageFormatException("Sequenced message shorter than its sequence");
+        }
+        int sequence = ByteBuffer.wrap(message.message).getInt();
+        List<Message> deliverable = Collections.emptyList();
+        if (sequence <= received || outOfOrder.containsKey(sequence)) {
+            duplicates++;
+        } else if (sequence - received <= RECEIVE_WINDOW) {
+            byte[] payload = new byte[message.message.length - SEQUENCE_LENGTH];
+            System.arraycopy(message.message, SEQUENCE_LENGTH, payload, 0, payload.length);
+            outOfOrder.put(sequence, new Message(message.messageType, payload,
+                    (byte) (message.flags & ~MessageCodec.FLAG_SEQUENCED)));
+            Message next;
+            while ((next = outOfOrder.remove(received + 1)) != null) {
+                if (deliverable.isEmpty()) {
+                    deliverable = new ArrayList<>();
+                }
+                deliverable.add(next);
+                received++;
+            }
+        }
+        sendAck();
+        return deliverable;
+    }
+
+    /**
+     * Forgets both directions, e.g. when the other device starts a new session. Unacknowledged
+     * Messages are dropped and reported FAILED.
+     */
+    public synchronized void reset() {
+        cancelTimer();
+        for (Outgoing outgoing : inFlight) {
+            if (!outgoing.acknowledged) {
+                notifyState(outgoing.sequence, State.FAILED);
+            }
+        }
+        for (Outgoing outgoing : queued) {
+            notifyState(outgoing.sequence, State.FAILED);
+        }
+        nextSequence = 1;
+        inFlight.clear();
+        queued.clear();
+        received = 0;
+        outOfOrder.clear();
+    }
+
+    /**
+     * Continues the session on a new connection. Unacknowledged Messages the other device
+     * already has are marked delivered, only the rest are sent again, and the retransmission
+     * timer starts over without the backoff built up while the connection was down.
+     * @param peerReceived The other device's received sequence, from its Hello
+     * @return Payload bytes that did not have to be sent again
+     */
+    public synchronized long resume(int peerReceived) {
+        cancelTimer();
+        rttEstimator.endBackOff();
+        long bytesSaved = 0;
+        Iterator<Outgoing> iterator = inFlight.iterator();
+        while (iterator.hasNext()) {
+            Outgoing outgoing = iterator.next();
+            if (outgoing.sequence <= peerReceived) {
+                iterator.remove();
+                if (!outgoing.acknowledged) {
+                    outgoing.acknowledged = true;
+                    deliveredMessages++;
+                    deliveredBytes += outgoing.payloadLength;
+                    notifyState(outgoing.sequence, State.DELIVERED);
+                }
+                bytesSaved += outgoing.payloadLength;
+            } else if (outgoing.acknowledged) {
+                // Selectively acknowledged, still buffered by the other device
+                bytesSaved += outgoing.payloadLength;
+            } else {
+                outgoing.retransmitted = true;
+                outgoing.sentAt = timer.now();
+                retransmits++;
+                write(outgoing.frame);
+            }
+        }
+        fillWindow();
+        if (!inFlight.isEmpty() && !timerRunning) {
+            startTimer();
+        }
+        return bytesSaved;
+    }
+
+    private static byte[] encode(int sequence, Message message) {
+        int length = payloadLength(message);
+        ByteBuffer frame = ByteBuffer.allocate(MessageCodec.HEADER_LENGTH + SEQUENCE_LENGTH + length);
+        MessageCodec.writeHeader(message.messageType, (byte) (message.flags | MessageCodec.FLAG_SEQUENCED),
+                SEQUENCE_LENGTH + length, frame);
+        frame.putInt(sequence);
+        if (length > 0) {
+            frame.put(message.message);
+        }
+        return frame.array();
+    }
+
+    /**
+     * Removes the sequence from a sequenced frame, for a relay passing it on to devices that
+     * don't share this link's session
+     * @return The frame without FLAG_SEQUENCED and its sequence, the frame itself if it is not
+     *         sequenced, or null if it is too short to have a sequence
+     */
+    static byte[] withoutSequence(byte[] frame) {
+        if ((frame[2] & MessageCodec.FLAG_SEQUENCED) == 0) {
+            return frame;
+        }
+        int length = frame.length - MessageCodec.HEADER_LENGTH - SEQUENCE_LENGTH;
+        if (length < 0) {
+            return null;
+        }
+        byte[] stripped = new byte[MessageCodec.HEADER_LENGTH + length];
+        System.arraycopy(frame, 0, stripped, 0, MessageCodec.HEADER_LENGTH);
+        stripped[2] = (byte) (frame[2] & ~MessageCodec.FLAG_SEQUENCED);
+        ByteBuffer.wrap(stripped).putInt(4, length);
+        System.arraycopy(frame, MessageCodec.HEADER_LENGTH + SEQUENCE_LENGTH, stripped, MessageCodec.HEADER_LENGTH, length);
+        return stripped;
+    }
+
+    private static int payloadLength(Message message) {
+        return message.message == null ? 0 : message.message.length;
+    }
+
+    private void transmit(Outgoing outgoing) {
+        outgoing.sentAt = timer.now();
+        inFlight.add(outgoing);
+        write(outgoing.frame);
+        notifyState(outgoing.sequence, State.SENT);
+        if (!timerRunning) {
+            startTimer();
+        }
+    }
+
+    private void write(byte[] frame) {
+        try {
+            sink.write(frame);
+        } catch (RuntimeException e) {
+            // Lost like any other frame, the retransmission timer recovers it
+        }
+    }
+
+    private void onAck(Ack ack) {
+        boolean advanced = false;
+        long newestSample = -1;
+        Iterator<Outgoing> iterator = inFlight.iterator();
+        while (iterator.hasNext()) {
+            Outgoing outgoing = iterator.next();
+            if (!ack.covers(outgoing.sequence)) {
+                continue;
+            }
+            if (outgoing.sequence <= ack.cumulative) {
+                iterator.remove();
+                advanced = true;
+            }
+            if (outgoing.acknowledged) {
+                continue;
+            }
+            outgoing.acknowledged = true;
+            deliveredMessages++;
+            deliveredBytes += outgoing.payloadLength;
+            if (!outgoing.retransmitted) {
+                newestSample = timer.now() - outgoing.sentAt;
+            }
+            notifyState(outgoing.sequence, State.DELIVERED);
+        }
+        if (newestSample >= 0) {
+            rttEstimator.sample(newestSample);
+            if (roundTripHistogram != null) {
+                roundTripHistogram.record(newestSample);
+            }
+        }
+        fillWindow();
+        if (inFlight.isEmpty()) {
+            cancelTimer();
+        } else if (advanced) {
+            cancelTimer();
+            startTimer();
+        }
+    }
+
+    private void fillWindow() {
+        while (inFlight.size() < window && !queued.isEmpty()) {
+            transmit(queued.poll());
+        }
+    }
+
+    /**
+     * Retransmits the oldest Message the other device does not have and backs off the timer
+     */
+    private synchronized void onRetransmitTimeout() {
+        timerRunning = false;
+        timeouts++;
+        for (Outgoing outgoing : inFlight) {
+            if (!outgoing.acknowledged) {
+                outgoing.retransmitted = true;
+                outgoing.sentAt = timer.now();
+                retransmits++;
+                write(outgoing.frame);
+                break;
+            }
+        }
+        rttEstimator.backOff();
+        if (!inFlight.isEmpty()) {
+            startTimer();
+        }
+    }
+
+    private void startTimer() {
+        timerRunning = true;
+        timer.schedule(retransmitTask, rttEstimator.getRto());
+    }
+
+    private void cancelTimer() {
+        if (timerRunning) {
+            timer.cancel(retransmitTask);
+            timerRunning = false;
+        }
+    }
+
+    private void sendAck() {
+        int count = Math.min(Ack.MAX_BLOCKS, countBlocks());
+        int[] blockFirst = new int[count];
+        int[] blockLast = new int[count];
+        int block = -1;
+        int previous = Integer.MIN_VALUE;
+        for (Integer sequence : outOfOrder.keySet()) {
+            if (block < 0 || sequence != previous + 1) {
+                if (++block == count) {
+                    break;
+                }
+                blockFirst[block] = sequence;
+            }
+            blockLast[block] = sequence;
+            previous = sequence;
+        }
+        write(MessageCodec.encode(new Ack(received, blockFirst, blockLast).toMessage()));
+    }
+
+    private int countBlocks() {
+        int blocks = 0;
+        int previous = Integer.MIN_VALUE;
+        for (Integer sequence : outOfOrder.keySet()) {
+            if (blocks == 0 || sequence != previous + 1) {
+                blocks++;
+            }
+            previous = sequence;
+        }
+        return blocks;
+    }
+
+    private void notifyState(int sequence, State state) {
+        if (listener != null) {
+            listener.onStateChanged(sequence, state);
+        }
+    }
+
+    /**
+     * @return Messages sent and not acknowledged yet
+     */
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return Messages waiting for room in the window
+     */
+    public synchronized int getQueued() {
+        return queued.size();
+    }
+
+    /**
+     * @return Highest sequence received with nothing missing below it
+     */
+    public synchronized int getReceivedSequence() {
+        return received;
+    }
+
+    public synchronized long getSentMessages() {
+        return sentMessages;
+    }
+
+    public synchronized long getRetransmits() {
+        return retransmits;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return Messages acknowledged by the other device
+     */
+    public synchronized long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    /**
+     * @return Payload bytes acknowledged by the other device, for goodput
+     */
+    public synchronized long getDeliveredBytes() {
+        return deliveredBytes;
+    }
+
+    /**
+     * @return Sequenced Messages received again and dropped
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized long getRto() {
+        return rttEstimator.getRto();
+    }
+
+    /**
+     * @return The smoothed RTT in ms, or -1 before the first Ack
+     */
+    public synchronized long getSmoothedRtt() {
+        return rttEstimator.getSmoothedRtt();
+    }
+
+    public synchronized long getRttVariance() {
+        return rttEstimator.getRttVariance();
+    }
+
+    /**
+     * A sent or queued Message and what is known about its delivery
+     */
+    private static class Outgoing {
+        final int sequence;
+        final byte[] frame;
+        final int payloadLength;
+        long sentAt;
+        boolean retransmitted = false;
+        // Covered by an Ack, possibly only selectively
+        boolean acknowledged = false;
+
+        Outgoing(int sequence, byte[] frame, int payloadLength) {
+            this.sequence = sequence;
+            this.frame = frame;
+            this.payloadLength = payloadLength;
+        }
+    }
+}
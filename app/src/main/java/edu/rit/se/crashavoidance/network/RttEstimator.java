@@ -0,0 +1,73 @@
+package edu.rit.se.crashavoidance.network;
+
+/**
+ * Smoothed round trip time and retransmission timeout as computed by TCP (RFC 6298).
+ * The minimum RTO is lower than the RFC's one second, since Wi-Fi Direct links are one hop and
+ * a lost chat message should not wait a full second.
+ */
+public class RttEstimator {
+
+    public static final long INITIAL_RTO_MILLIS = 1000;
+    public static final long MIN_RTO_MILLIS = 200;
+    public static final long MAX_RTO_MILLIS = 60000;
+    // Clock granularity of the timer that runs the RTO
+    private static final long GRANULARITY_MILLIS = 1;
+
+    private long smoothedRtt = -1;
+    private long rttVariance = 0;
+    private long rto = INITIAL_RTO_MILLIS;
+
+    /**
+     * Adds a round trip measured on a message that was not retransmitted (Karn's algorithm)
+     * and recomputes the RTO, which also ends any backoff
+     */
+    public void sample(long rttMillis) {
+        if (rttMillis < 0) {
+            return;
+        }
+        if (smoothedRtt < 0) {
+            smoothedRtt = rttMillis;
+            rttVariance = rttMillis / 2;
+        } else {
+            rttVariance = (3 * rttVariance + Math.abs(smoothedRtt - rttMillis)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rttMillis) / 8;
+        }
+        endBackOff();
+    }
+
+    /**
+     * Doubles the RTO after the retransmission timer expired
+     */
+    public void backOff() {
+        rto = clamp(rto * 2);
+    }
+
+    /**
+     * Recomputes the RTO from the estimates, dropping any backoff, e.g. when the timer only
+     * expired because the connection was down
+     */
+    public void endBackOff() {
+        rto = smoothedRtt < 0
+                ? INITIAL_RTO_MILLIS
+                : clamp(smoothedRtt + Math.max(GRANULARITY_MILLIS, 4 * rttVariance));
+    }
+
+    public long getRto() {
+        return rto;
+    }
+
+    /**
+     * @return The smoothed RTT, or -1 before the first sample
+     */
+    public long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    public long getRttVariance() {
+        return rttVariance;
+    }
+
+    private static long clamp(long rto) {
+        return Math.min(MAX_RTO_MILLIS, Math.max(MIN_RTO_MILLIS, rto));
+    }
+}
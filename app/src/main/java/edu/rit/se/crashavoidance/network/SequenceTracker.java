@@ -0,0 +1,72 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.util.BitSet;
+
+/**
+ * Tracks sequence numbers of received messages to count duplicates and messages that arrived
+ * after a later message. Not thread safe.
+ */
+public class SequenceTracker {
+
+    private final BitSet seen = new BitSet();
+    private int highest = -1;
+    private int received = 0;
+    private int duplicates = 0;
+    private int reordered = 0;
+
+    /**
+     * Records a received sequence number
+     * @return False if the sequence number was already seen
+     */
+    public boolean record(int sequence) {
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Negative sequence " + sequence);
+        }
+        if (seen.get(sequence)) {
+            duplicates++;
+            return false;
+        }
+        seen.set(sequence);
+        received++;
+        if (sequence < highest) {
+            reordered++;
+        } else {
+            highest = sequence;
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of distinct sequence numbers received
+     */
+    public int getReceived() {
+        return received;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return Number of messages that arrived after a message with a higher sequence number
+     */
+    public int getReordered() {
+        return reordered;
+    }
+
+    /**
+     * @param sent Number of messages sent, with sequence numbers 0 to sent - 1
+     * @return Number of those messages not received
+     */
+    public int getLost(int sent) {
+        return sent - seen.get(0, sent).cardinality();
+    }
+
+    public void reset() {
+        seen.clear();
+        highest = -1;
+        received = 0;
+        duplicates = 0;
+        reordered = 0;
+    }
+}
@@ -0,0 +1,117 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.util.Random;
+
+import edu.rit.se.crashavoidance.metrics.Counter;
+import edu.rit.se.crashavoidance.metrics.Histogram;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+
+/**
+ * Continues a chat session across reconnects instead of starting over. Each device has a
+ * session id that lives as long as this object. On every connection both devices send their
+ * Hello with a Hello.Resume: their session id, the other device's session id as they last saw
+ * it, and what they have received. If both ids match on both sides, the ReliableSession and the
+ * ChunkedSender only send the tail the other device is missing; otherwise both start a new
+ * session.
+ *
+ * Not thread safe, call it from the thread Messages are received on, which the ChunkAssembler
+ * requires as well.
+ */
+public class SessionResumer {
+
+    private final ReliableSession reliableSession;
+    private final ChunkedSender chunkedSender;
+    private final ChunkAssembler chunkAssembler;
+    private final long sessionId;
+    private long peerSessionId = 0;
+    // When the current connection was established, -1 once its Hello was handled
+    private long connectedAtNanos = -1;
+
+    private final Counter resumedSessions;
+    private final Counter newSessions;
+    private final Counter bytesSaved;
+    private final Histogram reconnectToResumed;
+
+    public SessionResumer(ReliableSession reliableSession, ChunkedSender chunkedSender,
+                          ChunkAssembler chunkAssembler, MetricsRegistry metrics) {
+        this.reliableSession = reliableSession;
+        this.chunkedSender = chunkedSender;
+        this.chunkAssembler = chunkAssembler;
+        long id;
+        do {
+            id = new Random().nextLong();
+        } while (id == 0);
+        sessionId = id;
+        resumedSessions = metrics.counter("resume.resumed_sessions");
+        newSessions = metrics.counter("resume.new_sessions");
+        bytesSaved = metrics.counter("resume.bytes_saved");
+        reconnectToResumed = metrics.histogram("resume.reconnect_to_resumed", "ms");
+    }
+
+    /**
+     * Called when a connection to the other device is established, before this device's Hello
+     * is sent
+     */
+    public void onConnected() {
+        connectedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * @return What this device has received, to send in its Hello
+     */
+    public Hello.Resume getResumeState() {
+        return new Hello.Resume(sessionId, peerSessionId, reliableSession.getReceivedSequence(),
+                chunkAssembler.getLastTransferId(), chunkAssembler.getLastTransferChunks());
+    }
+
+    /**
+     * Resumes the session from the other device's Hello, or starts a new one if either device
+     * does not know the other's session
+     * @return True if the session was resumed
+     */
+    public boolean onHello(Hello hello) {
+        Hello.Resume resume = hello.resume;
+        boolean resumed = resume != null && peerSessionId != 0
+                && resume.sessionId == peerSessionId && resume.peerSessionId == sessionId;
+        if (resumed) {
+            chunkAssembler.onResumed();
+            long saved = reliableSession.resume(resume.receivedSequence)
+                    + chunkedSender.resume(resume.transferId, resume.chunksReceived);
+            bytesSaved.add(saved);
+            resumedSessions.increment();
+            if (connectedAtNanos >= 0) {
+                reconnectToResumed.record((System.nanoTime() - connectedAtNanos) / 1000000);
+            }
+        } else {
+            peerSessionId = resume != null ? resume.sessionId : 0;
+            reliableSession.reset();
+            chunkedSender.clearResumeBuffer();
+            chunkAssembler.clear();
+            newSessions.increment();
+        }
+        connectedAtNanos = -1;
+        return resumed;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return The other device's session id, 0 before its first Hello with resume state
+     */
+    public long getPeerSessionId() {
+        return peerSessionId;
+    }
+
+    public long getResumedSessions() {
+        return resumedSessions.get();
+    }
+
+    /**
+     * @return Payload bytes that were not sent again thanks to resumption
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+}
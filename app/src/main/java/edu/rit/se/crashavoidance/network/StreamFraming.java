@@ -0,0 +1,69 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes MessageCodec frames on byte streams such as sockets. The length in the frame
+ * header delimits frames, so no extra framing is added.
+ */
+public final class StreamFraming {
+
+    private StreamFraming() {
+    }
+
+    /**
+     * Reads the next complete frame
+     * @param input Stream positioned at the start of a frame
+     * @return The frame, header included, or null if the stream ended between frames
+     * @throws MessageFormatException if the header is invalid
+     * @throws IOException if the stream fails or ends inside a frame
+     */
+    public static byte[] readFrame(DataInputStream input) throws IOException {
+        byte[] header = new byte[MessageCodec.HEADER_LENGTH];
+        int first = input.read();
+        if (first < 0) {
+            return null;
+        }
+        header[0] = (byte) first;
+        input.readFully(header, 1, header.length - 1);
+        int length = ByteBuffer.wrap(header).getInt(4);
+        if (length < 0 || length > MessageCodec.MAX_PAYLOAD_LENGTH) {
+            throw new MessageFormatException("Invalid payload length " + length);
+        }
+        byte[] frame = new byte[MessageCodec.HEADER_LENGTH + length];
+        System.arraycopy(header, 0, frame, 0, header.length);
+        input.readFully(frame, header.length, length);
+        return frame;
+    }
+
+    /**
+     * Returns a FrameSink that writes frames to a stream, serializing concurrent writers.
+     * Write failures are rethrown as IllegalStateException.
+     */
+    public static FrameSink sinkFor(final OutputStream output) {
+        return new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                synchronized (output) {
+                    try {
+                        output.write(frame);
+                        output.flush();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Write failed: " + e.getMessage(), e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps an InputStream so frames can be read from it
+     */
+    public static DataInputStream frameInput(InputStream input) {
+        return new DataInputStream(input);
+    }
+}
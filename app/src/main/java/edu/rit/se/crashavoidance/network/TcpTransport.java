@@ -0,0 +1,146 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Transport over a TCP socket. Frames are read on a dedicated reader thread and delivered to
+ * the Receiver on that thread. Used to exercise the messaging layer over localhost.
+ */
+public class TcpTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InetSocketAddress address;
+    private Socket socket;
+    private OutputStream output;
+    private volatile Receiver receiver;
+    private Thread readerThread;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a transport that connects to a listening socket
+     */
+    public TcpTransport(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Creates a transport for a socket that is already connected, e.g. one accepted by a server
+     */
+    public TcpTransport(Socket socket) {
+        this.address = (InetSocketAddress) socket.getRemoteSocketAddress();
+        this.socket = socket;
+    }
+
+    /**
+     * Accepts the next connection on a server socket
+     */
+    public static TcpTransport accept(ServerSocket serverSocket) throws IOException {
+        return new TcpTransport(serverSocket.accept());
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (closed) {
+            throw new IOException("Transport closed");
+        }
+        if (readerThread != null) {
+            return;
+        }
+        if (socket == null) {
+            socket = new Socket();
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+        }
+        socket.setTcpNoDelay(true);
+        output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        final DataInputStream input = StreamFraming.frameInput(
+                new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop(input);
+            }
+        }, "TcpTransport " + address);
+        readerThread.start();
+    }
+
+    @Override
+    public void write(byte[] frame) {
+        OutputStream output = this.output;
+        if (closed || output == null) {
+            throw new IllegalStateException("Transport not connected");
+        }
+        synchronized (output) {
+            try {
+                output.write(frame);
+                output.flush();
+            } catch (IOException e) {
+                closeWith(e);
+                throw new IllegalStateException("Write failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && readerThread != null;
+    }
+
+    @Override
+    public void close() {
+        closeWith(null);
+    }
+
+    private void readLoop(DataInputStream input) {
+        IOException failure = null;
+        try {
+            byte[] frame;
+            while ((frame = StreamFraming.readFrame(input)) != null) {
+                Receiver receiver = this.receiver;
+                if (receiver != null) {
+                    receiver.onFrame(this, frame);
+                }
+            }
+        } catch (SocketException e) {
+            // Closed locally, or reset by the other side
+            failure = closed ? null : e;
+        } catch (IOException e) {
+            failure = e;
+        }
+        closeWith(failure);
+    }
+
+    private void closeWith(IOException cause) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Already closing
+        }
+        Receiver receiver = this.receiver;
+        if (receiver != null) {
+            receiver.onClosed(this, cause);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package edu.rit.se.crashavoidance.network;
+
+/**
+ * Receives progress of chunked transfers in either direction
+ */
+public interface TransferListener {
+
+    /**
+     * Called after each chunk is sent or received
+     * @param transferId Id of the transfer
+     * @param outgoing True if this device is sending
+     * @param bytesTransferred Payload bytes handled so far
+     * @param totalBytes Size of the whole payload
+     */
+    void onTransferProgress(int transferId, boolean outgoing, long bytesTransferred, long totalBytes);
+
+    /**
+     * Called when a transfer could not be completed
+     * @param transferId Id of the transfer
+     * @param outgoing True if this device was sending
+     * @param reason Description of the failure
+     */
+    void onTransferFailed(int transferId, boolean outgoing, String reason);
+}
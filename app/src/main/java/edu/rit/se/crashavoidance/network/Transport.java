@@ -0,0 +1,52 @@
+package edu.rit.se.crashavoidance.network;
+
+import java.io.IOException;
+
+/**
+ * A connection to another device that carries MessageCodec frames. Frames are sent with
+ * write and received frames are handed to the Receiver, possibly on a transport thread.
+ */
+public interface Transport extends FrameSink {
+
+    /**
+     * Callbacks for frames and events from a Transport
+     */
+    interface Receiver {
+
+        /**
+         * Called with each complete frame received, in order
+         */
+        void onFrame(Transport transport, byte[] frame);
+
+        /**
+         * Called once when the transport closes
+         * @param cause The failure that closed the transport, or null if it was closed normally
+         */
+        void onClosed(Transport transport, IOException cause);
+    }
+
+    /**
+     * Sets the Receiver for received frames, replacing any previous one
+     */
+    void setReceiver(Receiver receiver);
+
+    /**
+     * Establishes the connection if it is not already established
+     * @throws IOException if the connection can't be established
+     */
+    void connect() throws IOException;
+
+    /**
+     * Sends one frame
+     * @throws IllegalStateException if the transport is not connected or the write fails
+     */
+    @Override
+    void write(byte[] frame);
+
+    boolean isConnected();
+
+    /**
+     * Closes the connection. Does nothing if it is already closed.
+     */
+    void close();
+}
@@ -0,0 +1,123 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Map;
+
+import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.discovery.ServiceRowCache;
+import edu.rit.se.crashavoidance.discovery.ServiceTable;
+import edu.rit.se.wifibuddy.DnsSdService;
+import edu.rit.se.wifibuddy.DnsSdTxtRecord;
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * RecyclerView adapter that shows the services of a ServiceTable. Changes to the table are
+ * passed on per row, so only the affected rows are bound again, and the text of each row is
+ * taken from a ServiceRowCache, so binding an unchanged row only sets its text.
+ */
+class AvailableServicesAdapter extends RecyclerView.Adapter<AvailableServicesAdapter.ServiceViewHolder>
+        implements ServiceTable.Listener {
+
+    private final ServiceTable<DnsSdService> services;
+    private final ServiceRowCache rowCache;
+    private final MainActivity context;
+
+    public AvailableServicesAdapter(MainActivity context, ServiceTable<DnsSdService> services,
+                                    ServiceRowCache rowCache) {
+        this.context = context;
+        this.services = services;
+        this.rowCache = rowCache;
+    }
+
+    @Override
+    public ServiceViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.service_item, parent, false);
+        return new ServiceViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ServiceViewHolder holder, int position) {
+        ServiceRowCache.Row row = getRow(position);
+        holder.service = services.get(position);
+        holder.deviceNameTextView.setText(row.deviceName);
+        holder.deviceInfoTextView.setText(row.deviceInfo);
+    }
+
+    /**
+     * Returns the cached text of a row, built again only if the device's name, status or TXT
+     * record changed
+     */
+    private ServiceRowCache.Row getRow(int position) {
+        String address = services.getAddress(position);
+        WifiDirectHandler wifiDirectHandler = context.getWifiHandler();
+        Map<String, String> mapTxtRecord = null;
+        DnsSdTxtRecord txtRecord = wifiDirectHandler.getDnsSdTxtRecordMap().get(address);
+        if (txtRecord != null) {
+            mapTxtRecord = txtRecord.getRecord();
+        }
+        // The status of the device offering the service, as last reported in the peer list
+        String status = wifiDirectHandler.deviceStatusToString(services.getStatus(position));
+        return rowCache.get(address, services.get(position).getSrcDevice().deviceName, status, mapTxtRecord);
+    }
+
+    /**
+     * Rebinds a row if its device's TXT record or status changed since its text was built,
+     * e.g. when a TXT record arrives for a service that is already shown
+     */
+    public void refreshRow(int position) {
+        long builds = rowCache.getBuilds();
+        getRow(position);
+        if (rowCache.getBuilds() != builds) {
+            notifyItemChanged(position);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return services.size();
+    }
+
+    @Override
+    public void onServiceInserted(int position) {
+        notifyItemInserted(position);
+    }
+
+    @Override
+    public void onServiceChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    @Override
+    public void onServiceRemoved(int position, String address) {
+        rowCache.remove(address);
+        notifyItemRemoved(position);
+    }
+
+    class ServiceViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView deviceNameTextView;
+        final TextView deviceInfoTextView;
+        DnsSdService service;
+
+        ServiceViewHolder(View itemView) {
+            super(itemView);
+            deviceNameTextView = (TextView) itemView.findViewById(R.id.deviceName);
+            deviceInfoTextView = (TextView) itemView.findViewById(R.id.deviceInfo);
+            TextView connectTextView = (TextView) itemView.findViewById(R.id.connect);
+            connectTextView.setText("Connect");
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            if (service != null) {
+                context.onServiceClick(service);
+            }
+        }
+    }
+}
@@ -1,39 +1,52 @@
 package edu.rit.se.crashavoidance.views;
 
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.LocalBroadcastManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
-import android.widget.ListView;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.discovery.DiscoverySession;
+import edu.rit.se.crashavoidance.discovery.ServiceRowCache;
+import edu.rit.se.crashavoidance.discovery.ServiceTable;
+import edu.rit.se.crashavoidance.metrics.Gauge;
+import edu.rit.se.crashavoidance.metrics.LatencyProbe;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
 import edu.rit.se.wifibuddy.DnsSdService;
 import edu.rit.se.wifibuddy.WifiDirectHandler;
 
 /**
- * ListFragment that shows a list of available discovered services
+ * Fragment that shows a list of available discovered services, one per device, and removes
+ * the services of devices that have left the peer list
  */
 public class AvailableServicesFragment extends Fragment{
 
     private WiFiDirectHandlerAccessor wifiDirectHandlerAccessor;
-    private List<DnsSdService> services = new ArrayList<>();
-    private AvailableServicesListViewAdapter servicesListAdapter;
-    private ListView deviceList;
+    private final ServiceTable<DnsSdService> services = new ServiceTable<>();
+    private final ServiceRowCache rowCache = new ServiceRowCache();
+    private AvailableServicesAdapter servicesAdapter;
+    private RecyclerView deviceList;
     private Toolbar toolbar;
+    private DiscoverySession.Subscription discoverySubscription;
+    // Time from starting discovery to the first service found
+    private LatencyProbe firstServiceProbe;
+    // Gauges this Fragment registered, removed in onDetach
+    private final Map<String, Gauge> gauges = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private static final String TAG = WifiDirectHandler.TAG + "ServicesFragment";
 
     /**
@@ -44,17 +57,29 @@ public class AvailableServicesFragment extends Fragment{
                              Bundle savedInstanceState) {
         View rootView = inflater.inflate(R.layout.fragment_available_services, container, false);
         toolbar = (Toolbar) getActivity().findViewById(R.id.mainToolbar);
-        deviceList = (ListView)rootView.findViewById(R.id.device_list);
+        deviceList = (RecyclerView) rootView.findViewById(R.id.device_list);
         prepareResetButton(rootView);
-        setServiceList();
         services.clear();
-        servicesListAdapter.notifyDataSetChanged();
-        Log.d("TIMING", "Discovering started " + (new Date()).getTime());
-        registerLocalP2pReceiver();
-        getHandler().continuouslyDiscoverServices();
+        rowCache.clear();
+        setServiceList();
+        firstServiceProbe.start();
+        Log.i(TAG, "Subscribing to service discovery");
+        discoverySubscription = wifiDirectHandlerAccessor.getDiscoverySession().subscribe(discoveryListener);
+        mainHandler.postDelayed(evictExpiredRunnable, services.getTtlMillis() / 2);
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (discoverySubscription != null) {
+            discoverySubscription.unsubscribe();
+            discoverySubscription = null;
+        }
+        mainHandler.removeCallbacks(evictExpiredRunnable);
+        services.setListener(null);
+    }
+
     private void prepareResetButton(View view){
         Button resetButton = (Button)view.findViewById(R.id.reset_button);
         resetButton.setOnClickListener(new View.OnClickListener() {
@@ -70,8 +95,10 @@ public class AvailableServicesFragment extends Fragment{
      * Sets the service list adapter to display available services
      */
     private void setServiceList() {
-        servicesListAdapter = new AvailableServicesListViewAdapter((MainActivity) getActivity(), services);
-        deviceList.setAdapter(servicesListAdapter);
+        servicesAdapter = new AvailableServicesAdapter((MainActivity) getActivity(), services, rowCache);
+        services.setListener(servicesAdapter);
+        deviceList.setLayoutManager(new LinearLayoutManager(getActivity()));
+        deviceList.setAdapter(servicesAdapter);
     }
 
     /**
@@ -79,41 +106,55 @@ public class AvailableServicesFragment extends Fragment{
      * and start discovering services again
      */
     private void resetServiceDiscovery(){
-        // Clear the list, notify the list adapter, and start discovering services again
+        // Clear the list, which notifies the adapter, and start discovering services again
         Log.i(TAG, "Resetting Service discovery");
         services.clear();
-        servicesListAdapter.notifyDataSetChanged();
-        getHandler().resetServiceDiscovery();
+        firstServiceProbe.start();
+        wifiDirectHandlerAccessor.getDiscoverySession().reset();
     }
 
-    private void registerLocalP2pReceiver() {
-        Log.i(TAG, "Registering local P2P broadcast receiver");
-        WifiDirectReceiver p2pBroadcastReceiver = new WifiDirectReceiver();
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(WifiDirectHandler.Action.DNS_SD_SERVICE_AVAILABLE);
-        LocalBroadcastManager.getInstance(getContext()).registerReceiver(p2pBroadcastReceiver, intentFilter);
-        Log.i(TAG, "Local P2P broadcast receiver registered");
-    }
+    /**
+     * Adds discovered services to the list, and removes those of departed peers, while the view
+     * is subscribed to the DiscoverySession
+     */
+    private final DiscoverySession.Listener discoveryListener = new DiscoverySession.Listener() {
+        @Override
+        public void onServiceFound(String serviceKey) {
+            DnsSdService service = getHandler().getDnsSdServiceMap().get(serviceKey);
+            if (service == null) {
+                return;
+            }
+            firstServiceProbe.stop();
+            // Add the service to the UI, or refresh the one already shown for its device
+            String address = service.getSrcDevice().deviceAddress;
+            if (!services.put(address, service, service.getSrcDevice().status, SystemClock.elapsedRealtime())) {
+                servicesAdapter.refreshRow(services.indexOf(address));
+            }
+        }
+
+        @Override
+        public void onPeersChanged(Map<String, Integer> peerStatuses) {
+            int evicted = services.onPeersChanged(peerStatuses, SystemClock.elapsedRealtime());
+            if (evicted > 0) {
+                Log.i(TAG, "Removed " + evicted + " services of departed peers");
+            }
+        }
+    };
 
     /**
-     * Receiver for receiving intents from the WifiDirectHandler to update UI
-     * when Wi-Fi Direct commands are completed
+     * Evicts the services of departed peers while the view is shown. The peer list may not
+     * change again after a device leaves, so this doesn't wait for the next peer list.
      */
-    public class WifiDirectReceiver extends BroadcastReceiver {
+    private final Runnable evictExpiredRunnable = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            // Get the intent sent by WifiDirectHandler when a service is found
-            if (intent.getAction().equals(WifiDirectHandler.Action.DNS_SD_SERVICE_AVAILABLE)) {
-                String serviceKey = intent.getStringExtra(WifiDirectHandler.SERVICE_MAP_KEY);
-                DnsSdService service = getHandler().getDnsSdServiceMap().get(serviceKey);
-                Log.d("TIMING", "Service Discovered and Accessed " + (new Date()).getTime());
-                // Add the service to the UI and update
-                servicesListAdapter.addUnique(service);
-                // TODO Capture an intent that indicates the peer list has changed
-                // and see if we need to remove anything from our list
+        public void run() {
+            int evicted = services.evictExpired(SystemClock.elapsedRealtime());
+            if (evicted > 0) {
+                Log.i(TAG, "Removed " + evicted + " services of peers no longer seen");
             }
+            mainHandler.postDelayed(this, services.getTtlMillis() / 2);
         }
-    }
+    };
 
     @Override
     public void onResume() {
@@ -142,5 +183,49 @@ public class AvailableServicesFragment extends Fragment{
         } catch (ClassCastException e) {
             throw new ClassCastException(getActivity().toString() + " must implement WiFiDirectHandlerAccessor");
         }
+        MetricsRegistry metrics = wifiDirectHandlerAccessor.getMetrics();
+        firstServiceProbe = metrics.probe("discovery.start_to_first_service");
+        registerGauge(metrics, "discovery.services", new Gauge() {
+            @Override
+            public double getValue() {
+                return services.size();
+            }
+        });
+        registerGauge(metrics, "discovery.evicted_services", new Gauge() {
+            @Override
+            public double getValue() {
+                return services.getEvictedServices();
+            }
+        });
+        registerGauge(metrics, "discovery.row_cache_hits", new Gauge() {
+            @Override
+            public double getValue() {
+                return rowCache.getHits();
+            }
+        });
+        registerGauge(metrics, "discovery.row_builds", new Gauge() {
+            @Override
+            public double getValue() {
+                return rowCache.getBuilds();
+            }
+        });
+    }
+
+    private void registerGauge(MetricsRegistry metrics, String name, Gauge gauge) {
+        gauges.put(name, gauge);
+        metrics.gauge(name, gauge);
+    }
+
+    /**
+     * Drops this Fragment's gauges from the Activity's registry
+     */
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        MetricsRegistry metrics = wifiDirectHandlerAccessor.getMetrics();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            metrics.remove(gauge.getKey(), gauge.getValue());
+        }
+        gauges.clear();
     }
 }
@@ -0,0 +1,167 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.Toolbar;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.network.LinkBenchmark;
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * Fragment that measures round trip time, throughput, loss and reordering of the link to the
+ * connected device using the ChatFragment's connection
+ */
+public class BenchmarkFragment extends Fragment {
+
+    private static final long PONG_TIMEOUT_MILLIS = 10000;
+    private static final String TAG = WifiDirectHandler.TAG + "Benchmark";
+
+    private LinkBenchmark linkBenchmark;
+    private ExecutorService benchmarkExecutor;
+    private EditText countEditText;
+    private EditText payloadEditText;
+    private EditText intervalEditText;
+    private Button latencyButton;
+    private Button throughputButton;
+    private TextView resultTextView;
+    private Toolbar toolbar;
+
+    /**
+     * Sets the benchmark to run, must be called before the Fragment is shown
+     */
+    public void setLinkBenchmark(LinkBenchmark linkBenchmark) {
+        this.linkBenchmark = linkBenchmark;
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_benchmark, container, false);
+        countEditText = (EditText) view.findViewById(R.id.benchmarkCountEditText);
+        payloadEditText = (EditText) view.findViewById(R.id.benchmarkPayloadEditText);
+        intervalEditText = (EditText) view.findViewById(R.id.benchmarkIntervalEditText);
+        latencyButton = (Button) view.findViewById(R.id.latencyBenchmarkButton);
+        throughputButton = (Button) view.findViewById(R.id.throughputBenchmarkButton);
+        resultTextView = (TextView) view.findViewById(R.id.benchmarkResultTextView);
+
+        latencyButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                final int count = readInt(countEditText, 100);
+                final int payloadSize = readInt(payloadEditText, 64);
+                final int interval = readInt(intervalEditText, 20);
+                runBenchmark("Latency, " + count + " pings of " + payloadSize + " bytes", new BenchmarkTask() {
+                    @Override
+                    public LinkBenchmark.Report run() throws InterruptedException {
+                        return linkBenchmark.measureLatency(count, payloadSize, interval, PONG_TIMEOUT_MILLIS);
+                    }
+                });
+            }
+        });
+
+        throughputButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                final int count = readInt(countEditText, 100);
+                final int payloadSize = readInt(payloadEditText, 16 * 1024);
+                runBenchmark("Throughput, " + count + " messages of " + payloadSize + " bytes", new BenchmarkTask() {
+                    @Override
+                    public LinkBenchmark.Report run() throws InterruptedException {
+                        return linkBenchmark.measureThroughput(count, payloadSize, PONG_TIMEOUT_MILLIS);
+                    }
+                });
+            }
+        });
+
+        toolbar = (Toolbar) getActivity().findViewById(R.id.mainToolbar);
+        return view;
+    }
+
+    private interface BenchmarkTask {
+        LinkBenchmark.Report run() throws InterruptedException;
+    }
+
+    /**
+     * Runs a benchmark on a background thread and shows its report when it finishes
+     */
+    private void runBenchmark(final String description, final BenchmarkTask task) {
+        if (linkBenchmark == null) {
+            resultTextView.setText("Not connected");
+            return;
+        }
+        if (benchmarkExecutor == null) {
+            benchmarkExecutor = Executors.newSingleThreadExecutor();
+        }
+        setButtonsEnabled(false);
+        resultTextView.setText(getString(R.string.benchmark_running));
+        Log.i(TAG, "Starting benchmark: " + description);
+        benchmarkExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    result = description + "\n" + task.run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    result = description + " failed: " + e.getMessage();
+                }
+                Log.i(TAG, result);
+                showResult(result);
+            }
+        });
+    }
+
+    private void showResult(final String result) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                resultTextView.setText(result);
+                setButtonsEnabled(true);
+            }
+        });
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        latencyButton.setEnabled(enabled);
+        throughputButton.setEnabled(enabled);
+    }
+
+    private static int readInt(EditText editText, int defaultValue) {
+        try {
+            return Math.max(1, Integer.parseInt(editText.getText().toString()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        toolbar.setTitle(getString(R.string.title_link_benchmark));
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (benchmarkExecutor != null) {
+            benchmarkExecutor.shutdownNow();
+            benchmarkExecutor = null;
+        }
+    }
+}
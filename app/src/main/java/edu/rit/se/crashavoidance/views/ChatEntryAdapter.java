@@ -0,0 +1,148 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.chat.ChatEntry;
+import edu.rit.se.crashavoidance.chat.ChatHistory;
+import edu.rit.se.crashavoidance.network.MessageType;
+import edu.rit.se.crashavoidance.network.ReliableSession;
+
+/**
+ * RecyclerView adapter that shows the entries of a ChatHistory. Changes to the history are
+ * passed on as range notifications, so only the affected rows are bound again.
+ */
+class ChatEntryAdapter extends RecyclerView.Adapter<ChatEntryAdapter.ChatEntryViewHolder>
+        implements ChatHistory.Listener {
+
+    private static final int VIEW_TYPE_INCOMING = 0;
+    private static final int VIEW_TYPE_OUTGOING = 1;
+
+    interface OnEntryClickListener {
+        void onEntryClick(ChatEntry entry);
+    }
+
+    private final ChatHistory history;
+    private OnEntryClickListener onEntryClickListener;
+    // Delivery state of outgoing entries sent reliably, by entry id
+    private Map<Long, ReliableSession.State> deliveryStates = Collections.emptyMap();
+
+    public ChatEntryAdapter(ChatHistory history) {
+        this.history = history;
+        setHasStableIds(true);
+    }
+
+    public void setOnEntryClickListener(OnEntryClickListener onEntryClickListener) {
+        this.onEntryClickListener = onEntryClickListener;
+    }
+
+    /**
+     * Shows the delivery state of outgoing entries. The map is read when rows are bound, so
+     * changes are shown once the entry is updated in the history.
+     */
+    public void setDeliveryStates(Map<Long, ReliableSession.State> deliveryStates) {
+        this.deliveryStates = deliveryStates;
+    }
+
+    @Override
+    public ChatEntryViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.chat_entry, parent, false);
+        ChatEntryViewHolder holder = new ChatEntryViewHolder(view);
+        holder.textView.setGravity((viewType == VIEW_TYPE_OUTGOING ? Gravity.RIGHT : Gravity.LEFT) | Gravity.CENTER_VERTICAL);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(ChatEntryViewHolder holder, int position) {
+        ChatEntry entry = history.get(position);
+        holder.entry = entry;
+        ReliableSession.State state = deliveryStates.get(entry.id);
+        holder.textView.setText(state != null ? describe(entry) + describe(state) : describe(entry));
+    }
+
+    /**
+     * Returns the text shown for an entry
+     */
+    static String describe(ChatEntry entry) {
+        String author = entry.direction == ChatEntry.Direction.OUTGOING ? "Me" : entry.author;
+        if (entry.payloadType == MessageType.IMAGE) {
+            return entry.direction == ChatEntry.Direction.OUTGOING
+                    ? "Image sent"
+                    : (author != null ? author : "Buddy") + " sent an image, tap to view";
+        }
+        return author != null ? author + ": " + entry.text : entry.text;
+    }
+
+    private static String describe(ReliableSession.State state) {
+        switch (state) {
+            case QUEUED:
+                return " (queued)";
+            case SENT:
+                return " (sent)";
+            case FAILED:
+                return " (failed)";
+            default:
+                return " (delivered)";
+        }
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return history.get(position).direction == ChatEntry.Direction.OUTGOING
+                ? VIEW_TYPE_OUTGOING
+                : VIEW_TYPE_INCOMING;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return history.get(position).id;
+    }
+
+    @Override
+    public int getItemCount() {
+        return history.size();
+    }
+
+    @Override
+    public void onEntriesInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onEntriesRemoved(int position, List<ChatEntry> removed) {
+        notifyItemRangeRemoved(position, removed.size());
+    }
+
+    @Override
+    public void onEntryChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    class ChatEntryViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView textView;
+        ChatEntry entry;
+
+        ChatEntryViewHolder(View itemView) {
+            super(itemView);
+            textView = (TextView) itemView.findViewById(R.id.chatEntryText);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            if (entry != null && onEntryClickListener != null) {
+                onEntryClickListener.onEntryClick(entry);
+            }
+        }
+    }
+}
@@ -6,55 +6,370 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.MediaStore;
-import android.support.v4.app.ListFragment;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
-import android.view.Gravity;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.ArrayAdapter;
+import android.util.DisplayMetrics;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import org.apache.commons.lang3.SerializationUtils;
-
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.Timer;
+import edu.rit.se.crashavoidance.chat.ChatEntry;
+import edu.rit.se.crashavoidance.chat.ChatHistory;
+import edu.rit.se.crashavoidance.chat.FrameCoalescer;
+import edu.rit.se.crashavoidance.chat.TranscriptLog;
+import edu.rit.se.crashavoidance.discovery.DiscoveryScheduler;
+import edu.rit.se.crashavoidance.image.BitmapCache;
+import edu.rit.se.crashavoidance.image.EncodeBudget;
+import edu.rit.se.crashavoidance.image.ImageDecoder;
+import edu.rit.se.crashavoidance.image.ImageEncoder;
+import edu.rit.se.crashavoidance.metrics.Gauge;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+import edu.rit.se.crashavoidance.metrics.RateMeter;
+import edu.rit.se.crashavoidance.network.BatchPolicy;
+import edu.rit.se.crashavoidance.network.Chunk;
+import edu.rit.se.crashavoidance.network.ChunkAssembler;
+import edu.rit.se.crashavoidance.network.ChunkedSender;
+import edu.rit.se.crashavoidance.network.FrameSink;
+import edu.rit.se.crashavoidance.network.GroupRelay;
+import edu.rit.se.crashavoidance.network.Hello;
+import edu.rit.se.crashavoidance.network.LinkBenchmark;
+import edu.rit.se.crashavoidance.network.LinkResponder;
 import edu.rit.se.crashavoidance.network.Message;
+import edu.rit.se.crashavoidance.network.MessageBatch;
+import edu.rit.se.crashavoidance.network.MessageCodec;
+import edu.rit.se.crashavoidance.network.MessageFormatException;
 import edu.rit.se.crashavoidance.network.MessageType;
-import edu.rit.se.wifibuddy.CommunicationManager;
+import edu.rit.se.crashavoidance.network.OutboundDispatcher;
+import edu.rit.se.crashavoidance.network.PayloadCompressor;
+import edu.rit.se.crashavoidance.network.ReliableSession;
+import edu.rit.se.crashavoidance.network.SessionResumer;
+import edu.rit.se.crashavoidance.network.TransferListener;
+import edu.rit.se.crashavoidance.network.Transport;
 import edu.rit.se.wifibuddy.WifiDirectHandler;
 
 /**
- * This fragment handles chat related UI which includes a list view for messages
+ * This fragment handles chat related UI which includes a list of messages
  * and a message entry field with a send button.
  */
-public class ChatFragment extends ListFragment {
+public class ChatFragment extends Fragment {
 
     private EditText textMessageEditText;
-    private ChatMessageAdapter adapter = null;
-    private List<String> items = new ArrayList<>();
-    private ArrayList<String> messages = new ArrayList<>();
+    // A window over the transcript, paged as the user scrolls
+    private ChatHistory history;
+    private ChatEntryAdapter chatEntryAdapter;
+    private RecyclerView messagesRecyclerView;
+    private LinearLayoutManager layoutManager;
+    // Every entry is appended on transcriptExecutor, null if the transcript could not be opened
+    private TranscriptLog transcript;
+    private ExecutorService transcriptExecutor;
+    private boolean loadingPage = false;
+    // Frames received while the transcript is being opened, when entries can't get ids yet
+    private final List<byte[]> framesBeforeHistory = new ArrayList<>();
+    // Entries added during a frame are shown together at the next one
+    private FrameCoalescer frameCoalescer;
+    // Link traffic, recorded on the writer and delivery threads
+    private RateMeter framesSent;
+    private RateMeter bytesSent;
+    private RateMeter framesReceived;
+    private RateMeter bytesReceived;
     private WiFiDirectHandlerAccessor handlerAccessor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Chunked transfers in progress, by direction and id, which keep discovery paused
+    private final Set<Long> activeTransfers = new HashSet<>();
+    // Set by onDestroy under the activeTransfers lock, after which transfers are not tracked
+    private boolean transfersClosed = false;
     private Toolbar toolbar;
     private Button sendButton;
     private ImageButton cameraButton;
+    private TextView transferStatusTextView;
+    private ExecutorService transferExecutor;
+    private ExecutorService encodeExecutor;
+    private ImageEncoder imageEncoder;
+    private EncodeBudget encodeBudget = EncodeBudget.MEDIUM;
+    private OutboundDispatcher outboundDispatcher;
+    private ChunkedSender chunkedSender;
+    private ChunkAssembler chunkAssembler;
+    // Enabled once the other device's Hello says it can decompress
+    private final PayloadCompressor payloadCompressor = new PayloadCompressor();
+    private boolean helloPending = false;
+    // The other device's Hello can arrive before this device's SERVICE_CONNECTED broadcast.
+    // A Hello received while no connection awaits one belongs to the next connection.
+    private boolean awaitingPeerHello = false;
+    private boolean peerHelloArrivedEarly = false;
+    // Text messages are sequenced and acknowledged once the other device's Hello says it can
+    private ReliableSession reliableSession;
+    private boolean reliableEnabled = false;
+    // Continues messages and chunked transfers when the same devices reconnect
+    private SessionResumer sessionResumer;
+    // Entry ids of reliably sent messages by sequence, until they are delivered
+    private final Map<Integer, Long> sentEntries = new HashMap<>();
+    private long sendingEntryId = -1;
+    // Shown next to outgoing entries, by entry id
+    private final Map<Long, ReliableSession.State> deliveryStates = new HashMap<>();
+    private final LinkResponder linkResponder = new LinkResponder();
+    private LinkBenchmark linkBenchmark;
+    private BenchmarkFragment benchmarkFragment;
+    private ExecutorService decodeExecutor;
+    private ImageDecoder imageDecoder;
+    private final BitmapCache bitmapCache = BitmapCache.forHeapFraction(8);
+    // Received images by image id
+    private final Map<Long, File> receivedImages = new HashMap<>();
+    // Gauges of this chat session by name, removed in onDestroy
+    private final Map<String, Gauge> gauges = new HashMap<>();
+    private long nextLocalImageId = -1;
     private static final String TAG = WifiDirectHandler.TAG + "ListFragment";
+    private static final int TRANSCRIPT_PAGE_SIZE = 50;
+    private static final int PAGE_PREFETCH_DISTANCE = 5;
+    private static final int SEARCH_RESULT_LIMIT = 50;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+        frameCoalescer = new FrameCoalescer(choreographerScheduler, stagedEntriesListener);
+        openTranscript();
+        registerMetrics();
+    }
+
+    /**
+     * Registers gauges for the messaging stats of this chat session
+     */
+    private void registerMetrics() {
+        registerGauge("dispatcher.queue_depth", new Gauge() {
+            @Override
+            public double getValue() {
+                return outboundDispatcher != null ? outboundDispatcher.getQueueDepth() : 0;
+            }
+        });
+        registerGauge("dispatcher.bytes_in_flight", new Gauge() {
+            @Override
+            public double getValue() {
+                return outboundDispatcher != null ? outboundDispatcher.getBytesInFlight() : 0;
+            }
+        });
+        registerGauge("dispatcher.rejected_frames", new Gauge() {
+            @Override
+            public double getValue() {
+                return outboundDispatcher != null ? outboundDispatcher.getRejectedFrames() : 0;
+            }
+        });
+        registerGauge("dispatcher.failed_frames", new Gauge() {
+            @Override
+            public double getValue() {
+                return outboundDispatcher != null ? outboundDispatcher.getFailedFrames() : 0;
+            }
+        });
+        registerGauge("dispatcher.average_batch_size", new Gauge() {
+            @Override
+            public double getValue() {
+                return outboundDispatcher != null ? outboundDispatcher.getAverageBatchSize() : 0;
+            }
+        });
+        registerGauge("compressor.ratio", new Gauge() {
+            @Override
+            public double getValue() {
+                return payloadCompressor.getCompressionRatio();
+            }
+        });
+        registerGauge("compressor.bytes_saved", new Gauge() {
+            @Override
+            public double getValue() {
+                return payloadCompressor.getBytesSaved();
+            }
+        });
+        registerGauge("reliable.window", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getWindow() : 0;
+            }
+        });
+        registerGauge("reliable.in_flight", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getInFlight() : 0;
+            }
+        });
+        registerGauge("reliable.queued", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getQueued() : 0;
+            }
+        });
+        registerGauge("reliable.srtt_ms", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getSmoothedRtt() : -1;
+            }
+        });
+        registerGauge("reliable.rttvar_ms", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getRttVariance() : 0;
+            }
+        });
+        registerGauge("reliable.rto_ms", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getRto() : 0;
+            }
+        });
+        registerGauge("reliable.retransmits", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getRetransmits() : 0;
+            }
+        });
+        registerGauge("reliable.duplicates", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getDuplicates() : 0;
+            }
+        });
+        // Goodput, payload bytes the other device acknowledged
+        registerGauge("reliable.delivered_bytes", new Gauge() {
+            @Override
+            public double getValue() {
+                return reliableSession != null ? reliableSession.getDeliveredBytes() : 0;
+            }
+        });
+        registerGauge("resume.buffered_bytes", new Gauge() {
+            @Override
+            public double getValue() {
+                return chunkedSender != null ? chunkedSender.getResumeBufferedBytes() : 0;
+            }
+        });
+        registerGauge("chat.coalesced_updates", new Gauge() {
+            @Override
+            public double getValue() {
+                return frameCoalescer.getCoalescedUpdates();
+            }
+        });
+        registerGauge("chat.history_evictions", new Gauge() {
+            @Override
+            public double getValue() {
+                return history != null ? history.getEvictedEntries() : 0;
+            }
+        });
+    }
+
+    private void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+        handlerAccessor.getMetrics().gauge(name, gauge);
+    }
+
+    /**
+     * Removes the gauges of this chat session, which would otherwise keep it reachable from
+     * the registry
+     */
+    private void unregisterMetrics() {
+        MetricsRegistry metrics = handlerAccessor.getMetrics();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            metrics.remove(gauge.getKey(), gauge.getValue());
+        }
+        gauges.clear();
+    }
+
+    /**
+     * Opens the transcript on the transcript executor, ahead of any appends. Ids of new entries
+     * continue from the transcript's size, so the history is created once it is open.
+     */
+    private void openTranscript() {
+        transcriptExecutor = Executors.newSingleThreadExecutor();
+        final File directory = new File(getContext().getFilesDir(), "transcript");
+        transcriptExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                TranscriptLog opened = null;
+                try {
+                    opened = TranscriptLog.open(directory);
+                } catch (IOException e) {
+                    Log.e(TAG, "Chat transcript could not be opened: " + e.getMessage());
+                }
+                final TranscriptLog result = opened;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTranscriptOpened(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Creates the history so that an entry's id is its position in the transcript, shows the
+     * transcript's last page and handles the frames received in the meantime
+     * @param opened The transcript, or null if it could not be opened
+     */
+    private void onTranscriptOpened(TranscriptLog opened) {
+        if (transcriptExecutor == null) {
+            // Destroyed while opening, nothing will use it
+            closeTranscript(opened);
+            return;
+        }
+        transcript = opened;
+        history = new ChatHistory(ChatHistory.DEFAULT_CAPACITY, transcript != null ? transcript.size() : 0);
+        history.setListener(historyListener);
+        if (messagesRecyclerView != null) {
+            attachAdapter();
+        }
+        if (transcript != null) {
+            Log.i(TAG, "Opened chat transcript of " + transcript.size() + " entries");
+            loadOlderEntries();
+        }
+        List<byte[]> frames = new ArrayList<>(framesBeforeHistory);
+        framesBeforeHistory.clear();
+        for (byte[] frame : frames) {
+            pushMessage(frame);
+        }
+    }
+
+    private static void closeTranscript(TranscriptLog log) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close chat transcript: " + e.getMessage());
+        }
+    }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -64,6 +379,7 @@ public class ChatFragment extends ListFragment {
         sendButton.setEnabled(false);
 
         cameraButton = (ImageButton) view.findViewById(R.id.cameraButton);
+        transferStatusTextView = (TextView) view.findViewById(R.id.transferStatusTextView);
 
         textMessageEditText = (EditText) view.findViewById(R.id.textMessageEditText);
         textMessageEditText.addTextChangedListener(new TextWatcher() {
@@ -80,34 +396,60 @@ public class ChatFragment extends ListFragment {
             }
         });
 
-        ListView messagesListView = (ListView) view.findViewById(android.R.id.list);
-        adapter = new ChatMessageAdapter(getActivity(), android.R.id.text1, items);
-        messagesListView.setAdapter(adapter);
-        messagesListView.setDividerHeight(0);
-
+        messagesRecyclerView = (RecyclerView) view.findViewById(R.id.messagesRecyclerView);
+        layoutManager = new LinearLayoutManager(getActivity());
         // Prevents the keyboard from pushing the fragment and messages up and off the screen
-        messagesListView.setTranscriptMode(ListView.TRANSCRIPT_MODE_NORMAL);
-        messagesListView.setStackFromBottom(true);
+        layoutManager.setStackFromEnd(true);
+        messagesRecyclerView.setLayoutManager(layoutManager);
+        if (history != null) {
+            attachAdapter();
+        }
+        messagesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (history == null) {
+                    return;
+                }
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PAGE_PREFETCH_DISTANCE) {
+                    loadOlderEntries();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= history.size() - 1 - PAGE_PREFETCH_DISTANCE) {
+                    loadNewerEntries();
+                }
+            }
+        });
 
         sendButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View arg0) {
                 Log.i(WifiDirectHandler.TAG, "Send button tapped");
-                CommunicationManager communicationManager = handlerAccessor.getWifiHandler().getCommunicationManager();
-                if (communicationManager != null && !textMessageEditText.toString().equals("")) {
+                if (history == null) {
+                    // Still opening the transcript, leave the message in the text box
+                    return;
+                }
+                Transport transport = handlerAccessor.getTransport();
+                long entryId = -1;
+                if (transport != null && transport.isConnected() && !textMessageEditText.toString().equals("")) {
                     String message = textMessageEditText.getText().toString();
-                    // Gets first word of device name
-                    String author = handlerAccessor.getWifiHandler().getThisDevice().deviceName.split(" ")[0];
-                    byte[] messageBytes = (author + ": " + message).getBytes();
+                    byte[] messageBytes = (getAuthor() + ": " + message).getBytes();
                     Message finalMessage = new Message(MessageType.TEXT, messageBytes);
-                    communicationManager.write(SerializationUtils.serialize(finalMessage));
+                    if (reliableEnabled && !message.equals("")) {
+                        // Queued by the session when the window is full, so it is never refused
+                        entryId = history.nextId();
+                        sendReliably(payloadCompressor.compress(finalMessage), entryId);
+                    } else if (!getOutboundDispatcher().offer(MessageCodec.encode(payloadCompressor.compress(finalMessage)),
+                            OutboundDispatcher.Priority.TEXT)) {
+                        // Leave the message in the text box so it can be sent again
+                        Log.w(TAG, "Send queue full, " + getOutboundDispatcher().getQueueDepth() + " frames queued");
+                        Toast.makeText(getContext(), "Send queue full, try again", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
                 } else {
-                    Log.e(TAG, "Communication Manager is null");
+                    Log.e(TAG, "Transport is not connected");
                 }
                 String message = textMessageEditText.getText().toString();
                 if (!message.equals("")) {
-                    pushMessage("Me: " + message);
-                    messages.add(message);
+                    addEntry(ChatEntry.text(entryId >= 0 ? entryId : history.nextId(), ChatEntry.Direction.OUTGOING,
+                            getAuthor(), message));
                     Log.i(TAG, "Message: " + message);
                     textMessageEditText.setText("");
                 }
@@ -125,79 +467,940 @@ public class ChatFragment extends ListFragment {
             }
         });
 
+        cameraButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                showEncodeBudgetDialog();
+                return true;
+            }
+        });
+
         toolbar = (Toolbar) getActivity().findViewById(R.id.mainToolbar);
 
         return view;
     }
 
+    /**
+     * Shows the history in the RecyclerView, once both exist
+     */
+    private void attachAdapter() {
+        chatEntryAdapter = new ChatEntryAdapter(history);
+        chatEntryAdapter.setDeliveryStates(deliveryStates);
+        chatEntryAdapter.setOnEntryClickListener(new ChatEntryAdapter.OnEntryClickListener() {
+            @Override
+            public void onEntryClick(ChatEntry entry) {
+                if (entry.payloadType == MessageType.IMAGE && entry.direction == ChatEntry.Direction.INCOMING) {
+                    openImage(entry.attachmentId);
+                }
+            }
+        });
+        messagesRecyclerView.setAdapter(chatEntryAdapter);
+    }
+
     public interface MessageTarget {
         Handler getHandler();
     }
 
     public void pushMessage(byte[] readMessage) {
-        Message message = SerializationUtils.deserialize(readMessage);
+        if (!isAdded()) {
+            // Posted before the chat was destroyed
+            return;
+        }
+        if (history == null) {
+            framesBeforeHistory.add(readMessage);
+            return;
+        }
+        Message message;
+        try {
+            message = MessageCodec.decode(readMessage);
+        } catch (MessageFormatException e) {
+            Log.e(TAG, "Dropping malformed message: " + e.getMessage());
+            return;
+        }
+        pushMessage(message);
+    }
+
+    private void pushMessage(Message message) {
+        if (message.messageType == MessageType.ACK || (message.flags & MessageCodec.FLAG_SEQUENCED) != 0) {
+            // The sequence comes before the compressed payload, so it is removed first
+            List<Message> delivered;
+            try {
+                delivered = getReliableSession().receive(message);
+            } catch (MessageFormatException e) {
+                Log.e(TAG, "Dropping malformed sequenced message: " + e.getMessage());
+                return;
+            }
+            for (Message deliveredMessage : delivered) {
+                pushMessage(deliveredMessage);
+            }
+            return;
+        }
+        try {
+            message = payloadCompressor.decompress(message);
+        } catch (MessageFormatException e) {
+            Log.e(TAG, "Dropping message that failed to decompress: " + e.getMessage());
+            return;
+        }
         switch(message.messageType) {
             case TEXT:
                 Log.i(TAG, "Text message received");
-                pushMessage(new String(message.message));
+                receiveText(new String(message.message));
                 break;
             case IMAGE:
                 Log.i(TAG, "Image message received");
-                Bitmap bitmap = BitmapFactory.decodeByteArray(message.message, 0, message.message.length);
-                ImageView imageView = new ImageView(getContext());
-                imageView.setImageBitmap(bitmap);
-                loadPhoto(imageView, bitmap.getWidth(), bitmap.getHeight());
+                receiveImage(nextLocalImageId--, message.message, null);
+                break;
+            case CHUNK:
+                Chunk chunk;
+                try {
+                    chunk = Chunk.fromMessage(message);
+                } catch (MessageFormatException e) {
+                    Log.e(TAG, "Dropping malformed chunk: " + e.getMessage());
+                    return;
+                }
+                ChunkAssembler.CompletedTransfer transfer = getChunkAssembler().accept(chunk);
+                if (transfer != null) {
+                    pushTransfer(transfer);
+                }
+                break;
+            case BATCH:
+                List<Message> batched;
+                try {
+                    batched = MessageBatch.decode(message);
+                } catch (MessageFormatException e) {
+                    Log.e(TAG, "Dropping malformed batch: " + e.getMessage());
+                    return;
+                }
+                for (Message batchedMessage : batched) {
+                    pushMessage(batchedMessage);
+                }
+                break;
+            case PING:
+                getOutboundDispatcher().offer(MessageCodec.encode(linkResponder.respond(message)),
+                        OutboundDispatcher.Priority.CONTROL);
+                break;
+            case PONG:
+                try {
+                    getLinkBenchmark().onMessage(message);
+                } catch (MessageFormatException e) {
+                    Log.e(TAG, "Dropping malformed pong: " + e.getMessage());
+                }
+                break;
+            case BULK:
+                try {
+                    linkResponder.onBulk(message);
+                } catch (MessageFormatException e) {
+                    Log.e(TAG, "Dropping malformed bulk message: " + e.getMessage());
+                }
+                break;
+            case HELLO:
+                try {
+                    Hello hello = Hello.fromMessage(message);
+                    if (isGroupOwner()) {
+                        // Each member sends one, only compression applies to the whole group
+                        payloadCompressor.setEnabled(hello.supports(Hello.CODEC_DEFLATE));
+                        getChunkAssembler().setResumable(false);
+                        Log.i(TAG, "Hello received from a group member");
+                        break;
+                    }
+                    if (awaitingPeerHello) {
+                        awaitingPeerHello = false;
+                    } else {
+                        peerHelloArrivedEarly = true;
+                    }
+                    payloadCompressor.setEnabled(hello.supports(Hello.CODEC_DEFLATE));
+                    reliableEnabled = hello.hasFeature(Hello.FEATURE_RELIABLE);
+                    // A group owner relays transfers of several members interleaved, each would
+                    // supersede the others
+                    getChunkAssembler().setResumable(hello.hasFeature(Hello.FEATURE_RESUME));
+                    // Messages a new session drops are reported FAILED
+                    boolean resumed = getSessionResumer().onHello(hello);
+                    Log.i(TAG, "Hello received, protocol " + hello.protocolVersion
+                            + ", compression " + (payloadCompressor.isEnabled() ? "enabled" : "disabled")
+                            + ", reliable delivery " + (reliableEnabled ? "enabled" : "disabled")
+                            + ", " + (resumed ? "session resumed" : "new session"));
+                } catch (MessageFormatException e) {
+                    Log.e(TAG, "Dropping malformed hello: " + e.getMessage());
+                }
+                break;
+        }
+    }
+
+    /**
+     * Called by MainActivity when a connection to another device is established.
+     * Sends this device's Hello so the devices can agree on payload compression and reliable
+     * delivery, and resume their session if this is a reconnect.
+     */
+    public void onServiceConnected() {
+        if (isGroupOwner()) {
+            // Members' Hellos arrive as they join, none of them belongs to this connection
+            reliableEnabled = false;
+            getChunkAssembler().setResumable(false);
+            awaitingPeerHello = false;
+            peerHelloArrivedEarly = false;
+        } else if (peerHelloArrivedEarly) {
+            // Already negotiated for this connection
+            peerHelloArrivedEarly = false;
+        } else {
+            payloadCompressor.setEnabled(false);
+            reliableEnabled = false;
+            awaitingPeerHello = true;
+        }
+        helloPending = true;
+        if (handlerAccessor != null) {
+            sendHello();
+        }
+    }
+
+    private void sendHello() {
+        helloPending = false;
+        Message hello;
+        if (isGroupOwner()) {
+            // Sequences and session ids belong to one link, not to a relayed group chat
+            hello = new Hello(Hello.CODEC_DEFLATE).toMessage();
+        } else {
+            getSessionResumer().onConnected();
+            hello = new Hello(Hello.CODEC_DEFLATE, Hello.FEATURE_RELIABLE,
+                    getSessionResumer().getResumeState()).toMessage();
+        }
+        getOutboundDispatcher().offer(MessageCodec.encode(hello), OutboundDispatcher.Priority.CONTROL);
+        Log.i(TAG, "Hello sent");
+    }
+
+    /**
+     * @return True if this device relays a group chat, with a Transport to every member
+     */
+    private boolean isGroupOwner() {
+        return handlerAccessor != null && handlerAccessor.getTransport() instanceof GroupRelay;
+    }
+
+    /**
+     * Sends a text message through the ReliableSession, which reports its delivery state for
+     * the entry
+     */
+    private void sendReliably(Message message, long entryId) {
+        sendingEntryId = entryId;
+        try {
+            getReliableSession().send(message);
+        } finally {
+            sendingEntryId = -1;
+        }
+    }
+
+    /**
+     * Shows the delivery state of reliably sent messages on their entries. Called on the main
+     * thread, where messages are sent and received and the retransmission timer runs.
+     */
+    private final ReliableSession.Listener deliveryListener = new ReliableSession.Listener() {
+        @Override
+        public void onStateChanged(int sequence, ReliableSession.State state) {
+            Long entryId = sentEntries.get(sequence);
+            if (entryId == null) {
+                if (sendingEntryId < 0) {
+                    return;
+                }
+                // Reported while the message is being sent, before its sequence is known
+                entryId = sendingEntryId;
+                sentEntries.put(sequence, entryId);
+            }
+            if (state == ReliableSession.State.DELIVERED || state == ReliableSession.State.FAILED) {
+                sentEntries.remove(sequence);
+            }
+            deliveryStates.put(entryId, state);
+            int position = history.indexOf(entryId);
+            if (position >= 0) {
+                history.update(history.get(position));
+            }
+        }
+    };
+
+    /**
+     * Runs the retransmission timer on the main thread
+     */
+    private final Timer mainThreadTimer = new Timer() {
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mainHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            mainHandler.removeCallbacks(task);
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * Lets the user choose how many reliably sent messages may be unacknowledged at once
+     */
+    private void showSendWindowDialog() {
+        final int[] windows = {1, 4, ReliableSession.DEFAULT_WINDOW, 64};
+        String[] names = new String[windows.length];
+        int checked = -1;
+        for (int i = 0; i < windows.length; i++) {
+            names[i] = windows[i] + (windows[i] == 1 ? " message" : " messages");
+            if (windows[i] == getReliableSession().getWindow()) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(getActivity())
+                .setTitle(getString(R.string.title_send_window))
+                .setSingleChoiceItems(names, checked, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        getReliableSession().setWindow(windows[which]);
+                        Log.i(TAG, "Send window set to " + windows[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Handles a payload that was received in chunks
+     * @param transfer The reassembled payload
+     */
+    private void pushTransfer(ChunkAssembler.CompletedTransfer transfer) {
+        Log.i(TAG, "Chunked " + transfer.contentType + " transfer " + transfer.transferId + " received");
+        switch (transfer.contentType) {
+            case TEXT:
+                receiveText(new String(transfer.data));
+                break;
+            case IMAGE:
+                receiveImage(transfer.transferId, transfer.data, transfer.file);
                 break;
         }
     }
 
-    public void pushMessage(String message) {
-        adapter.add(message);
-        adapter.notifyDataSetChanged();
+    /**
+     * Adds a received image to the chat and shows it once it has been decoded in the background.
+     * Exactly one of data and spoolFile is set.
+     * @param id Message id of the image
+     * @param data Encoded image received in memory
+     * @param spoolFile Encoded image received into a file
+     */
+    private void receiveImage(long id, byte[] data, File spoolFile) {
+        File imageFile = new File(getImageDirectory(), id + ".img");
+        receivedImages.put(id, imageFile);
+        addEntry(ChatEntry.image(history.nextId(), ChatEntry.Direction.INCOMING, null, id));
+
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        if (data != null) {
+            getImageDecoder().decode(id, data, imageFile, metrics.widthPixels, metrics.heightPixels, imageDecodedCallback);
+        } else {
+            if (!spoolFile.renameTo(imageFile)) {
+                imageFile = spoolFile;
+                receivedImages.put(id, spoolFile);
+            }
+            getImageDecoder().decode(id, imageFile, metrics.widthPixels, metrics.heightPixels, imageDecodedCallback);
+        }
+    }
+
+    /**
+     * Shows a previously received image, from the BitmapCache if it is still there
+     * @param id Message id of the image
+     */
+    private void openImage(long id) {
+        File imageFile = receivedImages.get(id);
+        if (imageFile == null || !imageFile.exists()) {
+            // Images from earlier chat sessions are not kept
+            Toast.makeText(getContext(), "Image is no longer available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        getImageDecoder().decode(id, imageFile, metrics.widthPixels, metrics.heightPixels, imageDecodedCallback);
+    }
+
+    private final ImageDecoder.Callback imageDecodedCallback = new ImageDecoder.Callback() {
+        @Override
+        public void onImageDecoded(long id, Bitmap bitmap) {
+            if (getActivity() == null) {
+                return;
+            }
+            ImageView imageView = new ImageView(getContext());
+            imageView.setImageBitmap(bitmap);
+            loadPhoto(imageView, bitmap.getWidth(), bitmap.getHeight());
+        }
+
+        @Override
+        public void onImageDecodeFailed(long id) {
+            Log.e(TAG, "Received image " + id + " could not be decoded");
+        }
+    };
+
+    /**
+     * Adds a text message received as "author: text" to the chat
+     */
+    private void receiveText(String message) {
+        String[] authorAndText = ChatEntry.splitAuthor(message);
+        addEntry(ChatEntry.text(history.nextId(), ChatEntry.Direction.INCOMING, authorAndText[0], authorAndText[1]));
+    }
+
+    /**
+     * Stages an entry to be added at the next display frame, together with any others that
+     * arrive before it
+     */
+    private void addEntry(ChatEntry entry) {
+        if (!isAdded()) {
+            return;
+        }
+        frameCoalescer.stage(entry);
+    }
+
+    /**
+     * Appends the entries staged during a frame to the transcript, and to the history if it is
+     * showing the newest entries. When the user has scrolled back the entries are paged in once
+     * they scroll down to them.
+     */
+    private final FrameCoalescer.Listener stagedEntriesListener = new FrameCoalescer.Listener() {
+        @Override
+        public void onEntriesDrained(List<ChatEntry> entries) {
+            if (transcript != null && transcriptExecutor != null) {
+                final TranscriptLog log = transcript;
+                final List<ChatEntry> appended = new ArrayList<>(entries);
+                transcriptExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (ChatEntry entry : appended) {
+                            if (!appendToTranscript(log, entry)) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+            boolean showingNewest = history.size() == 0
+                    || history.get(history.size() - 1).id == entries.get(0).id - 1;
+            if (transcript == null || showingNewest) {
+                history.addAll(entries);
+                if (messagesRecyclerView != null) {
+                    messagesRecyclerView.scrollToPosition(history.size() - 1);
+                }
+            }
+        }
+    };
+
+    /**
+     * Appends an entry on the transcript executor. An entry that can't be written, e.g. one
+     * that is too long, is written without its text instead, so the entries after it are
+     * still at the position of their id. If that fails too the transcript is given up.
+     * @return False if the transcript was given up
+     */
+    private boolean appendToTranscript(final TranscriptLog log, ChatEntry entry) {
+        try {
+            log.append(entry);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not append entry " + entry.id + " to chat transcript: " + e.getMessage());
+        }
+        try {
+            log.append(new ChatEntry(entry.id, entry.direction, entry.author, entry.timestamp,
+                    entry.payloadType, null, entry.attachmentId));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Chat transcript given up: " + e.getMessage());
+        }
+        // New entries stay in the history, which no longer pages
+        closeTranscript(log);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (transcript == log) {
+                    transcript = null;
+                }
+            }
+        });
+        return false;
+    }
+
+    /**
+     * Drains staged entries on the display frame after they were staged
+     */
+    private final Choreographer.FrameCallback drainFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameCoalescer.drain();
+        }
+    };
+
+    private final FrameCoalescer.FrameScheduler choreographerScheduler = new FrameCoalescer.FrameScheduler() {
+        @Override
+        public void scheduleFrame() {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(drainFrameCallback);
+            } else {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Choreographer.getInstance().postFrameCallback(drainFrameCallback);
+                    }
+                });
+            }
+        }
+    };
+
+    /**
+     * Reads the page of entries before the first entry in the history from the transcript
+     */
+    private void loadOlderEntries() {
+        final long firstId = history.size() > 0 ? history.get(0).id : history.getNextId();
+        if (transcript == null || loadingPage || firstId == 0) {
+            return;
+        }
+        final int from = (int) Math.max(0, firstId - TRANSCRIPT_PAGE_SIZE);
+        loadPage(from, (int) firstId - from, new PageLoadedCallback() {
+            @Override
+            public void onPageLoaded(List<ChatEntry> entries) {
+                long currentFirstId = history.size() > 0 ? history.get(0).id : history.getNextId();
+                if (currentFirstId == firstId) {
+                    history.prependAll(entries);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the page of entries after the last entry in the history from the transcript
+     */
+    private void loadNewerEntries() {
+        if (transcript == null || loadingPage || history.size() == 0) {
+            return;
+        }
+        final long lastId = history.get(history.size() - 1).id;
+        if (lastId + 1 >= history.getNextId()) {
+            return;
+        }
+        loadPage((int) lastId + 1, TRANSCRIPT_PAGE_SIZE, new PageLoadedCallback() {
+            @Override
+            public void onPageLoaded(List<ChatEntry> entries) {
+                if (history.size() > 0 && history.get(history.size() - 1).id == lastId) {
+                    history.addAll(entries);
+                }
+            }
+        });
+    }
+
+    private interface PageLoadedCallback {
+        void onPageLoaded(List<ChatEntry> entries);
+    }
+
+    /**
+     * Reads entries on the transcript executor, after any appends already queued, and hands
+     * them to the callback on the main thread
+     */
+    private void loadPage(final int from, final int count, final PageLoadedCallback callback) {
+        final TranscriptLog log = transcript;
+        loadingPage = true;
+        transcriptExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ChatEntry> page = null;
+                try {
+                    page = log.read(from, count);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not read chat transcript: " + e.getMessage());
+                } finally {
+                    final List<ChatEntry> entries = page;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadingPage = false;
+                            if (entries != null && transcript == log) {
+                                callback.onPageLoaded(entries);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks for keywords and lists the transcript entries containing all of them
+     */
+    private void showSearchDialog() {
+        final EditText queryEditText = new EditText(getContext());
+        queryEditText.setHint(R.string.search_transcript_hint);
+        new AlertDialog.Builder(getContext())
+                .setTitle(R.string.action_search_transcript)
+                .setView(queryEditText)
+                .setPositiveButton(R.string.action_search_transcript, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        searchTranscript(queryEditText.getText().toString());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void searchTranscript(final String query) {
+        if (transcript == null) {
+            Toast.makeText(getContext(), "Chat transcript is not available", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        transcriptExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ChatEntry> results = null;
+                try {
+                    long start = System.nanoTime();
+                    results = transcript.search(query, SEARCH_RESULT_LIMIT);
+                    Log.i(TAG, "Transcript search for \"" + query + "\" found " + results.size() + " entries in "
+                            + (System.nanoTime() - start) / 1000 + " us");
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not search chat transcript: " + e.getMessage());
+                }
+                final List<ChatEntry> entries = results;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (entries != null && getActivity() != null) {
+                            showSearchResults(query, entries);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void showSearchResults(String query, List<ChatEntry> results) {
+        DateFormat timeFormat = android.text.format.DateFormat.getTimeFormat(getContext());
+        String[] lines = new String[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            ChatEntry entry = results.get(i);
+            lines[i] = timeFormat.format(new Date(entry.timestamp)) + "  " + ChatEntryAdapter.describe(entry);
+        }
+        new AlertDialog.Builder(getContext())
+                .setTitle(results.size() + " results for \"" + query + "\"")
+                .setItems(lines, null)
+                .setPositiveButton("Ok", null)
+                .show();
+    }
+
+    /**
+     * Returns the first word of this device's name, which is sent as the author of messages
+     */
+    private String getAuthor() {
+        return handlerAccessor.getWifiHandler().getThisDevice().deviceName.split(" ")[0];
     }
 
+    /**
+     * Passes history changes on to the RecyclerView and drops the decoded images of evicted
+     * entries. Image files are kept, the entries can be paged back in from the transcript.
+     */
+    private final ChatHistory.Listener historyListener = new ChatHistory.Listener() {
+        @Override
+        public void onEntriesInserted(int position, int count) {
+            if (chatEntryAdapter != null) {
+                chatEntryAdapter.onEntriesInserted(position, count);
+            }
+        }
+
+        @Override
+        public void onEntriesRemoved(int position, List<ChatEntry> removed) {
+            for (ChatEntry entry : removed) {
+                deliveryStates.remove(entry.id);
+                if (entry.payloadType == MessageType.IMAGE) {
+                    bitmapCache.remove(entry.attachmentId);
+                }
+            }
+            if (chatEntryAdapter != null) {
+                chatEntryAdapter.onEntriesRemoved(position, removed);
+            }
+        }
+
+        @Override
+        public void onEntryChanged(int position) {
+            if (chatEntryAdapter != null) {
+                chatEntryAdapter.onEntryChanged(position);
+            }
+        }
+    };
+
+    /**
+     * Encodes an image within the session's EncodeBudget on a worker thread and sends it
+     * @param image Image to send
+     */
     public void pushImage(Bitmap image) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        image.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        byte[] byteArray = stream.toByteArray();
-        Message message = new Message(MessageType.IMAGE, byteArray);
-        CommunicationManager communicationManager = handlerAccessor.getWifiHandler().getCommunicationManager();
-        Log.i(TAG, "Attempting to send image");
-        communicationManager.write(SerializationUtils.serialize(message));
+        Log.i(TAG, "Encoding image with budget " + encodeBudget);
+        showTransferStatus("Encoding image");
+        getImageEncoder().encode(image, encodeBudget, new ImageEncoder.Callback() {
+            @Override
+            public void onImageEncoded(final byte[] data, Bitmap.CompressFormat format, int quality, int width, int height) {
+                // The lazy getters are only safe on the UI thread
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.i(TAG, "Attempting to send image of " + data.length + " bytes");
+                        getChunkedSender().send(MessageType.IMAGE, data);
+                    }
+                });
+            }
+
+            @Override
+            public void onImageEncodeFailed(Bitmap source) {
+                showTransferStatus("Image could not be encoded");
+            }
+        });
+    }
+
+    /**
+     * Sets the limits used to encode images sent for the rest of this chat session
+     * @param budget The new budget
+     */
+    public void setEncodeBudget(EncodeBudget budget) {
+        encodeBudget = budget;
     }
 
     /**
-     * ArrayAdapter to manage chat messages.
+     * Lets the user choose the EncodeBudget preset for this chat session
      */
-    public class ChatMessageAdapter extends ArrayAdapter<String> {
+    private void showEncodeBudgetDialog() {
+        String[] names = new String[EncodeBudget.PRESETS.length];
+        int checked = 0;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = EncodeBudget.PRESETS[i].toString();
+            if (EncodeBudget.PRESETS[i] == encodeBudget) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(getActivity())
+                .setTitle(getString(R.string.title_image_quality))
+                .setSingleChoiceItems(names, checked, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        setEncodeBudget(EncodeBudget.PRESETS[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
 
-        public ChatMessageAdapter(Context context, int textViewResourceId, List<String> items) {
-            super(context, textViewResourceId, items);
+    /**
+     * Writes frames to the Transport. Only called from the OutboundDispatcher's
+     * writer thread, which orders chunks and messages from every sender.
+     */
+    private final FrameSink connectionSink = new FrameSink() {
+        @Override
+        public void write(byte[] frame) {
+            Transport transport = handlerAccessor.getTransport();
+            if (transport == null) {
+                throw new IllegalStateException("Transport is null");
+            }
+            transport.write(frame);
+            framesSent.mark(1);
+            bytesSent.mark(frame.length);
         }
+    };
 
+    /**
+     * Receives frames from the Transport. Transports may deliver on their own thread, so frames
+     * are moved to the main thread before they touch the message list.
+     */
+    private final Transport.Receiver transportReceiver = new Transport.Receiver() {
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            View v = convertView;
-            if (v == null) {
-                LayoutInflater vi = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-                v = vi.inflate(android.R.layout.simple_list_item_1, null);
+        public void onFrame(Transport transport, final byte[] frame) {
+            framesReceived.mark(1);
+            bytesReceived.mark(frame.length);
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                pushMessage(frame);
+            } else {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        pushMessage(frame);
+                    }
+                });
             }
-            String message = items.get(position);
-            if (message != null && !message.isEmpty()) {
-                TextView nameText = (TextView) v.findViewById(android.R.id.text1);
-                if (nameText != null) {
-                    nameText.setText(message);
-                    if (message.startsWith("Me: ")) {
-                        // My message
-                        nameText.setGravity(Gravity.RIGHT);
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+            Log.i(TAG, "Transport closed" + (cause != null ? ": " + cause.getMessage() : ""));
+        }
+    };
+
+    /**
+     * Returns the Receiver for frames from the other device, for a Transport that must have it
+     * before it connects
+     */
+    Transport.Receiver getTransportReceiver() {
+        return transportReceiver;
+    }
+
+    /**
+     * Reports chunked transfer progress in the status line above the messages
+     */
+    private final TransferListener transferListener = new TransferListener() {
+        @Override
+        public void onTransferProgress(int transferId, final boolean outgoing, final long bytesTransferred, final long totalBytes) {
+            trackTransfer(transferId, outgoing, bytesTransferred >= totalBytes);
+            showTransferStatus(bytesTransferred < totalBytes
+                    ? (outgoing ? "Sending" : "Receiving") + " image: " + (100 * bytesTransferred / Math.max(totalBytes, 1)) + "%"
+                    : null);
+        }
+
+        @Override
+        public void onTransferFailed(int transferId, boolean outgoing, String reason) {
+            Log.e(TAG, "Transfer " + transferId + " failed: " + reason);
+            trackTransfer(transferId, outgoing, true);
+            showTransferStatus((outgoing ? "Sending" : "Receiving") + " image failed");
+        }
+    };
+
+    /**
+     * Pauses service discovery while any chunked transfer is in progress, so it does not compete
+     * with the transfer for airtime. Safe to call from any thread.
+     * @param finished True if the transfer completed or failed
+     */
+    private void trackTransfer(int transferId, boolean outgoing, final boolean finished) {
+        long key = (outgoing ? 1L << 32 : 0) | (transferId & 0xffffffffL);
+        // Posted under the lock, so nothing is posted after onDestroy's compensating resumes
+        synchronized (activeTransfers) {
+            if (transfersClosed) {
+                return;
+            }
+            boolean changed = finished ? activeTransfers.remove(key) : activeTransfers.add(key);
+            if (!changed) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (finished) {
+                        handlerAccessor.getDiscoveryScheduler().resumeAfterTransfer();
                     } else {
-                        // Buddy's message
-                        nameText.setGravity(Gravity.LEFT);
+                        handlerAccessor.getDiscoveryScheduler().pauseForTransfer();
                     }
                 }
+            });
+        }
+    }
+
+    /**
+     * Shows a transfer status line, or hides it if status is null. Safe to call from any thread.
+     */
+    private void showTransferStatus(final String status) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (transferStatusTextView == null) {
+                    return;
+                }
+                transferStatusTextView.setText(status);
+                transferStatusTextView.setVisibility(status == null ? View.GONE : View.VISIBLE);
             }
-            return v;
+        });
+    }
+
+    private OutboundDispatcher getOutboundDispatcher() {
+        if (outboundDispatcher == null) {
+            outboundDispatcher = new OutboundDispatcher(connectionSink);
+            outboundDispatcher.setListener(new OutboundDispatcher.Listener() {
+                @Override
+                public void onFrameFailed(byte[] frame, OutboundDispatcher.Priority priority, RuntimeException cause) {
+                    Log.e(TAG, "Failed to send " + priority + " frame: " + cause.getMessage());
+                }
+            });
+            outboundDispatcher.start();
+        }
+        return outboundDispatcher;
+    }
+
+    /**
+     * Returns the ReliableSession for text messages. Its frames go through the
+     * OutboundDispatcher at their own priority; a full queue counts as a lost frame.
+     */
+    private ReliableSession getReliableSession() {
+        if (reliableSession == null) {
+            reliableSession = new ReliableSession(new FrameSink() {
+                @Override
+                public void write(byte[] frame) {
+                    if (!getOutboundDispatcher().offer(frame, OutboundDispatcher.priorityOf(frame))) {
+                        throw new IllegalStateException("Send queue full");
+                    }
+                }
+            }, mainThreadTimer, ReliableSession.DEFAULT_WINDOW);
+            reliableSession.setListener(deliveryListener);
+            reliableSession.setRoundTripHistogram(handlerAccessor.getMetrics().histogram("reliable.send_to_ack", "ms"));
+        }
+        return reliableSession;
+    }
+
+    private SessionResumer getSessionResumer() {
+        if (sessionResumer == null) {
+            sessionResumer = new SessionResumer(getReliableSession(), getChunkedSender(), getChunkAssembler(),
+                    handlerAccessor.getMetrics());
+        }
+        return sessionResumer;
+    }
+
+    /**
+     * Returns the LinkBenchmark for this connection. Latency pings bypass queued bulk data,
+     * throughput runs share the bulk queue with image chunks.
+     */
+    LinkBenchmark getLinkBenchmark() {
+        if (linkBenchmark == null) {
+            OutboundDispatcher dispatcher = getOutboundDispatcher();
+            linkBenchmark = new LinkBenchmark(dispatcher.sinkFor(OutboundDispatcher.Priority.CONTROL),
+                    dispatcher.sinkFor(OutboundDispatcher.Priority.BULK));
+            linkBenchmark.setRoundTripHistogram(handlerAccessor.getMetrics().histogram("link.send_to_ack", "ns"));
+        }
+        return linkBenchmark;
+    }
+
+    private ChunkedSender getChunkedSender() {
+        if (chunkedSender == null) {
+            transferExecutor = Executors.newSingleThreadExecutor();
+            // Chunks wait for room in the bulk queue on the transfer thread, text still overtakes them
+            chunkedSender = new ChunkedSender(getOutboundDispatcher().sinkFor(OutboundDispatcher.Priority.BULK), transferExecutor);
+            chunkedSender.setListener(transferListener);
+            chunkedSender.setCompressor(payloadCompressor);
+            chunkedSender.setResumeBufferBytes(ChunkedSender.DEFAULT_RESUME_BUFFER_BYTES);
+        }
+        return chunkedSender;
+    }
+
+    private ImageEncoder getImageEncoder() {
+        if (imageEncoder == null) {
+            encodeExecutor = Executors.newSingleThreadExecutor();
+            imageEncoder = new ImageEncoder(encodeExecutor);
+        }
+        return imageEncoder;
+    }
+
+    private ImageDecoder getImageDecoder() {
+        if (imageDecoder == null) {
+            decodeExecutor = Executors.newSingleThreadExecutor();
+            imageDecoder = new ImageDecoder(decodeExecutor, bitmapCache);
+        }
+        return imageDecoder;
+    }
+
+    private File getImageDirectory() {
+        File directory = new File(getContext().getCacheDir(), "received_images");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create " + directory);
+        }
+        return directory;
+    }
+
+    private ChunkAssembler getChunkAssembler() {
+        if (chunkAssembler == null) {
+            chunkAssembler = new ChunkAssembler(getContext().getCacheDir());
+            chunkAssembler.setListener(transferListener);
+            // Partial transfers are kept across reconnects for the SessionResumer, unless the
+            // other device's Hello has no resume state
+            chunkAssembler.setResumable(true);
         }
+        return chunkAssembler;
     }
 
     @Override
@@ -206,11 +1409,141 @@ public class ChatFragment extends ListFragment {
         toolbar.setTitle("Chat");
     }
 
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.chat_menu, menu);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_batch_messages).setChecked(getOutboundDispatcher().getBatchPolicy() != null);
+    }
+
+    /**
+     * Called when a MenuItem in the Chat Menu is selected
+     * @param item Item selected
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_batch_messages:
+                // Batch small messages MenuItem toggled
+                boolean batching = !item.isChecked();
+                item.setChecked(batching);
+                getOutboundDispatcher().setBatchPolicy(batching ? BatchPolicy.DEFAULT : null);
+                Log.i(TAG, "Message batching " + (batching ? "enabled, " + BatchPolicy.DEFAULT : "disabled")
+                        + ", average batch size " + getOutboundDispatcher().getAverageBatchSize());
+                return true;
+            case R.id.action_search_transcript:
+                // Search transcript MenuItem tapped
+                showSearchDialog();
+                return true;
+            case R.id.action_send_window:
+                // Send window MenuItem tapped
+                showSendWindowDialog();
+                return true;
+            case R.id.action_link_benchmark:
+                // Link benchmark MenuItem tapped
+                if (benchmarkFragment == null) {
+                    benchmarkFragment = new BenchmarkFragment();
+                    benchmarkFragment.setLinkBenchmark(getLinkBenchmark());
+                }
+                ((MainActivity) getActivity()).replaceFragment(benchmarkFragment);
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // The history outlives the view, the next view gets a new adapter
+        chatEntryAdapter = null;
+        messagesRecyclerView = null;
+        layoutManager = null;
+    }
+
     @Override
     public void onPause() {
         super.onPause();
         InputMethodManager imm = (InputMethodManager) getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
         imm.hideSoftInputFromWindow(textMessageEditText.getWindowToken(), 0);
+        Log.i(TAG, frameCoalescer.getStagedEntries() + " chat entries shown in " + frameCoalescer.getDrainedFrames()
+                + " frames, " + frameCoalescer.getCoalescedUpdates() + " updates coalesced");
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // The Transport outlives the chat, frames must not reach it once it is torn down
+        Transport transport = handlerAccessor.getTransport();
+        if (transport != null) {
+            transport.setReceiver(null);
+        }
+        unregisterMetrics();
+        if (encodeExecutor != null) {
+            encodeExecutor.shutdownNow();
+            encodeExecutor = null;
+            imageEncoder = null;
+        }
+        if (transferExecutor != null) {
+            transferExecutor.shutdownNow();
+            transferExecutor = null;
+            chunkedSender = null;
+            sessionResumer = null;
+        }
+        if (reliableSession != null) {
+            reliableSession.reset();
+        }
+        if (outboundDispatcher != null) {
+            outboundDispatcher.shutdown();
+            outboundDispatcher = null;
+            linkBenchmark = null;
+            benchmarkFragment = null;
+        }
+        if (chunkAssembler != null) {
+            chunkAssembler.clear();
+        }
+        // Transfers that will never finish now must not keep discovery paused, posted after any
+        // pause still pending
+        final DiscoveryScheduler discoveryScheduler = handlerAccessor.getDiscoveryScheduler();
+        synchronized (activeTransfers) {
+            transfersClosed = true;
+            final int unfinishedTransfers = activeTransfers.size();
+            activeTransfers.clear();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < unfinishedTransfers; i++) {
+                        discoveryScheduler.resumeAfterTransfer();
+                    }
+                }
+            });
+        }
+        if (decodeExecutor != null) {
+            decodeExecutor.shutdownNow();
+            decodeExecutor = null;
+            imageDecoder = null;
+        }
+        bitmapCache.evictAll();
+        for (File imageFile : receivedImages.values()) {
+            imageFile.delete();
+        }
+        receivedImages.clear();
+        if (transcriptExecutor != null) {
+            // Let queued appends finish, then close the transcript
+            final TranscriptLog log = transcript;
+            transcriptExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeTranscript(log);
+                }
+            });
+            transcriptExecutor.shutdown();
+            transcriptExecutor = null;
+            transcript = null;
+        }
     }
 
     /**
@@ -224,6 +1557,17 @@ public class ChatFragment extends ListFragment {
         } catch (ClassCastException e) {
             throw new ClassCastException(getActivity().toString() + " must implement WiFiDirectHandlerAccessor");
         }
+        MetricsRegistry metrics = handlerAccessor.getMetrics();
+        framesSent = metrics.rate("link.frames_sent");
+        bytesSent = metrics.rate("link.bytes_sent");
+        framesReceived = metrics.rate("link.frames_received");
+        bytesReceived = metrics.rate("link.bytes_received");
+        if (handlerAccessor.getTransport() != null) {
+            handlerAccessor.getTransport().setReceiver(transportReceiver);
+        }
+        if (helloPending) {
+            sendHello();
+        }
     }
 
     private void loadPhoto(ImageView imageView, int width, int height) {
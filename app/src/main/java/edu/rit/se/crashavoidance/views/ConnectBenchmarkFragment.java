@@ -0,0 +1,307 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.app.Activity;
+import android.content.Context;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.Toolbar;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.Timer;
+import edu.rit.se.crashavoidance.discovery.ConnectBenchmark;
+import edu.rit.se.crashavoidance.discovery.DiscoverySession;
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.event.ServiceConnectedEvent;
+import edu.rit.se.crashavoidance.event.Subscriber;
+import edu.rit.se.crashavoidance.network.LinkBenchmark;
+import edu.rit.se.wifibuddy.DnsSdService;
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * Fragment that repeatedly discovers, connects to, probes and disconnects from a device to
+ * measure how long it takes until the two can talk. The run continues while the chat is shown
+ * for each connection, and its report is exported when it finishes.
+ */
+public class ConnectBenchmarkFragment extends Fragment {
+
+    private static final int PROBE_PAYLOAD_SIZE = 64;
+    private static final long PROBE_TIMEOUT_MILLIS = 10000;
+    private static final String TAG = WifiDirectHandler.TAG + "ConnectBenchmark";
+
+    private WiFiDirectHandlerAccessor handlerAccessor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final MainThreadExecutor mainThreadExecutor = new MainThreadExecutor();
+    private ExecutorService probeExecutor;
+    private ConnectBenchmark benchmark;
+    private DiscoverySession.Subscription discoverySubscription;
+    private EventBus.Subscription serviceConnectedSubscription;
+    private EditText cyclesEditText;
+    private EditText targetEditText;
+    private Button startButton;
+    private Button exportButton;
+    private TextView resultTextView;
+    private Toolbar toolbar;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_connect_benchmark, container, false);
+        cyclesEditText = (EditText) view.findViewById(R.id.connectBenchmarkCyclesEditText);
+        targetEditText = (EditText) view.findViewById(R.id.connectBenchmarkTargetEditText);
+        startButton = (Button) view.findViewById(R.id.connectBenchmarkButton);
+        exportButton = (Button) view.findViewById(R.id.connectBenchmarkExportButton);
+        resultTextView = (TextView) view.findViewById(R.id.connectBenchmarkResultTextView);
+
+        startButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (benchmark != null && benchmark.isRunning()) {
+                    benchmark.cancel();
+                } else {
+                    startBenchmark();
+                }
+            }
+        });
+
+        exportButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (benchmark != null) {
+                    exportReport(benchmark.getReport());
+                }
+            }
+        });
+
+        toolbar = (Toolbar) getActivity().findViewById(R.id.mainToolbar);
+        showState();
+        return view;
+    }
+
+    private void startBenchmark() {
+        int cycles;
+        try {
+            cycles = Math.max(1, Integer.parseInt(cyclesEditText.getText().toString()));
+        } catch (NumberFormatException e) {
+            cycles = 10;
+        }
+        String target = targetEditText.getText().toString().trim();
+        benchmark = new ConnectBenchmark(driver, timer, cycles, target.isEmpty() ? null : target,
+                ConnectBenchmark.DEFAULT_PHASE_TIMEOUT_MILLIS, ConnectBenchmark.DEFAULT_SETTLE_MILLIS);
+        benchmark.setListener(benchmarkListener);
+        // Discovery stays on for the whole run, and the connection is reported on the EventBus
+        discoverySubscription = handlerAccessor.getDiscoverySession().subscribe(discoveryListener);
+        serviceConnectedSubscription = handlerAccessor.getEventBus().subscribe(ServiceConnectedEvent.class,
+                mainThreadExecutor, new Subscriber<ServiceConnectedEvent>() {
+            @Override
+            public void onEvent(ServiceConnectedEvent event) {
+                benchmark.onServiceConnected();
+            }
+        });
+        Log.i(TAG, "Starting connect benchmark of " + cycles + " cycles");
+        benchmark.start();
+    }
+
+    private final ConnectBenchmark.Listener benchmarkListener = new ConnectBenchmark.Listener() {
+        @Override
+        public void onPhaseStarted(int cycle, ConnectBenchmark.Phase phase) {
+            Log.i(TAG, "Cycle " + cycle + ": " + phase);
+            showState();
+        }
+
+        @Override
+        public void onRunFinished(ConnectBenchmark.Report report) {
+            discoverySubscription.unsubscribe();
+            serviceConnectedSubscription.unsubscribe();
+            Log.i(TAG, "Connect benchmark finished\n" + report);
+            showState();
+            exportReport(report);
+        }
+    };
+
+    /**
+     * Shows the phase in progress and the results so far, if the view exists
+     */
+    private void showState() {
+        if (resultTextView == null || getView() == null) {
+            return;
+        }
+        boolean running = benchmark != null && benchmark.isRunning();
+        startButton.setText(running ? R.string.action_stop_benchmark : R.string.action_start_benchmark);
+        exportButton.setEnabled(benchmark != null && benchmark.getReport().getCycles() > 0);
+        if (benchmark == null) {
+            resultTextView.setText(null);
+        } else if (running) {
+            resultTextView.setText("Cycle " + benchmark.getCycle() + ": "
+                    + (benchmark.getPhase() != null ? benchmark.getPhase() : "settling") + "\n" + benchmark.getReport());
+        } else {
+            resultTextView.setText(benchmark.getReport().toString());
+        }
+    }
+
+    /**
+     * Performs the benchmark's steps through WifiDirectHandler and the chat's LinkBenchmark
+     */
+    private final ConnectBenchmark.Driver driver = new ConnectBenchmark.Driver() {
+        @Override
+        public void resetDiscovery() {
+            handlerAccessor.getDiscoverySession().reset();
+        }
+
+        @Override
+        public void connect(String serviceKey) {
+            DnsSdService service = handlerAccessor.getWifiHandler().getDnsSdServiceMap().get(serviceKey);
+            handlerAccessor.getWifiHandler().initiateConnectToService(service);
+        }
+
+        @Override
+        public void sendProbe() {
+            // Posted so the chat the connection switched to is attached before it is used
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final LinkBenchmark linkBenchmark = ((MainActivity) handlerAccessor).getLinkBenchmark();
+                    if (linkBenchmark == null) {
+                        benchmark.onProbeFailed();
+                        return;
+                    }
+                    if (probeExecutor == null) {
+                        probeExecutor = Executors.newSingleThreadExecutor();
+                    }
+                    probeExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            boolean answered;
+                            try {
+                                answered = linkBenchmark.measureLatency(1, PROBE_PAYLOAD_SIZE, 0, PROBE_TIMEOUT_MILLIS).received > 0;
+                            } catch (InterruptedException e) {
+                                return;
+                            } catch (RuntimeException e) {
+                                Log.e(TAG, "Probe failed: " + e.getMessage());
+                                answered = false;
+                            }
+                            final boolean probeAnswered = answered;
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (probeAnswered) {
+                                        benchmark.onProbeAnswered();
+                                    } else {
+                                        benchmark.onProbeFailed();
+                                    }
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+
+        @Override
+        public void disconnect() {
+            handlerAccessor.getWifiHandler().removeGroup();
+        }
+    };
+
+    /**
+     * Passes the services found to the benchmark, and notices the disconnect when the target
+     * is available again
+     */
+    private final DiscoverySession.Listener discoveryListener = new DiscoverySession.Listener() {
+        @Override
+        public void onServiceFound(String serviceKey) {
+            DnsSdService service = handlerAccessor.getWifiHandler().getDnsSdServiceMap().get(serviceKey);
+            if (service != null) {
+                benchmark.onServiceFound(service.getSrcDevice().deviceAddress, serviceKey);
+            }
+        }
+
+        @Override
+        public void onPeersChanged(Map<String, Integer> peerStatuses) {
+            if (benchmark.getPhase() != ConnectBenchmark.Phase.DISCONNECT) {
+                return;
+            }
+            Integer status = peerStatuses.get(benchmark.getTargetAddress());
+            if (status == null || status != WifiP2pDevice.CONNECTED) {
+                benchmark.onDisconnected();
+            }
+        }
+    };
+
+    private final Timer timer = new Timer() {
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mainHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            mainHandler.removeCallbacks(task);
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * Writes a report's cycles as CSV on a background thread
+     */
+    private void exportReport(final ConnectBenchmark.Report report) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        Exports.write(activity, "benchmarks", "connect-" + System.currentTimeMillis() + ".csv", "Benchmark report",
+                new Exports.WriterCallback() {
+                    @Override
+                    public void write(Writer writer) throws IOException {
+                        report.writeCsv(writer);
+                    }
+                });
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        toolbar.setTitle(getString(R.string.title_connect_benchmark));
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        try {
+            handlerAccessor = (WiFiDirectHandlerAccessor) getActivity();
+        } catch (ClassCastException e) {
+            throw new ClassCastException(getActivity().toString() + " must implement WiFiDirectHandlerAccessor");
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (benchmark != null) {
+            benchmark.cancel();
+        }
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+            probeExecutor = null;
+        }
+    }
+}
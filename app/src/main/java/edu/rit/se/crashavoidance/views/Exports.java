@@ -0,0 +1,104 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import edu.rit.se.wifibuddy.WifiDirectHandler;
+
+/**
+ * Writes exports to the app's external storage on a background thread and shows the result in
+ * a Toast. External storage lets the files be pulled off the device; internal storage is used
+ * when it isn't mounted.
+ */
+final class Exports {
+
+    private static final String TAG = WifiDirectHandler.TAG + "Exports";
+
+    /**
+     * Writes an export into a directory
+     */
+    interface Exporter {
+        /**
+         * @param directory Directory of this kind of export, which may not exist yet
+         * @return The file written
+         */
+        File export(File directory) throws IOException;
+    }
+
+    /**
+     * Writes text to a file
+     */
+    interface WriterCallback {
+        void write(Writer writer) throws IOException;
+    }
+
+    private Exports() {
+    }
+
+    /**
+     * Writes a UTF-8 text file
+     * @param subdirectory Directory of this kind of export, e.g. "metrics"
+     * @param fileName Name of the file, e.g. with a timestamp so exports don't overwrite each other
+     * @param description What is exported, for the Toast, e.g. "Metrics"
+     */
+    static void write(Context context, String subdirectory, final String fileName, String description,
+                      final WriterCallback callback) {
+        export(context, subdirectory, description, new Exporter() {
+            @Override
+            public File export(File directory) throws IOException {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                File file = new File(directory, fileName);
+                Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                try {
+                    callback.write(writer);
+                } finally {
+                    writer.close();
+                }
+                return file;
+            }
+        });
+    }
+
+    /**
+     * Runs an Exporter that writes its own files
+     * @param subdirectory Directory of this kind of export, e.g. "logs"
+     * @param description What is exported, for the Toast, e.g. "Logs"
+     */
+    static void export(Context context, String subdirectory, final String description, final Exporter exporter) {
+        File exportRoot = context.getExternalFilesDir(null);
+        final File directory = new File(exportRoot != null ? exportRoot : context.getFilesDir(), subdirectory);
+        final Context applicationContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    File file = exporter.export(directory);
+                    result = description + " exported to " + file.getAbsolutePath();
+                    Log.i(TAG, result);
+                } catch (IOException e) {
+                    result = description + " could not be exported: " + e.getMessage();
+                    Log.e(TAG, result);
+                }
+                final String message = result;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(applicationContext, message, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "Export").start();
+    }
+}
@@ -4,27 +4,54 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AlertDialog;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.text.method.ScrollingMovementMethod;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.TextView;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import edu.rit.se.crashavoidance.R;
-import edu.rit.se.wifibuddy.WifiDirectHandler;
+import edu.rit.se.crashavoidance.logging.LogBuffer;
+import edu.rit.se.crashavoidance.logging.LogExporter;
 
 /**
- * DialogFragment that shows the WifiDirectHandler log messages
+ * DialogFragment that shows the WifiDirectHandler log messages. The app's LogBuffer is tailed
+ * on a background thread while the dialog is showing, and only new lines are appended.
  */
 public class LogsDialogFragment extends DialogFragment {
 
-    private StringBuilder log = new StringBuilder();
-    private static final String TAG = WifiDirectHandler.TAG + "LogsDialog";
+    // Lines shown before the text is trimmed back to the newest ones
+    private static final int MAX_DISPLAYED_LINES = 2000;
+    private static final long TAIL_WAIT_MILLIS = 500;
+
+    private LogBuffer logBuffer;
+    private TextView logTextView;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService tailExecutor;
+    private volatile boolean tailing = false;
+    // Filters, changing one makes the tail start over from the oldest entry
+    private volatile int minLevel = LogBuffer.VERBOSE;
+    private volatile String tagFilter = null;
+    private volatile boolean filterChanged = false;
+    private int displayedLines = 0;
+
+    public void setLogBuffer(LogBuffer logBuffer) {
+        this.logBuffer = logBuffer;
+    }
 
     /**
      * Creates the AlertDialog, sets the WifiDirectHandler instance, and sets the logs TextView
@@ -35,29 +62,39 @@ public class LogsDialogFragment extends DialogFragment {
         LayoutInflater i = getActivity().getLayoutInflater();
         View rootView = i.inflate(R.layout.fragment_logs_dialog, null);
 
-        TextView logTextView = (TextView) rootView.findViewById(R.id.logTextView);
+        logTextView = (TextView) rootView.findViewById(R.id.logTextView);
         logTextView.setMovementMethod(new ScrollingMovementMethod());
 
-        try {
-            Process process = Runtime.getRuntime().exec("logcat -d");
-            BufferedReader bufferedReader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-
-            StringBuilder log = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                if (line.contains(WifiDirectHandler.TAG)){
-                    // Removes log tag and PID from the log line
-                    log.append(line.substring(line.indexOf(": ") + 2)).append("\n");
+        Spinner levelSpinner = (Spinner) rootView.findViewById(R.id.logLevelSpinner);
+        levelSpinner.setSelection(minLevel - LogBuffer.VERBOSE);
+        levelSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (minLevel != LogBuffer.VERBOSE + position) {
+                    minLevel = LogBuffer.VERBOSE + position;
+                    filterChanged = true;
                 }
             }
 
-            this.log.append(log.toString().replace(this.log.toString(), ""));
-            //Runtime.getRuntime().exec("logcat -c");
-            logTextView.setText(this.log.toString());
-        } catch (IOException e) {
-            Log.e(TAG, "Failure reading logcat");
-        }
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        EditText tagFilterEditText = (EditText) rootView.findViewById(R.id.logTagFilterEditText);
+        tagFilterEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String filter = s.toString().trim();
+                tagFilter = filter.isEmpty() ? null : filter;
+                filterChanged = true;
+            }
+        });
 
         // Creates and returns the AlertDialog for the logs
         AlertDialog.Builder dialogBuilder =  new  AlertDialog.Builder(getActivity())
@@ -71,7 +108,138 @@ public class LogsDialogFragment extends DialogFragment {
                         dialog.dismiss();
                     }
                 }
+            ).setNeutralButton(getString(R.string.action_export_logs),
+                new DialogInterface.OnClickListener() {
+                    /**
+                     * Exports the log buffer to a compressed file when the Export Button is tapped
+                     */
+                    public void onClick(DialogInterface dialog, int whichButton) {
+                        exportLogs();
+                    }
+                }
             ).setView(rootView);
         return dialogBuilder.create();
     }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        startTailing();
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        stopTailing();
+    }
+
+    /**
+     * Shows the buffer's entries, then waits for new ones on a background thread and appends
+     * them as they arrive
+     */
+    private void startTailing() {
+        if (logBuffer == null || tailing) {
+            return;
+        }
+        tailing = true;
+        filterChanged = true;
+        tailExecutor = Executors.newSingleThreadExecutor();
+        tailExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long lastSequence = -1;
+                List<LogBuffer.Entry> entries = new ArrayList<>();
+                try {
+                    while (tailing) {
+                        boolean reset = filterChanged;
+                        if (reset) {
+                            filterChanged = false;
+                            lastSequence = -1;
+                        } else if (!logBuffer.awaitEntriesAfter(lastSequence, TAIL_WAIT_MILLIS)) {
+                            continue;
+                        }
+                        entries.clear();
+                        lastSequence = logBuffer.read(lastSequence, minLevel, tagFilter, entries);
+                        if (entries.size() > MAX_DISPLAYED_LINES) {
+                            // Only the newest lines would stay displayed, e.g. after a filter change
+                            entries.subList(0, entries.size() - MAX_DISPLAYED_LINES).clear();
+                        }
+                        if (reset || !entries.isEmpty()) {
+                            showEntries(format(entries), entries.size(), reset);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Dialog closed
+                }
+            }
+        });
+    }
+
+    private void stopTailing() {
+        tailing = false;
+        if (tailExecutor != null) {
+            tailExecutor.shutdownNow();
+            tailExecutor = null;
+        }
+    }
+
+    private static String format(List<LogBuffer.Entry> entries) {
+        StringBuilder text = new StringBuilder(entries.size() * 80);
+        for (LogBuffer.Entry entry : entries) {
+            text.append(LogBuffer.levelLetter(entry.level)).append('/').append(entry.tag)
+                    .append(": ").append(entry.message).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Appends lines to the TextView on the main thread, or replaces its text after a filter
+     * change or when it holds too many lines
+     */
+    private void showEntries(final String text, final int lines, final boolean replace) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!tailing) {
+                    return;
+                }
+                if (replace || displayedLines + lines > MAX_DISPLAYED_LINES) {
+                    CharSequence current = replace ? "" : logTextView.getText();
+                    int keepFrom = 0;
+                    int excess = replace ? 0 : displayedLines + lines - MAX_DISPLAYED_LINES;
+                    for (int i = 0; i < excess && keepFrom < current.length(); i++) {
+                        keepFrom = indexOfNewline(current, keepFrom) + 1;
+                    }
+                    logTextView.setText(current.subSequence(Math.min(keepFrom, current.length()), current.length()));
+                    displayedLines = replace ? 0 : Math.max(0, displayedLines - excess);
+                }
+                logTextView.append(text);
+                displayedLines += lines;
+            }
+        });
+    }
+
+    private static int indexOfNewline(CharSequence text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * Writes the whole log buffer to a gzip file, keeping the last few exports
+     */
+    private void exportLogs() {
+        if (logBuffer == null) {
+            return;
+        }
+        Exports.export(getActivity(), "logs", "Logs", new Exports.Exporter() {
+            @Override
+            public File export(File directory) throws IOException {
+                return new LogExporter(directory).export(logBuffer);
+            }
+        });
+    }
 }
@@ -10,8 +10,14 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.graphics.Bitmap;
 import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentTransaction;
 import android.support.v4.content.LocalBroadcastManager;
@@ -27,24 +33,82 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.Timer;
+import edu.rit.se.crashavoidance.discovery.DiscoveryPolicy;
+import edu.rit.se.crashavoidance.discovery.DiscoveryScheduler;
+import edu.rit.se.crashavoidance.discovery.DiscoverySession;
+import edu.rit.se.crashavoidance.event.DeviceChangedEvent;
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.event.MessageEvent;
+import edu.rit.se.crashavoidance.event.PeersChangedEvent;
+import edu.rit.se.crashavoidance.event.ServiceConnectedEvent;
+import edu.rit.se.crashavoidance.event.ServiceFoundEvent;
+import edu.rit.se.crashavoidance.event.Subscriber;
+import edu.rit.se.crashavoidance.logging.LogBuffer;
+import edu.rit.se.crashavoidance.logging.LogcatCollector;
+import edu.rit.se.crashavoidance.metrics.Gauge;
+import edu.rit.se.crashavoidance.metrics.LatencyProbe;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+import edu.rit.se.crashavoidance.network.CommunicationManagerTransport;
+import edu.rit.se.crashavoidance.network.GroupRelay;
+import edu.rit.se.crashavoidance.network.LinkBenchmark;
+import edu.rit.se.crashavoidance.network.NioEngine;
+import edu.rit.se.crashavoidance.network.NioTransport;
+import edu.rit.se.crashavoidance.network.Transport;
 import edu.rit.se.wifibuddy.DnsSdService;
 import edu.rit.se.wifibuddy.WifiDirectHandler;
 
 /**
  * The main Activity of the application, which is a container for Fragments and the ActionBar.
  * Contains WifiDirectHandler, which is a service
- * MainActivity has a Communication BroadcastReceiver to handle Intents fired from WifiDirectHandler.
+ * MainActivity has a Communication BroadcastReceiver to handle Intents fired from WifiDirectHandler,
+ * which publishes messages, device changes and discovered services on the EventBus.
  */
 public class MainActivity extends AppCompatActivity implements WiFiDirectHandlerAccessor {
 
     private WifiDirectHandler wifiDirectHandler;
     private boolean wifiDirectHandlerBound = false;
+    private CommunicationManagerTransport transport;
+    // Both devices must pick the NIO transport, it replaces the CommunicationManager's socket
+    private volatile boolean nioSelected = false;
+    private NioEngine nioEngine;
+    // The connection to the group owner, or on the group owner the relay to every member
+    private volatile Transport nioTransport;
+    private GroupRelay groupRelay;
+    private ExecutorService nioConnectExecutor;
+    private WifiP2pInfo p2pInfo;
+    private ConnectionReceiver connectionReceiver;
+    private static final int NIO_PORT = 4546;
+    private static final int NIO_CONNECT_ATTEMPTS = 5;
+    private static final long NIO_CONNECT_RETRY_MILLIS = 1000;
+    private final EventBus eventBus = new EventBus();
+    private final MainThreadExecutor mainThreadExecutor = new MainThreadExecutor();
+    private DiscoveryScheduler discoveryScheduler;
+    private DiscoverySession discoverySession;
     private ChatFragment chatFragment = null;
     private LogsDialogFragment logsDialogFragment;
     private MainFragment mainFragment;
     private TextView deviceInfoTextView;
     private static final String TAG = WifiDirectHandler.TAG + "MainActivity";
+    // Shared by every instance of the Activity so the logs outlive configuration changes
+    private static final LogBuffer logBuffer = new LogBuffer();
+    private static final LogcatCollector logcatCollector = new LogcatCollector(logBuffer, WifiDirectHandler.TAG);
+    private static final MetricsRegistry metrics = new MetricsRegistry();
+    // Gauges of this Activity instance, removed when it is destroyed since the registry outlives it
+    private final Map<String, Gauge> gauges = new HashMap<>();
+    private final LatencyProbe connectProbe = metrics.probe("connect.click_to_connected");
+    private StatsFragment statsFragment;
+    private ConnectBenchmarkFragment connectBenchmarkFragment;
+    private PeersReceiver peersReceiver;
 
     /**
      * Sets the UI layout for the Activity.
@@ -63,7 +127,13 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
 
         deviceInfoTextView = (TextView) findViewById(R.id.thisDeviceInfoTextView);
 
+        logcatCollector.start();
         registerCommunicationReceiver();
+        registerPeersReceiver();
+        registerConnectionReceiver();
+        subscribeToEvents();
+        createDiscoverySession();
+        registerEventBusMetrics();
         Log.i(TAG, "MainActivity created");
 
         Intent intent = new Intent(this, WifiDirectHandler.class);
@@ -81,10 +151,153 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
         filter.addAction(WifiDirectHandler.Action.MESSAGE_RECEIVED);
         filter.addAction(WifiDirectHandler.Action.DEVICE_CHANGED);
         filter.addAction(WifiDirectHandler.Action.WIFI_STATE_CHANGED);
+        filter.addAction(WifiDirectHandler.Action.DNS_SD_SERVICE_AVAILABLE);
         LocalBroadcastManager.getInstance(this).registerReceiver(communicationReceiver, filter);
         Log.i(TAG, "Communication Receiver registered");
     }
 
+    /**
+     * Set the PeersReceiver for the system's Wi-Fi P2P peer list changes, which WifiDirectHandler
+     * does not pass on
+     */
+    private void registerPeersReceiver() {
+        peersReceiver = new PeersReceiver();
+        registerReceiver(peersReceiver, new IntentFilter(WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION));
+        Log.i(TAG, "Peers Receiver registered");
+    }
+
+    /**
+     * Set the ConnectionReceiver for the system's Wi-Fi P2P group changes, which tell whether
+     * this device is the group owner that members of the group connect to
+     */
+    private void registerConnectionReceiver() {
+        connectionReceiver = new ConnectionReceiver();
+        registerReceiver(connectionReceiver, new IntentFilter(WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION));
+        Log.i(TAG, "Connection Receiver registered");
+    }
+
+    /**
+     * Passes received frames to the Transport as soon as they are published, and shows this
+     * device's information when it changes
+     */
+    private void subscribeToEvents() {
+        eventBus.subscribe(MessageEvent.class, EventBus.DIRECT, new Subscriber<MessageEvent>() {
+            @Override
+            public void onEvent(MessageEvent event) {
+                if (transport != null && !nioSelected) {
+                    transport.deliver(event.frame);
+                }
+            }
+        });
+        eventBus.subscribe(DeviceChangedEvent.class, mainThreadExecutor, new Subscriber<DeviceChangedEvent>() {
+            @Override
+            public void onEvent(DeviceChangedEvent event) {
+                deviceInfoTextView.setText(event.deviceInfo);
+            }
+        });
+    }
+
+    /**
+     * Creates the DiscoverySession that runs WifiDirectHandler's service discovery while any
+     * screen is subscribed to it, duty-cycled by a DiscoveryScheduler
+     */
+    private void createDiscoverySession() {
+        DiscoverySession.Discoverer radio = new DiscoverySession.Discoverer() {
+            @Override
+            public void startDiscovery() {
+                Log.i(TAG, "Starting service discovery");
+                wifiDirectHandler.continuouslyDiscoverServices();
+            }
+
+            @Override
+            public void stopDiscovery() {
+                Log.i(TAG, "Stopping service discovery");
+                wifiDirectHandler.stopServiceDiscovery();
+            }
+
+            @Override
+            public void resetDiscovery() {
+                wifiDirectHandler.resetServiceDiscovery();
+            }
+        };
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Timer timer = new Timer() {
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                mainHandler.postDelayed(task, delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable task) {
+                mainHandler.removeCallbacks(task);
+            }
+
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+        };
+        discoveryScheduler = new DiscoveryScheduler(radio, timer, eventBus, mainThreadExecutor, metrics,
+                DiscoveryPolicy.BALANCED);
+        discoverySession = new DiscoverySession(eventBus, mainThreadExecutor, discoveryScheduler);
+        registerGauge("discovery.duty_cycle_percent", new Gauge() {
+            @Override
+            public double getValue() {
+                return discoveryScheduler.getDutyCyclePercent();
+            }
+        });
+        registerGauge("discovery.fast_scans", new Gauge() {
+            @Override
+            public double getValue() {
+                return discoveryScheduler.getFastScans();
+            }
+        });
+        registerGauge("discovery.active_subscribers", new Gauge() {
+            @Override
+            public double getValue() {
+                return discoverySession.getActiveSubscribers();
+            }
+        });
+        registerGauge("discovery.duplicate_starts_avoided", new Gauge() {
+            @Override
+            public double getValue() {
+                return discoverySession.getDuplicateStartsAvoided();
+            }
+        });
+        registerGauge("discovery.duplicate_events_avoided", new Gauge() {
+            @Override
+            public double getValue() {
+                return discoverySession.getDuplicateEventsAvoided();
+            }
+        });
+    }
+
+    private void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+        metrics.gauge(name, gauge);
+    }
+
+    private void registerEventBusMetrics() {
+        registerGauge("eventbus.delivered", new Gauge() {
+            @Override
+            public double getValue() {
+                return eventBus.getDeliveredEvents();
+            }
+        });
+        registerGauge("eventbus.dispatch_mean_us", new Gauge() {
+            @Override
+            public double getValue() {
+                return eventBus.getAverageDispatchNanos() / 1000.0;
+            }
+        });
+        registerGauge("eventbus.dispatch_max_us", new Gauge() {
+            @Override
+            public double getValue() {
+                return eventBus.getMaxDispatchNanos() / 1000.0;
+            }
+        });
+    }
+
     /**
      * Adds the Main Menu to the ActionBar
      */
@@ -105,9 +318,33 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
                 // View Logs MenuItem tapped
                 if (logsDialogFragment == null) {
                     logsDialogFragment = new LogsDialogFragment();
+                    logsDialogFragment.setLogBuffer(logBuffer);
                 }
                 logsDialogFragment.show(getFragmentManager(), "dialog");
                 return true;
+            case R.id.action_discovery_policy:
+                // Discovery Policy MenuItem tapped
+                showDiscoveryPolicyDialog();
+                return true;
+            case R.id.action_transport:
+                // Transport MenuItem tapped
+                showTransportDialog();
+                return true;
+            case R.id.action_connect_benchmark:
+                // Connect Benchmark MenuItem tapped
+                if (connectBenchmarkFragment == null) {
+                    connectBenchmarkFragment = new ConnectBenchmarkFragment();
+                }
+                replaceFragment(connectBenchmarkFragment);
+                return true;
+            case R.id.action_view_stats:
+                // View Stats MenuItem tapped
+                if (statsFragment == null) {
+                    statsFragment = new StatsFragment();
+                    statsFragment.setMetrics(metrics);
+                }
+                replaceFragment(statsFragment);
+                return true;
             case R.id.action_exit:
                 // Exit MenuItem tapped
                 finish();
@@ -117,6 +354,221 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
         }
     }
 
+    /**
+     * Lets the user pick how service discovery is duty-cycled
+     */
+    private void showDiscoveryPolicyDialog() {
+        final DiscoveryPolicy[] policies = DiscoveryPolicy.POLICIES;
+        String[] names = new String[policies.length];
+        int checked = 0;
+        for (int i = 0; i < policies.length; i++) {
+            names[i] = policies[i].toString();
+            if (policies[i] == discoveryScheduler.getPolicy()) {
+                checked = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_discovery_policy)
+                .setSingleChoiceItems(names, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Log.i(TAG, "Discovery policy: " + policies[which]);
+                        discoveryScheduler.setPolicy(policies[which]);
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Lets the user pick the CommunicationManager's socket or the NioEngine for the chat. Takes
+     * effect on the next connection.
+     */
+    private void showTransportDialog() {
+        String[] names = {"Wi-Fi Buddy socket", "NIO engine"};
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_transport)
+                .setSingleChoiceItems(names, nioSelected ? 1 : 0, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        nioSelected = which == 1;
+                        Log.i(TAG, "Transport: " + (nioSelected ? "NIO engine" : "Wi-Fi Buddy socket"));
+                        if (!nioSelected) {
+                            closeNio();
+                        } else if (p2pInfo != null && p2pInfo.groupFormed && p2pInfo.isGroupOwner) {
+                            listenForNioConnections();
+                        }
+                        dialog.dismiss();
+                    }
+                })
+                .show();
+    }
+
+    private NioEngine getNioEngine() throws IOException {
+        if (nioEngine == null) {
+            nioEngine = new NioEngine();
+            nioEngine.start();
+        }
+        return nioEngine;
+    }
+
+    private ExecutorService getNioConnectExecutor() {
+        if (nioConnectExecutor == null) {
+            nioConnectExecutor = Executors.newSingleThreadExecutor();
+        }
+        return nioConnectExecutor;
+    }
+
+    /**
+     * Relays the group chat as the group owner, adding each device that connects to the
+     * listener as a member. Called when the group forms, so the chat is only opened once the
+     * first member joins.
+     */
+    private void listenForNioConnections() {
+        if (nioEngine != null) {
+            return;
+        }
+        final GroupRelay relay = new GroupRelay(metrics);
+        groupRelay = relay;
+        try {
+            getNioEngine().listen(new InetSocketAddress(NIO_PORT), new NioEngine.Acceptor() {
+                @Override
+                public void onAccepted(final NioTransport accepted) {
+                    mainThreadExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (groupRelay != relay) {
+                                accepted.close();
+                                return;
+                            }
+                            // Set before the member connects so none of its first frames miss the chat
+                            relay.setReceiver(getChatFragment().getTransportReceiver());
+                            getNioConnectExecutor().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    addGroupMember(relay, accepted);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+            Log.i(TAG, "Listening for NIO connections on port " + NIO_PORT);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't listen for NIO connections: " + e.getMessage());
+            closeNio();
+        }
+    }
+
+    /**
+     * Adds a device that connected to the listener to the group, off the main thread since
+     * connecting waits for the event loop
+     */
+    private void addGroupMember(GroupRelay relay, NioTransport accepted) {
+        InetSocketAddress address = accepted.getAddress();
+        String id = address.getAddress().getHostAddress() + ":" + address.getPort();
+        try {
+            relay.addMember(id, accepted);
+        } catch (IOException e) {
+            Log.e(TAG, "Group member " + id + " failed to connect: " + e.getMessage());
+            return;
+        } catch (IllegalStateException e) {
+            // The relay closed while the member waited
+            accepted.close();
+            return;
+        }
+        Log.i(TAG, "Group member " + id + " joined, " + relay.getMembers().size() + " members");
+        onNioConnected(relay);
+    }
+
+    /**
+     * Connects to the group owner's NIO listener, which may not be listening yet when this
+     * device's service connects
+     */
+    private void connectNio(final InetAddress groupOwner) {
+        final NioEngine engine;
+        try {
+            engine = getNioEngine();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't start the NIO engine: " + e.getMessage());
+            return;
+        }
+        final Transport.Receiver receiver = getChatFragment().getTransportReceiver();
+        getNioConnectExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                InetSocketAddress address = new InetSocketAddress(groupOwner, NIO_PORT);
+                for (int attempt = 1; attempt <= NIO_CONNECT_ATTEMPTS && engine.isRunning(); attempt++) {
+                    NioTransport opened = engine.open(address);
+                    opened.setReceiver(receiver);
+                    try {
+                        opened.connect();
+                        onNioConnected(opened);
+                        return;
+                    } catch (IOException e) {
+                        Log.e(TAG, "NIO connect attempt " + attempt + " failed: " + e.getMessage());
+                    }
+                    SystemClock.sleep(NIO_CONNECT_RETRY_MILLIS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes a connected NIO transport, or the group owner's relay once its first member joins,
+     * the chat's Transport
+     */
+    private void onNioConnected(final Transport connected) {
+        mainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!nioSelected || nioEngine == null) {
+                    connected.close();
+                    return;
+                }
+                if (nioTransport == connected) {
+                    // Another member joined the group, the relay sends it the chat's Hello
+                    return;
+                }
+                if (nioTransport != null) {
+                    nioTransport.close();
+                }
+                nioTransport = connected;
+                Log.i(TAG, "NIO transport connected");
+                getChatFragment().onServiceConnected();
+            }
+        });
+    }
+
+    /**
+     * Closes the NIO connections and listener
+     */
+    private void closeNio() {
+        nioTransport = null;
+        if (groupRelay != null) {
+            groupRelay.close();
+            groupRelay = null;
+        }
+        if (nioEngine != null) {
+            nioEngine.shutdown();
+            nioEngine = null;
+        }
+    }
+
+    /**
+     * Returns the ChatFragment, attached to this Activity so a Transport can be handed to it
+     */
+    private ChatFragment getChatFragment() {
+        if (chatFragment == null) {
+            chatFragment = new ChatFragment();
+        }
+        if (!chatFragment.isAdded()) {
+            replaceFragment(chatFragment);
+            getSupportFragmentManager().executePendingTransactions();
+        }
+        return chatFragment;
+    }
+
     // TODO: BRETT, add JavaDoc
     // Note: This is used to run WifiDirectHandler as a Service instead of being coupled to an
     //          Activity. This is NOT a connection to a P2P service being broadcast from a device
@@ -137,6 +589,7 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
 
             wifiDirectHandler = binder.getService();
             wifiDirectHandlerBound = true;
+            transport = new CommunicationManagerTransport(wifiDirectHandler);
             Log.i(TAG, "WifiDirectHandler service bound");
 
             // Add MainFragment to the 'fragment_container' when wifiDirectHandler is bound
@@ -182,6 +635,61 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
         return wifiDirectHandler;
     }
 
+    /**
+     * Returns the Transport to the connected device, which wraps the wifiDirectHandler's
+     * CommunicationManager unless the NIO engine was picked
+     * @return The Transport, or null if the wifiDirectHandler is not bound or the NIO transport
+     * is not connected yet
+     */
+    @Override
+    public Transport getTransport() {
+        return nioSelected ? nioTransport : transport;
+    }
+
+    /**
+     * Returns the EventBus that WifiDirectHandler's broadcasts are published on
+     * @return The EventBus
+     */
+    @Override
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Returns the session that owns service discovery
+     * @return The DiscoverySession
+     */
+    @Override
+    public DiscoverySession getDiscoverySession() {
+        return discoverySession;
+    }
+
+    /**
+     * Returns the scheduler that duty-cycles service discovery
+     * @return The DiscoveryScheduler
+     */
+    @Override
+    public DiscoveryScheduler getDiscoveryScheduler() {
+        return discoveryScheduler;
+    }
+
+    /**
+     * Returns the metrics shared by the whole app
+     * @return The MetricsRegistry
+     */
+    @Override
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the LinkBenchmark of the chat with the connected device
+     * @return The LinkBenchmark, or null if no chat has been opened
+     */
+    public LinkBenchmark getLinkBenchmark() {
+        return chatFragment != null && chatFragment.isAdded() ? chatFragment.getLinkBenchmark() : null;
+    }
+
     /**
      * Initiates a P2P connection to a service when a Service ListItem is tapped.
      * An invitation appears on the other device to accept or decline the connection.
@@ -202,6 +710,7 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
                 sourceDeviceName = "other device";
             }
             Toast.makeText(this, "Inviting " + sourceDeviceName + " to connect", Toast.LENGTH_LONG).show();
+            connectProbe.start();
             wifiDirectHandler.initiateConnectToService(service);
         } else {
             Log.e(TAG, "Service not available");
@@ -257,6 +766,17 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
     protected void onDestroy() {
         super.onDestroy();
         Log.i(TAG, "Destroying MainActivity");
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            metrics.remove(gauge.getKey(), gauge.getValue());
+        }
+        gauges.clear();
+        unregisterReceiver(peersReceiver);
+        unregisterReceiver(connectionReceiver);
+        closeNio();
+        if (nioConnectExecutor != null) {
+            nioConnectExecutor.shutdownNow();
+            nioConnectExecutor = null;
+        }
         if (wifiDirectHandlerBound) {
             Log.i(TAG, "WifiDirectHandler service unbound");
             unbindService(wifiServiceConnection);
@@ -289,21 +809,31 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
             if (intent.getAction().equals(WifiDirectHandler.Action.SERVICE_CONNECTED)) {
                 // This device has connected to another device broadcasting the same service
                 Log.i(TAG, "Service connected");
+                connectProbe.stop();
                 if (chatFragment == null) {
                     chatFragment = new ChatFragment();
                 }
                 replaceFragment(chatFragment);
+                if (!nioSelected) {
+                    chatFragment.onServiceConnected();
+                } else if (p2pInfo != null && p2pInfo.groupFormed && !p2pInfo.isGroupOwner) {
+                    // The chat starts once the NIO transport connects
+                    getSupportFragmentManager().executePendingTransactions();
+                    connectNio(p2pInfo.groupOwnerAddress);
+                }
                 Log.i(TAG, "Switching to Chat fragment");
+                eventBus.publish(new ServiceConnectedEvent());
             } else if (intent.getAction().equals(WifiDirectHandler.Action.DEVICE_CHANGED)) {
                 // This device's information has changed
                 Log.i(TAG, "This device changed");
-                deviceInfoTextView.setText(wifiDirectHandler.getThisDeviceInfo());
+                eventBus.publish(new DeviceChangedEvent(wifiDirectHandler.getThisDeviceInfo()));
             } else if (intent.getAction().equals(WifiDirectHandler.Action.MESSAGE_RECEIVED)) {
-                // A message from the Communication Manager has been received
-                Log.i(TAG, "Message received");
-                if(chatFragment != null) {
-                    chatFragment.pushMessage(intent.getByteArrayExtra(WifiDirectHandler.MESSAGE_KEY));
-                }
+                // A message from the Communication Manager has been received, the frame is
+                // passed on by reference from here
+                eventBus.publish(new MessageEvent(intent.getByteArrayExtra(WifiDirectHandler.MESSAGE_KEY)));
+            } else if (intent.getAction().equals(WifiDirectHandler.Action.DNS_SD_SERVICE_AVAILABLE)) {
+                // A service has been discovered
+                eventBus.publish(new ServiceFoundEvent(intent.getStringExtra(WifiDirectHandler.SERVICE_MAP_KEY)));
             } else if (intent.getAction().equals(WifiDirectHandler.Action.WIFI_STATE_CHANGED)) {
                 // Wi-Fi has been enabled or disabled
                 Log.i(TAG, "Wi-Fi state changed");
@@ -311,4 +841,43 @@ public class MainActivity extends AppCompatActivity implements WiFiDirectHandler
             }
         }
     }
+
+    /**
+     * BroadcastReceiver used to receive the system's Wi-Fi P2P peer list, which is published on the
+     * EventBus so discovered services of departed peers can be evicted
+     */
+    public class PeersReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // The peer list is only attached from API 18, without it nothing can be evicted
+            WifiP2pDeviceList deviceList = intent.getParcelableExtra(WifiP2pManager.EXTRA_P2P_DEVICE_LIST);
+            if (deviceList == null) {
+                return;
+            }
+            Map<String, Integer> peerStatuses = new HashMap<>();
+            for (WifiP2pDevice device : deviceList.getDeviceList()) {
+                peerStatuses.put(device.deviceAddress, device.status);
+            }
+            Log.i(TAG, "Peers changed: " + peerStatuses.size() + " peers");
+            eventBus.publish(new PeersChangedEvent(peerStatuses));
+        }
+    }
+
+    /**
+     * BroadcastReceiver used to receive the system's Wi-Fi P2P connection info. The group owner
+     * listens for NIO connections while its group exists.
+     */
+    public class ConnectionReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            p2pInfo = intent.getParcelableExtra(WifiP2pManager.EXTRA_WIFI_P2P_INFO);
+            if (p2pInfo == null || !p2pInfo.groupFormed) {
+                closeNio();
+            } else if (nioSelected && p2pInfo.isGroupOwner) {
+                listenForNioConnections();
+            }
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the main thread, immediately if already called from it
+ */
+class MainThreadExecutor implements Executor {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(Runnable command) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            command.run();
+        } else {
+            handler.post(command);
+        }
+    }
+}
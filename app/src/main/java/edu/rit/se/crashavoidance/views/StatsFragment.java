@@ -0,0 +1,102 @@
+package edu.rit.se.crashavoidance.views;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.Toolbar;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import edu.rit.se.crashavoidance.R;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+
+/**
+ * Fragment that shows the app's metrics, refreshed every second, and exports them as CSV or JSON
+ */
+public class StatsFragment extends Fragment {
+
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MetricsRegistry metrics;
+    private TextView statsTextView;
+    private Toolbar toolbar;
+
+    /**
+     * Sets the registry to show, must be called before the Fragment is shown
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_stats, container, false);
+        statsTextView = (TextView) view.findViewById(R.id.statsTextView);
+        Button exportCsvButton = (Button) view.findViewById(R.id.exportCsvButton);
+        Button exportJsonButton = (Button) view.findViewById(R.id.exportJsonButton);
+
+        exportCsvButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                exportMetrics(false);
+            }
+        });
+
+        exportJsonButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                exportMetrics(true);
+            }
+        });
+
+        toolbar = (Toolbar) getActivity().findViewById(R.id.mainToolbar);
+        return view;
+    }
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            statsTextView.setText(metrics.format());
+            mainHandler.postDelayed(this, REFRESH_INTERVAL_MILLIS);
+        }
+    };
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        toolbar.setTitle(getString(R.string.title_stats));
+        refreshRunnable.run();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mainHandler.removeCallbacks(refreshRunnable);
+    }
+
+    /**
+     * Writes a snapshot of every metric to a timestamped file on a background thread
+     * @param json True for JSON, false for CSV
+     */
+    private void exportMetrics(final boolean json) {
+        Exports.write(getActivity(), "metrics", "metrics-" + System.currentTimeMillis() + (json ? ".json" : ".csv"),
+                "Metrics", new Exports.WriterCallback() {
+                    @Override
+                    public void write(Writer writer) throws IOException {
+                        if (json) {
+                            metrics.writeJson(writer);
+                        } else {
+                            metrics.writeCsv(writer);
+                        }
+                    }
+                });
+    }
+}
@@ -1,7 +1,17 @@
 package edu.rit.se.crashavoidance.views;
 
+import edu.rit.se.crashavoidance.discovery.DiscoveryScheduler;
+import edu.rit.se.crashavoidance.discovery.DiscoverySession;
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+import edu.rit.se.crashavoidance.network.Transport;
 import edu.rit.se.wifibuddy.WifiDirectHandler;
 
 interface WiFiDirectHandlerAccessor {
     WifiDirectHandler getWifiHandler();
+    Transport getTransport();
+    EventBus getEventBus();
+    DiscoverySession getDiscoverySession();
+    DiscoveryScheduler getDiscoveryScheduler();
+    MetricsRegistry getMetrics();
 }
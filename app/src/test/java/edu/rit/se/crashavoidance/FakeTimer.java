@@ -0,0 +1,52 @@
+package edu.rit.se.crashavoidance;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Timer that runs scheduled tasks when the test advances time
+ */
+public class FakeTimer implements Timer {
+
+    public long now = 0;
+    public final Map<Runnable, Long> tasks = new HashMap<>();
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        tasks.put(task, now + delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        tasks.remove(task);
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Runs the tasks due in the next millis milliseconds, in order
+     */
+    public void advance(long millis) {
+        long until = now + millis;
+        while (true) {
+            Runnable next = null;
+            long nextTime = Long.MAX_VALUE;
+            for (Map.Entry<Runnable, Long> task : tasks.entrySet()) {
+                if (task.getValue() <= until && task.getValue() < nextTime) {
+                    next = task.getKey();
+                    nextTime = task.getValue();
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            tasks.remove(next);
+            now = nextTime;
+            next.run();
+        }
+        now = until;
+    }
+}
@@ -0,0 +1,171 @@
+package edu.rit.se.crashavoidance.chat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.rit.se.crashavoidance.network.MessageType;
+
+import static org.junit.Assert.*;
+
+public class ChatHistoryTest {
+
+    private ChatHistory history;
+    private final List<String> events = new ArrayList<>();
+    private final List<ChatEntry> removed = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        history = new ChatHistory(3);
+        history.setListener(new ChatHistory.Listener() {
+            @Override
+            public void onEntriesInserted(int position, int count) {
+                events.add("insert " + position + " " + count);
+            }
+
+            @Override
+            public void onEntriesRemoved(int position, List<ChatEntry> entries) {
+                events.add("remove " + position + " " + entries.size());
+                removed.addAll(entries);
+            }
+
+            @Override
+            public void onEntryChanged(int position) {
+                events.add("change " + position);
+            }
+        });
+    }
+
+    private ChatEntry entry(String text) {
+        return ChatEntry.text(history.nextId(), ChatEntry.Direction.INCOMING, "Buddy", text);
+    }
+
+    @Test
+    public void add_evictsOldestEntriesPastCapacity() {
+        for (int i = 0; i < 5; i++) {
+            history.add(entry("message " + i));
+        }
+
+        assertEquals(3, history.size());
+        assertEquals("message 2", history.get(0).text);
+        assertEquals("message 4", history.get(2).text);
+        assertEquals(2, history.getEvictedEntries());
+        assertEquals("message 0", removed.get(0).text);
+        assertEquals("insert 2 1", events.get(2));
+        assertEquals("remove 0 1", events.get(3));
+        assertEquals("insert 2 1", events.get(4));
+    }
+
+    @Test
+    public void addAll_reportsOneRangePerChange() {
+        history.add(entry("first"));
+        events.clear();
+        List<ChatEntry> added = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            added.add(entry("batched " + i));
+        }
+        history.addAll(added);
+
+        assertEquals(2, events.size());
+        assertEquals("remove 0 1", events.get(0));
+        assertEquals("insert 0 3", events.get(1));
+        assertEquals("batched 0", history.get(0).text);
+        assertEquals(1, history.getEvictedEntries());
+    }
+
+    @Test
+    public void addAll_largerThanCapacity_reportsEveryEvictedEntry() {
+        history.add(entry("first"));
+        removed.clear();
+        List<ChatEntry> added = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            added.add(entry("batched " + i));
+        }
+        history.addAll(added);
+
+        assertEquals("batched 2", history.get(0).text);
+        assertEquals("batched 4", history.get(2).text);
+        assertEquals(3, history.getEvictedEntries());
+        assertEquals(3, removed.size());
+        assertEquals("first", removed.get(0).text);
+        assertEquals("batched 1", removed.get(2).text);
+    }
+
+    @Test
+    public void indexOf_andUpdate_findEntriesById() {
+        List<ChatEntry> added = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ChatEntry entry = entry("message " + i);
+            added.add(entry);
+            history.add(entry);
+        }
+
+        assertEquals(-1, history.indexOf(added.get(1).id));
+        assertEquals(1, history.indexOf(added.get(3).id));
+        ChatEntry edited = new ChatEntry(added.get(3).id, ChatEntry.Direction.INCOMING, "Buddy",
+                0, MessageType.TEXT, "edited", -1);
+        assertTrue(history.update(edited));
+        assertEquals("edited", history.get(1).text);
+        assertEquals("change 1", events.get(events.size() - 1));
+        assertFalse(history.update(added.get(0)));
+    }
+
+    @Test
+    public void setCapacity_shrinksWindow() {
+        for (int i = 0; i < 3; i++) {
+            history.add(entry("message " + i));
+        }
+        history.setCapacity(1);
+        assertEquals(1, history.size());
+        assertEquals("message 2", history.get(0).text);
+        history.setCapacity(4);
+        history.add(entry("message 3"));
+        assertEquals("message 3", history.get(1).text);
+    }
+
+    @Test
+    public void prependAll_evictsNewestEntries() {
+        history = new ChatHistory(3, 10);
+        history.setListener(new ChatHistory.Listener() {
+            @Override
+            public void onEntriesInserted(int position, int count) {
+                events.add("insert " + position + " " + count);
+            }
+
+            @Override
+            public void onEntriesRemoved(int position, List<ChatEntry> entries) {
+                events.add("remove " + position + " " + entries.size());
+            }
+
+            @Override
+            public void onEntryChanged(int position) {
+            }
+        });
+        history.add(entry("newest 0"));
+        history.add(entry("newest 1"));
+        assertEquals(10, history.get(0).id);
+
+        List<ChatEntry> older = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            older.add(ChatEntry.text(8 + i, ChatEntry.Direction.INCOMING, "Buddy", "older " + i));
+        }
+        history.prependAll(older);
+
+        assertEquals(3, history.size());
+        assertEquals("older 0", history.get(0).text);
+        assertEquals("newest 0", history.get(2).text);
+        assertEquals("remove 1 1", events.get(2));
+        assertEquals("insert 0 2", events.get(3));
+        assertEquals(12, history.getNextId());
+    }
+
+    @Test
+    public void splitAuthor_separatesAuthorFromText() {
+        String[] split = ChatEntry.splitAuthor("Pixel: hi: there");
+        assertEquals("Pixel", split[0]);
+        assertEquals("hi: there", split[1]);
+        assertNull(ChatEntry.splitAuthor("no author")[0]);
+    }
+}
@@ -0,0 +1,85 @@
+package edu.rit.se.crashavoidance.chat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameCoalescerTest {
+
+    private final AtomicInteger scheduledFrames = new AtomicInteger();
+    private final List<List<ChatEntry>> drains = new ArrayList<>();
+
+    private final FrameCoalescer coalescer = new FrameCoalescer(new FrameCoalescer.FrameScheduler() {
+        @Override
+        public void scheduleFrame() {
+            scheduledFrames.incrementAndGet();
+        }
+    }, new FrameCoalescer.Listener() {
+        @Override
+        public void onEntriesDrained(List<ChatEntry> entries) {
+            drains.add(new ArrayList<>(entries));
+        }
+    });
+
+    private static ChatEntry entry(int id) {
+        return ChatEntry.text(id, ChatEntry.Direction.INCOMING, "Buddy", "message " + id);
+    }
+
+    @Test
+    public void burst_isDeliveredInOneFrame() {
+        for (int i = 0; i < 100; i++) {
+            coalescer.stage(entry(i));
+        }
+        assertEquals(1, scheduledFrames.get());
+
+        coalescer.drain();
+        assertEquals(1, drains.size());
+        assertEquals(100, drains.get(0).size());
+        assertEquals(99, drains.get(0).get(99).id);
+        assertEquals(99, coalescer.getCoalescedUpdates());
+
+        // The next entry schedules a new frame, an empty frame delivers nothing
+        coalescer.stage(entry(100));
+        assertEquals(2, scheduledFrames.get());
+        coalescer.drain();
+        coalescer.drain();
+        assertEquals(2, drains.size());
+        assertEquals(2, coalescer.getDrainedFrames());
+        assertEquals(99, coalescer.getCoalescedUpdates());
+    }
+
+    @Test
+    public void stagingFromManyThreads_losesNothing() throws Exception {
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * perThread;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        coalescer.stage(entry(offset + i));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            coalescer.drain();
+        }
+        coalescer.drain();
+
+        int delivered = 0;
+        for (List<ChatEntry> drain : drains) {
+            delivered += drain.size();
+        }
+        assertEquals(threads * perThread, delivered);
+        assertEquals(threads * perThread, coalescer.getStagedEntries());
+    }
+}
@@ -0,0 +1,121 @@
+package edu.rit.se.crashavoidance.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.rit.se.crashavoidance.network.MessageType;
+
+import static org.junit.Assert.*;
+
+public class TranscriptLogTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("transcript", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static ChatEntry entry(int id) {
+        return ChatEntry.text(id, id % 2 == 0 ? ChatEntry.Direction.OUTGOING : ChatEntry.Direction.INCOMING,
+                "Pixel", "message " + id + " \u00fcber " + (id % 10 == 0 ? "tenth" : "plain"));
+    }
+
+    @Test
+    public void append_thenReopen_readsPagesAcrossSegments() throws IOException {
+        TranscriptLog log = TranscriptLog.open(directory);
+        // Enough entries for several segments
+        int count = 30000;
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, log.append(entry(i)));
+        }
+        log.append(ChatEntry.image(count, ChatEntry.Direction.INCOMING, null, 42));
+        log.close();
+
+        TranscriptLog reopened = TranscriptLog.open(directory);
+        assertEquals(count + 1, reopened.size());
+        assertTrue(reopened.getSegmentCount() > 1);
+
+        List<ChatEntry> page = reopened.read(count - 10, 50);
+        assertEquals(11, page.size());
+        assertEquals("message " + (count - 10) + " \u00fcber tenth", page.get(0).text);
+        assertEquals(ChatEntry.Direction.OUTGOING, page.get(0).direction);
+        assertEquals("Pixel", page.get(0).author);
+        ChatEntry image = page.get(10);
+        assertEquals(MessageType.IMAGE, image.payloadType);
+        assertNull(image.author);
+        assertNull(image.text);
+        assertEquals(42, image.attachmentId);
+
+        // A page that spans a segment boundary
+        List<ChatEntry> all = new ArrayList<>();
+        for (int i = 0; i < count; i += 1000) {
+            all.addAll(reopened.read(i, 1000));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, all.get(i).id);
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void open_cutsOffTornRecord() throws IOException {
+        TranscriptLog log = TranscriptLog.open(directory);
+        for (int i = 0; i < 10; i++) {
+            log.append(entry(i));
+        }
+        log.close();
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        TranscriptLog reopened = TranscriptLog.open(directory);
+        assertEquals(9, reopened.size());
+        assertEquals(9, reopened.append(entry(9)));
+        assertEquals("message 9 \u00fcber plain", reopened.read(9).text);
+        reopened.close();
+    }
+
+    @Test
+    public void search_findsEntriesContainingEveryWord() throws IOException {
+        TranscriptLog log = TranscriptLog.open(directory);
+        for (int i = 0; i < 100; i++) {
+            log.append(entry(i));
+        }
+
+        List<ChatEntry> tenth = log.search("TENTH", 100);
+        assertEquals(10, tenth.size());
+        assertEquals(90, tenth.get(0).id);
+
+        // Entries appended after a search are indexed by the next one
+        log.append(ChatEntry.text(100, ChatEntry.Direction.INCOMING, "Pixel", "brand new words"));
+        List<ChatEntry> both = log.search("new brand", 10);
+        assertEquals(1, both.size());
+        assertEquals(100, both.get(0).id);
+
+        assertEquals(55, log.search("message 55", 10).get(0).id);
+        assertTrue(log.search("missing", 10).isEmpty());
+        assertEquals(3, log.search("tenth", 3).size());
+        log.close();
+    }
+}
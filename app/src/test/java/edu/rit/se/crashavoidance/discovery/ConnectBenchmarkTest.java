@@ -0,0 +1,184 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.rit.se.crashavoidance.FakeTimer;
+
+import static org.junit.Assert.*;
+
+public class ConnectBenchmarkTest {
+
+    private static final long TIMEOUT = 1000;
+    private static final long SETTLE = 100;
+
+    /**
+     * Stands in for WifiDirectHandler, recording what the benchmark asked it to do
+     */
+    private final List<String> handler = new ArrayList<>();
+    private final FakeTimer timer = new FakeTimer();
+    private final List<ConnectBenchmark.Report> reports = new ArrayList<>();
+
+    private ConnectBenchmark benchmark(int cycles, String target) {
+        ConnectBenchmark benchmark = new ConnectBenchmark(new ConnectBenchmark.Driver() {
+            @Override
+            public void resetDiscovery() {
+                handler.add("reset");
+            }
+
+            @Override
+            public void connect(String serviceKey) {
+                handler.add("connect " + serviceKey);
+            }
+
+            @Override
+            public void sendProbe() {
+                handler.add("probe");
+            }
+
+            @Override
+            public void disconnect() {
+                handler.add("removeGroup");
+            }
+        }, timer, cycles, target, TIMEOUT, SETTLE);
+        benchmark.setListener(new ConnectBenchmark.Listener() {
+            @Override
+            public void onPhaseStarted(int cycle, ConnectBenchmark.Phase phase) {
+            }
+
+            @Override
+            public void onRunFinished(ConnectBenchmark.Report report) {
+                reports.add(report);
+            }
+        });
+        return benchmark;
+    }
+
+    /**
+     * Plays one successful cycle taking 10, 20, 30 and 40 ms per phase
+     */
+    private void runCycle(ConnectBenchmark benchmark, String address) {
+        timer.advance(10);
+        benchmark.onServiceFound(address, "chat." + address);
+        timer.advance(20);
+        benchmark.onServiceConnected();
+        timer.advance(30);
+        benchmark.onProbeAnswered();
+        timer.advance(40);
+        benchmark.onDisconnected();
+    }
+
+    @Test
+    public void cycles_runEveryPhaseAndRecordItsTime() throws IOException {
+        ConnectBenchmark benchmark = benchmark(2, null);
+        benchmark.start();
+        runCycle(benchmark, "aa");
+        assertNull(benchmark.getPhase());
+        // Nothing happens while the devices settle
+        benchmark.onServiceFound("aa", "chat.aa");
+        timer.advance(SETTLE);
+        assertEquals(2, benchmark.getCycle());
+        runCycle(benchmark, "aa");
+
+        assertFalse(benchmark.isRunning());
+        assertEquals(1, reports.size());
+        ConnectBenchmark.Report report = reports.get(0);
+        assertEquals(2, report.getCycles());
+        assertEquals(0, report.getFailedCycles());
+        assertEquals(2, report.getPhase(ConnectBenchmark.Phase.CONNECT).getCount());
+        assertEquals(20, report.getPhase(ConnectBenchmark.Phase.CONNECT).getMax());
+        assertEquals(60, report.getTimeToTalk().getMax());
+        assertEquals(Arrays.asList("reset", "connect chat.aa", "probe", "removeGroup",
+                "reset", "connect chat.aa", "probe", "removeGroup"), handler);
+
+        StringWriter csv = new StringWriter();
+        report.writeCsv(csv);
+        assertEquals("cycle,discover_ms,connect_ms,probe_ms,disconnect_ms,time_to_talk_ms,failed_phase\n"
+                + "1,10,20,30,40,60,\n2,10,20,30,40,60,\n", csv.toString());
+    }
+
+    @Test
+    public void otherDevices_areIgnoredOnceTheTargetIsKnown() {
+        ConnectBenchmark benchmark = benchmark(1, "bb");
+        benchmark.start();
+        benchmark.onServiceFound("aa", "chat.aa");
+        assertEquals(ConnectBenchmark.Phase.DISCOVER, benchmark.getPhase());
+        runCycle(benchmark, "bb");
+        assertEquals(Arrays.asList("reset", "connect chat.bb", "probe", "removeGroup"), handler);
+    }
+
+    @Test
+    public void timeouts_failTheCycleAndTearDownTheConnection() throws IOException {
+        ConnectBenchmark benchmark = benchmark(2, null);
+        benchmark.start();
+        benchmark.onServiceFound("aa", "chat.aa");
+        benchmark.onServiceConnected();
+        // The probe is never answered
+        timer.advance(TIMEOUT);
+        assertEquals(ConnectBenchmark.Phase.DISCONNECT, benchmark.getPhase());
+        benchmark.onDisconnected();
+        timer.advance(SETTLE);
+        // Nothing is found in the second cycle
+        timer.advance(TIMEOUT);
+
+        ConnectBenchmark.Report report = reports.get(0);
+        assertEquals(2, report.getFailedCycles());
+        assertEquals(ConnectBenchmark.Phase.PROBE, report.getFailedPhase(0));
+        assertEquals(ConnectBenchmark.Phase.DISCOVER, report.getFailedPhase(1));
+        assertEquals(0, report.getTimeToTalk().getCount());
+        assertEquals(Arrays.asList("reset", "connect chat.aa", "probe", "removeGroup", "reset"), handler);
+
+        StringWriter csv = new StringWriter();
+        report.writeCsv(csv);
+        assertTrue(csv.toString().endsWith("1,0,0,,0,,probe\n2,,,,,,discover\n"));
+    }
+
+    @Test
+    public void failedConnect_isNotTimedAsATeardown() {
+        ConnectBenchmark benchmark = benchmark(2, null);
+        benchmark.start();
+        benchmark.onServiceFound("aa", "chat.aa");
+        timer.advance(TIMEOUT);
+        assertEquals(ConnectBenchmark.Phase.DISCONNECT, benchmark.getPhase());
+        timer.advance(5);
+        benchmark.onDisconnected();
+        timer.advance(SETTLE);
+        runCycle(benchmark, "aa");
+
+        ConnectBenchmark.Report report = reports.get(0);
+        assertEquals(ConnectBenchmark.Phase.CONNECT, report.getFailedPhase(0));
+        assertEquals(1, report.getPhase(ConnectBenchmark.Phase.DISCONNECT).getCount());
+        assertEquals(40, report.getPhase(ConnectBenchmark.Phase.DISCONNECT).getMax());
+    }
+
+    @Test
+    public void cancelWhileConnecting_disconnects() {
+        ConnectBenchmark benchmark = benchmark(1, null);
+        benchmark.start();
+        benchmark.onServiceFound("aa", "chat.aa");
+        benchmark.cancel();
+        assertEquals(Arrays.asList("reset", "connect chat.aa", "removeGroup"), handler);
+    }
+
+    @Test
+    public void cancel_disconnectsAndReportsTheCyclesFinished() {
+        ConnectBenchmark benchmark = benchmark(5, null);
+        benchmark.start();
+        runCycle(benchmark, "aa");
+        timer.advance(SETTLE);
+        benchmark.onServiceFound("aa", "chat.aa");
+        benchmark.onServiceConnected();
+        benchmark.cancel();
+
+        assertFalse(benchmark.isRunning());
+        assertEquals(1, reports.get(0).getCycles());
+        assertEquals("removeGroup", handler.get(handler.size() - 1));
+        assertTrue(timer.tasks.isEmpty());
+        assertTrue(reports.get(0).toString().startsWith("1 of 5 cycles, 0 failed\n"));
+    }
+}
@@ -0,0 +1,111 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.rit.se.crashavoidance.FakeTimer;
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.event.PeersChangedEvent;
+import edu.rit.se.crashavoidance.event.ServiceFoundEvent;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+
+import static org.junit.Assert.*;
+
+public class DiscoverySchedulerTest {
+
+    private static final DiscoveryPolicy POLICY = new DiscoveryPolicy("test", 100, 50, 300, 2);
+
+    private final List<String> radio = new ArrayList<>();
+    private final FakeTimer timer = new FakeTimer();
+    private final EventBus bus = new EventBus();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final DiscoveryScheduler scheduler = new DiscoveryScheduler(new DiscoverySession.Discoverer() {
+        @Override
+        public void startDiscovery() {
+            radio.add("on@" + timer.now);
+        }
+
+        @Override
+        public void stopDiscovery() {
+            radio.add("off@" + timer.now);
+        }
+
+        @Override
+        public void resetDiscovery() {
+            radio.add("reset@" + timer.now);
+        }
+    }, timer, bus, EventBus.DIRECT, metrics, POLICY);
+
+    @Test
+    public void idleWindows_backOffWhileNothingNewAppears() {
+        scheduler.startDiscovery();
+        timer.advance(1000);
+        // Idle windows of 50, 100, 200, then capped at 300 ms
+        assertEquals(Arrays.asList("on@0", "off@100", "on@150", "off@250", "on@350", "off@450",
+                "on@650", "off@750"), radio);
+        assertEquals(DiscoveryScheduler.State.IDLE, scheduler.getState());
+        assertEquals(300, scheduler.getCurrentIdleMillis());
+        assertEquals(40.0, scheduler.getDutyCyclePercent(), 0.001);
+
+        scheduler.stopDiscovery();
+        timer.advance(1000);
+        assertEquals(8, radio.size());
+        assertTrue(timer.tasks.isEmpty());
+    }
+
+    @Test
+    public void peerChanges_scanAtOnceAndResetTheBackoff() {
+        scheduler.startDiscovery();
+        timer.advance(460);
+        assertEquals(DiscoveryScheduler.State.IDLE, scheduler.getState());
+
+        bus.publish(new PeersChangedEvent(Collections.singletonMap("aa", 3)));
+        // The same peer set again is not a change
+        bus.publish(new PeersChangedEvent(Collections.singletonMap("aa", 3)));
+        assertEquals(DiscoveryScheduler.State.ACTIVE, scheduler.getState());
+        assertEquals(1, scheduler.getFastScans());
+        assertEquals(50, scheduler.getCurrentIdleMillis());
+        assertEquals("on@460", radio.get(radio.size() - 1));
+
+        // A productive window is followed by the shortest idle window
+        timer.advance(100);
+        assertEquals("off@560", radio.get(radio.size() - 1));
+        timer.advance(50);
+        assertEquals("on@610", radio.get(radio.size() - 1));
+    }
+
+    @Test
+    public void transfers_pauseDiscoveryUntilTheLastOneEnds() {
+        scheduler.startDiscovery();
+        timer.advance(10);
+        scheduler.pauseForTransfer();
+        scheduler.pauseForTransfer();
+        timer.advance(1000);
+        assertEquals(DiscoveryScheduler.State.PAUSED, scheduler.getState());
+        scheduler.resumeAfterTransfer();
+        assertEquals(DiscoveryScheduler.State.PAUSED, scheduler.getState());
+        scheduler.resumeAfterTransfer();
+        assertEquals(Arrays.asList("on@0", "off@10", "on@1010"), radio);
+        assertEquals(DiscoveryScheduler.State.ACTIVE, scheduler.getState());
+    }
+
+    @Test
+    public void firstResultLatency_isRecordedPerPolicy() {
+        scheduler.startDiscovery();
+        bus.publish(new ServiceFoundEvent("chat"));
+        bus.publish(new ServiceFoundEvent("chat"));
+        scheduler.setPolicy(DiscoveryPolicy.CONTINUOUS);
+        bus.publish(new ServiceFoundEvent("chat"));
+        timer.advance(10000);
+
+        assertEquals(1, metrics.probe("discovery.first_result.test").getHistogram().getCount());
+        assertEquals(1, metrics.probe("discovery.first_result.continuous").getHistogram().getCount());
+        // Switching policy starts a fresh window, a continuous one never ends
+        assertEquals(Arrays.asList("on@0", "off@0", "on@0"), radio);
+        assertTrue(timer.tasks.isEmpty());
+    }
+}
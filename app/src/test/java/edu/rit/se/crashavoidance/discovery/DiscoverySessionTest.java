@@ -0,0 +1,116 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import edu.rit.se.crashavoidance.event.EventBus;
+import edu.rit.se.crashavoidance.event.PeersChangedEvent;
+import edu.rit.se.crashavoidance.event.ServiceFoundEvent;
+
+import static org.junit.Assert.*;
+
+public class DiscoverySessionTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final EventBus bus = new EventBus();
+    private final DiscoverySession session = new DiscoverySession(bus, EventBus.DIRECT, new DiscoverySession.Discoverer() {
+        @Override
+        public void startDiscovery() {
+            calls.add("start");
+        }
+
+        @Override
+        public void stopDiscovery() {
+            calls.add("stop");
+        }
+
+        @Override
+        public void resetDiscovery() {
+            calls.add("reset");
+        }
+    });
+
+    private DiscoverySession.Listener recordingListener(final String name) {
+        return new DiscoverySession.Listener() {
+            @Override
+            public void onServiceFound(String serviceKey) {
+                calls.add(name + " found " + serviceKey);
+            }
+
+            @Override
+            public void onPeersChanged(Map<String, Integer> peerStatuses) {
+                calls.add(name + " peers " + peerStatuses.size());
+            }
+        };
+    }
+
+    @Test
+    public void discovery_runsWhileAnybodyIsSubscribed() {
+        DiscoverySession.Subscription first = session.subscribe(recordingListener("a"));
+        DiscoverySession.Subscription second = session.subscribe(recordingListener("b"));
+        assertTrue(session.isDiscovering());
+        assertEquals(2, session.getActiveSubscribers());
+        assertEquals(1, session.getDuplicateStartsAvoided());
+
+        first.unsubscribe();
+        first.unsubscribe();
+        assertTrue(session.isDiscovering());
+        session.reset();
+        second.unsubscribe();
+        assertFalse(session.isDiscovering());
+        // Nothing is delivered, or reset, once discovery has stopped
+        session.reset();
+        assertEquals(0, bus.publish(new ServiceFoundEvent("late")));
+
+        assertEquals(Arrays.asList("start", "reset", "stop"), calls);
+        assertEquals(1, session.getSessionsStarted());
+    }
+
+    @Test
+    public void events_reachEachListenerOnceHoweverOftenItSubscribed() {
+        DiscoverySession.Listener listener = recordingListener("a");
+        DiscoverySession.Subscription first = session.subscribe(listener);
+        DiscoverySession.Subscription second = session.subscribe(listener);
+        session.subscribe(recordingListener("b"));
+        assertEquals(2, session.getActiveSubscribers());
+
+        // One bus subscription per event type, however many listeners there are
+        assertEquals(1, bus.publish(new ServiceFoundEvent("chat")));
+        assertEquals(1, bus.publish(new PeersChangedEvent(Collections.singletonMap("aa", 3))));
+        assertEquals(2, session.getDuplicateEventsAvoided());
+
+        first.unsubscribe();
+        bus.publish(new ServiceFoundEvent("chat2"));
+        second.unsubscribe();
+        bus.publish(new ServiceFoundEvent("chat3"));
+
+        assertEquals(Arrays.asList("start", "a found chat", "b found chat", "a peers 1", "b peers 1",
+                "a found chat2", "b found chat2", "b found chat3"), calls);
+        assertEquals(2, session.getDuplicateEventsAvoided());
+    }
+
+    @Test
+    public void listenersCanUnsubscribeWhileReceiving() {
+        final DiscoverySession.Subscription[] subscriptions = new DiscoverySession.Subscription[2];
+        subscriptions[0] = session.subscribe(new DiscoverySession.Listener() {
+            @Override
+            public void onServiceFound(String serviceKey) {
+                calls.add("a found " + serviceKey);
+                subscriptions[0].unsubscribe();
+                subscriptions[1].unsubscribe();
+            }
+
+            @Override
+            public void onPeersChanged(Map<String, Integer> peerStatuses) {
+            }
+        });
+        subscriptions[1] = session.subscribe(recordingListener("b"));
+        bus.publish(new ServiceFoundEvent("chat"));
+        assertEquals(Arrays.asList("start", "a found chat", "stop"), calls);
+    }
+}
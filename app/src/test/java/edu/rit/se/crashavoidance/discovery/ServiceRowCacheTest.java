@@ -0,0 +1,48 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ServiceRowCacheTest {
+
+    private final ServiceRowCache cache = new ServiceRowCache();
+
+    @Test
+    public void get_reusesTheRowUntilItsSourceChanges() {
+        Map<String, String> record = new HashMap<>();
+        record.put("Name", "Buddy");
+
+        ServiceRowCache.Row row = cache.get("aa", "", "Available", record);
+        assertEquals(ServiceRowCache.DEFAULT_DEVICE_NAME, row.deviceName);
+        assertEquals("Available\nName: Buddy\n", row.deviceInfo);
+        assertSame(row, cache.get("aa", "", "Available", record));
+        assertEquals(1, cache.getHits());
+
+        ServiceRowCache.Row invited = cache.get("aa", "", "Invited", record);
+        assertNotSame(row, invited);
+        assertEquals("Invited\nName: Buddy\n", invited.deviceInfo);
+
+        // A newly received TXT record is a new map
+        Map<String, String> newRecord = new HashMap<>(record);
+        assertNotSame(invited, cache.get("aa", "", "Invited", newRecord));
+        assertNotSame(invited, cache.get("aa", "Pixel", "Invited", newRecord));
+        assertEquals(4, cache.getBuilds());
+    }
+
+    @Test
+    public void rows_areKeptPerDevice() {
+        ServiceRowCache.Row a = cache.get("aa", "A", "Available", null);
+        ServiceRowCache.Row b = cache.get("bb", "B", "Available", null);
+        assertSame(a, cache.get("aa", "A", "Available", null));
+        assertSame(b, cache.get("bb", "B", "Available", null));
+        assertEquals("Available\n", a.deviceInfo);
+
+        cache.remove("aa");
+        assertEquals(1, cache.size());
+        assertNotSame(a, cache.get("aa", "A", "Available", null));
+    }
+}
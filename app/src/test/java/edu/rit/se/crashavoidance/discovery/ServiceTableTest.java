@@ -0,0 +1,118 @@
+package edu.rit.se.crashavoidance.discovery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ServiceTableTest {
+
+    private static final long TTL = 1000;
+    private static final int CONNECTED = 0;
+    private static final int AVAILABLE = 3;
+
+    private final ServiceTable<String> table = new ServiceTable<>(TTL);
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        table.setListener(new ServiceTable.Listener() {
+            @Override
+            public void onServiceInserted(int position) {
+                events.add("insert " + position);
+            }
+
+            @Override
+            public void onServiceChanged(int position) {
+                events.add("change " + position);
+            }
+
+            @Override
+            public void onServiceRemoved(int position, String address) {
+                events.add("remove " + position + " " + address);
+            }
+        });
+    }
+
+    @Test
+    public void put_keysServicesByDeviceAddress() {
+        assertTrue(table.put("aa", "chat on aa", AVAILABLE, 0));
+        assertTrue(table.put("bb", "chat on bb", AVAILABLE, 0));
+        assertFalse(table.put("aa", "chat on aa", AVAILABLE, 10));
+        assertFalse(table.put("bb", "chat on bb, renamed", AVAILABLE, 20));
+
+        assertEquals(2, table.size());
+        assertEquals(1, table.indexOf("bb"));
+        assertEquals(-1, table.indexOf("cc"));
+        assertEquals("chat on bb, renamed", table.get(1));
+        assertEquals(10, table.getLastSeen(0));
+        // Rediscovering an unchanged service does not rebind its row
+        assertEquals(Arrays.asList("insert 0", "insert 1", "change 1"), events);
+    }
+
+    @Test
+    public void onPeersChanged_evictsDevicesMissingForLongerThanTheTtl() {
+        table.put("aa", "a", AVAILABLE, 0);
+        table.put("bb", "b", AVAILABLE, 0);
+        table.put("cc", "c", AVAILABLE, 500);
+
+        // Present peers are refreshed, missing ones are kept until the TTL has passed
+        assertEquals(0, table.onPeersChanged(Collections.singletonMap("aa", AVAILABLE), 900));
+        assertEquals(3, table.size());
+
+        assertEquals(1, table.onPeersChanged(Collections.singletonMap("aa", AVAILABLE), 1200));
+        assertEquals(Arrays.asList("aa", "cc"), Arrays.asList(table.getAddress(0), table.getAddress(1)));
+        assertEquals(1200, table.getLastSeen(0));
+
+        assertEquals(1, table.onPeersChanged(new HashMap<String, Integer>(), 1600));
+        assertEquals(1, table.size());
+        assertEquals(2, table.getEvictedServices());
+        assertEquals(Arrays.asList("insert 0", "insert 1", "insert 2", "remove 1 bb", "remove 1 cc"), events);
+    }
+
+    @Test
+    public void evictExpired_evictsDepartedDevicesWithoutAPeerListChange() {
+        table.put("aa", "a", AVAILABLE, 0);
+        table.put("bb", "b", AVAILABLE, 0);
+        table.onPeersChanged(Collections.singletonMap("aa", AVAILABLE), 100);
+
+        assertEquals(0, table.evictExpired(1000));
+        // aa is still in the last peer list, so it stays however long the list doesn't change
+        assertEquals(1, table.evictExpired(5000));
+        assertEquals("aa", table.getAddress(0));
+        assertEquals(5000, table.getLastSeen(0));
+    }
+
+    @Test
+    public void statusChanges_rebindOnlyTheirRow() {
+        table.put("aa", "a", AVAILABLE, 0);
+        table.put("bb", "b", AVAILABLE, 0);
+        Map<String, Integer> peerStatuses = new HashMap<>();
+        peerStatuses.put("aa", AVAILABLE);
+        peerStatuses.put("bb", CONNECTED);
+        table.onPeersChanged(peerStatuses, 10);
+        table.onPeersChanged(peerStatuses, 20);
+        assertEquals(CONNECTED, table.getStatus(1));
+        assertFalse(table.put("aa", "a", CONNECTED, 30));
+        assertEquals(Arrays.asList("insert 0", "insert 1", "change 1", "change 0"), events);
+    }
+
+    @Test
+    public void clear_removesEveryRow() {
+        table.put("aa", "a", AVAILABLE, 0);
+        table.put("bb", "b", AVAILABLE, 0);
+        assertTrue(table.remove("aa"));
+        assertFalse(table.remove("aa"));
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.getEvictedServices());
+        assertEquals(Arrays.asList("insert 0", "insert 1", "remove 0 aa", "remove 0 bb"), events);
+    }
+}
@@ -0,0 +1,90 @@
+package edu.rit.se.crashavoidance.event;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+
+    private final EventBus bus = new EventBus();
+    private final ExecutorService background = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        background.shutdownNow();
+    }
+
+    @Test
+    public void publish_deliversByReferenceToSubscribersOfTheType() {
+        final List<byte[]> frames = new ArrayList<>();
+        final List<String> services = new ArrayList<>();
+        bus.subscribe(MessageEvent.class, EventBus.DIRECT, new Subscriber<MessageEvent>() {
+            @Override
+            public void onEvent(MessageEvent event) {
+                frames.add(event.frame);
+            }
+        });
+        bus.subscribe(ServiceFoundEvent.class, EventBus.DIRECT, new Subscriber<ServiceFoundEvent>() {
+            @Override
+            public void onEvent(ServiceFoundEvent event) {
+                services.add(event.serviceKey);
+            }
+        });
+
+        byte[] frame = new byte[]{1, 2, 3};
+        assertEquals(1, bus.publish(new MessageEvent(frame)));
+        assertEquals(0, bus.publish(new DeviceChangedEvent("device")));
+
+        assertEquals(1, frames.size());
+        assertSame(frame, frames.get(0));
+        assertTrue(services.isEmpty());
+        assertEquals(1, bus.getDeliveredEvents());
+        assertEquals(2, bus.getPublishedEvents());
+    }
+
+    @Test
+    public void subscriber_runsOnItsExecutor() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final Thread[] deliveryThread = new Thread[1];
+        bus.subscribe(DeviceChangedEvent.class, background, new Subscriber<DeviceChangedEvent>() {
+            @Override
+            public void onEvent(DeviceChangedEvent event) {
+                deliveryThread[0] = Thread.currentThread();
+                delivered.countDown();
+            }
+        });
+
+        bus.publish(new DeviceChangedEvent("device"));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), deliveryThread[0]);
+        assertTrue(bus.getMaxDispatchNanos() > 0);
+        assertTrue(bus.getAverageDispatchNanos() <= bus.getMaxDispatchNanos());
+    }
+
+    @Test
+    public void unsubscribe_stopsDelivery() {
+        final List<String> keys = new ArrayList<>();
+        EventBus.Subscription subscription = bus.subscribe(ServiceFoundEvent.class, EventBus.DIRECT,
+                new Subscriber<ServiceFoundEvent>() {
+                    @Override
+                    public void onEvent(ServiceFoundEvent event) {
+                        keys.add(event.serviceKey);
+                    }
+                });
+        bus.publish(new ServiceFoundEvent("first"));
+        subscription.unsubscribe();
+        bus.publish(new ServiceFoundEvent("second"));
+
+        assertEquals(1, keys.size());
+        assertFalse(subscription.isActive());
+        assertEquals(0, bus.getSubscriberCount(ServiceFoundEvent.class));
+    }
+}
@@ -0,0 +1,132 @@
+package edu.rit.se.crashavoidance.logging;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class LogBufferTest {
+
+    @Test
+    public void read_tailsFromLastSequenceAndSkipsOverwrittenEntries() {
+        LogBuffer buffer = new LogBuffer(4);
+        List<LogBuffer.Entry> entries = new ArrayList<>();
+        buffer.append(LogBuffer.INFO, "wFdMain", "first");
+        long last = buffer.read(-1, LogBuffer.VERBOSE, null, entries);
+        assertEquals(0, last);
+        assertEquals(1, entries.size());
+
+        for (int i = 0; i < 6; i++) {
+            buffer.append(LogBuffer.DEBUG, "wFdChat", "message " + i);
+        }
+        entries.clear();
+        last = buffer.read(last, LogBuffer.VERBOSE, null, entries);
+        assertEquals(6, last);
+        // Only the last four are still in the buffer
+        assertEquals(4, entries.size());
+        assertEquals(3, entries.get(0).sequence);
+        assertEquals("message 2", entries.get(0).message);
+
+        entries.clear();
+        assertEquals(6, buffer.read(last, LogBuffer.VERBOSE, null, entries));
+        assertTrue(entries.isEmpty());
+    }
+
+    @Test
+    public void read_filtersByLevelAndTag() {
+        LogBuffer buffer = new LogBuffer();
+        buffer.append(LogBuffer.DEBUG, "wFdChat", "debug");
+        buffer.append(LogBuffer.ERROR, "wFdChat", "error");
+        buffer.append(LogBuffer.ERROR, "wFdMain", "other tag");
+        List<LogBuffer.Entry> entries = new ArrayList<>();
+        buffer.read(-1, LogBuffer.WARN, "Chat", entries);
+        assertEquals(1, entries.size());
+        assertEquals("E/wFdChat: error", entries.get(0).toString());
+    }
+
+    @Test
+    public void logcatRestartDelay_doublesUpToItsLimit() {
+        assertEquals(2 * LogcatCollector.INITIAL_RESTART_DELAY_MILLIS,
+                LogcatCollector.nextRestartDelay(LogcatCollector.INITIAL_RESTART_DELAY_MILLIS));
+        assertEquals(LogcatCollector.MAX_RESTART_DELAY_MILLIS,
+                LogcatCollector.nextRestartDelay(LogcatCollector.MAX_RESTART_DELAY_MILLIS));
+    }
+
+    @Test
+    public void parseLine_readsThreadtimeFormat() {
+        LogBuffer buffer = new LogBuffer();
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        assertTrue(LogcatCollector.parseLine("10-17 12:34:56.789  1234  5678 I wFdMainActivity: Creating MainActivity",
+                "wFd", -1, buffer, format, 2026) > 0);
+        assertEquals(-1, LogcatCollector.parseLine("10-17 12:34:56.789  1234  5678 I ActivityManager: Start proc",
+                "wFd", -1, buffer, format, 2026));
+        assertEquals(-1, LogcatCollector.parseLine("--------- beginning of main", "wFd", -1, buffer, format, 2026));
+
+        List<LogBuffer.Entry> entries = new ArrayList<>();
+        buffer.read(-1, LogBuffer.VERBOSE, null, entries);
+        assertEquals(1, entries.size());
+        assertEquals(LogBuffer.INFO, entries.get(0).level);
+        assertEquals("wFdMainActivity", entries.get(0).tag);
+        assertEquals("Creating MainActivity", entries.get(0).message);
+    }
+
+    @Test
+    public void parseLine_skipsLinesCollectedBeforeARestart() {
+        LogBuffer buffer = new LogBuffer();
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        long collectedUntil = LogcatCollector.parseLine("10-17 12:34:56.789  1234  5678 I wFdMainActivity: First",
+                "wFd", -1, buffer, format, 2026);
+
+        // The restarted logcat prints the first line again before the new one
+        assertEquals(-1, LogcatCollector.parseLine("10-17 12:34:56.789  1234  5678 I wFdMainActivity: First",
+                "wFd", collectedUntil, buffer, format, 2026));
+        assertEquals(collectedUntil + 211, LogcatCollector.parseLine("10-17 12:34:57.000  1234  5678 I wFdMainActivity: Second",
+                "wFd", collectedUntil, buffer, format, 2026));
+
+        List<LogBuffer.Entry> entries = new ArrayList<>();
+        buffer.read(-1, LogBuffer.VERBOSE, null, entries);
+        assertEquals(2, entries.size());
+        assertEquals("First", entries.get(0).message);
+        assertEquals("Second", entries.get(1).message);
+    }
+
+    @Test
+    public void export_writesGzipAndKeepsNewestFiles() throws IOException {
+        File directory = File.createTempFile("logs", "");
+        directory.delete();
+        LogBuffer buffer = new LogBuffer();
+        LogExporter exporter = new LogExporter(directory, 2);
+        File file = null;
+        for (int i = 0; i < 3; i++) {
+            buffer.append(LogBuffer.WARN, "wFdChat", "export " + i);
+            file = exporter.export(buffer);
+        }
+        assertEquals(2, directory.listFiles().length);
+        assertTrue(file.exists());
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(2).endsWith("W/wFdChat: export 2"));
+
+        for (File export : directory.listFiles()) {
+            export.delete();
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,111 @@
+package edu.rit.se.crashavoidance.metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    public void histogram_bucketsAreMonotonicAndBoundTheirValues() {
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value = value * 5 / 4 + 1) {
+            int bucket = Histogram.bucketFor(value);
+            assertTrue(bucket >= previous);
+            assertTrue(Histogram.upperBound(bucket) >= value);
+            previous = bucket;
+        }
+        assertTrue(Histogram.bucketFor(Long.MAX_VALUE) < Histogram.BUCKET_COUNT);
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinABucketOfTheRecordedValues() {
+        Histogram histogram = new Histogram("ns");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 5 / 4);
+        assertEquals(1000000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void probe_recordsOnlyTheFirstStopAfterAStart() {
+        LatencyProbe probe = metrics.probe("discovery.start_to_first_service");
+        assertFalse(probe.stop());
+        probe.start();
+        assertTrue(probe.isStarted());
+        assertTrue(probe.stop());
+        assertFalse(probe.stop());
+        probe.start();
+        probe.cancel();
+        assertFalse(probe.stop());
+        assertEquals(1, probe.getHistogram().getCount());
+        assertSame(probe, metrics.probe("discovery.start_to_first_service"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void names_cannotBeReusedForAnotherType() {
+        metrics.counter("link.frames");
+        metrics.rate("link.frames");
+    }
+
+    @Test
+    public void removingAReplacedGauge_keepsItsReplacement() {
+        Gauge first = constant(1);
+        Gauge replacement = constant(2);
+        metrics.gauge("chat.history_evictions", first);
+        metrics.gauge("chat.history_evictions", replacement);
+        metrics.remove("chat.history_evictions", first);
+        assertTrue(metrics.getNames().contains("chat.history_evictions"));
+        metrics.remove("chat.history_evictions", replacement);
+        assertFalse(metrics.getNames().contains("chat.history_evictions"));
+    }
+
+    private static Gauge constant(final double value) {
+        return new Gauge() {
+            @Override
+            public double getValue() {
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void export_writesEveryMetricAsCsvAndJson() throws IOException {
+        metrics.counter("chat.sent").add(3);
+        metrics.gauge("dispatcher.queue_depth", new Gauge() {
+            @Override
+            public double getValue() {
+                return 7;
+            }
+        });
+        metrics.histogram("link.send_to_ack", "ns").record(2000);
+
+        StringWriter csv = new StringWriter();
+        metrics.writeCsv(csv);
+        String[] lines = csv.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("chat.sent,counter,3,,,,,,,", lines[1]);
+        assertEquals("dispatcher.queue_depth,gauge,7.0,,,,,,,", lines[2]);
+        assertTrue(lines[3].startsWith("link.send_to_ack,histogram,,1,2000.0,"));
+
+        StringWriter json = new StringWriter();
+        metrics.writeJson(json);
+        assertTrue(json.toString().contains("\"chat.sent\": {\"type\": \"counter\", \"value\": 3}"));
+        assertTrue(json.toString().contains("\"max\": 2000}"));
+        assertTrue(metrics.format().contains("dispatcher.queue_depth: 7\n"));
+    }
+}
@@ -0,0 +1,162 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ChunkTransferTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameSink sink = new FrameSink() {
+        @Override
+        public void write(byte[] frame) {
+            frames.add(frame);
+        }
+    };
+    private File spoolDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        spoolDirectory = File.createTempFile("spool", "");
+        spoolDirectory.delete();
+        spoolDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : spoolDirectory.listFiles()) {
+            file.delete();
+        }
+        spoolDirectory.delete();
+    }
+
+    @Test
+    public void payload_isSplitAndReassembledInMemory() throws Exception {
+        byte[] payload = payload(10000);
+        int transferId = new ChunkedSender(sink, DIRECT, 4096).send(MessageType.IMAGE, payload);
+        assertEquals(3, frames.size());
+
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        ChunkAssembler.CompletedTransfer completed = null;
+        for (byte[] frame : frames) {
+            assertNull(completed);
+            completed = assembler.accept(Chunk.fromMessage(MessageCodec.decode(frame)));
+        }
+        assertNotNull(completed);
+        assertEquals(transferId, completed.transferId);
+        assertEquals(MessageType.IMAGE, completed.contentType);
+        assertArrayEquals(payload, completed.data);
+        assertEquals(0, assembler.getBufferedBytes());
+    }
+
+    @Test
+    public void transfersOverBudget_areSpooledToDisk() throws Exception {
+        byte[] payload = payload(5000);
+        new ChunkedSender(sink, DIRECT, 1000).send(MessageType.IMAGE, payload);
+
+        ChunkAssembler assembler = new ChunkAssembler(spoolDirectory, 1024, 1024 * 1024);
+        ChunkAssembler.CompletedTransfer completed = null;
+        for (byte[] frame : frames) {
+            completed = assembler.accept(Chunk.fromMessage(MessageCodec.decode(frame)));
+            assertEquals(0, assembler.getBufferedBytes());
+        }
+        assertNull(completed.data);
+        byte[] spooled = new byte[payload.length];
+        RandomAccessFile file = new RandomAccessFile(completed.file, "r");
+        file.readFully(spooled);
+        file.close();
+        assertArrayEquals(payload, spooled);
+    }
+
+    @Test
+    public void interleavedTransfers_areReassembledIndependently() throws Exception {
+        ChunkedSender sender = new ChunkedSender(sink, DIRECT, 100);
+        List<byte[]> first = new ArrayList<>();
+        sender.send(MessageType.IMAGE, payload(250));
+        first.addAll(frames);
+        frames.clear();
+        sender.send(MessageType.TEXT, "hello".getBytes("UTF-8"));
+
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        assertNull(assembler.accept(Chunk.fromMessage(MessageCodec.decode(first.get(0)))));
+        ChunkAssembler.CompletedTransfer text = assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(0))));
+        assertEquals(MessageType.TEXT, text.contentType);
+        assertNull(assembler.accept(Chunk.fromMessage(MessageCodec.decode(first.get(1)))));
+        assertArrayEquals(payload(250), assembler.accept(Chunk.fromMessage(MessageCodec.decode(first.get(2)))).data);
+    }
+
+    @Test
+    public void outOfOrderChunk_failsTransfer() throws Exception {
+        new ChunkedSender(sink, DIRECT, 10).send(MessageType.IMAGE, payload(30));
+        final List<Integer> failed = new ArrayList<>();
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        assembler.setListener(new TransferListener() {
+            @Override
+            public void onTransferProgress(int transferId, boolean outgoing, long bytesTransferred, long totalBytes) {
+            }
+
+            @Override
+            public void onTransferFailed(int transferId, boolean outgoing, String reason) {
+                failed.add(transferId);
+            }
+        });
+        assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(0))));
+        assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(2))));
+        assertEquals(1, failed.size());
+        assertEquals(0, assembler.getPendingTransferCount());
+        assertEquals(0, assembler.getBufferedBytes());
+    }
+
+    @Test
+    public void idleTransfer_failsWhenTheNextChunkArrives() throws Exception {
+        ChunkedSender sender = new ChunkedSender(sink, DIRECT, 100);
+        int abandoned = sender.send(MessageType.IMAGE, payload(250));
+        List<byte[]> first = new ArrayList<>(frames);
+        frames.clear();
+        sender.send(MessageType.TEXT, "hello".getBytes("UTF-8"));
+        final List<Integer> failed = new ArrayList<>();
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        assembler.setIdleTimeout(1000);
+        assembler.setListener(new TransferListener() {
+            @Override
+            public void onTransferProgress(int transferId, boolean outgoing, long bytesTransferred, long totalBytes) {
+            }
+
+            @Override
+            public void onTransferFailed(int transferId, boolean outgoing, String reason) {
+                failed.add(transferId);
+            }
+        });
+
+        assembler.accept(Chunk.fromMessage(MessageCodec.decode(first.get(0))), 0);
+        assertNotNull(assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(0))), 999L * 1000000));
+        assertTrue(failed.isEmpty());
+        assertNull(assembler.accept(Chunk.fromMessage(MessageCodec.decode(first.get(1))), 1000L * 1000000));
+        assertEquals(abandoned, (int) failed.get(0));
+        assertEquals(0, assembler.getPendingTransferCount());
+        assertEquals(0, assembler.getBufferedBytes());
+    }
+
+    private static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        return payload;
+    }
+}
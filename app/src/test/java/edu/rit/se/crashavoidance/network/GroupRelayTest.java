@@ -0,0 +1,314 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.se.crashavoidance.FakeTimer;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+
+import static org.junit.Assert.*;
+
+public class GroupRelayTest {
+
+    private MetricsRegistry metrics;
+    private GroupRelay relay;
+    private final List<InMemoryTransport> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        metrics = new MetricsRegistry();
+        relay = new GroupRelay(metrics, 8, 64 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        relay.close();
+        for (InMemoryTransport client : clients) {
+            client.close();
+        }
+    }
+
+    @Test
+    public void frameFromOneMember_reachesEveryOtherMemberAndTheGroupOwner() throws Exception {
+        CollectingReceiver alice = join("alice", 1);
+        CollectingReceiver bob = join("bob", 1);
+        CollectingReceiver carol = join("carol", 0);
+        CollectingReceiver owner = new CollectingReceiver(1);
+        relay.setReceiver(owner);
+
+        byte[] frame = text("hello from carol");
+        clients.get(2).write(frame);
+
+        assertTrue(alice.frames.await(5, TimeUnit.SECONDS));
+        assertTrue(bob.frames.await(5, TimeUnit.SECONDS));
+        assertTrue(owner.frames.await(5, TimeUnit.SECONDS));
+        // Every member was sent the same encoded frame
+        assertSame(alice.received.get(0), bob.received.get(0));
+        assertEquals("hello from carol", new String(MessageCodec.decode(alice.received.get(0)).message, "UTF-8"));
+        awaitFanOut(2);
+        Thread.sleep(100);
+        assertTrue(carol.received.isEmpty());
+        assertEquals(2, relay.getFanOutFrames());
+    }
+
+    @Test
+    public void groupOwnerWrites_goToEveryMember() throws Exception {
+        CollectingReceiver alice = join("alice", 1);
+        CollectingReceiver bob = join("bob", 1);
+        assertTrue(relay.isConnected());
+
+        relay.write(text("from the owner"));
+
+        assertTrue(alice.frames.await(5, TimeUnit.SECONDS));
+        assertTrue(bob.frames.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void groupOwnersHello_isSentToMembersThatJoinLater() throws Exception {
+        CollectingReceiver alice = join("alice", 1);
+        relay.write(MessageCodec.encode(new Hello(Hello.CODEC_DEFLATE).toMessage()));
+        assertTrue(alice.frames.await(5, TimeUnit.SECONDS));
+
+        CollectingReceiver bob = join("bob", 2);
+        relay.write(text("after bob joined"));
+        assertTrue(bob.frames.await(5, TimeUnit.SECONDS));
+        assertEquals(MessageType.HELLO, MessageCodec.decode(bob.received.get(0)).messageType);
+        assertEquals(MessageType.TEXT, MessageCodec.decode(bob.received.get(1)).messageType);
+    }
+
+    @Test
+    public void memberThatFailsToConnect_isNotAdded() throws Exception {
+        InMemoryTransport closed = InMemoryTransport.pair()[0];
+        closed.close();
+        try {
+            relay.addMember("alice", closed);
+            fail("Expected the connect to fail");
+        } catch (IOException e) {
+            assertNull(relay.getMember("alice"));
+            assertFalse(metrics.getNames().contains("relay.member.alice.lag"));
+        }
+    }
+
+    @Test
+    public void sequencedFrames_reachOtherMembersWithoutTheirSequence() throws Exception {
+        join("alice", 0);
+        CollectingReceiver bob = join("bob", 2);
+        join("carol", 0);
+        CollectingReceiver owner = new CollectingReceiver(2);
+        relay.setReceiver(owner);
+        FakeTimer timer = new FakeTimer();
+        // Both start at sequence 1 on their own link to the group owner
+        ReliableSession alice = new ReliableSession(clients.get(0), timer, 4);
+        ReliableSession carol = new ReliableSession(clients.get(2), timer, 4);
+
+        alice.send(new Message(MessageType.TEXT, "from alice".getBytes("UTF-8"), MessageCodec.FLAG_COMPRESSED));
+        carol.send(new Message(MessageType.TEXT, "from carol".getBytes("UTF-8"), MessageCodec.FLAG_COMPRESSED));
+
+        assertTrue(bob.frames.await(5, TimeUnit.SECONDS));
+        ReliableSession bobSession = new ReliableSession(new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                fail("Bob has nothing to acknowledge");
+            }
+        }, timer, 4);
+        List<String> delivered = new ArrayList<>();
+        for (byte[] frame : bob.received) {
+            for (Message message : bobSession.receive(MessageCodec.decode(frame))) {
+                assertEquals(MessageCodec.FLAG_COMPRESSED, message.flags);
+                delivered.add(new String(message.message, "UTF-8"));
+            }
+        }
+        assertEquals(2, delivered.size());
+        assertTrue(delivered.contains("from alice"));
+        assertTrue(delivered.contains("from carol"));
+
+        // The group owner still gets the sequences to acknowledge
+        assertTrue(owner.frames.await(5, TimeUnit.SECONDS));
+        for (byte[] frame : owner.received) {
+            assertEquals(MessageCodec.FLAG_SEQUENCED, MessageCodec.decode(frame).flags & MessageCodec.FLAG_SEQUENCED);
+        }
+    }
+
+    @Test
+    public void linkControlFrames_areNotRelayed() throws Exception {
+        CollectingReceiver alice = join("alice", 0);
+        join("bob", 0);
+        CollectingReceiver owner = new CollectingReceiver(1);
+        relay.setReceiver(owner);
+
+        clients.get(1).write(MessageCodec.encode(new Message(MessageType.PING, new byte[8])));
+
+        assertTrue(owner.frames.await(5, TimeUnit.SECONDS));
+        assertSame(relay.getMember("bob").getTransport(), owner.transports.get(0));
+        Thread.sleep(100);
+        assertTrue(alice.received.isEmpty());
+    }
+
+    @Test
+    public void bulkFramesAndBatchedLinkControl_areNotRelayed() throws Exception {
+        CollectingReceiver alice = join("alice", 1);
+        join("bob", 0);
+        CollectingReceiver owner = new CollectingReceiver(2);
+        relay.setReceiver(owner);
+
+        clients.get(1).write(MessageCodec.encode(new Message(MessageType.BULK, new byte[8])));
+        clients.get(1).write(MessageBatch.encode(Arrays.asList(
+                MessageCodec.encode(new Message(MessageType.PING, new byte[8])),
+                text("hello"),
+                MessageCodec.encode(new Message(MessageType.ACK, new byte[4])))));
+
+        assertTrue(owner.frames.await(5, TimeUnit.SECONDS));
+        assertEquals(MessageType.BATCH, MessageCodec.decode(owner.received.get(1)).messageType);
+        assertTrue(alice.frames.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, alice.received.size());
+        assertArrayEquals(text("hello"), alice.received.get(0));
+    }
+
+    @Test
+    public void slowMember_dropsFramesWithoutStallingTheOthers() throws Exception {
+        StalledTransport slow = new StalledTransport();
+        GroupRelay.Member slowMember = relay.addMember("slow", slow);
+        CollectingReceiver fast = join("fast", 100);
+
+        // Paced so the fast member keeps up, as a real one would between chat messages
+        for (int i = 0; i < 100; i++) {
+            relay.write(text("message " + i));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fast.frames.getCount() > 99 - i && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+
+        assertTrue(fast.frames.await(5, TimeUnit.SECONDS));
+        assertEquals(0, relay.getMember("fast").getDroppedFrames());
+        // One frame is stuck in the slow member's write and 8 more fill its queue
+        assertEquals(100 - 1 - 8, slowMember.getDroppedFrames(), 1);
+        assertEquals(slowMember.getDroppedFrames(), relay.getDroppedFrames());
+        assertTrue(metrics.format().contains("relay.member.slow.dropped_frames"));
+
+        awaitFanOut(100);
+        assertEquals(100, relay.getMember("fast").getLag().getCount());
+        slow.release.countDown();
+    }
+
+    @Test
+    public void closedMember_isRemovedWithItsMetrics() throws Exception {
+        join("alice", 0);
+        CollectingReceiver bob = join("bob", 0);
+        assertTrue(metrics.getNames().contains("relay.member.alice.lag"));
+
+        clients.get(0).close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (relay.getMember("alice") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(relay.getMember("alice"));
+        assertFalse(metrics.getNames().contains("relay.member.alice.lag"));
+        assertEquals(1, relay.getMembers().size());
+
+        relay.close();
+        assertTrue(bob.closed.await(5, TimeUnit.SECONDS));
+        assertFalse(relay.isConnected());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addMember_rejectsDuplicateIds() throws Exception {
+        join("alice", 0);
+        relay.addMember("alice", InMemoryTransport.pair()[0]);
+    }
+
+    /**
+     * Connects a client to the relay and returns what the client receives
+     */
+    private CollectingReceiver join(String id, int expectedFrames) throws IOException {
+        InMemoryTransport[] pair = InMemoryTransport.pair();
+        relay.addMember(id, pair[0]);
+        CollectingReceiver receiver = new CollectingReceiver(expectedFrames);
+        pair[1].setReceiver(receiver);
+        pair[1].connect();
+        clients.add(pair[1]);
+        return receiver;
+    }
+
+    /**
+     * Waits for the member writer threads, which record a frame just after writing it
+     */
+    private void awaitFanOut(long frames) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (relay.getFanOutFrames() < frames && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] text(String text) throws IOException {
+        return MessageCodec.encode(new Message(MessageType.TEXT, text.getBytes("UTF-8")));
+    }
+
+    /**
+     * A member whose writes block until it is released, like a client that stopped reading
+     */
+    private static class StalledTransport implements Transport {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void setReceiver(Receiver receiver) {
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void write(byte[] frame) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted");
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            release.countDown();
+        }
+    }
+
+    private static class CollectingReceiver implements Transport.Receiver {
+        final List<byte[]> received = new ArrayList<>();
+        final List<Transport> transports = new ArrayList<>();
+        final CountDownLatch frames;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        CollectingReceiver(int expectedFrames) {
+            frames = new CountDownLatch(expectedFrames);
+        }
+
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            synchronized (received) {
+                received.add(frame);
+                transports.add(transport);
+            }
+            frames.countDown();
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the link benchmark against a LinkResponder over a loopback socket
+ */
+public class LinkBenchmarkTest {
+
+    private ServerSocket serverSocket;
+    private Socket clientSocket;
+    private LinkBenchmark benchmark;
+
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread responderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    DataInputStream input = StreamFraming.frameInput(socket.getInputStream());
+                    FrameSink replies = StreamFraming.sinkFor(socket.getOutputStream());
+                    LinkResponder responder = new LinkResponder();
+                    byte[] frame;
+                    while ((frame = StreamFraming.readFrame(input)) != null) {
+                        Message message = MessageCodec.decode(frame);
+                        if (message.messageType == MessageType.PING) {
+                            replies.write(MessageCodec.encode(responder.respond(message)));
+                        } else if (message.messageType == MessageType.BULK) {
+                            responder.onBulk(message);
+                        }
+                    }
+                    socket.close();
+                } catch (Exception e) {
+                    // The client closed the connection
+                }
+            }
+        });
+        responderThread.start();
+
+        clientSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        FrameSink sink = StreamFraming.sinkFor(clientSocket.getOutputStream());
+        benchmark = new LinkBenchmark(sink, sink);
+        final DataInputStream input = StreamFraming.frameInput(clientSocket.getInputStream());
+        Thread readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] frame;
+                    while ((frame = StreamFraming.readFrame(input)) != null) {
+                        benchmark.onMessage(MessageCodec.decode(frame));
+                    }
+                } catch (Exception e) {
+                    // Socket closed by tearDown
+                }
+            }
+        });
+        readerThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        clientSocket.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void latency_reportsPercentilesWithoutLoss() throws Exception {
+        LinkBenchmark.Report report = benchmark.measureLatency(200, 64, 0, 5000);
+        assertEquals(200, report.sent);
+        assertEquals(200, report.received);
+        assertEquals(0, report.lost);
+        assertEquals(0, report.reordered);
+        assertTrue(report.p50 > 0);
+        assertTrue(report.p50 <= report.p90);
+        assertTrue(report.p90 <= report.p99);
+        assertTrue(report.p99 <= report.max);
+    }
+
+    @Test
+    public void throughput_countsEveryBulkMessage() throws Exception {
+        LinkBenchmark.Report report = benchmark.measureThroughput(500, 16 * 1024, 10000);
+        assertEquals(500, report.received);
+        assertEquals(0, report.lost);
+        assertTrue(report.bytes > 500 * 16 * 1024);
+        assertTrue(report.getMegabytesPerSecond() > 0);
+
+        // A second run is counted separately by the responder
+        report = benchmark.measureThroughput(10, 1024, 10000);
+        assertEquals(10, report.received);
+    }
+
+    @Test
+    public void latencyRecorder_usesNearestRank() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 100; i >= 1; i--) {
+            recorder.record(i);
+        }
+        assertEquals(50, recorder.getPercentile(50));
+        assertEquals(90, recorder.getPercentile(90));
+        assertEquals(99, recorder.getPercentile(99));
+        assertEquals(100, recorder.getMax());
+    }
+
+    @Test
+    public void sequenceTracker_countsLossReorderingAndDuplicates() {
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.record(0);
+        tracker.record(2);
+        tracker.record(1);
+        tracker.record(2);
+        tracker.record(4);
+        assertEquals(4, tracker.getReceived());
+        assertEquals(1, tracker.getReordered());
+        assertEquals(1, tracker.getDuplicates());
+        assertEquals(1, tracker.getLost(5));
+    }
+}
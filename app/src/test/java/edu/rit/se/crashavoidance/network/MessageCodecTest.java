@@ -0,0 +1,82 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+
+    @Test
+    public void roundTrip_preservesTypeAndPayload() throws Exception {
+        byte[] payload = "Brett: hello".getBytes("UTF-8");
+        Message decoded = MessageCodec.decode(MessageCodec.encode(new Message(MessageType.TEXT, payload)));
+        assertEquals(MessageType.TEXT, decoded.messageType);
+        assertArrayEquals(payload, decoded.message);
+    }
+
+    @Test
+    public void encode_writesHeaderAndAdvancesPosition() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        buffer.put((byte) 0x7f);
+        MessageCodec.encode(new Message(MessageType.IMAGE, new byte[]{1, 2, 3}), buffer);
+        assertEquals(1 + MessageCodec.HEADER_LENGTH + 3, buffer.position());
+
+        buffer.flip();
+        buffer.get();
+        assertEquals(MessageCodec.VERSION, buffer.get(1));
+        assertEquals(MessageType.IMAGE.code, buffer.get(2));
+        assertEquals(3, buffer.getInt(5));
+        Message decoded = MessageCodec.decode(buffer);
+        assertEquals(MessageType.IMAGE, decoded.messageType);
+        assertArrayEquals(new byte[]{1, 2, 3}, decoded.message);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void decode_readsConsecutiveFrames() throws Exception {
+        Message first = new Message(MessageType.TEXT, "a".getBytes("UTF-8"));
+        Message second = new Message(MessageType.TEXT, new byte[0]);
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.encodedLength(first) + MessageCodec.encodedLength(second));
+        MessageCodec.encode(first, buffer);
+        MessageCodec.encode(second, buffer);
+        buffer.flip();
+        assertArrayEquals(first.message, MessageCodec.decode(buffer).message);
+        assertEquals(0, MessageCodec.decode(buffer).message.length);
+    }
+
+    @Test(expected = MessageFormatException.class)
+    public void decode_rejectsTruncatedPayload() throws Exception {
+        byte[] frame = MessageCodec.encode(new Message(MessageType.TEXT, new byte[10]));
+        MessageCodec.decode(ByteBuffer.wrap(frame, 0, frame.length - 1));
+    }
+
+    @Test(expected = MessageFormatException.class)
+    public void decode_rejectsUnknownVersion() throws Exception {
+        byte[] frame = MessageCodec.encode(new Message(MessageType.TEXT, new byte[1]));
+        frame[0] = (byte) (MessageCodec.VERSION + 1);
+        MessageCodec.decode(frame);
+    }
+
+    @Test(expected = MessageFormatException.class)
+    public void decode_rejectsUnknownType() throws Exception {
+        byte[] frame = MessageCodec.encode(new Message(MessageType.TEXT, new byte[1]));
+        frame[1] = (byte) 0x7f;
+        MessageCodec.decode(frame);
+    }
+
+    /**
+     * Compares the codec's frame size against the SerializationUtils path it replaces. Timings
+     * are measured by MessageCodecBenchmark.
+     */
+    @Test
+    public void codec_isSmallerThanSerialization() throws Exception {
+        Message text = new Message(MessageType.TEXT, "Brett: are you receiving this?".getBytes("UTF-8"));
+        int serializedSize = SerializationUtils.serialize(text).length;
+        int encodedSize = MessageCodec.encode(text).length;
+        assertTrue("codec " + encodedSize + " vs serialized " + serializedSize, encodedSize < serializedSize);
+        assertEquals(MessageCodec.HEADER_LENGTH + text.message.length, encodedSize);
+    }
+}
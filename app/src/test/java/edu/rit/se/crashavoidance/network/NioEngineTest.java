@@ -0,0 +1,249 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class NioEngineTest {
+
+    private NioEngine engine;
+    private InetSocketAddress serverAddress;
+    private final List<NioTransport> accepted = new ArrayList<>();
+    private final CountDownLatch serverClosed = new CountDownLatch(1);
+    // Failures on the event loop thread, asserted on the test thread in tearDown
+    private final AtomicReference<IOException> acceptFailure = new AtomicReference<>();
+
+    /**
+     * Echoes every frame back on the connection it arrived on
+     */
+    private final Transport.Receiver echo = new Transport.Receiver() {
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            transport.write(frame);
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+            serverClosed.countDown();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        engine = new NioEngine();
+        engine.start();
+        serverAddress = engine.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new NioEngine.Acceptor() {
+                    @Override
+                    public void onAccepted(NioTransport transport) {
+                        synchronized (accepted) {
+                            accepted.add(transport);
+                        }
+                        transport.setReceiver(echo);
+                        try {
+                            transport.connect();
+                        } catch (IOException e) {
+                            acceptFailure.compareAndSet(null, e);
+                        }
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+        assertNull(acceptFailure.get());
+    }
+
+    @Test
+    public void hundredsOfClients_allGetTheirOwnFramesBackInOrder() throws Exception {
+        int clients = 300;
+        int framesPerClient = 20;
+        List<NioTransport> transports = new ArrayList<>();
+        List<CollectingReceiver> receivers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            NioTransport client = engine.open(serverAddress);
+            CollectingReceiver receiver = new CollectingReceiver(framesPerClient);
+            client.setReceiver(receiver);
+            client.connect();
+            transports.add(client);
+            receivers.add(receiver);
+        }
+        for (int frame = 0; frame < framesPerClient; frame++) {
+            for (int i = 0; i < clients; i++) {
+                transports.get(i).write(MessageCodec.encode(new Message(MessageType.TEXT,
+                        (i + ":" + frame).getBytes("UTF-8"))));
+            }
+        }
+
+        for (int i = 0; i < clients; i++) {
+            CollectingReceiver receiver = receivers.get(i);
+            assertTrue("client " + i, receiver.frames.await(10, TimeUnit.SECONDS));
+            for (int frame = 0; frame < framesPerClient; frame++) {
+                assertEquals(i + ":" + frame, new String(
+                        MessageCodec.decode(receiver.received.get(frame)).message, "UTF-8"));
+            }
+        }
+        assertEquals(2 * clients, engine.getOpenConnections());
+        assertEquals(2L * clients * framesPerClient, engine.getFramesRead());
+        assertEquals(engine.getBytesRead(), engine.getBytesWritten());
+    }
+
+    @Test
+    public void framesLargerThanTheBuffersArriveWhole() throws Exception {
+        NioTransport client = engine.open(serverAddress);
+        CollectingReceiver receiver = new CollectingReceiver(3);
+        client.setReceiver(receiver);
+        client.connect();
+
+        byte[] image = new byte[NioEngine.BUFFER_SIZE * 5 + 17];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        client.write(MessageCodec.encode(new Message(MessageType.TEXT, "before".getBytes("UTF-8"))));
+        client.write(MessageCodec.encode(new Message(MessageType.IMAGE, image)));
+        client.write(MessageCodec.encode(new Message(MessageType.TEXT, "after".getBytes("UTF-8"))));
+
+        assertTrue(receiver.frames.await(10, TimeUnit.SECONDS));
+        assertEquals("before", new String(MessageCodec.decode(receiver.received.get(0)).message, "UTF-8"));
+        assertTrue(Arrays.equals(image, MessageCodec.decode(receiver.received.get(1)).message));
+        assertEquals("after", new String(MessageCodec.decode(receiver.received.get(2)).message, "UTF-8"));
+        assertEquals(0, client.getQueuedBytes());
+    }
+
+    @Test
+    public void close_isSeenByTheOtherEnd() throws Exception {
+        NioTransport client = engine.open(serverAddress);
+        CollectingReceiver receiver = new CollectingReceiver(0);
+        client.setReceiver(receiver);
+        client.connect();
+        assertTrue(client.isConnected());
+
+        client.close();
+        assertTrue(receiver.closed.await(5, TimeUnit.SECONDS));
+        assertNull(receiver.closeCause);
+        assertTrue(serverClosed.await(5, TimeUnit.SECONDS));
+        assertFalse(client.isConnected());
+        assertEquals(0, engine.getOpenConnections());
+    }
+
+    @Test
+    public void failingAcceptor_closesOnlyItsConnection() throws Exception {
+        InetSocketAddress failing = engine.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new NioEngine.Acceptor() {
+                    @Override
+                    public void onAccepted(NioTransport transport) {
+                        throw new IllegalStateException("rejected");
+                    }
+                });
+        NioTransport rejected = engine.open(failing);
+        CollectingReceiver rejectedReceiver = new CollectingReceiver(0);
+        rejected.setReceiver(rejectedReceiver);
+        try {
+            rejected.connect();
+        } catch (IOException e) {
+            // Already closed by the other end
+        }
+        assertTrue(rejectedReceiver.closed.await(5, TimeUnit.SECONDS));
+
+        assertTrue(engine.isRunning());
+        assertEchoed(engine.open(serverAddress));
+    }
+
+    @Test
+    public void failingTask_doesNotStopTheEventLoop() throws Exception {
+        engine.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failed");
+            }
+        });
+        assertEchoed(engine.open(serverAddress));
+        assertTrue(engine.isRunning());
+    }
+
+    @Test
+    public void shutdown_stopsRunning() throws Exception {
+        engine.shutdown();
+        assertFalse(engine.isRunning());
+        try {
+            engine.open(serverAddress).connect();
+            fail("Expected connect to fail once the engine stopped");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void write_failsWhenTheQueueIsFull() throws Exception {
+        NioTransport client = engine.open(serverAddress);
+        client.setReceiver(new CollectingReceiver(0));
+        client.connect();
+        client.setMaxQueuedBytes(10);
+        try {
+            client.write(new byte[MessageCodec.HEADER_LENGTH + 8]);
+            fail("Expected the write queue to be full");
+        } catch (IllegalStateException e) {
+            assertTrue(client.isConnected());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void connect_failsWhenNothingIsListening() throws Exception {
+        ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), unused.getLocalPort());
+        unused.close();
+        engine.open(address).connect();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void write_failsBeforeConnect() {
+        engine.open(serverAddress).write(new byte[MessageCodec.HEADER_LENGTH]);
+    }
+
+    private static void assertEchoed(NioTransport client) throws Exception {
+        CollectingReceiver receiver = new CollectingReceiver(1);
+        client.setReceiver(receiver);
+        client.connect();
+        client.write(MessageCodec.encode(new Message(MessageType.TEXT, "echo".getBytes("UTF-8"))));
+        assertTrue(receiver.frames.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class CollectingReceiver implements Transport.Receiver {
+        final List<byte[]> received = new ArrayList<>();
+        final CountDownLatch frames;
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile IOException closeCause;
+
+        CollectingReceiver(int expectedFrames) {
+            frames = new CountDownLatch(expectedFrames);
+        }
+
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            synchronized (received) {
+                received.add(frame);
+            }
+            frames.countDown();
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+            closeCause = cause;
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutboundDispatcherTest {
+
+    private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWriter = new CountDownLatch(1);
+    private final List<Byte> written = new ArrayList<>();
+
+    /** Blocks on the first frame so the test can fill the queue behind it */
+    private final FrameSink gatedSink = new FrameSink() {
+        @Override
+        public void write(byte[] frame) {
+            firstWriteStarted.countDown();
+            try {
+                releaseWriter.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            synchronized (written) {
+                written.add(frame[0]);
+            }
+        }
+    };
+
+    private OutboundDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        releaseWriter.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void higherPriorityFrames_overtakeQueuedBulk() throws Exception {
+        dispatcher = new OutboundDispatcher(gatedSink, 16, 1024);
+        dispatcher.start();
+        assertTrue(dispatcher.offer(new byte[]{0}, OutboundDispatcher.Priority.BULK));
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(dispatcher.offer(new byte[]{1}, OutboundDispatcher.Priority.BULK));
+        assertTrue(dispatcher.offer(new byte[]{2}, OutboundDispatcher.Priority.TEXT));
+        assertTrue(dispatcher.offer(new byte[]{3}, OutboundDispatcher.Priority.CONTROL));
+        assertTrue(dispatcher.offer(new byte[]{4}, OutboundDispatcher.Priority.TEXT));
+        assertEquals(4, dispatcher.getQueueDepth());
+        assertEquals(5, dispatcher.getBytesInFlight());
+
+        releaseWriter.countDown();
+        assertTrue(dispatcher.awaitDrained(5, TimeUnit.SECONDS));
+        synchronized (written) {
+            assertEquals("[0, 3, 2, 4, 1]", written.toString());
+        }
+        assertEquals(5, dispatcher.getSentFrames());
+        assertEquals(0, dispatcher.getBytesInFlight());
+    }
+
+    @Test
+    public void offer_refusesWhenFullAndBulkLeavesHeadroom() throws Exception {
+        dispatcher = new OutboundDispatcher(gatedSink, 16, 400);
+        dispatcher.start();
+        dispatcher.offer(new byte[1], OutboundDispatcher.Priority.BULK);
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(dispatcher.offer(new byte[200], OutboundDispatcher.Priority.BULK));
+        assertTrue(dispatcher.offer(new byte[100], OutboundDispatcher.Priority.BULK));
+        // Bulk is capped at three quarters of the byte budget
+        assertFalse(dispatcher.offer(new byte[50], OutboundDispatcher.Priority.BULK));
+        assertTrue(dispatcher.offer(new byte[100], OutboundDispatcher.Priority.TEXT));
+        assertFalse(dispatcher.offer(new byte[1], OutboundDispatcher.Priority.TEXT));
+        assertEquals(2, dispatcher.getRejectedFrames());
+    }
+
+    @Test
+    public void put_waitsForRoom() throws Exception {
+        dispatcher = new OutboundDispatcher(gatedSink, 1, 1024);
+        dispatcher.start();
+        dispatcher.offer(new byte[]{0}, OutboundDispatcher.Priority.BULK);
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.offer(new byte[]{1}, OutboundDispatcher.Priority.BULK);
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.sinkFor(OutboundDispatcher.Priority.BULK).write(new byte[]{2});
+                queued.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(queued.await(100, TimeUnit.MILLISECONDS));
+
+        releaseWriter.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.awaitDrained(5, TimeUnit.SECONDS));
+        synchronized (written) {
+            assertEquals("[0, 1, 2]", written.toString());
+        }
+    }
+
+    @Test
+    public void failedWrites_areReportedAndDoNotStopTheWriter() throws Exception {
+        final List<OutboundDispatcher.Priority> failures = new ArrayList<>();
+        dispatcher = new OutboundDispatcher(new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                if (frame[0] == 0) {
+                    throw new IllegalStateException("not connected");
+                }
+            }
+        });
+        dispatcher.setListener(new OutboundDispatcher.Listener() {
+            @Override
+            public void onFrameFailed(byte[] frame, OutboundDispatcher.Priority priority, RuntimeException cause) {
+                synchronized (failures) {
+                    failures.add(priority);
+                }
+            }
+        });
+        dispatcher.start();
+        dispatcher.offer(new byte[]{0}, OutboundDispatcher.Priority.TEXT);
+        dispatcher.offer(new byte[]{1}, OutboundDispatcher.Priority.TEXT);
+        assertTrue(dispatcher.awaitDrained(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getFailedFrames());
+        assertEquals(1, dispatcher.getSentFrames());
+        synchronized (failures) {
+            assertEquals(OutboundDispatcher.Priority.TEXT, failures.get(0));
+        }
+    }
+
+    @Test
+    public void batching_coalescesSmallFramesWithinWindow() throws Exception {
+        final List<byte[]> writes = new ArrayList<>();
+        dispatcher = new OutboundDispatcher(new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                synchronized (writes) {
+                    writes.add(frame);
+                }
+            }
+        });
+        dispatcher.setBatchPolicy(new BatchPolicy(500, 1024));
+        dispatcher.start();
+        for (int i = 0; i < 3; i++) {
+            byte[] text = ("message " + i).getBytes("UTF-8");
+            dispatcher.offer(MessageCodec.encode(new Message(MessageType.TEXT, text)), OutboundDispatcher.Priority.TEXT);
+        }
+        dispatcher.offer(MessageCodec.encode(new Message(MessageType.IMAGE, new byte[2048])), OutboundDispatcher.Priority.BULK);
+        assertTrue(dispatcher.awaitDrained(5, TimeUnit.SECONDS));
+
+        synchronized (writes) {
+            assertEquals(2, writes.size());
+            List<Message> batched = MessageBatch.decode(MessageCodec.decode(writes.get(0)));
+            assertEquals(3, batched.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("message " + i, new String(batched.get(i).message, "UTF-8"));
+            }
+            assertEquals(MessageType.IMAGE, MessageCodec.decode(writes.get(1)).messageType);
+        }
+        assertEquals(4, dispatcher.getSentFrames());
+        assertEquals(2.0, dispatcher.getAverageBatchSize(), 0.001);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PayloadCompressorTest {
+
+    private PayloadCompressor compressor;
+
+    @Before
+    public void setUp() {
+        compressor = new PayloadCompressor();
+        compressor.setEnabled(true);
+    }
+
+    @Test
+    public void text_isCompressedAndRestored() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            text.append("Brett: the quick brown fox jumps over the lazy dog ").append(i).append('\n');
+        }
+        byte[] payload = text.toString().getBytes("UTF-8");
+        Message compressed = compressor.compress(new Message(MessageType.TEXT, payload));
+        assertTrue((compressed.flags & MessageCodec.FLAG_COMPRESSED) != 0);
+        assertTrue(compressed.message.length < payload.length / 4);
+
+        Message received = MessageCodec.decode(MessageCodec.encode(compressed));
+        Message restored = compressor.decompress(received);
+        assertEquals(0, restored.flags);
+        assertArrayEquals(payload, restored.message);
+        assertEquals(1, compressor.getCompressedMessages());
+        assertTrue(compressor.getCompressionRatio() < 0.25);
+    }
+
+    @Test
+    public void disabled_leavesPayloadAlone() {
+        compressor.setEnabled(false);
+        Message message = new Message(MessageType.TEXT, new byte[4096]);
+        assertSame(message, compressor.compress(message));
+    }
+
+    @Test
+    public void smallPayloads_areSkipped() {
+        Message message = new Message(MessageType.TEXT, new byte[16]);
+        assertSame(message, compressor.compress(message));
+        assertEquals(1, compressor.getSkippedSmall());
+    }
+
+    @Test
+    public void compressedFormatsAndRandomData_areSkipped() {
+        byte[] jpeg = new byte[4096];
+        jpeg[0] = (byte) 0xff;
+        jpeg[1] = (byte) 0xd8;
+        jpeg[2] = (byte) 0xff;
+        Message image = new Message(MessageType.IMAGE, jpeg);
+        assertSame(image, compressor.compress(image));
+
+        byte[] random = new byte[64 * 1024];
+        new Random(7).nextBytes(random);
+        Message chunk = new Message(MessageType.CHUNK, random);
+        assertSame(chunk, compressor.compress(chunk));
+        assertEquals(2, compressor.getSkippedIncompressible());
+        assertTrue(PayloadCompressor.entropy(random) > PayloadCompressor.MAX_ENTROPY);
+    }
+
+    @Test
+    public void imageChunks_areSkippedByContentType() {
+        // Zeroed image data would compress well, the content type alone must skip it
+        Message imageChunk = new Chunk(1, 3, 8192, MessageType.IMAGE, new byte[4096], 0, 4096).toMessage();
+        assertSame(imageChunk, compressor.compress(imageChunk));
+        assertEquals(1, compressor.getSkippedIncompressible());
+
+        Message textChunk = new Chunk(2, 3, 8192, MessageType.TEXT, new byte[4096], 0, 4096).toMessage();
+        assertNotSame(textChunk, compressor.compress(textChunk));
+    }
+
+    @Test
+    public void payloadsThatDoNotShrink_areSentRaw() {
+        // 7 bits of entropy per byte passes the entropy check, but is too short to shrink
+        byte[] random = new byte[300];
+        Random generator = new Random(3);
+        for (int i = 0; i < random.length; i++) {
+            random[i] = (byte) generator.nextInt(128);
+        }
+        Message message = new Message(MessageType.TEXT, random);
+        assertSame(message, compressor.compress(message));
+        assertEquals(1, compressor.getSkippedNoGain());
+    }
+
+    @Test(expected = MessageFormatException.class)
+    public void corruptPayload_isRejected() throws Exception {
+        compressor.decompress(new Message(MessageType.TEXT, new byte[]{0, 0, 0, 10, 1, 2, 3}, MessageCodec.FLAG_COMPRESSED));
+    }
+}
@@ -0,0 +1,234 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.rit.se.crashavoidance.FakeTimer;
+
+import static org.junit.Assert.*;
+
+public class ReliableSessionTest {
+
+    private FakeTimer timer;
+    private List<byte[]> aToB;
+    private List<byte[]> bToA;
+    private ReliableSession a;
+    private ReliableSession b;
+    private List<String> deliveredToB;
+    private Map<Integer, ReliableSession.State> statesOfA;
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        aToB = new ArrayList<>();
+        bToA = new ArrayList<>();
+        a = new ReliableSession(sinkFor(aToB), timer, 4);
+        b = new ReliableSession(sinkFor(bToA), timer, 4);
+        deliveredToB = new ArrayList<>();
+        statesOfA = new HashMap<>();
+        a.setListener(new ReliableSession.Listener() {
+            @Override
+            public void onStateChanged(int sequence, ReliableSession.State state) {
+                statesOfA.put(sequence, state);
+            }
+        });
+    }
+
+    @Test
+    public void messages_areDeliveredInOrderAndAcknowledged() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, a.send(text("message " + i)));
+        }
+        assertEquals(ReliableSession.State.SENT, statesOfA.get(1));
+        timer.now = 40;
+        pump(aToB, b, true);
+        pump(bToA, a, false);
+
+        assertEquals(3, deliveredToB.size());
+        assertEquals("message 0", deliveredToB.get(0));
+        assertEquals("message 2", deliveredToB.get(2));
+        assertEquals(ReliableSession.State.DELIVERED, statesOfA.get(3));
+        assertEquals(0, a.getInFlight());
+        assertEquals(3, a.getDeliveredMessages());
+        assertEquals(40, a.getSmoothedRtt());
+        assertFalse("Timer stops when everything is acknowledged", !timer.tasks.isEmpty());
+    }
+
+    @Test
+    public void fullWindow_queuesUntilAcksArrive() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            a.send(text("message " + i));
+        }
+        assertEquals(4, a.getInFlight());
+        assertEquals(2, a.getQueued());
+        assertEquals(ReliableSession.State.QUEUED, statesOfA.get(5));
+        assertEquals(4, aToB.size());
+
+        pump(aToB, b, true);
+        pump(bToA, a, false);
+        assertEquals(2, aToB.size());
+        assertEquals(ReliableSession.State.SENT, statesOfA.get(6));
+
+        a.setWindow(1);
+        a.send(text("message 6"));
+        assertEquals(ReliableSession.State.QUEUED, statesOfA.get(7));
+    }
+
+    @Test
+    public void lostMessage_isTheOnlyOneRetransmitted() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            a.send(text("message " + i));
+        }
+        aToB.remove(1);
+        pump(aToB, b, true);
+        assertEquals(1, deliveredToB.size());
+        pump(bToA, a, false);
+        assertEquals(ReliableSession.State.SENT, statesOfA.get(2));
+        assertEquals("Selectively acknowledged", ReliableSession.State.DELIVERED, statesOfA.get(4));
+
+        timer.advance(a.getRto());
+        assertEquals(1, aToB.size());
+        assertEquals(1, a.getRetransmits());
+        pump(aToB, b, true);
+        pump(bToA, a, false);
+
+        assertEquals(4, deliveredToB.size());
+        assertEquals("message 1", deliveredToB.get(1));
+        assertEquals("message 3", deliveredToB.get(3));
+        assertEquals(0, a.getInFlight());
+    }
+
+    @Test
+    public void timeouts_backOffTheRetransmissionTimer() throws Exception {
+        a.send(text("lost"));
+        aToB.clear();
+        long rto = a.getRto();
+        timer.advance(rto);
+        assertEquals(2 * rto, a.getRto());
+        aToB.clear();
+        timer.advance(2 * rto);
+        assertEquals(4 * rto, a.getRto());
+        assertEquals(2, a.getTimeouts());
+        assertEquals(1, aToB.size());
+    }
+
+    @Test
+    public void reset_failsEveryUnacknowledgedMessage() throws Exception {
+        a.setWindow(2);
+        for (int i = 0; i < 3; i++) {
+            a.send(text("message " + i));
+        }
+        // Only the first arrives and is acknowledged
+        b.receive(MessageCodec.decode(aToB.get(0)));
+        pump(bToA, a, false);
+        assertEquals(ReliableSession.State.DELIVERED, statesOfA.get(1));
+
+        a.reset();
+        assertEquals(ReliableSession.State.DELIVERED, statesOfA.get(1));
+        assertEquals(ReliableSession.State.FAILED, statesOfA.get(2));
+        assertEquals(ReliableSession.State.FAILED, statesOfA.get(3));
+        assertEquals(0, a.getInFlight());
+        assertEquals(0, a.getQueued());
+        assertTrue(timer.tasks.isEmpty());
+    }
+
+    @Test
+    public void duplicates_areDroppedButStillAcknowledged() throws Exception {
+        a.send(text("once"));
+        byte[] frame = aToB.get(0);
+        aToB.add(frame);
+        pump(aToB, b, true);
+
+        assertEquals(1, deliveredToB.size());
+        assertEquals(1, b.getDuplicates());
+        assertEquals(2, bToA.size());
+    }
+
+    @Test
+    public void unsequencedMessages_passThrough() throws Exception {
+        Message ping = new Message(MessageType.PING, new byte[8]);
+        List<Message> received = b.receive(ping);
+        assertEquals(1, received.size());
+        assertSame(ping, received.get(0));
+        assertTrue(bToA.isEmpty());
+    }
+
+    @Test
+    public void compressedFlag_survivesSequencing() throws Exception {
+        a.send(new Message(MessageType.TEXT, new byte[]{1, 2}, MessageCodec.FLAG_COMPRESSED));
+        List<Message> received = b.receive(MessageCodec.decode(aToB.get(0)));
+        assertEquals(MessageCodec.FLAG_COMPRESSED, received.get(0).flags);
+        assertArrayEquals(new byte[]{1, 2}, received.get(0).message);
+    }
+
+    @Test
+    public void ack_roundTripsWithSelectiveBlocks() throws Exception {
+        Ack ack = new Ack(7, new int[]{9, 14}, new int[]{11, 14});
+        Ack decoded = Ack.fromMessage(MessageCodec.decode(MessageCodec.encode(ack.toMessage())));
+        assertEquals(7, decoded.cumulative);
+        assertTrue(decoded.covers(5));
+        assertTrue(decoded.covers(10));
+        assertFalse(decoded.covers(8));
+        assertFalse(decoded.covers(12));
+        assertTrue(decoded.covers(14));
+    }
+
+    @Test
+    public void rttEstimator_followsRfc6298() {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(RttEstimator.INITIAL_RTO_MILLIS, estimator.getRto());
+        estimator.sample(100);
+        assertEquals(100, estimator.getSmoothedRtt());
+        assertEquals(50, estimator.getRttVariance());
+        assertEquals(300, estimator.getRto());
+        estimator.sample(20);
+        // RTTVAR = 3/4 * 50 + 1/4 * |100 - 20|, SRTT = 7/8 * 100 + 1/8 * 20
+        assertEquals(57, estimator.getRttVariance());
+        assertEquals(90, estimator.getSmoothedRtt());
+        estimator.backOff();
+        assertEquals(2 * (90 + 4 * 57), estimator.getRto());
+    }
+
+    @Test
+    public void hello_fromOlderPeerHasNoFeatures() throws Exception {
+        Message older = new Message(MessageType.HELLO, new byte[]{1, 0, 0, 0, Hello.CODEC_DEFLATE});
+        Hello hello = Hello.fromMessage(older);
+        assertTrue(hello.supports(Hello.CODEC_DEFLATE));
+        assertFalse(hello.hasFeature(Hello.FEATURE_RELIABLE));
+        assertTrue(Hello.fromMessage(new Hello(Hello.CODEC_DEFLATE, Hello.FEATURE_RELIABLE).toMessage())
+                .hasFeature(Hello.FEATURE_RELIABLE));
+    }
+
+    /**
+     * Hands every queued frame to a session, collecting the text it delivers if collect is set
+     */
+    private void pump(List<byte[]> frames, ReliableSession session, boolean collect) throws Exception {
+        List<byte[]> pending = new ArrayList<>(frames);
+        frames.clear();
+        for (byte[] frame : pending) {
+            for (Message message : session.receive(MessageCodec.decode(frame))) {
+                if (collect) {
+                    deliveredToB.add(new String(message.message, "UTF-8"));
+                }
+            }
+        }
+    }
+
+    private static Message text(String text) throws Exception {
+        return new Message(MessageType.TEXT, text.getBytes("UTF-8"));
+    }
+
+    private static FrameSink sinkFor(final List<byte[]> frames) {
+        return new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                frames.add(frame);
+            }
+        };
+    }
+}
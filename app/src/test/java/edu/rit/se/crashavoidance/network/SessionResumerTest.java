@@ -0,0 +1,310 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import edu.rit.se.crashavoidance.FakeTimer;
+import edu.rit.se.crashavoidance.metrics.MetricsRegistry;
+
+import static org.junit.Assert.*;
+
+public class SessionResumerTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FakeTimer timer;
+    private Device a;
+    private Device b;
+
+    @Before
+    public void setUp() {
+        timer = new FakeTimer();
+        a = new Device();
+        b = new Device();
+    }
+
+    @Test
+    public void firstConnection_startsNewSessionsOnBothSides() throws Exception {
+        assertFalse(a.resumer.onHello(b.hello()));
+        assertFalse(b.resumer.onHello(a.hello()));
+        assertEquals(b.resumer.getSessionId(), a.resumer.getPeerSessionId());
+        assertEquals(a.resumer.getSessionId(), b.resumer.getPeerSessionId());
+    }
+
+    @Test
+    public void reconnect_sendsOnlyTheMissingTail() throws Exception {
+        connect();
+        for (int i = 0; i < 3; i++) {
+            a.reliableSession.send(text("message " + i));
+        }
+        byte[] image = payload(1000);
+        int transferId = a.chunkedSender.send(MessageType.IMAGE, image);
+        // The group drops after two messages and four chunks, their acks are lost too
+        List<byte[]> beforeDrop = new ArrayList<>(a.outgoing);
+        a.outgoing.clear();
+        for (byte[] frame : beforeDrop) {
+            Message message = MessageCodec.decode(frame);
+            boolean lost = message.messageType == MessageType.CHUNK
+                    ? Chunk.fromMessage(message).sequence >= 4
+                    : b.texts.size() == 2;
+            if (!lost) {
+                b.receive(frame);
+            }
+        }
+        b.outgoing.clear();
+        assertEquals(2, b.texts.size());
+
+        a.resumer.onConnected();
+        b.resumer.onConnected();
+        Hello helloFromA = a.hello();
+        Hello helloFromB = b.hello();
+        assertEquals(2, helloFromB.resume.receivedSequence);
+        assertEquals(transferId, helloFromB.resume.transferId);
+        assertEquals(4, helloFromB.resume.chunksReceived);
+        assertTrue(a.resumer.onHello(helloFromB));
+        assertTrue(b.resumer.onHello(helloFromA));
+
+        // Message 2 and chunks 4 to 9
+        assertEquals(7, a.outgoing.size());
+        deliver(a, b);
+        assertEquals("message 2", b.texts.get(2));
+        assertArrayEquals(image, b.images.get(0));
+        deliver(b, a);
+        assertEquals(0, a.reliableSession.getInFlight());
+        assertEquals(3, a.reliableSession.getDeliveredMessages());
+
+        assertEquals(1, a.resumer.getResumedSessions());
+        assertEquals(4 * CHUNK_SIZE + "message 0".length() + "message 1".length(), a.resumer.getBytesSaved());
+        assertEquals(1, a.metrics.histogram("resume.reconnect_to_resumed", "ms").getCount());
+    }
+
+    @Test
+    public void restartedPeer_startsNewSessionsOnBothSides() throws Exception {
+        connect();
+        a.reliableSession.send(text("never acknowledged"));
+        a.chunkedSender.send(MessageType.IMAGE, payload(500));
+        a.outgoing.clear();
+
+        Device restarted = new Device();
+        assertFalse(a.resumer.onHello(restarted.hello()));
+        assertFalse(restarted.resumer.onHello(a.hello()));
+        assertEquals(0, a.reliableSession.getInFlight());
+        assertEquals(0, a.chunkedSender.getResumeBufferedBytes());
+        assertTrue(a.outgoing.isEmpty());
+    }
+
+    @Test
+    public void peerThatMovedOnToAnotherSession_isNotResumed() throws Exception {
+        connect();
+        Device other = new Device();
+        assertFalse(a.resumer.onHello(other.hello()));
+        assertFalse(other.resumer.onHello(a.hello()));
+
+        // b still remembers a, but a no longer remembers b
+        assertFalse(b.resumer.onHello(a.hello()));
+        assertFalse(a.resumer.onHello(b.hello()));
+    }
+
+    @Test
+    public void chunkedSender_resendsTransfersAfterTheLastOneReceived() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        ChunkedSender sender = new ChunkedSender(sinkFor(frames), DIRECT, CHUNK_SIZE);
+        sender.setResumeBufferBytes(1000);
+        int first = sender.send(MessageType.IMAGE, payload(250));
+        sender.send(MessageType.IMAGE, payload(150));
+        frames.clear();
+
+        // The first transfer was received completely, the second not at all
+        assertEquals(250, sender.resume(first, 3));
+        assertEquals(2, frames.size());
+        assertEquals(150, sender.getResumeBufferedBytes());
+
+        // Nothing received that is still buffered, everything is sent again
+        frames.clear();
+        sender.resume(first, 3);
+        assertEquals(2, frames.size());
+        assertEquals(0, Chunk.fromMessage(MessageCodec.decode(frames.get(0))).sequence);
+    }
+
+    @Test
+    public void chunkedSender_keepsOnlyTheNewestTransfersThatFitItsBuffer() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        ChunkedSender sender = new ChunkedSender(sinkFor(frames), DIRECT, CHUNK_SIZE);
+        sender.setResumeBufferBytes(500);
+        sender.send(MessageType.IMAGE, payload(300));
+        sender.send(MessageType.IMAGE, payload(300));
+        sender.send(MessageType.IMAGE, payload(600));
+        assertEquals(300, sender.getResumeBufferedBytes());
+    }
+
+    @Test
+    public void resumableAssembler_keepsTransferAcrossGapsAndDuplicates() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        int transferId = new ChunkedSender(sinkFor(frames), DIRECT, CHUNK_SIZE).send(MessageType.IMAGE, payload(400));
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        assembler.setResumable(true);
+
+        assertNull(accept(assembler, frames.get(0)));
+        assertNull(accept(assembler, frames.get(2)));
+        assertNull(accept(assembler, frames.get(0)));
+        assertEquals(1, assembler.getPendingTransferCount());
+        assertEquals(transferId, assembler.getLastTransferId());
+        assertEquals(1, assembler.getLastTransferChunks());
+        assertEquals(2, assembler.getDroppedChunks());
+
+        accept(assembler, frames.get(1));
+        accept(assembler, frames.get(2));
+        assertArrayEquals(payload(400), accept(assembler, frames.get(3)).data);
+    }
+
+    @Test
+    public void resumableAssembler_keepsTransferThroughADropLongerThanTheIdleTimeout() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        new ChunkedSender(sinkFor(frames), DIRECT, CHUNK_SIZE).send(MessageType.IMAGE, payload(300));
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        assembler.setResumable(true);
+        assembler.setIdleTimeout(1000);
+
+        assertNull(assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(0))), 0));
+        // Reconnected and resumed five seconds later
+        assembler.onResumed(5000L * 1000000);
+        assertNull(assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(1))), 5001L * 1000000));
+        assertArrayEquals(payload(300),
+                assembler.accept(Chunk.fromMessage(MessageCodec.decode(frames.get(2))), 5002L * 1000000).data);
+    }
+
+    @Test
+    public void resumableAssembler_failsPartialTransferWhenTheNextOneStarts() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        ChunkedSender sender = new ChunkedSender(sinkFor(frames), DIRECT, CHUNK_SIZE);
+        int abandoned = sender.send(MessageType.IMAGE, payload(300));
+        sender.send(MessageType.TEXT, "hello".getBytes("UTF-8"));
+        ChunkAssembler assembler = new ChunkAssembler(null);
+        assembler.setResumable(true);
+        final List<Integer> failed = new ArrayList<>();
+        assembler.setListener(new TransferListener() {
+            @Override
+            public void onTransferProgress(int transferId, boolean outgoing, long bytesTransferred, long totalBytes) {
+            }
+
+            @Override
+            public void onTransferFailed(int transferId, boolean outgoing, String reason) {
+                failed.add(transferId);
+            }
+        });
+
+        accept(assembler, frames.get(0));
+        assertNotNull(accept(assembler, frames.get(3)));
+        assertEquals(1, failed.size());
+        assertEquals(abandoned, (int) failed.get(0));
+        assertEquals(0, assembler.getBufferedBytes());
+    }
+
+    @Test
+    public void hello_carriesResumeState() throws Exception {
+        Hello hello = new Hello(Hello.CODEC_DEFLATE, Hello.FEATURE_RELIABLE, new Hello.Resume(7L, 8L, 9, 10, 11));
+        Hello decoded = Hello.fromMessage(MessageCodec.decode(MessageCodec.encode(hello.toMessage())));
+        assertTrue(decoded.hasFeature(Hello.FEATURE_RESUME));
+        assertTrue(decoded.hasFeature(Hello.FEATURE_RELIABLE));
+        assertEquals(7L, decoded.resume.sessionId);
+        assertEquals(8L, decoded.resume.peerSessionId);
+        assertEquals(9, decoded.resume.receivedSequence);
+        assertEquals(10, decoded.resume.transferId);
+        assertEquals(11, decoded.resume.chunksReceived);
+        assertNull(Hello.fromMessage(new Hello(Hello.CODEC_DEFLATE).toMessage()).resume);
+    }
+
+    /**
+     * Exchanges Hellos on the first connection
+     */
+    private void connect() {
+        a.resumer.onConnected();
+        b.resumer.onConnected();
+        Hello helloFromA = a.hello();
+        Hello helloFromB = b.hello();
+        a.resumer.onHello(helloFromB);
+        b.resumer.onHello(helloFromA);
+    }
+
+    private static void deliver(Device from, Device to) throws Exception {
+        List<byte[]> frames = new ArrayList<>(from.outgoing);
+        from.outgoing.clear();
+        for (byte[] frame : frames) {
+            to.receive(frame);
+        }
+    }
+
+    private static ChunkAssembler.CompletedTransfer accept(ChunkAssembler assembler, byte[] frame) throws Exception {
+        return assembler.accept(Chunk.fromMessage(MessageCodec.decode(frame)));
+    }
+
+    private static Message text(String text) throws Exception {
+        return new Message(MessageType.TEXT, text.getBytes("UTF-8"));
+    }
+
+    private static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        return payload;
+    }
+
+    private static FrameSink sinkFor(final List<byte[]> frames) {
+        return new FrameSink() {
+            @Override
+            public void write(byte[] frame) {
+                frames.add(frame);
+            }
+        };
+    }
+
+    /**
+     * One side of the chat, wired like ChatFragment with every frame going to one list
+     */
+    private class Device {
+        final List<byte[]> outgoing = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        final List<byte[]> images = new ArrayList<>();
+        final MetricsRegistry metrics = new MetricsRegistry();
+        final ReliableSession reliableSession = new ReliableSession(sinkFor(outgoing), timer, 4);
+        final ChunkedSender chunkedSender = new ChunkedSender(sinkFor(outgoing), DIRECT, CHUNK_SIZE);
+        final ChunkAssembler chunkAssembler = new ChunkAssembler(null);
+        final SessionResumer resumer;
+
+        Device() {
+            chunkedSender.setResumeBufferBytes(ChunkedSender.DEFAULT_RESUME_BUFFER_BYTES);
+            chunkAssembler.setResumable(true);
+            resumer = new SessionResumer(reliableSession, chunkedSender, chunkAssembler, metrics);
+        }
+
+        Hello hello() {
+            return new Hello(Hello.CODEC_DEFLATE, Hello.FEATURE_RELIABLE, resumer.getResumeState());
+        }
+
+        void receive(byte[] frame) throws Exception {
+            Message message = MessageCodec.decode(frame);
+            if (message.messageType == MessageType.CHUNK) {
+                ChunkAssembler.CompletedTransfer transfer = chunkAssembler.accept(Chunk.fromMessage(message));
+                if (transfer != null) {
+                    images.add(transfer.data);
+                }
+                return;
+            }
+            for (Message delivered : reliableSession.receive(message)) {
+                texts.add(new String(delivered.message, "UTF-8"));
+            }
+        }
+    }
+}
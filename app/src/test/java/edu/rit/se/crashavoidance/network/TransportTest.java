@@ -0,0 +1,116 @@
+package edu.rit.se.crashavoidance.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TransportTest {
+
+    private final List<Transport> transports = new ArrayList<>();
+    private ServerSocket serverSocket;
+
+    @After
+    public void tearDown() throws Exception {
+        for (Transport transport : transports) {
+            transport.close();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void inMemory_deliversFramesInOrderAndPropagatesClose() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.pair();
+        CollectingReceiver receiver = new CollectingReceiver(100);
+        pair[1].setReceiver(receiver);
+        pair[0].setReceiver(new CollectingReceiver(0));
+        pair[0].connect();
+        pair[1].connect();
+        transports.add(pair[0]);
+
+        for (int i = 0; i < 100; i++) {
+            pair[0].write(MessageCodec.encode(new Message(MessageType.TEXT, new byte[]{(byte) i})));
+        }
+        assertTrue(receiver.frames.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) i, MessageCodec.decode(receiver.received.get(i)).message[0]);
+        }
+
+        pair[0].close();
+        assertTrue(receiver.closed.await(5, TimeUnit.SECONDS));
+        assertFalse(pair[1].isConnected());
+    }
+
+    @Test
+    public void tcp_carriesDispatchedFramesOverLocalhost() throws Exception {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        TcpTransport client = new TcpTransport(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+        client.setReceiver(new CollectingReceiver(0));
+        client.connect();
+        transports.add(client);
+        TcpTransport server = TcpTransport.accept(serverSocket);
+        CollectingReceiver receiver = new CollectingReceiver(1000);
+        server.setReceiver(receiver);
+        server.connect();
+        transports.add(server);
+
+        OutboundDispatcher dispatcher = new OutboundDispatcher(client);
+        dispatcher.start();
+        byte[] image = new byte[200 * 1024];
+        for (int i = 0; i < 999; i++) {
+            dispatcher.put(MessageCodec.encode(new Message(MessageType.TEXT, ("message " + i).getBytes("UTF-8"))),
+                    OutboundDispatcher.Priority.TEXT);
+        }
+        dispatcher.put(MessageCodec.encode(new Message(MessageType.IMAGE, image)), OutboundDispatcher.Priority.BULK);
+        assertTrue(receiver.frames.await(10, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+
+        assertEquals("message 0", new String(MessageCodec.decode(receiver.received.get(0)).message, "UTF-8"));
+        assertEquals(image.length, MessageCodec.decode(receiver.received.get(999)).message.length);
+
+        client.close();
+        assertTrue(receiver.closed.await(5, TimeUnit.SECONDS));
+        assertNull(receiver.closeCause);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void write_failsWhenNotConnected() {
+        InMemoryTransport.pair()[0].write(new byte[MessageCodec.HEADER_LENGTH]);
+    }
+
+    private static class CollectingReceiver implements Transport.Receiver {
+        final List<byte[]> received = new ArrayList<>();
+        final CountDownLatch frames;
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile IOException closeCause;
+
+        CollectingReceiver(int expectedFrames) {
+            frames = new CountDownLatch(expectedFrames);
+        }
+
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            synchronized (received) {
+                received.add(frame);
+            }
+            frames.countDown();
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+            closeCause = cause;
+            closed.countDown();
+        }
+    }
+}
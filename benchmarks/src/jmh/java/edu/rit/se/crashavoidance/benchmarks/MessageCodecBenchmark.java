@@ -0,0 +1,74 @@
+package edu.rit.se.crashavoidance.benchmarks;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.se.crashavoidance.network.Message;
+import edu.rit.se.crashavoidance.network.MessageCodec;
+import edu.rit.se.crashavoidance.network.MessageFormatException;
+import edu.rit.se.crashavoidance.network.MessageType;
+
+/**
+ * Encode and decode cost of a Message with Java serialization and with MessageCodec
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageCodecBenchmark {
+
+    @Param({"32", "1024", "65536"})
+    public int payloadSize;
+
+    private Message message;
+    private byte[] serialized;
+    private byte[] encoded;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setUp() {
+        byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        message = new Message(MessageType.IMAGE, payload);
+        serialized = SerializationUtils.serialize(message);
+        encoded = MessageCodec.encode(message);
+        directBuffer = ByteBuffer.allocateDirect(MessageCodec.encodedLength(message));
+    }
+
+    @Benchmark
+    public byte[] serializationEncode() {
+        return SerializationUtils.serialize(message);
+    }
+
+    @Benchmark
+    public Message serializationDecode() {
+        return SerializationUtils.deserialize(serialized);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return MessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public ByteBuffer codecEncodeIntoDirectBuffer() {
+        directBuffer.clear();
+        MessageCodec.encode(message, directBuffer);
+        return directBuffer;
+    }
+
+    @Benchmark
+    public Message codecDecode() throws MessageFormatException {
+        return MessageCodec.decode(encoded);
+    }
+}
@@ -0,0 +1,110 @@
+package edu.rit.se.crashavoidance.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.se.crashavoidance.network.Message;
+import edu.rit.se.crashavoidance.network.MessageCodec;
+import edu.rit.se.crashavoidance.network.MessageType;
+import edu.rit.se.crashavoidance.network.NioEngine;
+import edu.rit.se.crashavoidance.network.NioTransport;
+import edu.rit.se.crashavoidance.network.Transport;
+
+/**
+ * Time for every simulated client to get one frame echoed back by a server, with clients and
+ * server sharing one NioEngine over localhost
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NioEngineBenchmark {
+
+    @Param({"1", "64", "256"})
+    public int clients;
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    private NioEngine engine;
+    private final List<NioTransport> transports = new ArrayList<>();
+    private byte[] frame;
+    private volatile CountDownLatch echoes;
+
+    private final Transport.Receiver echo = new Transport.Receiver() {
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            transport.write(frame);
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+        }
+    };
+
+    private final Transport.Receiver client = new Transport.Receiver() {
+        @Override
+        public void onFrame(Transport transport, byte[] frame) {
+            echoes.countDown();
+        }
+
+        @Override
+        public void onClosed(Transport transport, IOException cause) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        engine = new NioEngine();
+        engine.start();
+        InetSocketAddress address = engine.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                new NioEngine.Acceptor() {
+                    @Override
+                    public void onAccepted(NioTransport transport) {
+                        transport.setReceiver(echo);
+                        try {
+                            transport.connect();
+                        } catch (IOException e) {
+                            transport.close();
+                        }
+                    }
+                });
+        for (int i = 0; i < clients; i++) {
+            NioTransport transport = engine.open(address);
+            transport.setReceiver(client);
+            transport.connect();
+            transports.add(transport);
+        }
+        frame = MessageCodec.encode(new Message(MessageType.TEXT, new byte[payloadSize]));
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public void echoFromEveryClient() throws InterruptedException {
+        echoes = new CountDownLatch(clients);
+        for (NioTransport transport : transports) {
+            transport.write(frame);
+        }
+        if (!echoes.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Echoes timed out");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.rit.se.crashavoidance.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.se.crashavoidance.discovery.ServiceRowCache;
+import edu.rit.se.crashavoidance.discovery.TxtRecordFormatter;
+
+/**
+ * Cost of building the device info text for one row of the service list
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServiceListFormattingBenchmark {
+
+    @Param({"2", "8", "32"})
+    public int recordEntries;
+
+    private String status;
+    private Map<String, String> record;
+    private final ServiceRowCache rowCache = new ServiceRowCache();
+
+    @Setup
+    public void setUp() {
+        status = "Available";
+        record = new HashMap<>();
+        record.put("Name", "Android_5f3c");
+        record.put("Address", "a2:0b:ba:c4:5f:3c");
+        for (int i = record.size(); i < recordEntries; i++) {
+            record.put("key" + i, "value" + i);
+        }
+    }
+
+    /**
+     * The string concatenation AvailableServicesListViewAdapter.getView originally used
+     */
+    @Benchmark
+    public String concatenation() {
+        String strTxtRecord = "";
+        for (Map.Entry<String, String> entry : record.entrySet()) {
+            strTxtRecord += entry.getKey() + ": " + entry.getValue() + "\n";
+        }
+        return status + "\n" + strTxtRecord;
+    }
+
+    @Benchmark
+    public String txtRecordFormatter() {
+        return TxtRecordFormatter.format(status, record);
+    }
+
+    /**
+     * Binding a row whose device has not changed, as when scrolling through the list
+     */
+    @Benchmark
+    public ServiceRowCache.Row cachedRow() {
+        return rowCache.get("a2:0b:ba:c4:5f:3c", "Android_5f3c", status, record);
+    }
+}
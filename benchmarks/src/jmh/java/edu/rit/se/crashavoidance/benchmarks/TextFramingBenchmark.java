@@ -0,0 +1,89 @@
+package edu.rit.se.crashavoidance.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import edu.rit.se.crashavoidance.network.FrameSink;
+import edu.rit.se.crashavoidance.network.Message;
+import edu.rit.se.crashavoidance.network.MessageBatch;
+import edu.rit.se.crashavoidance.network.MessageCodec;
+import edu.rit.se.crashavoidance.network.MessageFormatException;
+import edu.rit.se.crashavoidance.network.MessageType;
+import edu.rit.se.crashavoidance.network.StreamFraming;
+
+/**
+ * Cost of turning chat text into frames and reading frames back off a byte stream
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TextFramingBenchmark {
+
+    private static final int FRAMES_PER_STREAM = 16;
+
+    @Param({"Hi", "A longer chat message that someone typed on a phone keyboard in one go"})
+    public String text;
+
+    private String author;
+    private List<byte[]> frames;
+    private byte[] stream;
+    private byte[] batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        author = "Brett";
+        frames = new ArrayList<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FrameSink sink = StreamFraming.sinkFor(output);
+        for (int i = 0; i < FRAMES_PER_STREAM; i++) {
+            byte[] frame = frameText();
+            frames.add(frame);
+            sink.write(frame);
+        }
+        stream = output.toByteArray();
+        batch = MessageBatch.encode(frames);
+    }
+
+    /**
+     * The send button's path from typed text to an encoded frame
+     */
+    @Benchmark
+    public byte[] frameText() {
+        byte[] messageBytes = (author + ": " + text).getBytes();
+        return MessageCodec.encode(new Message(MessageType.TEXT, messageBytes));
+    }
+
+    @Benchmark
+    public int readFramesFromStream() throws IOException {
+        DataInputStream input = StreamFraming.frameInput(new ByteArrayInputStream(stream));
+        int count = 0;
+        while (StreamFraming.readFrame(input) != null) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public byte[] encodeBatch() {
+        return MessageBatch.encode(frames);
+    }
+
+    @Benchmark
+    public List<Message> decodeBatch() throws MessageFormatException {
+        return MessageBatch.decode(MessageCodec.decode(batch));
+    }
+}